@@ -1,5 +1,7 @@
 package com.kochudb.client;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -11,26 +13,53 @@ import java.util.HashSet;
 import java.util.Scanner;
 import java.util.Set;
 
+import com.kochudb.shared.BatchRequest;
+import com.kochudb.shared.Frames;
+import com.kochudb.shared.MultiGetRequest;
 import com.kochudb.shared.Request;
 import com.kochudb.shared.Response;
+import com.kochudb.shared.ScanRequest;
+import com.kochudb.shared.ScanResponse;
 
 public class Client {
     public static boolean alive = true;
 
     private static final Set<String> validInput = new HashSet<>(Arrays.asList("get", "set", "del"));
 
-    private static final String usage = "<< KochuDB CLI client >>\nUsage help:\n\tset <key> <val>\n\tget <key>\n\tdel <key>\n\n";
+    private static final String usage = "<< KochuDB CLI client >>\nUsage help:\n\tset <key> <val>\n\tget <key>\n\tdel <key>\n\tmget <key> [<key> ...]\n\tmset <key> <val> [<key> <val> ...]\n\tscan <startKey> <endKey|*> [limit]\n\tprefix <prefix> [limit]\n\n";
+
+    private static final int DEFAULT_SCAN_LIMIT = 100;
+
+    // retries of a request the server turned away for now, e.g. during a write
+    // stall, with a pause doubling from RETRY_BACKOFF_MILLIS
+    static final int MAX_RETRIES = 5;
+    static final long RETRY_BACKOFF_MILLIS = 100L;
 
     static Socket socket = null;
 
+    // requests go as frames over one connection to a server in nio mode, set by
+    // starting the client with "nio"
+    static boolean framed;
+    private static DataInputStream in;
+    private static DataOutputStream out;
+
+    /**
+     * source of the responses to a request
+     */
+    @FunctionalInterface
+    interface Replies {
+        Object next() throws IOException, ClassNotFoundException;
+    }
+
     private static String prompt = "> ";
 
     public static void main(String[] args) throws UnknownHostException, ClassNotFoundException, IOException {
         // load test data
-        if (args.length == 1 && "load".equals(args[0])) {
+        if (args.length >= 1 && "load".equals(args[0])) {
             WriteThroughputTest.main(args);
             return;
         }
+        framed = args.length >= 1 && "nio".equals(args[0]);
 
         Runtime.getRuntime().addShutdownHook(new Thread() {
             public void run() {
@@ -54,19 +83,31 @@ public class Client {
                 if ("bye".equalsIgnoreCase(input) || input == null)
                     break;
 
-                if (input.length() < 3 || !validInput.contains(input.substring(0, 3).toLowerCase())) {
-                    System.out.print("> ");
+                if (input.startsWith("scan ") || input.startsWith("prefix ")) {
+                    scan(createScanReq(input));
+                    System.out.print(prompt);
                     continue;
                 }
 
-                Request dto = createReq(input);
-                socket = new Socket("localhost", 2222);
+                if (input.startsWith("mget ")) {
+                    scan(createMultiGetReq(input));
+                    System.out.print(prompt);
+                    continue;
+                }
 
-                ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
-                oos.writeObject(dto);
+                if (input.startsWith("mset ")) {
+                    Response res = send(createBatchReq(input));
+                    System.out.println(new String(res.value(), StandardCharsets.UTF_8));
+                    System.out.print(prompt);
+                    continue;
+                }
 
-                ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
-                Response res = (Response) ois.readObject();
+                if (input.length() < 3 || !validInput.contains(input.substring(0, 3).toLowerCase())) {
+                    System.out.print("> ");
+                    continue;
+                }
+
+                Response res = send(createReq(input));
 
                 System.out.println(new String(res.value(), StandardCharsets.UTF_8));
 
@@ -88,6 +129,117 @@ public class Client {
 
     }
 
+    /**
+     * send a request, again after a growing pause for as long as the server asks
+     * to retry it, up to MAX_RETRIES times
+     *
+     * @param dto Request or BatchRequest
+     * @return the last response
+     */
+    static Response send(Object dto) throws IOException, ClassNotFoundException, InterruptedException {
+        Response res = null;
+        for (int attempt = 0; attempt <= MAX_RETRIES; attempt++) {
+            if (attempt > 0)
+                Thread.sleep(RETRY_BACKOFF_MILLIS << (attempt - 1));
+
+            res = (Response) request(dto).next();
+            if (!framed)
+                socket.close();
+
+            if (!res.isRetryable())
+                break;
+        }
+        return res;
+    }
+
+    /**
+     * send a scan or multi-get request and print the chunks of results as they
+     * arrive
+     *
+     * @param dto ScanRequest or MultiGetRequest
+     */
+    static void scan(Object dto) throws IOException, ClassNotFoundException {
+        Replies replies = request(dto);
+        ScanResponse chunk;
+        do {
+            chunk = (ScanResponse) replies.next();
+            for (Response res : chunk.entries())
+                System.out.println(new String(res.key(), StandardCharsets.UTF_8) + " = "
+                        + new String(res.value(), StandardCharsets.UTF_8));
+        } while (chunk.hasMore());
+    }
+
+    /**
+     * send a request, on a new connection, or as a frame on the open one in nio
+     * mode
+     *
+     * @param dto request
+     * @return responses to the request
+     */
+    static Replies request(Object dto) throws IOException {
+        if (framed) {
+            if (socket == null || socket.isClosed()) {
+                socket = new Socket("localhost", 2222);
+                in = new DataInputStream(socket.getInputStream());
+                out = new DataOutputStream(socket.getOutputStream());
+            }
+            Frames.write(out, dto);
+            return () -> Frames.read(in);
+        }
+
+        socket = new Socket("localhost", 2222);
+        ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+        oos.writeObject(dto);
+
+        ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+        return ois::readObject;
+    }
+
+    static ScanRequest createScanReq(String input) {
+        String[] tokens = input.trim().split("\\s+");
+        boolean prefix = "prefix".equals(tokens[0]);
+        int numKeys = prefix ? 1 : 2;
+
+        if (tokens.length < numKeys + 1 || tokens.length > numKeys + 2)
+            throw new IllegalArgumentException("Invalid input");
+
+        int limit = tokens.length == numKeys + 2 ? Integer.parseInt(tokens[numKeys + 1]) : DEFAULT_SCAN_LIMIT;
+        if (prefix)
+            return new ScanRequest("prefix", tokens[1], null, limit);
+
+        return new ScanRequest("scan", tokens[1], "*".equals(tokens[2]) ? null : tokens[2], limit);
+    }
+
+    /**
+     * keys of "mget k1 k2 ..."
+     *
+     * @param input command line
+     * @return MultiGetRequest
+     */
+    static MultiGetRequest createMultiGetReq(String input) {
+        String[] tokens = input.trim().split("\\s+");
+        if (tokens.length < 2)
+            throw new IllegalArgumentException("Invalid input");
+        return new MultiGetRequest(Arrays.copyOfRange(tokens, 1, tokens.length));
+    }
+
+    /**
+     * batch of sets from "mset k1 v1 k2 v2 ...", values without spaces
+     *
+     * @param input command line
+     * @return BatchRequest
+     */
+    static BatchRequest createBatchReq(String input) {
+        String[] tokens = input.trim().split("\\s+");
+        if (tokens.length < 3 || tokens.length % 2 == 0)
+            throw new IllegalArgumentException("Invalid input");
+
+        Request[] operations = new Request[tokens.length / 2];
+        for (int i = 0; i < operations.length; i++)
+            operations[i] = new Request("set", tokens[2 * i + 1], tokens[2 * i + 2].getBytes());
+        return new BatchRequest(operations);
+    }
+
     static Request createReq(String input) {
         if (input.length() < 3 || input.charAt(3) != ' ')
             throw new IllegalArgumentException("Invalid input");
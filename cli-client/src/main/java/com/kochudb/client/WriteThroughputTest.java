@@ -11,6 +11,7 @@ import java.util.Map;
 import java.util.Queue;
 import java.util.Random;
 
+import com.kochudb.shared.BatchRequest;
 import com.kochudb.shared.Request;
 import com.kochudb.shared.Response;
 
@@ -194,29 +195,64 @@ public class WriteThroughputTest {
         return map;
     }
 
+    /**
+     * write a set of keys as a single batch, one round trip and one WAL record
+     *
+     * @param map keys and values
+     */
+    public static void insertBatch(Map<String, String> map) throws IOException, ClassNotFoundException {
+        Request[] operations = new Request[map.size()];
+        int i = 0;
+        for (Map.Entry<String, String> e : map.entrySet())
+            operations[i++] = new Request("set".getBytes(), e.getKey().getBytes(), e.getValue().getBytes());
+
+        try {
+            Client.send(new BatchRequest(operations));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     public static void insert(Map<String, String> map)
             throws UnknownHostException, IOException, ClassNotFoundException {
         Socket socket = null;
 
         for (Map.Entry<String, String> e : map.entrySet()) {
-            socket = new Socket("localhost", 2222);
-
             Request dto = new Request("set".getBytes(), e.getKey().getBytes(), e.getValue().getBytes());
-            ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
-            oos.writeObject(dto);
-            oos.flush();
+            Response res;
+            int attempt = 0;
+            do {
+                // stalled writes are sent again after a pause
+                if (attempt > 0)
+                    pause(Client.RETRY_BACKOFF_MILLIS << (attempt - 1));
 
-            ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
-            Response res = (Response) ois.readObject();
-            // AssertEquals(res.getData(), "ok");
+                socket = new Socket("localhost", 2222);
+                ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+                oos.writeObject(dto);
+                oos.flush();
+
+                ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+                res = (Response) ois.readObject();
+                // AssertEquals(res.getData(), "ok");
+            } while (res.isRetryable() && attempt++ < Client.MAX_RETRIES);
         }
 
         if (socket != null)
             socket.close();
     }
 
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     public static void main(String[] args) throws UnknownHostException, ClassNotFoundException, IOException {
         int sets = 100, reps = 100, totalInserts = sets * reps;
+        // "load batch" writes each set as one batch instead of key by key
+        boolean batched = args.length > 1 && "batch".equals(args[1]);
 
         Queue<Map<String, String>> queue = new LinkedList<>();
         while (sets-- > 0) {
@@ -229,7 +265,10 @@ public class WriteThroughputTest {
         while (!queue.isEmpty()) {
             Map<String, String> map = queue.poll();
             long s = System.nanoTime();
-            insert(map);
+            if (batched)
+                insertBatch(map);
+            else
+                insert(map);
             long curTimeInNanos = System.nanoTime() - s;
             System.out.println("Time took for set " + sets++ + ": " + (curTimeInNanos / 1_000_000) + "ms");
             totalTimeInNanos += curTimeInNanos;
@@ -0,0 +1,21 @@
+package com.kochudb.shared;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Request to apply many writes atomically. command is "batch", each operation
+ * a "set" or "del" Request. The server answers with a single Response.
+ */
+public record BatchRequest(byte[] command, Request[] operations) implements Serializable {
+
+    public BatchRequest(Request[] operations) {
+        this("batch".getBytes(), operations);
+    }
+
+    @Override
+    public String toString() {
+        return "[command=" + new String(command, StandardCharsets.UTF_8) + ", operations=" + operations.length + "]";
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.kochudb.shared;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * Length prefixed frames of the nio server mode: [len 4 bytes, serialized
+ * object]. A connection carries any number of requests, each answered by one
+ * frame, or by a frame per chunk for a scan.
+ */
+public final class Frames {
+
+    public static final int HEADER_SIZE = Integer.BYTES;
+
+    // largest frame accepted, enough for the biggest WriteBatch
+    public static final int MAX_FRAME_SIZE = (1 << 20) * 72;
+
+    private Frames() {
+    }
+
+    public static byte[] serialize(Object dto) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(dto);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static Object deserialize(byte[] bytes, int offset, int length) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes, offset, length))) {
+            return ois.readObject();
+        }
+    }
+
+    /**
+     * write an object as one frame and flush it
+     *
+     * @param out stream of the connection
+     * @param dto request or response
+     */
+    public static void write(DataOutputStream out, Object dto) throws IOException {
+        byte[] bytes = serialize(dto);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.flush();
+    }
+
+    /**
+     * read the next frame
+     *
+     * @param in stream of the connection
+     * @return request or response
+     */
+    public static Object read(DataInputStream in) throws IOException, ClassNotFoundException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_SIZE)
+            throw new StreamCorruptedException("Invalid frame length " + length);
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return deserialize(bytes, 0, length);
+    }
+}
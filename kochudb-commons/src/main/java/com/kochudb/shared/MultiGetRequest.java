@@ -0,0 +1,30 @@
+package com.kochudb.shared;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Request for the values of several keys, read at the same point in time.
+ * command is "mget". The server answers with a single ScanResponse holding one
+ * Response per key, in the order of keys, with an empty value for a key not
+ * found.
+ */
+public record MultiGetRequest(byte[] command, byte[][] keys) implements Serializable {
+
+    public MultiGetRequest(String... keys) {
+        this("mget".getBytes(), toBytes(keys));
+    }
+
+    private static byte[][] toBytes(String[] keys) {
+        byte[][] bytes = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++)
+            bytes[i] = keys[i].getBytes();
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "[command=" + new String(command, StandardCharsets.UTF_8) + ", keys=" + keys.length + "]";
+    }
+
+}
@@ -8,6 +8,10 @@ import java.time.format.DateTimeFormatter;
 
 public record Response(byte[] key, byte[] value, byte[] lastModified) implements Serializable {
 
+    // value of a response to a request that was turned away for now and may be
+    // sent again, e.g. while writes are stalled
+    public static final String RETRY_PREFIX = "Retry: ";
+
     public Response(String key, String value, byte[] lastModified) {
         this(key.getBytes(), value.getBytes(), lastModified);
     }
@@ -25,6 +29,16 @@ public record Response(byte[] key, byte[] value, byte[] lastModified) implements
         return DateTimeFormatter.ISO_DATE_TIME.withZone(ZoneId.of("UTC")).format(instant);
     }
 
+    /**
+     * whether the request was turned away for now and should be sent again after
+     * a while
+     *
+     * @return boolean
+     */
+    public boolean isRetryable() {
+        return value != null && new String(value, StandardCharsets.UTF_8).startsWith(RETRY_PREFIX);
+    }
+
     public String print() {
         return new String(value, StandardCharsets.UTF_8) + " ( lastModified at " + (toISO(bytesToLong(lastModified)))
                 + " )";
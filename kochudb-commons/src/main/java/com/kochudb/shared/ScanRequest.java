@@ -0,0 +1,24 @@
+package com.kochudb.shared;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Request for a range of keys. command is "scan", for the keys in [startKey,
+ * endKey), or "prefix", for the keys starting with startKey. An empty endKey
+ * means no upper bound.
+ */
+public record ScanRequest(byte[] command, byte[] startKey, byte[] endKey, int limit) implements Serializable {
+
+    public ScanRequest(String command, String startKey, String endKey, int limit) {
+        this(command.getBytes(), startKey.getBytes(), endKey == null ? new byte[0] : endKey.getBytes(), limit);
+    }
+
+    @Override
+    public String toString() {
+        return "[command=" + new String(command, StandardCharsets.UTF_8) + ", startKey="
+                + new String(startKey, StandardCharsets.UTF_8) + ", endKey="
+                + new String(endKey, StandardCharsets.UTF_8) + ", limit=" + limit + "]";
+    }
+
+}
@@ -0,0 +1,11 @@
+package com.kochudb.shared;
+
+import java.io.Serializable;
+
+/**
+ * One chunk of the results of a ScanRequest. The server writes chunks one after
+ * another on the same stream, the last one has hasMore set to false.
+ */
+public record ScanResponse(Response[] entries, boolean hasMore) implements Serializable {
+
+}
@@ -4,7 +4,13 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.nio.charset.StandardCharsets;
 
 import javax.xml.stream.events.StartDocument;
@@ -35,4 +41,49 @@ class DTOTest {
         final String value = "val";
         assertEquals(value, new String(requestUnderTest.value(), StandardCharsets.UTF_8));
     }
+
+    @Test
+    void testScanRequest() {
+        ScanRequest scan = new ScanRequest("scan", "a", null, 10);
+        assertEquals("a", new String(scan.startKey(), StandardCharsets.UTF_8));
+        assertEquals(0, scan.endKey().length);
+        assertEquals(10, scan.limit());
+    }
+
+    @Test
+    void testBatchRequest() {
+        BatchRequest batch = new BatchRequest(
+                new Request[] { new Request("set", "a", "1".getBytes()), new Request("del", "b", null) });
+        assertEquals("batch", new String(batch.command(), StandardCharsets.UTF_8));
+        assertEquals(2, batch.operations().length);
+    }
+
+    @Test
+    void testMultiGetRequest() {
+        MultiGetRequest mget = new MultiGetRequest("b", "a", "b");
+        assertEquals("mget", new String(mget.command(), StandardCharsets.UTF_8));
+        assertEquals(3, mget.keys().length);
+        assertEquals("a", new String(mget.keys()[1], StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testFrames() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Frames.write(out, new Request("get", "a", null));
+        Frames.write(out, new MultiGetRequest("a", "b"));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals("a", new String(((Request) Frames.read(in)).key(), StandardCharsets.UTF_8));
+        assertEquals(2, ((MultiGetRequest) Frames.read(in)).keys().length);
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    void testRetryableResponse() {
+        byte[] lastModified = new byte[Long.BYTES];
+        assertTrue(new Response(null, (Response.RETRY_PREFIX + "busy").getBytes(), lastModified).isRetryable());
+        assertFalse(new Response("k", "v", lastModified).isRetryable());
+        assertFalse(new Response(new byte[0], (byte[]) null, lastModified).isRetryable());
+    }
 }
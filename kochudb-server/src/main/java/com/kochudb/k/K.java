@@ -1,5 +1,7 @@
 package com.kochudb.k;
 
+import com.kochudb.shared.Response;
+
 public final class K {
 
     // props
@@ -8,13 +10,79 @@ public final class K {
     // 5 times the available cores
     public static final String DEFAULT_POOL_SIZE = Integer.toString(5 * Runtime.getRuntime().availableProcessors());
 
+    // server.mode: blocking (a connection and a querier thread per request) or
+    // nio (long lived connections served by a few selector threads)
+    public static final String DEFAULT_SERVER_MODE = "blocking";
+    public static final String DEFAULT_IO_THREADS = Integer
+            .toString(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    // read buffer of a connection, grown as the bytes of a larger frame arrive
+    public static final int NIO_BUFFER_SIZE = 1 << 14;
+    // read buffers held by all connections together, beyond it reading waits
+    public static final long NIO_MAX_READ_MEMORY = (1L << 20) * 256;
+    // time between attempts to read from connections waiting for buffer memory
+    public static final long NIO_READ_RETRY_MILLIS = 10;
+    // read buffers kept for reuse by each selector thread
+    public static final int NIO_POOLED_BUFFERS = 256;
+    // requests of a connection queued before it is read from again
+    public static final int NIO_MAX_PIPELINED = 64;
+    // bytes of responses queued on a connection before it stops reading requests
+    // and producing responses, until half of them are written
+    public static final int NIO_MAX_PENDING_OUTPUT = (1 << 20) * 4;
+
     // tree
     public static final int DEFAULT_MEMTABLE_MAX_SIZE = 2;
+    public static final String DEFAULT_MEMTABLE_TYPE = "concurrent";
     public static final int VALUE_MAX_SIZE = (1 << 20) * 4;
+    // keys and values of one WriteBatch, all of which go into a single WAL record
+    public static final int WRITE_BATCH_MAX_SIZE = (1 << 20) * 64;
+    public static final String DEFAULT_BLOOM_BITS_PER_KEY = "10";
+
+    // write-ahead log
+    public static final String DEFAULT_WAL_DIR = "WAL";
+    public static final String DEFAULT_WAL_SYNC = "group";
+    public static final String DEFAULT_WAL_SYNC_INTERVAL_MS = "100";
+    public static final String DEFAULT_WAL_RECOVERY_THREADS = Integer.toString(Runtime.getRuntime().availableProcessors());
+    public static final String DEFAULT_COMPACTION_THREADS = Integer
+            .toString(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    public static final String DEFAULT_COMPACTION_STRATEGY = "leveled";
+    public static final String DEFAULT_COMPACTION_TIERED_RUNS = "4";
+    public static final String DEFAULT_WRITE_SLOWDOWN_MEMTABLES = "4";
+    public static final String DEFAULT_WRITE_STOP_MEMTABLES = "8";
+    public static final String DEFAULT_WRITE_SLOWDOWN_L0_FILES = "20";
+    public static final String DEFAULT_WRITE_STOP_L0_FILES = "36";
+    public static final String DEFAULT_WRITE_STALL_TIMEOUT_MS = "1000";
+    public static final String WRITE_STALLED = Response.RETRY_PREFIX
+            + "Writes stalled, flushes or compactions are behind";
+    public static final String DEFAULT_RATE_LIMIT_MB = "0";
+    public static final String DEFAULT_RATE_LIMIT_AUTO_TUNE = "false";
+    public static final int WAL_FORMAT_VERSION = 1;
+    public static final int WAL_MAGIC = 0x4B57414C; // "KWAL"
+
+    // records per ScanResponse
+    public static final int SCAN_CHUNK_SIZE = 100;
 
     // file
     public static final String INDEX_FILE_EXT = ".idx";
     public static final String DATA_FILE_EXT = ".kdb";
+    public static final String FILTER_FILE_EXT = ".blm";
+
+    // SSTable format
+    public static final String DEFAULT_SSTABLE_FORMAT = "block";
+    public static final String DEFAULT_BLOCK_SIZE = "4096";
+    // block codec per level from L0 down, the last one for all deeper levels
+    public static final String DEFAULT_COMPRESSION = "lz4,lz4,lz4,lz4,deflate";
+    public static final String DEFAULT_READ_MODE = "file";
+    public static final String DEFAULT_BLOCK_CACHE_SIZE_MB = "64";
+    public static final String DEFAULT_ROW_CACHE_SIZE = "0";
+    public static final String DEFAULT_ROW_CACHE_ADMISSION = "frequent";
+    // 2: block entries carry a sequence number
+    // 3: block entries carry a type, so deletes are told apart from empty values
+    public static final int SSTABLE_FORMAT_VERSION = 3;
+    public static final long SSTABLE_MAGIC = 0x4B6F636875444221L; // "KochuDB!"
+    public static final int MANIFEST_FORMAT_VERSION = 1;
+    public static final int MANIFEST_MAGIC = 0x4B4D414E; // "KMAN"
+    // the MANIFEST is rewritten as a snapshot of the current Version beyond this
+    public static final int MANIFEST_MAX_SIZE_KB = 1024;
     public static final String L0_INDEX_FILE_PATTERN = "^[0-9]+\\.[0-9]+\\" + INDEX_FILE_EXT + "$";
     public static final String L0_DATA_FILE_PATTERN = "^[0-9]+\\.[0-9]+\\" + DATA_FILE_EXT + "$";
 
@@ -0,0 +1,91 @@
+package com.kochudb.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read buffers of one selector thread. A connection holds a buffer only while
+ * it has a frame partly read, so that idle connections cost no buffer memory.
+ * The buffers held by connections count against a limit shared by all pools
+ * of the server. Used by its own thread only, apart from the shared count.
+ */
+class BufferPool {
+
+    private final int bufferSize;
+    private final int capacity;
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<ByteBuffer>();
+
+    // bytes of buffers held by connections of all pools, and the limit on it
+    private final AtomicLong held;
+    private final long maxHeld;
+
+    /**
+     * Constructor
+     *
+     * @param bufferSize size of each buffer
+     * @param capacity   buffers kept for reuse, more are left to the GC
+     * @param held       bytes held by connections, shared by the pools of a server
+     * @param maxHeld    limit on held
+     */
+    BufferPool(int bufferSize, int capacity, AtomicLong held, long maxHeld) {
+        this.bufferSize = bufferSize;
+        this.capacity = capacity;
+        this.held = held;
+        this.maxHeld = maxHeld;
+    }
+
+    int bufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * a buffer of the pool size
+     *
+     * @return ByteBuffer, or null if the limit is reached
+     */
+    ByteBuffer acquire() {
+        if (!reserve(bufferSize))
+            return null;
+        ByteBuffer buf = free.poll();
+        return buf != null ? buf : ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * move the contents of a buffer, in write mode, to a larger one
+     *
+     * @param buf  buffer, given back if a larger one is had
+     * @param size size of the larger buffer
+     * @return ByteBuffer in write mode, or null if the limit is reached
+     */
+    ByteBuffer grow(ByteBuffer buf, int size) {
+        if (!reserve(size))
+            return null;
+        ByteBuffer larger = ByteBuffer.allocate(size).put(buf.flip());
+        release(buf);
+        return larger;
+    }
+
+    /**
+     * give back a buffer. Buffers of another size, grown for a large frame, are
+     * not kept.
+     *
+     * @param buf buffer
+     */
+    void release(ByteBuffer buf) {
+        held.addAndGet(-buf.capacity());
+        if (buf.capacity() == bufferSize && free.size() < capacity)
+            free.push(buf.clear());
+    }
+
+    private boolean reserve(int size) {
+        for (long current = held.get(); current + size <= maxHeld; current = held.get())
+            if (held.compareAndSet(current, current + size))
+                return true;
+        return false;
+    }
+
+    int pooled() {
+        return free.size();
+    }
+}
@@ -0,0 +1,350 @@
+package com.kochudb.server;
+
+import static com.kochudb.k.K.NIO_MAX_PENDING_OUTPUT;
+import static com.kochudb.k.K.NIO_MAX_PIPELINED;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.kochudb.shared.Frames;
+import com.kochudb.tasks.Querier;
+
+/**
+ * A client connection of the nio server. Its Reactor reads frames into a pooled
+ * buffer and writes queued responses back; the requests decoded run on the
+ * query pool one at a time, so that responses go out in request order.
+ *
+ * No thread waits on a slow client: once its responses pile up, the connection
+ * stops reading requests and leaves the rest of the running one unproduced
+ * until the reactor has written enough of them.
+ *
+ * Reads and the read buffer belong to the reactor thread. The request and
+ * response queues are shared with querier threads under the connection lock.
+ */
+class Connection {
+
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+    private final SocketChannel channel;
+    private final Reactor reactor;
+    private final SelectionKey key;
+
+    // buffer holding a partly read frame, null while none is
+    private ByteBuffer in;
+
+    // requests read and not yet answered, the head one running if busy
+    private final ArrayDeque<Object> requests = new ArrayDeque<Object>();
+    private boolean busy;
+    private boolean readPaused;
+
+    // no read buffer memory was free on the last read
+    private boolean starved;
+
+    // frames of responses not yet written
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<ByteBuffer>();
+    private long pendingBytes;
+    private boolean flushScheduled;
+
+    // responses of the running request left for when the client catches up
+    private Iterator<Object> stalled;
+
+    private boolean closed;
+
+    /**
+     * Constructor, on the reactor thread
+     *
+     * @param channel  accepted channel, non-blocking
+     * @param reactor  reactor serving it
+     * @param selector selector of the reactor
+     */
+    Connection(SocketChannel channel, Reactor reactor, Selector selector) throws ClosedChannelException {
+        this.channel = channel;
+        this.reactor = reactor;
+        this.key = channel.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * read what the channel has and decode every complete frame, on the reactor
+     * thread
+     */
+    void read() {
+        if (in == null && (in = reactor.buffers().acquire()) == null) {
+            starve();
+            return;
+        }
+
+        try {
+            // a full buffer holds the start of a frame larger than it
+            if (!in.hasRemaining() && !grow())
+                return;
+
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            decode();
+        } catch (IOException | ClassNotFoundException e) {
+            logger.warn("Closing connection {}: {}", remoteAddress(), e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * make room for more of the frame at the start of the buffer. The buffer
+     * doubles up to the frame size, so that what a frame header claims is only
+     * allocated as its bytes arrive.
+     *
+     * @return false if no buffer memory is free
+     */
+    private boolean grow() {
+        int frameSize = Frames.HEADER_SIZE + in.getInt(0);
+        ByteBuffer larger = reactor.buffers().grow(in, (int) Math.min(frameSize, 2L * in.capacity()));
+        if (larger == null) {
+            starve();
+            return false;
+        }
+        in = larger;
+        return true;
+    }
+
+    private void decode() throws IOException, ClassNotFoundException {
+        in.flip();
+        while (in.remaining() >= Frames.HEADER_SIZE) {
+            int length = in.getInt(in.position());
+            if (length < 0 || length > Frames.MAX_FRAME_SIZE)
+                throw new StreamCorruptedException("Invalid frame length " + length);
+
+            int frameSize = Frames.HEADER_SIZE + length;
+            if (in.remaining() < frameSize)
+                break;
+
+            received(Frames.deserialize(in.array(), in.arrayOffset() + in.position() + Frames.HEADER_SIZE, length));
+            in.position(in.position() + frameSize);
+        }
+
+        if (!in.hasRemaining()) {
+            reactor.buffers().release(in);
+            in = null;
+            return;
+        }
+
+        // the rest of a large frame goes back to a pooled buffer if it fits
+        BufferPool buffers = reactor.buffers();
+        ByteBuffer pooled;
+        if (in.capacity() > buffers.bufferSize() && in.remaining() <= buffers.bufferSize()
+                && (pooled = buffers.acquire()) != null) {
+            pooled.put(in);
+            buffers.release(in);
+            in = pooled;
+        } else {
+            in.compact();
+        }
+    }
+
+    private void received(Object request) {
+        synchronized (this) {
+            requests.add(request);
+            // a client sending faster than it is answered is not read from for a while
+            if (requests.size() >= NIO_MAX_PIPELINED && !readPaused) {
+                readPaused = true;
+                updateInterest();
+            }
+            if (busy)
+                return;
+            busy = true;
+        }
+        dispatch();
+    }
+
+    /**
+     * run the next request on the query pool, or clear busy if there is none
+     */
+    private void dispatch() {
+        Object request;
+        synchronized (this) {
+            request = requests.poll();
+            if (request == null) {
+                busy = false;
+                return;
+            }
+            if (readPaused && requests.size() < NIO_MAX_PIPELINED / 2) {
+                readPaused = false;
+                reactor.execute(this::updateInterest);
+            }
+        }
+
+        submit(() -> answer(new Querier(request, reactor.storage()).answers()));
+    }
+
+    private void submit(Runnable task) {
+        try {
+            reactor.workers().execute(task);
+        } catch (RejectedExecutionException e) {
+            reactor.execute(this::close);
+        }
+    }
+
+    /**
+     * queue the responses of the running request, then go on with the next
+     * request, on a querier thread. If the client falls behind reading them, the
+     * rest is left to flush() to resume.
+     *
+     * @param answers responses not yet queued
+     */
+    private void answer(Iterator<Object> answers) {
+        try {
+            while (answers.hasNext()) {
+                if (!send(answers.next()))
+                    continue;
+                synchronized (this) {
+                    if (closed)
+                        return;
+                    if (pendingBytes > NIO_MAX_PENDING_OUTPUT) {
+                        stalled = answers;
+                        return;
+                    }
+                }
+            }
+        } catch (ClosedChannelException e) {
+            return;
+        } catch (IOException e) {
+            logger.error("Closing connection {}: {}", remoteAddress(), e.getMessage());
+            reactor.execute(this::close);
+            return;
+        }
+        dispatch();
+    }
+
+    /**
+     * queue a response to be written by the reactor, on a querier thread
+     *
+     * @param reply response
+     * @return true if the responses queued are beyond NIO_MAX_PENDING_OUTPUT
+     */
+    private boolean send(Object reply) throws IOException {
+        byte[] bytes = Frames.serialize(reply);
+        ByteBuffer frame = ByteBuffer.allocate(Frames.HEADER_SIZE + bytes.length).putInt(bytes.length).put(bytes)
+                .flip();
+
+        boolean schedule, backlogged;
+        synchronized (this) {
+            if (closed)
+                throw new ClosedChannelException();
+            outbound.add(frame);
+            pendingBytes += frame.capacity();
+            backlogged = pendingBytes > NIO_MAX_PENDING_OUTPUT;
+            schedule = !flushScheduled;
+            flushScheduled = true;
+        }
+        // the flush also stops reading once the responses are backlogged
+        if (schedule)
+            reactor.execute(this::flush);
+        return backlogged;
+    }
+
+    /**
+     * write queued responses in one gathering write, on the reactor thread. What
+     * the socket does not take now goes once it is writable again.
+     */
+    synchronized void flush() {
+        flushScheduled = false;
+        if (closed || outbound.isEmpty())
+            return;
+
+        try {
+            ByteBuffer[] frames = outbound.toArray(new ByteBuffer[0]);
+            channel.write(frames);
+            for (ByteBuffer frame : frames) {
+                if (frame.hasRemaining())
+                    break;
+                outbound.poll();
+                pendingBytes -= frame.capacity();
+            }
+        } catch (IOException e) {
+            logger.warn("Closing connection {}: {}", remoteAddress(), e.getMessage());
+            close();
+            return;
+        }
+
+        if (stalled != null && pendingBytes <= NIO_MAX_PENDING_OUTPUT / 2) {
+            Iterator<Object> answers = stalled;
+            stalled = null;
+            submit(() -> answer(answers));
+        }
+        updateInterest();
+    }
+
+    private void starve() {
+        synchronized (this) {
+            starved = true;
+            updateInterest();
+        }
+        reactor.starved(this);
+    }
+
+    /**
+     * read again after running out of buffer memory, on the reactor thread
+     */
+    synchronized void resumeReading() {
+        starved = false;
+        updateInterest();
+    }
+
+    /**
+     * read while the client is answered in time and there is buffer memory, and
+     * write while responses are queued, on the reactor thread
+     */
+    private synchronized void updateInterest() {
+        if (closed || !key.isValid())
+            return;
+
+        boolean reading = !readPaused && !starved && stalled == null && pendingBytes <= NIO_MAX_PENDING_OUTPUT;
+        key.interestOps((reading ? SelectionKey.OP_READ : 0) | (outbound.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+    }
+
+    /**
+     * close the channel and drop what is queued, on the reactor thread
+     */
+    void close() {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            requests.clear();
+            outbound.clear();
+            pendingBytes = 0;
+            stalled = null;
+        }
+
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close connection: {}", e.getMessage());
+        }
+        if (in != null) {
+            reactor.buffers().release(in);
+            in = null;
+        }
+    }
+
+    private Object remoteAddress() {
+        try {
+            return channel.getRemoteAddress();
+        } catch (IOException e) {
+            return "?";
+        }
+    }
+}
@@ -1,12 +1,24 @@
 package com.kochudb.server;
 
+import java.util.Iterator;
+import java.util.List;
+
 import com.kochudb.types.KochuDoc;
+import com.kochudb.types.WriteBatch;
 
 public interface KVStorage {
 
     public KochuDoc get(byte[] key);
 
+    public List<KochuDoc> multiGet(List<byte[]> keys);
+
     public KochuDoc set(KochuDoc doc);
 
     public KochuDoc del(byte[] key);
+
+    public KochuDoc write(WriteBatch batch);
+
+    public Iterator<KochuDoc> scan(byte[] startKey, byte[] endKey, int limit);
+
+    public Iterator<KochuDoc> prefix(byte[] prefix, int limit);
 }
@@ -1,7 +1,9 @@
 package com.kochudb.server;
 
+import static com.kochudb.k.K.DEFAULT_IO_THREADS;
 import static com.kochudb.k.K.DEFAULT_POOL_SIZE;
 import static com.kochudb.k.K.DEFAULT_PORT;
+import static com.kochudb.k.K.DEFAULT_SERVER_MODE;
 
 import java.io.IOException;
 import java.net.ServerSocket;
@@ -12,6 +14,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import com.kochudb.storage.LSMTree;
 import com.kochudb.tasks.Querier;
@@ -19,6 +22,8 @@ import com.kochudb.tasks.Querier;
 public class KochuDBServer extends Thread {
 
 	private static ServerSocket serverSocket;
+	// front end of server.mode=nio, null in blocking mode
+	private NioServer nioServer;
 	private KVStorage storageEngine;
 	private ThreadPoolExecutor queryPool;
 	private static Boolean alive = false;
@@ -30,31 +35,37 @@ public class KochuDBServer extends Thread {
 		int port = Integer.parseInt(context.getProperty("server.port", DEFAULT_PORT));
 		int maxParallelQueries = Integer.parseInt(context.getProperty("query.pool.size", DEFAULT_POOL_SIZE));
 
-		serverSocket = new ServerSocket(port);
-		System.out.println("Server accepting connections on " + port);
-
 		storageEngine = new LSMTree(context);
 		queryPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(maxParallelQueries);
 		queryResults = new LinkedList<Future<Boolean>>();
 
+		if ("nio".equals(context.getProperty("server.mode", DEFAULT_SERVER_MODE))) {
+			int ioThreads = Integer.parseInt(context.getProperty("server.io.threads", DEFAULT_IO_THREADS));
+			nioServer = new NioServer(port, ioThreads, storageEngine, queryPool);
+			System.out.println("Server accepting connections on " + port + " with " + ioThreads + " io threads");
+		} else {
+			serverSocket = new ServerSocket(port);
+			System.out.println("Server accepting connections on " + port);
+		}
+
 		alive = true;
 		context.put("alive", true);
 	}
 
 	@Override
 	public void run() {
-		listen();
+		if (nioServer != null)
+			listenNio();
+		else
+			listen();
 	}
 
 	public void listen() {
 		while (alive) {
 			try {
+				// the querier reads the request, a slow client holds up no accept
 				Future<Boolean> future = queryPool.submit(new Querier(serverSocket.accept(), storageEngine));
 				queryResults.offer(future);
-			} catch (ClassNotFoundException e) {
-				System.out.println("Server encountered ClassNotFound exception.");
-				e.printStackTrace();
-				alive = false;
 			} catch (IOException e) {
 				System.out.println(e.getMessage());
 				alive = false;
@@ -81,10 +92,30 @@ public class KochuDBServer extends Thread {
 		}
 	}
 
+	/**
+	 * serve the nio front end until terminated, then let running queries finish
+	 * before closing the connections
+	 */
+	private void listenNio() {
+		nioServer.listen();
+
+		queryPool.shutdown();
+		try {
+			queryPool.awaitTermination(1, TimeUnit.MINUTES);
+			nioServer.closeConnections();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		System.out.println("Server shut down gracefully");
+	}
+
 	// SIGINT+
 	public void terminate() throws IOException {
 		alive = false;
-		if (serverSocket != null) {
+		if (nioServer != null) {
+			System.out.println("Attempting clean shut down");
+			nioServer.close();
+		} else if (serverSocket != null) {
 			System.out.println("Attempting clean shut down");
 			serverSocket.close();
 		}
@@ -0,0 +1,140 @@
+package com.kochudb.server;
+
+import static com.kochudb.k.K.NIO_BUFFER_SIZE;
+import static com.kochudb.k.K.NIO_MAX_READ_MEMORY;
+import static com.kochudb.k.K.NIO_POOLED_BUFFERS;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Non-blocking front end: one acceptor selector hands connections round robin
+ * to a few Reactors, which read length prefixed frames (see Frames) and write
+ * responses back. Requests run on the query pool, so no thread waits on a
+ * client and idle connections cost no thread.
+ */
+public class NioServer {
+
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final Reactor[] reactors;
+    private final Thread[] reactorThreads;
+    private int next;
+
+    private volatile boolean alive = true;
+
+    /**
+     * Constructor, starts the reactor threads
+     *
+     * @param port      port to listen on, 0 for any free port
+     * @param ioThreads number of reactors
+     * @param storage   storage engine
+     * @param workers   query pool running the requests
+     */
+    public NioServer(int port, int ioThreads, KVStorage storage, ExecutorService workers) throws IOException {
+        this(port, ioThreads, storage, workers, NIO_MAX_READ_MEMORY);
+    }
+
+    /**
+     * Constructor, starts the reactor threads
+     *
+     * @param port          port to listen on, 0 for any free port
+     * @param ioThreads     number of reactors
+     * @param storage       storage engine
+     * @param workers       query pool running the requests
+     * @param maxReadMemory bytes of read buffers all connections may hold
+     */
+    NioServer(int port, int ioThreads, KVStorage storage, ExecutorService workers, long maxReadMemory)
+            throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        selector = Selector.open();
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        AtomicLong readMemory = new AtomicLong();
+        reactors = new Reactor[ioThreads];
+        reactorThreads = new Thread[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            BufferPool buffers = new BufferPool(NIO_BUFFER_SIZE, NIO_POOLED_BUFFERS, readMemory, maxReadMemory);
+            reactors[i] = new Reactor(storage, workers, buffers);
+            reactorThreads[i] = new Thread(reactors[i], "nio-reactor-" + i);
+            reactorThreads[i].start();
+        }
+    }
+
+    public int port() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * number of open client connections
+     *
+     * @return int
+     */
+    public int connections() {
+        int count = 0;
+        for (Reactor reactor : reactors)
+            count += reactor.connections();
+        return count;
+    }
+
+    /**
+     * accept connections until closed, then stop the reactors
+     */
+    public void listen() {
+        try {
+            while (alive) {
+                selector.select();
+                selector.selectedKeys().clear();
+
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    reactors[next++ % reactors.length].register(channel);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Acceptor failed: {}", e.getMessage());
+        } finally {
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close server channel: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * stop accepting connections
+     */
+    public void close() {
+        alive = false;
+        selector.wakeup();
+    }
+
+    /**
+     * close all connections and wait for the reactors to stop
+     */
+    public void closeConnections() throws InterruptedException {
+        for (Reactor reactor : reactors)
+            reactor.close();
+        for (Thread thread : reactorThreads)
+            thread.join();
+    }
+}
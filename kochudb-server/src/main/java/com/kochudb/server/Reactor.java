@@ -0,0 +1,164 @@
+package com.kochudb.server;
+
+import static com.kochudb.k.K.NIO_READ_RETRY_MILLIS;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Event loop of one selector thread of the nio server. It reads and writes the
+ * connections handed to it by the acceptor; other threads reach it through
+ * execute().
+ */
+class Reactor implements Runnable {
+
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+    private final Selector selector;
+    private final KVStorage storage;
+    private final ExecutorService workers;
+    private final BufferPool buffers;
+
+    // tasks to run on the loop thread: new connections, flushes and the like
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+    // connections not read from until buffer memory is free again
+    private final List<Connection> starved = new ArrayList<Connection>();
+
+    private volatile boolean alive = true;
+    private volatile Thread thread;
+
+    Reactor(KVStorage storage, ExecutorService workers, BufferPool buffers) throws IOException {
+        this.selector = Selector.open();
+        this.storage = storage;
+        this.workers = workers;
+        this.buffers = buffers;
+    }
+
+    KVStorage storage() {
+        return storage;
+    }
+
+    ExecutorService workers() {
+        return workers;
+    }
+
+    BufferPool buffers() {
+        return buffers;
+    }
+
+    /**
+     * serve a newly accepted connection
+     *
+     * @param channel non-blocking channel
+     */
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                new Connection(channel, this, selector);
+            } catch (IOException e) {
+                logger.warn("Failed to register connection: {}", e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        });
+    }
+
+    /**
+     * run a task on the loop thread, waking it up if needed
+     *
+     * @param task task
+     */
+    void execute(Runnable task) {
+        if (Thread.currentThread() == thread) {
+            task.run();
+            return;
+        }
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * retry reading from a connection that found no buffer memory, on the loop
+     * thread
+     *
+     * @param conn connection
+     */
+    void starved(Connection conn) {
+        starved.add(conn);
+    }
+
+    /**
+     * number of open connections
+     *
+     * @return int
+     */
+    int connections() {
+        return selector.keys().size();
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        try {
+            while (alive) {
+                selector.select(starved.isEmpty() ? 0L : NIO_READ_RETRY_MILLIS);
+
+                // those that find no memory again come back to the list
+                if (!starved.isEmpty()) {
+                    List<Connection> retry = new ArrayList<Connection>(starved);
+                    starved.clear();
+                    retry.forEach(Connection::resumeReading);
+                }
+
+                Runnable task;
+                while ((task = tasks.poll()) != null)
+                    task.run();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    Connection conn = (Connection) key.attachment();
+                    if (key.isValid() && key.isReadable())
+                        conn.read();
+                    if (key.isValid() && key.isWritable())
+                        conn.flush();
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Reactor failed: {}", e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys())
+                ((Connection) key.attachment()).close();
+            try {
+                selector.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close selector: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * stop the loop and close all its connections
+     */
+    void close() {
+        alive = false;
+        selector.wakeup();
+    }
+}
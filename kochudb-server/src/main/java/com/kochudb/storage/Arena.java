@@ -0,0 +1,197 @@
+package com.kochudb.storage;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.kochudb.utils.ByteUtil;
+
+/**
+ * Off-heap memory carved out of large direct buffers, called chunks. Memory is
+ * allocated by bumping a pointer and is never freed piecemeal: the whole arena
+ * is released in one step by close().
+ *
+ * Allocations are addressed by a long holding the chunk number in the high 32
+ * bits and the position in the chunk in the low 32 bits. Address 0 is never
+ * handed out and serves as null.
+ *
+ * Accesses are reference counted, like MappedReader: close() refuses new
+ * accesses and drops the arena's own reference, and the chunks are freed once
+ * readers in progress are done.
+ */
+public class Arena {
+
+    static final int ALIGNMENT = Long.BYTES;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.nativeOrder());
+
+    private final int chunkSize;
+
+    // chunks by number, replaced by a larger copy when a chunk is added
+    private volatile ByteBuffer[] chunks;
+    private volatile Chunk current;
+
+    private final AtomicLong allocated;
+
+    // 1 for the arena itself plus 1 per access in progress, 0 once released
+    private final AtomicInteger refs;
+
+    // no new accesses once closed, even while earlier ones are in progress
+    private volatile boolean closed;
+
+    /**
+     * Constructor
+     *
+     * @param chunkSize size of each chunk in bytes. Larger allocations get a chunk
+     *                  of their own.
+     */
+    public Arena(int chunkSize) {
+        this.chunkSize = chunkSize;
+        this.chunks = new ByteBuffer[0];
+        this.allocated = new AtomicLong();
+        this.refs = new AtomicInteger(1);
+
+        addChunk(null, 0);
+        // reserve address 0
+        current.top.set(ALIGNMENT);
+    }
+
+    /**
+     * allocate memory. Safe to call from any number of threads at once.
+     *
+     * @param size number of bytes
+     * @return address of the first byte, aligned to 8 bytes
+     */
+    public long allocate(int size) {
+        int aligned = (size + ALIGNMENT - 1) & -ALIGNMENT;
+        while (true) {
+            Chunk chunk = current;
+            int pos = chunk.top.getAndAdd(aligned);
+            if (pos >= 0 && pos <= chunk.buffer.capacity() - aligned) {
+                allocated.addAndGet(aligned);
+                return ((long) chunk.number << 32) | pos;
+            }
+            addChunk(chunk, aligned);
+        }
+    }
+
+    /**
+     * number of bytes allocated so far
+     *
+     * @return bytes
+     */
+    public long allocated() {
+        return allocated.get();
+    }
+
+    /**
+     * number of bytes held in chunks, allocated or not
+     *
+     * @return bytes
+     */
+    public long reserved() {
+        long reserved = 0L;
+        for (ByteBuffer chunk : chunks)
+            reserved += chunk.capacity();
+        return reserved;
+    }
+
+    /**
+     * chunk holding an address, positions within it are absolute
+     *
+     * @param address address
+     * @return direct buffer of the chunk
+     */
+    public ByteBuffer chunk(long address) {
+        return chunks[(int) (address >>> 32)];
+    }
+
+    public static int position(long address) {
+        return (int) address;
+    }
+
+    public long getLongVolatile(long address) {
+        return (long) LONGS.getVolatile(chunk(address), position(address));
+    }
+
+    public void setLongVolatile(long address, long value) {
+        LONGS.setVolatile(chunk(address), position(address), value);
+    }
+
+    public boolean compareAndSetLong(long address, long expected, long value) {
+        return LONGS.compareAndSet(chunk(address), position(address), expected, value);
+    }
+
+    public long getAndSetLong(long address, long value) {
+        return (long) LONGS.getAndSet(chunk(address), position(address), value);
+    }
+
+    /**
+     * take a reference before accessing the arena
+     *
+     * @return false if the arena is closed and must not be accessed
+     */
+    public boolean acquire() {
+        while (!closed) {
+            int count = refs.get();
+            if (count == 0)
+                return false;
+            if (refs.compareAndSet(count, count + 1))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * drop a reference taken by acquire()
+     */
+    public void release() {
+        if (refs.decrementAndGet() == 0) {
+            ByteBuffer[] freed = chunks;
+            chunks = new ByteBuffer[0];
+            for (ByteBuffer chunk : freed)
+                ByteUtil.freeDirectBuffer(chunk);
+        }
+    }
+
+    /**
+     * release all chunks, as soon as accesses in progress finish
+     */
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            release();
+        }
+    }
+
+    private synchronized void addChunk(Chunk full, int minSize) {
+        // another thread added one already
+        if (current != full)
+            return;
+
+        int number = chunks.length;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(chunkSize, minSize)).order(ByteOrder.nativeOrder());
+
+        ByteBuffer[] grown = Arrays.copyOf(chunks, number + 1);
+        grown[number] = buffer;
+        chunks = grown;
+        current = new Chunk(number, buffer);
+    }
+
+    private static final class Chunk {
+        final int number;
+        final ByteBuffer buffer;
+        final AtomicInteger top;
+
+        Chunk(int number, ByteBuffer buffer) {
+            this.number = number;
+            this.buffer = buffer;
+            this.top = new AtomicInteger();
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package com.kochudb.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.kochudb.types.KochuDoc;
+
+/**
+ * Lock-free skip list memTable whose nodes, keys and values all live off-heap in
+ * an Arena. The list is the same as ConcurrentSkipList, but links are arena
+ * addresses instead of object references, so an entry costs no Java objects at
+ * all and the memTable causes no garbage collection work until it is read.
+ *
+ * Node layout, 8 byte aligned:
+ *
+ * [value address 8 bytes, height 4 bytes, len(key) 4 bytes, next address 8
+ * bytes per level, key]
+ *
+ * Value layout:
+ *
+ * [lastModified 8 bytes, sequence 8 bytes, previous value address 8 bytes,
+ * len(value) 4 bytes or -1 for a deleted key, value]
+ *
+ * An update writes a new value pointing to the one it replaces, and swaps the
+ * value address of the node. The size of the memTable is the exact number of
+ * bytes allocated in the arena, including replaced values.
+ */
+public class ArenaMemTable implements MemTable {
+
+    static final int MAX_HEIGHT = ConcurrentSkipList.MAX_HEIGHT;
+
+    private static final int VALUE = 0, HEIGHT = 8, KEY_LENGTH = 12, NEXT = 16;
+    private static final int LAST_MODIFIED = 0, SEQUENCE = 8, PREVIOUS = 16, VALUE_LENGTH = 24, VALUE_BYTES = 28;
+
+    private final Arena arena;
+    private final long head;
+
+    private final AtomicInteger height;
+    private final AtomicInteger length;
+
+    /**
+     * Constructor
+     *
+     * @param chunkSize size of the arena's chunks in bytes
+     */
+    public ArenaMemTable(int chunkSize) {
+        arena = new Arena(chunkSize);
+        head = newNode(new byte[0], 0L, MAX_HEIGHT);
+        height = new AtomicInteger(1);
+        length = new AtomicInteger();
+    }
+
+    @Override
+    public void put(KochuDoc doc) {
+        byte[] key = doc.getKey().bytes();
+        long[] preds = new long[MAX_HEIGHT], succs = new long[MAX_HEIGHT];
+
+        if (!arena.acquire())
+            throw new IllegalStateException("MemTable is closed");
+        try {
+            long value = newValue(doc), node = 0L;
+            int nodeHeight = ConcurrentSkipList.randomHeight();
+
+            while (true) {
+                long found = findSplice(key, preds, succs);
+                if (found != 0L) {
+                    // a node allocated in a lost race stays unused
+                    long previous;
+                    do {
+                        previous = arena.getLongVolatile(found + VALUE);
+                        arena.setLongVolatile(value + PREVIOUS, previous);
+                    } while (!arena.compareAndSetLong(found + VALUE, previous, value));
+                    return;
+                }
+
+                if (node == 0L)
+                    node = newNode(key, value, nodeHeight);
+                for (int i = 0; i < nodeHeight; i++)
+                    arena.setLongVolatile(next(node, i), succs[i]);
+
+                // linking the bottom level makes the node visible, lost races retry from scratch
+                if (!arena.compareAndSetLong(next(preds[0], 0), succs[0], node))
+                    continue;
+
+                for (int i = 1; i < nodeHeight; i++) {
+                    while (!arena.compareAndSetLong(next(preds[i], i), succs[i], node)) {
+                        findSplice(key, preds, succs);
+                        arena.setLongVolatile(next(node, i), succs[i]);
+                    }
+                }
+                height.accumulateAndGet(nodeHeight, Math::max);
+
+                length.incrementAndGet();
+                return;
+            }
+        } finally {
+            arena.release();
+        }
+    }
+
+    @Override
+    public KochuDoc search(KochuDoc doc) {
+        return search(doc, Long.MAX_VALUE);
+    }
+
+    // only the versions down to the one visible at the snapshot are decoded
+    @Override
+    public KochuDoc search(KochuDoc doc, long snapshot) {
+        // a closed memTable was flushed, its records are found in level 0
+        if (!arena.acquire())
+            return null;
+
+        try {
+            byte[] key = doc.getKey().bytes();
+            long pred = head;
+            for (int level = height.get() - 1; level >= 0; level--) {
+                long cur = arena.getLongVolatile(next(pred, level));
+                int cmp;
+                while (cur != 0L && (cmp = compare(cur, key)) <= 0) {
+                    if (cmp == 0)
+                        return toDoc(cur, snapshot).visibleAt(snapshot);
+                    pred = cur;
+                    cur = arena.getLongVolatile(next(cur, level));
+                }
+            }
+            return null;
+        } finally {
+            arena.release();
+        }
+    }
+
+    @Override
+    public Iterator<KochuDoc> records() {
+        return records(new KochuDoc(new byte[0], null, 0L));
+    }
+
+    /**
+     * The iterator holds a reference to the arena until it is exhausted. An
+     * iterator abandoned earlier leaves the arena to the garbage collector.
+     */
+    @Override
+    public Iterator<KochuDoc> records(KochuDoc from) {
+        if (!arena.acquire())
+            return Collections.emptyIterator();
+
+        byte[] key = from.getKey().bytes();
+        long pred = head;
+        for (int level = height.get() - 1; level >= 0; level--) {
+            long cur = arena.getLongVolatile(next(pred, level));
+            while (cur != 0L && compare(cur, key) < 0) {
+                pred = cur;
+                cur = arena.getLongVolatile(next(cur, level));
+            }
+        }
+        long first = arena.getLongVolatile(next(pred, 0));
+
+        return new Iterator<KochuDoc>() {
+            long cur = first;
+            boolean released = false;
+
+            @Override
+            public boolean hasNext() {
+                if (cur != 0L)
+                    return true;
+
+                if (!released) {
+                    released = true;
+                    arena.release();
+                }
+                return false;
+            }
+
+            @Override
+            public KochuDoc next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+
+                KochuDoc doc = toDoc(cur, -1L);
+                cur = arena.getLongVolatile(ArenaMemTable.next(cur, 0));
+                return doc;
+            }
+        };
+    }
+
+    @Override
+    public int length() {
+        return length.get();
+    }
+
+    @Override
+    public long size() {
+        return arena.allocated();
+    }
+
+    /**
+     * release the arena, once reads in progress are done
+     */
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    private long newNode(byte[] key, long value, int nodeHeight) {
+        long node = arena.allocate(NEXT + nodeHeight * Long.BYTES + key.length);
+        ByteBuffer chunk = arena.chunk(node);
+        int pos = Arena.position(node);
+
+        chunk.putLong(pos + VALUE, value);
+        chunk.putInt(pos + HEIGHT, nodeHeight);
+        chunk.putInt(pos + KEY_LENGTH, key.length);
+        chunk.put(pos + NEXT + nodeHeight * Long.BYTES, key);
+        return node;
+    }
+
+    private long newValue(KochuDoc doc) {
+        byte[] bytes = doc.isTombstone() ? null : doc.getValue().bytes();
+        long value = arena.allocate(VALUE_BYTES + (bytes == null ? 0 : bytes.length));
+        ByteBuffer chunk = arena.chunk(value);
+        int pos = Arena.position(value);
+
+        chunk.putLong(pos + LAST_MODIFIED, doc.getLastModified());
+        chunk.putLong(pos + SEQUENCE, doc.getSequence());
+        chunk.putLong(pos + PREVIOUS, 0L);
+        chunk.putInt(pos + VALUE_LENGTH, bytes == null ? -1 : bytes.length);
+        if (bytes != null)
+            chunk.put(pos + VALUE_BYTES, bytes);
+        return value;
+    }
+
+    /**
+     * decode a node, newest version first, down to the first version at or below
+     * a sequence number
+     *
+     * @param node   node
+     * @param oldest sequence number to stop at, -1 for every version
+     * @return KochuDoc
+     */
+    private KochuDoc toDoc(long node, long oldest) {
+        ByteBuffer chunk = arena.chunk(node);
+        int pos = Arena.position(node);
+
+        byte[] key = new byte[chunk.getInt(pos + KEY_LENGTH)];
+        chunk.get(pos + NEXT + chunk.getInt(pos + HEIGHT) * Long.BYTES, key);
+
+        // the newest version, with the older ones linked behind it
+        KochuDoc first = null, last = null;
+        for (long value = arena.getLongVolatile(node + VALUE); value != 0L;) {
+            ByteBuffer valueChunk = arena.chunk(value);
+            int valuePos = Arena.position(value);
+
+            int valueLength = valueChunk.getInt(valuePos + VALUE_LENGTH);
+            long lastModified = valueChunk.getLong(valuePos + LAST_MODIFIED);
+            KochuDoc doc;
+            if (valueLength >= 0) {
+                byte[] bytes = new byte[valueLength];
+                valueChunk.get(valuePos + VALUE_BYTES, bytes);
+                doc = new KochuDoc(key, bytes, lastModified);
+            } else {
+                doc = KochuDoc.tombstone(key, lastModified);
+            }
+            doc.setSequence(valueChunk.getLong(valuePos + SEQUENCE));
+
+            if (first == null)
+                first = doc;
+            else
+                last.setPrevious(doc);
+            last = doc;
+            value = doc.getSequence() <= oldest ? 0L : valueChunk.getLong(valuePos + PREVIOUS);
+        }
+        return first;
+    }
+
+    /**
+     * find the nodes right before and right after the key on every level
+     *
+     * @param key   key
+     * @param preds last node with a smaller key, per level
+     * @param succs first node with a greater or equal key, per level
+     * @return node holding the key, or 0 if absent
+     */
+    private long findSplice(byte[] key, long[] preds, long[] succs) {
+        long pred = head, found = 0L;
+
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            long cur = arena.getLongVolatile(next(pred, level));
+            int cmp = -1;
+            while (cur != 0L && (cmp = compare(cur, key)) < 0) {
+                pred = cur;
+                cur = arena.getLongVolatile(next(cur, level));
+            }
+            if (cur != 0L && cmp == 0)
+                found = cur;
+
+            preds[level] = pred;
+            succs[level] = cur;
+        }
+        return found;
+    }
+
+    /**
+     * compare the key of a node with a key, unsigned, without copying it out of
+     * the arena
+     *
+     * @param node node address
+     * @param key  key
+     * @return negative, zero or positive as the node's key is smaller, equal or
+     *         greater
+     */
+    private int compare(long node, byte[] key) {
+        ByteBuffer chunk = arena.chunk(node);
+        int pos = Arena.position(node);
+        int keyLength = chunk.getInt(pos + KEY_LENGTH);
+        int start = pos + NEXT + chunk.getInt(pos + HEIGHT) * Long.BYTES;
+
+        int n = Math.min(keyLength, key.length);
+        for (int i = 0; i < n; i++) {
+            int a = chunk.get(start + i) & 0xFF, b = key[i] & 0xFF;
+            if (a != b)
+                return a - b;
+        }
+        return keyLength - key.length;
+    }
+
+    /**
+     * address of a node's next pointer on a level
+     */
+    private static long next(long node, int level) {
+        return node + NEXT + level * Long.BYTES;
+    }
+}
@@ -0,0 +1,157 @@
+package com.kochudb.storage;
+
+import static com.kochudb.k.K.SSTABLE_FORMAT_VERSION;
+import static com.kochudb.utils.ByteUtil.readVarInt;
+import static com.kochudb.utils.ByteUtil.readVarLong;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.kochudb.types.KochuDoc;
+
+/**
+ * Read side of a data block written by BlockBuilder. Holds the uncompressed
+ * contents of the block. Blocks of format version 1 have no sequence numbers,
+ * their records read as sequence 0. Blocks before format version 3 have no
+ * record types, an empty value marks a delete in them.
+ */
+public class Block {
+
+    private final ByteBuffer data;
+    private final int numRestarts;
+    private final int restartsOffset;
+    private final boolean sequenced, typed;
+
+    public Block(byte[] contents) {
+        this(contents, SSTABLE_FORMAT_VERSION);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param contents      uncompressed block
+     * @param formatVersion format version of the SSTable the block belongs to
+     */
+    public Block(byte[] contents, int formatVersion) {
+        this.data = ByteBuffer.wrap(contents);
+        this.sequenced = formatVersion >= 2;
+        this.typed = formatVersion >= 3;
+        this.numRestarts = data.getInt(contents.length - Integer.BYTES);
+        this.restartsOffset = contents.length - (numRestarts + 1) * Integer.BYTES;
+    }
+
+    /**
+     * look up a key in this block
+     *
+     * @param key key
+     * @return newest KochuDoc stored against the key, or null if not found
+     */
+    public KochuDoc get(byte[] key) {
+        // last restart point whose key is < key, the versions of a key may start
+        // before the restart point at one of them
+        int low = 0, high = numRestarts - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (Arrays.compareUnsigned(restartKey(mid), key) < 0)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+
+        Cursor cursor = new Cursor(restartPoint(low));
+        while (cursor.hasNext()) {
+            cursor.advance();
+            int cmp = Arrays.compareUnsigned(cursor.key, key);
+            if (cmp == 0)
+                return cursor.doc();
+            if (cmp > 0)
+                break;
+        }
+        return null;
+    }
+
+    /**
+     * all records of this block in key order
+     *
+     * @return Iterator
+     */
+    public Iterator<KochuDoc> iterator() {
+        return new Iterator<KochuDoc>() {
+            Cursor cursor = new Cursor(0);
+
+            @Override
+            public boolean hasNext() {
+                return cursor.hasNext();
+            }
+
+            @Override
+            public KochuDoc next() {
+                if (!cursor.hasNext())
+                    throw new NoSuchElementException();
+                cursor.advance();
+                return cursor.doc();
+            }
+        };
+    }
+
+    private int restartPoint(int i) {
+        return data.getInt(restartsOffset + i * Integer.BYTES);
+    }
+
+    private byte[] restartKey(int i) {
+        ByteBuffer buf = data.duplicate();
+        buf.position(restartPoint(i));
+        readVarInt(buf); // shared, always 0 at a restart point
+        int unshared = readVarInt(buf);
+        readVarInt(buf);
+
+        byte[] key = new byte[unshared];
+        buf.get(key);
+        return key;
+    }
+
+    /**
+     * decodes entries one after another, rebuilding each key from the previous
+     */
+    private class Cursor {
+        final ByteBuffer buf;
+        byte[] key = new byte[0];
+        long timestamp, sequence;
+        int valueOffset, valueLength;
+        boolean deleted;
+
+        Cursor(int offset) {
+            buf = data.duplicate();
+            buf.position(offset);
+        }
+
+        boolean hasNext() {
+            return buf.position() < restartsOffset;
+        }
+
+        void advance() {
+            int shared = readVarInt(buf);
+            int unshared = readVarInt(buf);
+            valueLength = readVarInt(buf);
+
+            byte[] next = Arrays.copyOf(key, shared + unshared);
+            buf.get(next, shared, unshared);
+            key = next;
+
+            timestamp = buf.getLong();
+            sequence = sequenced ? readVarLong(buf) : 0L;
+            deleted = typed ? buf.get() == KochuDoc.TYPE_DELETION : valueLength == 0;
+            valueOffset = buf.position();
+            buf.position(valueOffset + valueLength);
+        }
+
+        KochuDoc doc() {
+            KochuDoc doc = deleted ? KochuDoc.tombstone(key, timestamp)
+                    : new KochuDoc(key, Arrays.copyOfRange(data.array(), valueOffset, valueOffset + valueLength), timestamp);
+            doc.setSequence(sequence);
+            return doc;
+        }
+    }
+}
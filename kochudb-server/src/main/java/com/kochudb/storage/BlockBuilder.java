@@ -0,0 +1,147 @@
+package com.kochudb.storage;
+
+import static com.kochudb.utils.ByteUtil.writeVarInt;
+import static com.kochudb.utils.ByteUtil.writeVarLong;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.kochudb.types.KochuDoc;
+
+/**
+ * Builds one data block of a block based SSTable. Keys must be added in
+ * ascending order. Each key shares its prefix with the previous key, except at
+ * restart points where the full key is stored, so a reader can binary search
+ * the restart points and decode forward from there.
+ *
+ * Entry: [shared varint, unshared varint, len(value) varint, key suffix,
+ * timestamp in 8 bytes, sequence varint, type in 1 byte, value]
+ *
+ * A key may repeat, once per version kept for snapshots, newest first.
+ *
+ * Block: [entries, restart offsets in 4 bytes each, number of restarts in 4
+ * bytes]
+ */
+public class BlockBuilder {
+
+    public static final int RESTART_INTERVAL = 16;
+
+    private final ByteArrayOutputStream buffer;
+    private final List<Integer> restarts;
+
+    private byte[] lastKey;
+    private int counter, entries;
+
+    public BlockBuilder() {
+        buffer = new ByteArrayOutputStream();
+        restarts = new ArrayList<Integer>();
+        reset();
+    }
+
+    /**
+     * append a record to the block
+     *
+     * @param key       key, greater than the last added key
+     * @param value     value
+     * @param timestamp last modified time
+     */
+    public void add(byte[] key, byte[] value, long timestamp) {
+        add(key, value, timestamp, 0L);
+    }
+
+    /**
+     * append a version of a record to the block
+     *
+     * @param key       key, greater than the last added key, or equal to it for an
+     *                  older version
+     * @param value     value
+     * @param timestamp last modified time
+     * @param sequence  sequence number
+     */
+    public void add(byte[] key, byte[] value, long timestamp, long sequence) {
+        add(key, value, timestamp, sequence, KochuDoc.TYPE_VALUE);
+    }
+
+    /**
+     * append a version of a record, or of a delete, to the block
+     *
+     * @param key       key, greater than the last added key, or equal to it for an
+     *                  older version
+     * @param value     value, empty for a delete
+     * @param timestamp last modified time
+     * @param sequence  sequence number
+     * @param type      KochuDoc.TYPE_VALUE or KochuDoc.TYPE_DELETION
+     */
+    public void add(byte[] key, byte[] value, long timestamp, long sequence, byte type) {
+        int shared = 0;
+        if (counter < RESTART_INTERVAL) {
+            int max = Math.min(lastKey.length, key.length);
+            while (shared < max && lastKey[shared] == key[shared])
+                shared++;
+        } else {
+            restarts.add(buffer.size());
+            counter = 0;
+        }
+
+        writeVarInt(buffer, shared);
+        writeVarInt(buffer, key.length - shared);
+        writeVarInt(buffer, value.length);
+        buffer.write(key, shared, key.length - shared);
+        for (int i = Long.BYTES - 1; i >= 0; i--)
+            buffer.write((int) (timestamp >>> (i * 8)));
+        writeVarLong(buffer, sequence);
+        buffer.write(type);
+        buffer.write(value, 0, value.length);
+
+        lastKey = key;
+        counter++;
+        entries++;
+    }
+
+    /**
+     * size of the block if it were finished now
+     *
+     * @return bytes
+     */
+    public int estimatedSize() {
+        return buffer.size() + (restarts.size() + 1) * Integer.BYTES;
+    }
+
+    public boolean isEmpty() {
+        return entries == 0;
+    }
+
+    public byte[] lastKey() {
+        return lastKey;
+    }
+
+    /**
+     * append the restart array and return the block contents. The builder is
+     * reset and can be reused for the next block.
+     *
+     * @return byte[]
+     */
+    public byte[] finish() {
+        ByteBuffer trailer = ByteBuffer.allocate((restarts.size() + 1) * Integer.BYTES);
+        for (int restart : restarts)
+            trailer.putInt(restart);
+        trailer.putInt(restarts.size());
+
+        buffer.write(trailer.array(), 0, trailer.capacity());
+        byte[] block = buffer.toByteArray();
+
+        reset();
+        return block;
+    }
+
+    private void reset() {
+        buffer.reset();
+        restarts.clear();
+        restarts.add(0);
+        lastKey = new byte[0];
+        counter = 0;
+        entries = 0;
+    }
+}
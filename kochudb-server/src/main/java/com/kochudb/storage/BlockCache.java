@@ -0,0 +1,347 @@
+package com.kochudb.storage;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Process wide cache of uncompressed SSTable data blocks, keyed by SSTable and
+ * block offset, and bounded by the total size of the cached blocks in bytes.
+ *
+ * The cache is split into stripes, each with its own lock, so that concurrent
+ * lookups rarely contend. Within a stripe, blocks live in a segmented LRU: new
+ * blocks enter a probation segment and move to a protected segment when hit
+ * again. When the stripe is full, a TinyLFU style frequency sketch decides
+ * whether the new block is worth more than the block it would evict, so a
+ * large scan of cold blocks cannot flush out the hot ones.
+ */
+public class BlockCache {
+
+    // per cached block: map entry, node and key objects
+    static final int ENTRY_OVERHEAD = 96;
+
+    private final Stripe[] stripes;
+    private final long capacity;
+
+    private final LongAdder hits, misses, evictions;
+
+    /**
+     * Constructor
+     *
+     * @param capacity   maximum total size of cached blocks in bytes, 0 disables
+     *                   the cache
+     * @param numStripes number of independently locked stripes, rounded up to a
+     *                   power of two
+     */
+    public BlockCache(long capacity, int numStripes) {
+        int n = Integer.highestOneBit(Math.max(1, numStripes - 1)) << 1;
+        this.capacity = capacity;
+        this.stripes = new Stripe[n];
+        for (int i = 0; i < n; i++)
+            stripes[i] = new Stripe(capacity / n);
+
+        hits = new LongAdder();
+        misses = new LongAdder();
+        evictions = new LongAdder();
+    }
+
+    /**
+     * cached contents of a block
+     *
+     * @param fileId id of the SSTable
+     * @param offset offset of the block in the data file
+     * @return block contents, or null on a miss
+     */
+    public byte[] get(long fileId, long offset) {
+        if (capacity <= 0)
+            return null;
+
+        byte[] block = stripeFor(fileId, offset).get(fileId, offset);
+        if (block == null)
+            misses.increment();
+        else
+            hits.increment();
+        return block;
+    }
+
+    /**
+     * offer a block read from disk to the cache. It may be rejected if it is
+     * accessed less often than the blocks it would evict.
+     *
+     * @param fileId   id of the SSTable
+     * @param offset   offset of the block in the data file
+     * @param contents block contents
+     */
+    public void put(long fileId, long offset, byte[] contents) {
+        if (capacity <= 0)
+            return;
+
+        evictions.add(stripeFor(fileId, offset).put(fileId, offset, contents));
+    }
+
+    /**
+     * remove all blocks of an SSTable, called when its files are deleted
+     *
+     * @param fileId id of the SSTable
+     */
+    public void invalidate(long fileId) {
+        if (capacity <= 0)
+            return;
+
+        for (Stripe stripe : stripes)
+            stripe.invalidate(fileId);
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * total size of cached blocks in bytes, including bookkeeping overhead
+     *
+     * @return bytes
+     */
+    public long size() {
+        long size = 0L;
+        for (Stripe stripe : stripes)
+            size += stripe.size();
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        long h = hitCount(), m = missCount();
+        return String.format("BlockCache[size=%d/%d, hits=%d, misses=%d, hitRate=%.2f%%, evictions=%d]", size(),
+                capacity, h, m, h + m == 0 ? 0.0 : 100.0 * h / (h + m), evictionCount());
+    }
+
+    private Stripe stripeFor(long fileId, long offset) {
+        return stripes[spread(fileId, offset) & (stripes.length - 1)];
+    }
+
+    static int spread(long fileId, long offset) {
+        long h = fileId * 0x9E3779B97F4A7C15L ^ offset;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    record Key(long fileId, long offset) {
+    }
+
+    static final class Node {
+        final Key key;
+        final byte[] contents;
+        final int weight;
+        boolean protectedSegment;
+        Node prev, next;
+
+        Node(Key key, byte[] contents) {
+            this.key = key;
+            this.contents = contents;
+            this.weight = contents.length + ENTRY_OVERHEAD;
+        }
+    }
+
+    /**
+     * doubly linked list of nodes, most recently used at the head
+     */
+    static final class Segment {
+        final Node head = new Node(null, new byte[0]);
+        long weight;
+
+        Segment() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        void addFirst(Node node) {
+            node.next = head.next;
+            node.prev = head;
+            head.next.prev = node;
+            head.next = node;
+            weight += node.weight;
+        }
+
+        void remove(Node node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = node.next = null;
+            weight -= node.weight;
+        }
+
+        Node last() {
+            return head.prev == head ? null : head.prev;
+        }
+    }
+
+    static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final Map<Key, Node> map = new HashMap<Key, Node>();
+        final Segment probation = new Segment(), protect = new Segment();
+        final FrequencySketch sketch;
+        final long capacity, protectedCapacity;
+
+        Stripe(long capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = capacity * 4 / 5;
+            this.sketch = new FrequencySketch((int) Math.max(16, capacity / 4096));
+        }
+
+        byte[] get(long fileId, long offset) {
+            Key key = new Key(fileId, offset);
+            lock.lock();
+            try {
+                sketch.increment(key.hashCode());
+                Node node = map.get(key);
+                if (node == null)
+                    return null;
+
+                if (node.protectedSegment) {
+                    protect.remove(node);
+                    protect.addFirst(node);
+                } else {
+                    // second hit, promote and demote the coldest protected blocks
+                    probation.remove(node);
+                    node.protectedSegment = true;
+                    protect.addFirst(node);
+                    while (protect.weight > protectedCapacity) {
+                        Node demoted = protect.last();
+                        protect.remove(demoted);
+                        demoted.protectedSegment = false;
+                        probation.addFirst(demoted);
+                    }
+                }
+                return node.contents;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return number of blocks evicted
+         */
+        int put(long fileId, long offset, byte[] contents) {
+            Node candidate = new Node(new Key(fileId, offset), contents);
+            if (candidate.weight > capacity)
+                return 0;
+
+            lock.lock();
+            try {
+                if (map.containsKey(candidate.key))
+                    return 0;
+
+                int evicted = 0;
+                int candidateFreq = sketch.frequency(candidate.key.hashCode());
+                while (probation.weight + protect.weight + candidate.weight > capacity) {
+                    Node victim = probation.last() != null ? probation.last() : protect.last();
+
+                    // admit the new block only if it is used more often than the victim
+                    if (sketch.frequency(victim.key.hashCode()) > candidateFreq)
+                        return evicted;
+
+                    (victim.protectedSegment ? protect : probation).remove(victim);
+                    map.remove(victim.key);
+                    evicted++;
+                }
+
+                map.put(candidate.key, candidate);
+                probation.addFirst(candidate);
+                return evicted;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void invalidate(long fileId) {
+            lock.lock();
+            try {
+                Iterator<Node> iter = map.values().iterator();
+                while (iter.hasNext()) {
+                    Node node = iter.next();
+                    if (node.key.fileId() == fileId) {
+                        (node.protectedSegment ? protect : probation).remove(node);
+                        iter.remove();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long size() {
+            lock.lock();
+            try {
+                return probation.weight + protect.weight;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Count-min sketch of 4 bit counters estimating how often a key was accessed
+     * recently. All counters are halved periodically so that old popularity fades
+     * away.
+     */
+    static final class FrequencySketch {
+        private final long[] table;
+        private final int mask, sampleSize;
+        private int additions;
+
+        FrequencySketch(int expectedEntries) {
+            int size = Integer.highestOneBit(Math.max(2, expectedEntries - 1)) << 1;
+            table = new long[size];
+            mask = size - 1;
+            sampleSize = 10 * size;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int shift = counterShift(hash, i);
+                if (((table[index] >>> shift) & 0xFL) != 0xFL) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize)
+                reset();
+        }
+
+        int frequency(int hash) {
+            int freq = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++)
+                freq = Math.min(freq, (int) ((table[indexOf(hash, i)] >>> counterShift(hash, i)) & 0xFL));
+            return freq;
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + 0x9E3779B97F4A7C15L * (i + 1)) * 0xff51afd7ed558ccdL;
+            return (int) (h >>> 40) & mask;
+        }
+
+        private int counterShift(int hash, int i) {
+            // each long holds 16 counters, each row uses its own 4 of them
+            return ((i << 2) + ((hash >>> (i << 3)) & 3)) << 2;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++)
+                table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+            additions /= 2;
+        }
+    }
+}
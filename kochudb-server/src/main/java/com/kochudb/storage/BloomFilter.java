@@ -0,0 +1,126 @@
+package com.kochudb.storage;
+
+/**
+ * Bloom filter over the keys of an SSTable. Answers "definitely not present" or
+ * "maybe present" for a key, which lets a lookup skip SSTables that cannot hold
+ * it without touching their index or data files.
+ *
+ * Serialized form: [number of hash functions in 1 byte, bit array]
+ */
+public class BloomFilter {
+
+    private final long[] bits;
+    private final int numBits;
+    private final int numHashes;
+
+    private BloomFilter(long[] bits, int numHashes) {
+        this.bits = bits;
+        this.numBits = bits.length * Long.SIZE;
+        this.numHashes = numHashes;
+    }
+
+    /**
+     * create an empty filter sized for the given number of keys
+     *
+     * @param numKeys    number of keys expected to be added
+     * @param bitsPerKey bits allotted to each key
+     * @return BloomFilter
+     */
+    public static BloomFilter create(int numKeys, int bitsPerKey) {
+        // k = ln2 * m/n minimises the false positive rate
+        int numHashes = Math.max(1, Math.min(30, (int) Math.round(bitsPerKey * 0.69)));
+        long numBits = Math.max(Long.SIZE, (long) numKeys * bitsPerKey);
+        return new BloomFilter(new long[(int) ((numBits + Long.SIZE - 1) / Long.SIZE)], numHashes);
+    }
+
+    /**
+     * a filter that holds no information and says every key may be present
+     *
+     * @return BloomFilter
+     */
+    public static BloomFilter all() {
+        return new BloomFilter(new long[0], 0);
+    }
+
+    public void add(byte[] key) {
+        addHash(hash(key));
+    }
+
+    /**
+     * add a key by its hash, for keys hashed before the filter could be sized
+     *
+     * @param hash hash of the key as computed by hash()
+     */
+    void addHash(long hash) {
+        int h1 = (int) hash, h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(byte[] key) {
+        if (numBits == 0)
+            return true;
+
+        long hash = hash(key);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * convert the filter into bytes for storing on disk
+     *
+     * @return byte[]
+     */
+    public byte[] serialize() {
+        byte[] bytes = new byte[1 + bits.length * Long.BYTES];
+        bytes[0] = (byte) numHashes;
+        for (int i = 0; i < bits.length; i++)
+            for (int b = 0; b < Long.BYTES; b++)
+                bytes[1 + i * Long.BYTES + b] = (byte) (bits[i] >>> (b * 8));
+        return bytes;
+    }
+
+    /**
+     * create a filter from the bytes written by serialize()
+     *
+     * @param bytes byte[]
+     * @return BloomFilter
+     */
+    public static BloomFilter deserialize(byte[] bytes) {
+        if (bytes.length < 1 + Long.BYTES)
+            return all();
+
+        long[] bits = new long[(bytes.length - 1) / Long.BYTES];
+        for (int i = 0; i < bits.length; i++)
+            for (int b = 0; b < Long.BYTES; b++)
+                bits[i] |= (bytes[1 + i * Long.BYTES + b] & 0xFFL) << (b * 8);
+        return new BloomFilter(bits, bytes[0] & 0xFF);
+    }
+
+    /**
+     * 64 bit FNV-1a followed by the murmur3 finalizer for better avalanche
+     *
+     * @param key key
+     * @return hash
+     */
+    static long hash(byte[] key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            h ^= (b & 0xFF);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
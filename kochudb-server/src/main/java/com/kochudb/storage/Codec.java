@@ -0,0 +1,104 @@
+package com.kochudb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compression codec for SSTable data blocks. The id of the codec a block was
+ * written with is stored in the block trailer, so blocks of any codec can be
+ * read whatever codec is configured.
+ */
+public interface Codec {
+
+    public static final Codec NONE = new None();
+
+    /**
+     * @return id stored in the block trailer
+     */
+    public byte id();
+
+    /**
+     * @return name used in the configuration
+     */
+    public String name();
+
+    /**
+     * compress a block
+     *
+     * @param raw uncompressed contents
+     * @return compressed contents
+     */
+    public byte[] compress(byte[] raw);
+
+    /**
+     * decompress a block
+     *
+     * @param compressed compressed contents, from position to limit
+     * @return uncompressed contents
+     * @throws IOException if the contents are corrupt
+     */
+    public byte[] decompress(ByteBuffer compressed) throws IOException;
+
+    /**
+     * codec by configuration name
+     *
+     * @param name none, lz4 or deflate
+     * @return Codec
+     */
+    public static Codec forName(String name) {
+        return switch (name.trim().toLowerCase()) {
+        case "none" -> NONE;
+        case "deflate" -> DeflateCodec.INSTANCE;
+        case "lz4" -> LZ4Codec.INSTANCE;
+        default -> throw new IllegalArgumentException("Unknown codec: " + name);
+        };
+    }
+
+    /**
+     * codec by block trailer id
+     *
+     * @param id id
+     * @return Codec
+     * @throws IOException if no codec has that id
+     */
+    public static Codec forId(byte id) throws IOException {
+        return switch (id) {
+        case None.ID -> NONE;
+        case DeflateCodec.ID -> DeflateCodec.INSTANCE;
+        case LZ4Codec.ID -> LZ4Codec.INSTANCE;
+        default -> throw new IOException("Unknown block codec " + id);
+        };
+    }
+
+    /**
+     * blocks stored as they are
+     */
+    final class None implements Codec {
+        static final byte ID = 0;
+
+        private None() {
+        }
+
+        @Override
+        public byte id() {
+            return ID;
+        }
+
+        @Override
+        public String name() {
+            return "none";
+        }
+
+        @Override
+        public byte[] compress(byte[] raw) {
+            return raw;
+        }
+
+        @Override
+        public byte[] decompress(ByteBuffer compressed) {
+            byte[] contents = new byte[compressed.remaining()];
+            compressed.duplicate().get(contents);
+            return contents;
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package com.kochudb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.kochudb.types.KochuDoc;
+import com.kochudb.utils.FileUtil;
+
+/**
+ * One compaction: a set of SSTables merged into new SSTables of the output
+ * level, which replace them.
+ *
+ * The key range of the inputs is cut at SSTable boundaries into disjoint
+ * sub-ranges, each merged by its own sub-compaction on the compaction thread
+ * pool. Sub-compactions write disjoint SSTables, so together they still form a
+ * sorted run. The outputs replace the inputs only once all of them succeed.
+ *
+ * Of each key, the newest version is written on, and an older one only while
+ * a snapshot taken when the compaction started reads it. Tombstones are
+ * written on, unless no snapshot reads past them and nothing below the
+ * compaction may still hold the key, in which case the key is gone from the
+ * outputs altogether.
+ */
+public class Compaction {
+
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+    // bytes of data files written by compactions
+    private static final LongAdder writtenBytes = new LongAdder();
+
+    // tombstones dropped by compactions
+    private static final LongAdder droppedTombstones = new LongAdder();
+
+    private final LSMTree tree;
+    private final int level, outputLevel;
+    private final List<SSTable> inputs;
+    private final byte[] smallest, largest;
+    private final long maxFileSize;
+
+    // SSTables that may hold older records of the input keys: those of the output
+    // level that are not inputs, and the levels below it
+    private final List<SSTable> outputLevelOthers;
+    private final List<Level> below;
+
+    // sequence numbers of the live snapshots, ascending
+    private final long[] snapshots;
+
+    /**
+     * Constructor
+     *
+     * @param tree        tree the SSTables belong to
+     * @param level       level compacted out of
+     * @param outputLevel level the outputs are written to
+     * @param inputs      SSTables to merge, newest first
+     * @param maxFileSize size at which output SSTables are rolled
+     */
+    public Compaction(LSMTree tree, int level, int outputLevel, List<SSTable> inputs, long maxFileSize) {
+        this.tree = tree;
+        this.level = level;
+        this.outputLevel = outputLevel;
+        this.inputs = inputs;
+        this.maxFileSize = maxFileSize;
+
+        byte[] from = null, to = null;
+        for (SSTable sSTable : inputs) {
+            if (sSTable.smallestKey() == null)
+                continue;
+            if (from == null || Arrays.compareUnsigned(sSTable.smallestKey(), from) < 0)
+                from = sSTable.smallestKey();
+            if (to == null || Arrays.compareUnsigned(sSTable.largestKey(), to) > 0)
+                to = sSTable.largestKey();
+        }
+        this.smallest = from == null ? new byte[0] : from;
+        this.largest = to == null ? new byte[0] : to;
+
+        List<Level> levels = LSMTree.levels;
+        outputLevelOthers = new ArrayList<SSTable>();
+        for (SSTable sSTable : levels.get(outputLevel).getSegments())
+            if (!inputs.contains(sSTable) && sSTable.overlaps(smallest, largest))
+                outputLevelOthers.add(sSTable);
+        below = new ArrayList<Level>(levels.subList(outputLevel + 1, levels.size()));
+        snapshots = tree.getSnapshots().live();
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getOutputLevel() {
+        return outputLevel;
+    }
+
+    public List<SSTable> getInputs() {
+        return inputs;
+    }
+
+    public byte[] largestKey() {
+        return largest;
+    }
+
+    /**
+     * bytes of data files written by compactions since startup
+     *
+     * @return bytes
+     */
+    public static long writtenBytes() {
+        return writtenBytes.sum();
+    }
+
+    /**
+     * tombstones dropped by compactions since startup
+     *
+     * @return count
+     */
+    public static long droppedTombstones() {
+        return droppedTombstones.sum();
+    }
+
+    /**
+     * whether no SSTable outside the inputs, at or below the output level, may
+     * hold an older record of the key. A tombstone of such a key, and the records
+     * it hides among the inputs, can go.
+     *
+     * @param key key
+     * @return boolean
+     */
+    boolean isBottommost(byte[] key) {
+        for (SSTable sSTable : outputLevelOthers)
+            if (sSTable.overlaps(key, key) && sSTable.mightContain(key))
+                return false;
+        for (Level level : below)
+            if (level.mayContain(key))
+                return false;
+        return true;
+    }
+
+    /**
+     * whether two compactions may touch the same SSTables: they share a level and
+     * their key ranges overlap
+     *
+     * @param other compaction
+     * @return boolean
+     */
+    public boolean conflictsWith(Compaction other) {
+        boolean sharedLevel = level == other.level || level == other.outputLevel || outputLevel == other.level
+                || outputLevel == other.outputLevel;
+        return sharedLevel && Arrays.compareUnsigned(smallest, other.largest) <= 0
+                && Arrays.compareUnsigned(other.smallest, largest) <= 0;
+    }
+
+    /**
+     * keys at which to cut the key range of the inputs into sub-ranges, taken
+     * from the smallest keys of the inputs and spread evenly
+     *
+     * @param maxRanges maximum number of sub-ranges
+     * @return first key of each sub-range but the first, ascending
+     */
+    List<byte[]> splitPoints(int maxRanges) {
+        TreeSet<byte[]> candidates = new TreeSet<byte[]>(Arrays::compareUnsigned);
+        for (SSTable sSTable : inputs) {
+            byte[] key = sSTable.smallestKey();
+            if (key != null && Arrays.compareUnsigned(key, smallest) > 0)
+                candidates.add(key);
+        }
+
+        List<byte[]> sorted = new ArrayList<byte[]>(candidates);
+        int ranges = Math.min(Math.max(1, maxRanges), sorted.size() + 1);
+        List<byte[]> points = new ArrayList<byte[]>();
+        for (int i = 1; i < ranges; i++)
+            points.add(sorted.get(i * sorted.size() / ranges));
+        return points;
+    }
+
+    /**
+     * start the sub-compactions on the compaction thread pool
+     *
+     * @return future completed once the outputs have replaced the inputs
+     */
+    public CompletableFuture<Void> start() {
+        List<byte[]> points = splitPoints(tree.getCompactionThreads());
+        logger.debug("Compacting {} SSTables from level {} into level {} in {} sub-compactions", inputs.size(), level,
+                outputLevel, points.size() + 1);
+
+        List<CompletableFuture<List<SSTable>>> parts = new ArrayList<CompletableFuture<List<SSTable>>>();
+        for (int i = 0; i <= points.size(); i++) {
+            byte[] start = i == 0 ? new byte[0] : points.get(i - 1);
+            byte[] end = i == points.size() ? null : points.get(i);
+            parts.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return subcompaction(start, end);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, tree.getCompactionPool()));
+        }
+
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).handle((ignored, error) -> {
+            List<SSTable> outputs = new ArrayList<SSTable>();
+            for (CompletableFuture<List<SSTable>> part : parts)
+                if (!part.isCompletedExceptionally())
+                    outputs.addAll(part.join());
+
+            if (error != null) {
+                // the inputs stay in place, drop what was written
+                outputs.forEach(Compaction::deleteFiles);
+                throw error instanceof CompletionException ce ? ce : new CompletionException(error);
+            }
+
+            install(outputs);
+            return null;
+        });
+    }
+
+    /**
+     * run the compaction and wait for it
+     *
+     * @throws IOException if the compaction fails
+     */
+    public void run() throws IOException {
+        try {
+            start().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during compaction", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            while ((cause instanceof CompletionException || cause instanceof UncheckedIOException)
+                    && cause.getCause() != null)
+                cause = cause.getCause();
+            throw cause instanceof IOException io ? io : new IOException(cause);
+        }
+    }
+
+    /**
+     * merge the records of the inputs in [start, end) into output SSTables of at
+     * most maxFileSize bytes
+     *
+     * @param start first key, inclusive
+     * @param end   last key, exclusive. null for no upper bound
+     * @return SSTables written, in key order
+     * @throws IOException if an output cannot be written
+     */
+    private List<SSTable> subcompaction(byte[] start, byte[] end) throws IOException {
+        // one cursor per SSTable that may hold keys of the range, each holding a
+        // single block
+        List<Iterator<KochuDoc>> sources = new ArrayList<Iterator<KochuDoc>>();
+        for (SSTable sSTable : inputs) {
+            byte[] first = sSTable.smallestKey();
+            if (first == null || Arrays.compareUnsigned(sSTable.largestKey(), start) < 0
+                    || (end != null && Arrays.compareUnsigned(first, end) >= 0))
+                continue;
+            sources.add(sSTable.iterator(start));
+        }
+        Iterator<KochuDoc> merged = MergingIterator.forCompaction(sources, start, end);
+
+        List<SSTableBuilder> builders = new ArrayList<SSTableBuilder>();
+        List<SSTable> outputs = new ArrayList<SSTable>();
+        SSTableBuilder builder = null;
+        byte[] lastKey = null;
+        long newerSequence = 0L;
+        try {
+            while (merged.hasNext()) {
+                // every version of every key, newest first within a key
+                KochuDoc doc = merged.next();
+                byte[] key = doc.getKey().bytes();
+                boolean newest = !Arrays.equals(key, lastKey);
+                long newer = newerSequence;
+                lastKey = key;
+                newerSequence = doc.getSequence();
+
+                if (newest) {
+                    // the older versions go with it, as no snapshot reads them
+                    if (doc.isTombstone() && (snapshots.length == 0 || snapshots[0] >= doc.getSequence())
+                            && isBottommost(key)) {
+                        droppedTombstones.increment();
+                        continue;
+                    }
+
+                    // outputs are rolled between keys, all versions of a key stay together
+                    if (builder != null && builder.estimatedSize() >= maxFileSize) {
+                        outputs.add(builder.finish());
+                        builder = null;
+                    }
+                } else if (!Snapshots.isVisible(snapshots, doc.getSequence(), newer)) {
+                    continue;
+                }
+
+                if (builder == null) {
+                    builder = new SSTable(outputLevel).builder(RateLimiter.Priority.LOW);
+                    builders.add(builder);
+                }
+                builder.add(doc);
+            }
+            if (builder != null)
+                outputs.add(builder.finish());
+        } catch (IOException | RuntimeException e) {
+            for (SSTableBuilder written : builders)
+                written.abandon();
+            throw e;
+        }
+        return outputs;
+    }
+
+    /**
+     * make the outputs visible in place of the inputs
+     *
+     * @param outputs SSTables written
+     */
+    private void install(List<SSTable> outputs) {
+        VersionEdit edit = new VersionEdit();
+        for (SSTable sSTable : inputs)
+            edit.delete(sSTable.getLevel(), sSTable);
+        for (SSTable sSTable : outputs) {
+            edit.add(outputLevel, sSTable);
+            writtenBytes.add(new File(sSTable.getDataFile()).length());
+        }
+
+        // the outputs must survive a crash before the MANIFEST names them
+        if (!outputs.isEmpty()) {
+            try {
+                FileUtil.syncDirectory(LSMTree.dataDir);
+            } catch (IOException e) {
+                for (SSTable sSTable : outputs)
+                    deleteFiles(sSTable);
+                throw new UncheckedIOException("Failed to sync compaction outputs", e);
+            }
+        }
+
+        synchronized (tree) {
+            try {
+                tree.apply(edit);
+            } catch (IOException e) {
+                // the edit is not in the MANIFEST, the inputs are still the current ones
+                for (SSTable sSTable : outputs)
+                    deleteFiles(sSTable);
+                throw new UncheckedIOException("Failed to log compaction", e);
+            }
+            // the inputs are closed and deleted by the tree once no reader holds them
+        }
+        Level.compacted(level, largest);
+    }
+
+    /**
+     * delete the data, index and filter files of an SSTable
+     *
+     * @param sSTable SSTable
+     */
+    static void deleteFiles(SSTable sSTable) {
+        for (String path : new String[] { sSTable.getIndexFile(), sSTable.getDataFile(), sSTable.getFilterFile() }) {
+            File file = new File(path);
+            if (file.exists())
+                logger.debug(file.delete() ? "File deleted: {}" : "Failed to delete file: {}", path);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.kochudb.storage;
+
+import static com.kochudb.k.K.DEFAULT_COMPACTION_TIERED_RUNS;
+
+import java.util.Properties;
+
+/**
+ * Decides when and what to compact. The compactor asks it level by level for
+ * a compaction to start, and runs the ones that do not conflict.
+ */
+public interface CompactionStrategy {
+
+    /**
+     * compaction to start out of a level, if the level needs one
+     *
+     * @param level level, 0 to NUM_LEVELS
+     * @return Compaction, or null if the level is fine as it is
+     */
+    Compaction pick(int level);
+
+    /**
+     * bytes still to be compacted before the tree is in shape again
+     *
+     * @return bytes
+     */
+    long debt();
+
+    String name();
+
+    /**
+     * bytes written to disk per byte flushed, by flushes and compactions
+     *
+     * @return write amplification, 0 before the first flush
+     */
+    default double writeAmplification() {
+        long flushed = SSTable.flushedBytes();
+        return flushed == 0L ? 0.0 : (flushed + Compaction.writtenBytes()) / (double) flushed;
+    }
+
+    /**
+     * strategy selected by compaction.strategy
+     *
+     * @param name  leveled or tiered
+     * @param tree  tree to compact
+     * @param props configuration
+     * @return CompactionStrategy
+     */
+    static CompactionStrategy forName(String name, LSMTree tree, Properties props) {
+        return switch (name.trim().toLowerCase()) {
+        case "leveled" -> new LeveledCompactionStrategy(tree);
+        case "tiered" -> new SizeTieredCompactionStrategy(tree,
+                Integer.parseInt(props.getProperty("compaction.tiered.runs", DEFAULT_COMPACTION_TIERED_RUNS)));
+        default -> throw new IllegalArgumentException("Unknown compaction.strategy: " + name);
+        };
+    }
+}
@@ -0,0 +1,220 @@
+package com.kochudb.storage;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.kochudb.types.KochuDoc;
+
+/**
+ * Lock-free skip list memTable. Each node holds an array of forward pointers,
+ * one per level of its tower, and nodes are linked in with compare-and-set, so
+ * writers never block each other or readers.
+ *
+ * Nodes are never unlinked: a delete is a record without a value, and an update
+ * swaps the record held by the existing node for one linked to it as its
+ * previous version. That keeps insertion the only structural change, and the
+ * list needs no deletion marks.
+ */
+public class ConcurrentSkipList implements MemTable {
+
+    static final int MAX_HEIGHT = 16;
+
+    private static final VarHandle NEXT = MethodHandles.arrayElementVarHandle(Node[].class);
+    private static final VarHandle DOC;
+
+    static {
+        try {
+            DOC = MethodHandles.lookup().findVarHandle(Node.class, "doc", KochuDoc.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Node head;
+
+    // height of the tallest tower linked in, searches start there
+    private final AtomicInteger height;
+
+    private final AtomicInteger length;
+    private final LongAdder size;
+
+    public ConcurrentSkipList() {
+        head = new Node(null, null, MAX_HEIGHT);
+        height = new AtomicInteger(1);
+        length = new AtomicInteger();
+        size = new LongAdder();
+    }
+
+    @Override
+    public void put(KochuDoc doc) {
+        byte[] key = doc.getKey().bytes();
+        Node[] preds = new Node[MAX_HEIGHT], succs = new Node[MAX_HEIGHT];
+
+        while (true) {
+            Node found = findSplice(key, preds, succs);
+            if (found != null) {
+                KochuDoc old;
+                do {
+                    old = (KochuDoc) DOC.getVolatile(found);
+                    doc.setPrevious(old);
+                } while (!DOC.compareAndSet(found, old, doc));
+                size.add(doc.length());
+                return;
+            }
+
+            int nodeHeight = randomHeight();
+            Node node = new Node(key, doc, nodeHeight);
+            for (int i = 0; i < nodeHeight; i++)
+                node.next[i] = succs[i];
+
+            // linking the bottom level makes the node visible, lost races retry from scratch
+            if (!NEXT.compareAndSet(preds[0].next, 0, succs[0], node))
+                continue;
+
+            for (int i = 1; i < nodeHeight; i++) {
+                while (!NEXT.compareAndSet(preds[i].next, i, succs[i], node)) {
+                    findSplice(key, preds, succs);
+                    NEXT.setVolatile(node.next, i, succs[i]);
+                }
+            }
+            height.accumulateAndGet(nodeHeight, Math::max);
+
+            length.incrementAndGet();
+            size.add(doc.length());
+            return;
+        }
+    }
+
+    @Override
+    public KochuDoc search(KochuDoc doc) {
+        byte[] key = doc.getKey().bytes();
+        Node pred = head;
+
+        for (int level = height.get() - 1; level >= 0; level--) {
+            Node cur = next(pred, level);
+            int cmp;
+            while (cur != null && (cmp = Arrays.compareUnsigned(cur.key, key)) <= 0) {
+                if (cmp == 0)
+                    return cur.doc;
+                pred = cur;
+                cur = next(cur, level);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Iterator<KochuDoc> records() {
+        return iteratorFrom(next(head, 0));
+    }
+
+    @Override
+    public Iterator<KochuDoc> records(KochuDoc from) {
+        byte[] key = from.getKey().bytes();
+        Node pred = head;
+
+        for (int level = height.get() - 1; level >= 0; level--) {
+            Node cur = next(pred, level);
+            while (cur != null && Arrays.compareUnsigned(cur.key, key) < 0) {
+                pred = cur;
+                cur = next(cur, level);
+            }
+        }
+        return iteratorFrom(next(pred, 0));
+    }
+
+    @Override
+    public int length() {
+        return length.get();
+    }
+
+    @Override
+    public long size() {
+        return size.sum();
+    }
+
+    /**
+     * find the nodes right before and right after the key on every level
+     *
+     * @param key   key
+     * @param preds last node with a smaller key, per level
+     * @param succs first node with a greater or equal key, per level
+     * @return node holding the key, or null if absent
+     */
+    private Node findSplice(byte[] key, Node[] preds, Node[] succs) {
+        Node pred = head, found = null;
+
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            Node cur = next(pred, level);
+            int cmp = -1;
+            while (cur != null && (cmp = Arrays.compareUnsigned(cur.key, key)) < 0) {
+                pred = cur;
+                cur = next(cur, level);
+            }
+            if (cur != null && cmp == 0)
+                found = cur;
+
+            preds[level] = pred;
+            succs[level] = cur;
+        }
+        return found;
+    }
+
+    /**
+     * tower height, each level with a quarter of the nodes of the level below
+     *
+     * @return height between 1 and MAX_HEIGHT
+     */
+    static int randomHeight() {
+        int random = ThreadLocalRandom.current().nextInt();
+        int h = 1;
+        while (h < MAX_HEIGHT && (random & 3) == 0) {
+            h++;
+            random >>>= 2;
+        }
+        return h;
+    }
+
+    private static Node next(Node node, int level) {
+        return (Node) NEXT.getVolatile(node.next, level);
+    }
+
+    private static Iterator<KochuDoc> iteratorFrom(Node first) {
+        return new Iterator<KochuDoc>() {
+            Node cur = first;
+
+            @Override
+            public boolean hasNext() {
+                return cur != null;
+            }
+
+            @Override
+            public KochuDoc next() {
+                if (cur == null)
+                    throw new NoSuchElementException();
+
+                KochuDoc doc = cur.doc;
+                cur = ConcurrentSkipList.next(cur, 0);
+                return doc;
+            }
+        };
+    }
+
+    static final class Node {
+        final byte[] key;
+        volatile KochuDoc doc;
+        final Node[] next;
+
+        Node(byte[] key, KochuDoc doc, int height) {
+            this.key = key;
+            this.doc = doc;
+            this.next = new Node[height];
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.kochudb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Random access reads from an SSTable data file. The buffer handed to a decoder
+ * is only valid for the duration of the call, so decoders must copy out
+ * whatever they keep.
+ */
+public interface DataFileReader {
+
+    @FunctionalInterface
+    interface Decoder<T> {
+        T decode(ByteBuffer buf) throws IOException;
+    }
+
+    /**
+     * read length bytes at offset and decode them
+     *
+     * @param offset  offset in the data file
+     * @param length  number of bytes
+     * @param decoder decoder for the bytes
+     * @return decoded value
+     * @throws IOException if the file cannot be read or is closed
+     */
+    <T> T read(long offset, int length, Decoder<T> decoder) throws IOException;
+
+    /**
+     * release the resources held by this reader. Reads in progress are allowed
+     * to complete.
+     */
+    void close();
+}
@@ -0,0 +1,91 @@
+package com.kochudb.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * zlib compression: slow, but a good ratio, meant for the bottom levels.
+ *
+ * Deflater and Inflater hold native buffers that are expensive to set up, so
+ * instances are pooled and reset between blocks instead of created per block.
+ */
+public class DeflateCodec implements Codec {
+
+    static final byte ID = 1;
+
+    // idle instances kept per pool, more are created under load and ended after use
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
+    static final DeflateCodec INSTANCE = new DeflateCodec();
+
+    private final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<Deflater>(POOL_SIZE);
+    private final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<Inflater>(POOL_SIZE);
+
+    private DeflateCodec() {
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "deflate";
+    }
+
+    @Override
+    public byte[] compress(byte[] raw) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null)
+            deflater = new Deflater();
+
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+            byte[] buf = new byte[Math.max(raw.length / 2, 1024)];
+            while (!deflater.finished())
+                out.write(buf, 0, deflater.deflate(buf));
+            return out.toByteArray();
+        } finally {
+            deflater.reset();
+            if (!deflaters.offer(deflater))
+                deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decompress(ByteBuffer compressed) throws IOException {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null)
+            inflater = new Inflater();
+
+        int len = compressed.remaining();
+        try {
+            inflater.setInput(compressed.duplicate());
+            ByteArrayOutputStream out = new ByteArrayOutputStream(len * 4);
+            byte[] buf = new byte[Math.max(len * 4, 1024)];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("Truncated block");
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.reset();
+            if (!inflaters.offer(inflater))
+                inflater.end();
+        }
+    }
+}
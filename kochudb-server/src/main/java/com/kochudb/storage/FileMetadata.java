@@ -0,0 +1,22 @@
+package com.kochudb.storage;
+
+/**
+ * What the MANIFEST records about one SSTable.
+ *
+ * @param level            level of the SSTable
+ * @param number           order in which SSTables were added to the tree,
+ *                         higher is newer
+ * @param name             name of the index file, within the data directory
+ * @param size             size of the data file in bytes
+ * @param smallest         smallest key
+ * @param largest          largest key
+ * @param smallestSequence smallest sequence number, 0 if not known
+ * @param largestSequence  largest sequence number, 0 if not known
+ */
+public record FileMetadata(int level, long number, String name, long size, byte[] smallest, byte[] largest,
+        long smallestSequence, long largestSequence) {
+
+    FileMetadata withNumber(long n) {
+        return new FileMetadata(level, n, name, size, smallest, largest, smallestSequence, largestSequence);
+    }
+}
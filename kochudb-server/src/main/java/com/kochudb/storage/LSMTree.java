@@ -1,29 +1,53 @@
 package com.kochudb.storage;
 
+import static com.kochudb.k.K.DEFAULT_COMPACTION_STRATEGY;
+import static com.kochudb.k.K.DEFAULT_COMPACTION_THREADS;
+import static com.kochudb.k.K.DEFAULT_MEMTABLE_TYPE;
+import static com.kochudb.k.K.DEFAULT_POOL_SIZE;
+import static com.kochudb.k.K.DEFAULT_ROW_CACHE_ADMISSION;
+import static com.kochudb.k.K.DEFAULT_ROW_CACHE_SIZE;
+import static com.kochudb.k.K.DEFAULT_WAL_DIR;
+import static com.kochudb.k.K.DEFAULT_WAL_RECOVERY_THREADS;
+import static com.kochudb.k.K.DEFAULT_WAL_SYNC;
+import static com.kochudb.k.K.DEFAULT_WAL_SYNC_INTERVAL_MS;
 import static com.kochudb.k.K.LEVEL_ZERO_FILE_MAX_SIZE_KB;
+import static com.kochudb.k.K.DEFAULT_WRITE_SLOWDOWN_L0_FILES;
+import static com.kochudb.k.K.DEFAULT_WRITE_SLOWDOWN_MEMTABLES;
+import static com.kochudb.k.K.DEFAULT_WRITE_STALL_TIMEOUT_MS;
+import static com.kochudb.k.K.DEFAULT_WRITE_STOP_L0_FILES;
+import static com.kochudb.k.K.DEFAULT_WRITE_STOP_MEMTABLES;
 import static com.kochudb.k.K.NUM_LEVELS;
 import static com.kochudb.k.K.VALUE_MAX_SIZE;
-import static com.kochudb.utils.ByteUtil.bytesToInt;
+import static com.kochudb.k.K.WRITE_BATCH_MAX_SIZE;
+import static com.kochudb.k.K.WRITE_STALLED;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
 import java.lang.invoke.MethodHandles;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.Map;
 import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -32,7 +56,7 @@ import com.kochudb.server.KVStorage;
 import com.kochudb.tasks.LevelCompactor;
 import com.kochudb.tasks.MemTableFlusher;
 import com.kochudb.types.KochuDoc;
-import com.kochudb.utils.FileUtil;
+import com.kochudb.types.WriteBatch;
 
 /**
  * LSM Tree implementing basic operation on data store
@@ -42,21 +66,29 @@ public class LSMTree implements KVStorage {
 	private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
 
 	/**
-	 * SkipList for in-memory data
+	 * MemTable for in-memory data
 	 */
-	SkipList memTable;
+	volatile MemTable memTable;
 
 	/**
 	 * Deque of memTables is for handling failures by flushing thread
 	 */
-	Deque<SkipList> memTableQueue;
+	Deque<MemTable> memTableQueue;
 
 	/**
-	 * Size in bytes Threshold for triggering flushing of currently active skiplist
+	 * Size in bytes Threshold for triggering flushing of currently active memTable
 	 */
 	Integer maxSkipListSize = LEVEL_ZERO_FILE_MAX_SIZE_KB * 1024; // 4 kb
 
-	Integer curSkipListSize;
+	/**
+	 * writers share the read lock while they put into the active memTable,
+	 * swapping in a new memTable takes the write lock. A memTable is queued for
+	 * flushing only once no writer can still be adding to it.
+	 */
+	private final ReentrantReadWriteLock memTableLock = new ReentrantReadWriteLock();
+
+	// memtable.type
+	private String memTableType;
 
 	/**
 	 * single threaded executor for periodic memTable flushing
@@ -68,16 +100,52 @@ public class LSMTree implements KVStorage {
 	 */
 	ScheduledThreadPoolExecutor compactorExecutor;
 
+	/**
+	 * fixed thread pool running sub-compactions
+	 */
+	ExecutorService compactionPool;
+
+	// compaction.threads
+	private int compactionThreads;
+
 	public static File dataDir;
 
 	// files marked for deletion during a compaction process
 	public static Queue<File> markedForDeletion;
 
-	public static List<String> filesToRename;
-
 	public static List<Level> levels;
 
-	private WriteAheadLog wal;
+	// levels as pinned by readers, so that a compaction deletes no SSTable a read
+	// is still going through
+	private volatile PinnedLevels pinnedLevels;
+
+	// log of the SSTables making up each level
+	private Manifest manifest;
+
+	// SSTables currently on disk by index file path, kept across level updates so
+	// that their resident indexes are loaded only once
+	private Map<String, SSTable> openSSTables;
+
+	WriteAheadLog wal;
+
+	// last WAL segment holding records of each queued memTable
+	private Map<MemTable, Long> walSegments;
+
+	// decoded records of hot keys, in front of the memTables and levels
+	private RowCache rowCache;
+
+	// holds writes back while flushes or level 0 compactions fall behind
+	private WriteController writeController;
+
+	// sequence numbers of writes and live snapshots
+	private Snapshots snapshots;
+
+	/**
+	 * writers of the same key take the same stripe while they number the record
+	 * and add it to the memTable and WAL, so that its versions reach both in
+	 * sequence order
+	 */
+	private final ReentrantLock[] writeStripes = new ReentrantLock[64];
 
 	private Properties context;
 
@@ -88,28 +156,62 @@ public class LSMTree implements KVStorage {
 	 * @throws IOException IOException
 	 */
 	public LSMTree(Properties props) {
+		long start = System.currentTimeMillis();
 		dataDir = new File(props.getProperty("data.dir", "data"));
-		curSkipListSize = 0;
+		memTableType = props.getProperty("memtable.type", DEFAULT_MEMTABLE_TYPE);
 		context = props;
-		filesToRename = new ArrayList<String>();
+
+		SSTable.configure(props);
+
+		for (int i = 0; i < writeStripes.length; i++)
+			writeStripes[i] = new ReentrantLock();
+
+		rowCache = new RowCache(Integer.parseInt(props.getProperty("row.cache.size", DEFAULT_ROW_CACHE_SIZE)),
+				Integer.parseInt(props.getProperty("query.pool.size", DEFAULT_POOL_SIZE)),
+				RowCache.Admission.valueOf(
+						props.getProperty("row.cache.admission", DEFAULT_ROW_CACHE_ADMISSION).toUpperCase()));
 
 		/*
 		 * search thread and memTable-flush thread can perform one or both of the below
 		 * operations concurrently: iterate the queue holding skiplists, or iterate the
 		 * skiplist
 		 */
-		memTableQueue = new ConcurrentLinkedDeque<SkipList>();
-		memTable = new SkipList();
+		memTableQueue = new ConcurrentLinkedDeque<MemTable>();
+		memTable = newMemTable();
 
 		if (!dataDir.exists() || !dataDir.isDirectory()) {
 			dataDir.mkdirs();
 			logger.info("Data Directory created");
 		}
 
-		wal = new WriteAheadLog("WAL");
-		File[] walLogs = FileUtil.findFiles("WAL", "^binlog[0-9_]+$", Comparator.comparingLong(File::lastModified));
+		try {
+			wal = new WriteAheadLog(props.getProperty("wal.dir", DEFAULT_WAL_DIR),
+					WriteAheadLog.parseSync(props.getProperty("wal.sync", DEFAULT_WAL_SYNC)),
+					Long.parseLong(props.getProperty("wal.sync.interval.ms", DEFAULT_WAL_SYNC_INTERVAL_MS)));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to open the write-ahead log", e);
+		}
+		walSegments = new ConcurrentHashMap<MemTable, Long>();
+
+		writeController = new WriteController(
+				Integer.parseInt(props.getProperty("write.slowdown.memtables", DEFAULT_WRITE_SLOWDOWN_MEMTABLES)),
+				Integer.parseInt(props.getProperty("write.stop.memtables", DEFAULT_WRITE_STOP_MEMTABLES)),
+				Integer.parseInt(props.getProperty("write.slowdown.l0.files", DEFAULT_WRITE_SLOWDOWN_L0_FILES)),
+				Integer.parseInt(props.getProperty("write.stop.l0.files", DEFAULT_WRITE_STOP_L0_FILES)),
+				Long.parseLong(props.getProperty("write.stall.timeout.ms", DEFAULT_WRITE_STALL_TIMEOUT_MS)),
+				memTableQueue::size, () -> levels.get(0).getSegments().size());
+
+		try {
+			manifest = Manifest.open(dataDir);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to open the MANIFEST", e);
+		}
+		snapshots = new Snapshots();
+		snapshots.recovered(manifest.current().lastSequence());
 
+		openSSTables = new ConcurrentHashMap<String, SSTable>();
 		levels = new ArrayList<Level>();
+		Level.resetCompactPointers();
 		updateLevels();
 
 		memTableExecutor = Executors.newSingleThreadExecutor((runnable) -> {
@@ -120,49 +222,214 @@ public class LSMTree implements KVStorage {
 			return new Thread(runnable, "compactor");
 		});
 
-		compactorExecutor.scheduleWithFixedDelay(new LevelCompactor(dataDir), 3, 1, TimeUnit.SECONDS);
+		compactionThreads = Math
+				.max(1, Integer.parseInt(props.getProperty("compaction.threads", DEFAULT_COMPACTION_THREADS)));
+		AtomicInteger compactionThreadId = new AtomicInteger();
+		compactionPool = Executors.newFixedThreadPool(compactionThreads, (runnable) -> {
+			return new Thread(runnable, "compaction-" + compactionThreadId.incrementAndGet());
+		});
 
-		if (walLogs.length > 0)
-			logger.info("Restoring data from logs");
+		CompactionStrategy strategy = CompactionStrategy
+				.forName(props.getProperty("compaction.strategy", DEFAULT_COMPACTION_STRATEGY), this, props);
+		compactorExecutor.scheduleWithFixedDelay(new LevelCompactor(dataDir, strategy), 3, 1, TimeUnit.SECONDS);
 
-		// replay binlogs
-		for (File file : walLogs) {
-			RandomAccessFile raf;
-			try {
-				raf = new RandomAccessFile(file, "r");
-				raf.seek(0L);
-				long offset = 0L;
-				while (offset < raf.length()) {
-					byte[] lengthBytes = FileUtil.readBytes(raf, offset, Integer.BYTES);
-					int lengthOfData = bytesToInt(lengthBytes);
-
-					offset += Integer.BYTES;
-					byte[] kochuDocBytes = FileUtil.readBytes(raf, offset, lengthOfData);
-					KochuDoc doc = KochuDoc.deserialize(kochuDocBytes);
-
-					logger.trace("Restoring record for key {}",
-							new String(doc.getKey().bytes(), StandardCharsets.UTF_8));
-					set(doc);
-					offset += kochuDocBytes.length;
+		recover();
+		logger.info("Storage ready in {} ms", System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * replay the WAL segments left by the previous run straight into memTables and
+	 * flush them all, after which the segments are no longer needed
+	 */
+	private void recover() {
+		List<File> walLogs = wal.recoveredSegments();
+		if (walLogs.isEmpty())
+			return;
+
+		logger.info("Restoring data from {} logs", walLogs.size());
+		WalRecovery recovery = new WalRecovery(walLogs, Integer
+				.parseInt(context.getProperty("wal.recovery.threads", DEFAULT_WAL_RECOVERY_THREADS)));
+
+		WalRecovery.Stats stats;
+		try {
+			stats = recovery.replay(doc -> {
+				if (memTable.size() >= maxSkipListSize) {
+					memTableQueue.add(memTable);
+					memTable = newMemTable();
 				}
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+				memTable.put(doc);
+				snapshots.recovered(doc.getSequence());
+			});
+		} catch (IOException e) {
+			// keep the logs for another attempt
+			logger.error("Failed to restore from logs: {}", e.getMessage());
+			return;
+		}
+
+		if (memTable.length() > 0) {
+			memTableQueue.add(memTable);
+			memTable = newMemTable();
 		}
+		int memTables = memTableQueue.size();
+		long flushStart = System.currentTimeMillis();
+		new MemTableFlusher(memTableQueue).run();
+
+		logger.info("Restored {} records, {} MB from {} logs in {} ms ({} MB/s), flushed {} memTables in {} ms",
+				stats.records(), String.format("%.1f", stats.bytes() / 1048576.0), stats.segments(), stats.millis(),
+				String.format("%.1f", stats.megabytesPerSecond()), memTables,
+				System.currentTimeMillis() - flushStart);
+
+		// everything replayed is in SSTables now
+		if (memTableQueue.isEmpty())
+			wal.truncate(wal.currentSegment() - 1);
+	}
+
+	/**
+	 * empty memTable of the type selected by memtable.type
+	 * 
+	 * @return MemTable
+	 */
+	MemTable newMemTable() {
+		return switch (memTableType) {
+		case "skiplist" -> new SkipList();
+		case "concurrent" -> new ConcurrentSkipList();
+		// a quarter more than the flush threshold, for the write that crosses it
+		case "arena" -> new ArenaMemTable(maxSkipListSize + maxSkipListSize / 4);
+		default -> throw new IllegalArgumentException("Unknown memtable.type: " + memTableType);
+		};
 	}
 
 	/**
-	 * update levels
+	 * update levels from the current Version
 	 */
-	public void updateLevels() {
+	public synchronized void updateLevels() {
+		Version version = manifest.current();
 		List<Level> updated = new ArrayList<Level>();
 		for (int i = 0; i <= NUM_LEVELS; i++) {
-			Level level = new Level(i, this);
-			updated.add(level);
+			List<SSTable> sSTables = new ArrayList<SSTable>();
+			for (FileMetadata file : version.files(i))
+				sSTables.add(openSSTable(file));
+			updated.add(new Level(i, this, sSTables));
 		}
+
+		PinnedLevels previous = pinnedLevels;
+		pinnedLevels = new PinnedLevels(updated, this::dropSSTable);
 		levels = updated;
+		if (previous != null)
+			previous.release();
+		writeController.signal();
+	}
+
+	/**
+	 * log an edit to the MANIFEST and update levels to the Version that follows
+	 * from it
+	 * 
+	 * @param edit SSTables added and removed by a flush or compaction
+	 * @throws IOException if the edit cannot be logged, levels stay as they were
+	 */
+	public synchronized void apply(VersionEdit edit) throws IOException {
+		manifest.logAndApply(edit);
+		updateLevels();
+	}
+
+	public Manifest getManifest() {
+		return manifest;
+	}
+
+	public Snapshots getSnapshots() {
+		return snapshots;
+	}
+
+	/**
+	 * take a snapshot of the store. Reads at the snapshot see every write made
+	 * before it and none made after, without holding writers back. Older
+	 * versions of keys are kept until the snapshot is released.
+	 * 
+	 * @return Snapshot
+	 */
+	public Snapshots.Snapshot getSnapshot() {
+		return snapshots.acquire();
+	}
+
+	/**
+	 * release a snapshot taken by getSnapshot(), after which flushes and
+	 * compactions may drop the versions only it reads
+	 * 
+	 * @param snapshot Snapshot
+	 */
+	public void releaseSnapshot(Snapshots.Snapshot snapshot) {
+		snapshots.release(snapshot);
+	}
+
+	public ExecutorService getCompactionPool() {
+		return compactionPool;
+	}
+
+	public int getCompactionThreads() {
+		return compactionThreads;
+	}
+
+	/**
+	 * get the already opened SSTable for a file of the current Version, or open it
+	 * 
+	 * @param file SSTable in the MANIFEST
+	 * @return SSTable
+	 */
+	SSTable openSSTable(FileMetadata file) {
+		return openSSTables.computeIfAbsent(new File(dataDir, file.name()).getAbsolutePath(), path -> {
+			SSTable sSTable = new SSTable(file.level(), path);
+			sSTable.knownRange(file.smallest(), file.largest());
+			sSTable.sequenceRange(file.smallestSequence(), file.largestSequence());
+			return sSTable;
+		});
+	}
+
+	/**
+	 * keep track of an SSTable created by this process
+	 * 
+	 * @param sSTable SSTable
+	 */
+	public void registerSSTable(SSTable sSTable) {
+		openSSTables.put(sSTable.getIndexFile(), sSTable);
+	}
+
+	public RowCache getRowCache() {
+		return rowCache;
+	}
+
+	/**
+	 * forget an SSTable whose files are being deleted, releasing its index
+	 * 
+	 * @param sSTable SSTable
+	 */
+	public void closeSSTable(SSTable sSTable) {
+		openSSTables.remove(sSTable.getIndexFile());
+		sSTable.close();
+	}
+
+	/**
+	 * close and delete an SSTable replaced by a compaction, once neither the
+	 * current levels nor any reader hold it
+	 * 
+	 * @param sSTable SSTable
+	 */
+	private void dropSSTable(SSTable sSTable) {
+		closeSSTable(sSTable);
+		Compaction.deleteFiles(sSTable);
+	}
+
+	/**
+	 * levels of the current Version, held until released. Memtables are read
+	 * before, so that a record flushed in between is found in the levels.
+	 * 
+	 * @return PinnedLevels
+	 */
+	private PinnedLevels pinLevels() {
+		while (true) {
+			PinnedLevels pinned = pinnedLevels;
+			if (pinned.acquire())
+				return pinned;
+		}
 	}
 
 	/**
@@ -172,22 +439,235 @@ public class LSMTree implements KVStorage {
 	@Override
 	public KochuDoc get(byte[] key) {
 		var search = new KochuDoc(key, null, 0L);
-		if (memTable.containsKey(search))
-			return memTable.get(search).data;
 
-		Iterator<SkipList> iter = memTableQueue.descendingIterator();
-		while (iter.hasNext()) {
-			SkipList skiplist = iter.next();
-			if (skiplist.containsKey(search))
-				return skiplist.get(search).data;
+		long stamp = 0L, visible = snapshots.visible();
+		if (rowCache.isEnabled()) {
+			// a cached record of a write still being applied is not visible yet
+			KochuDoc cached = rowCache.get(search.getKey());
+			if (cached != null && cached.getSequence() <= visible)
+				return cached.isTombstone() ? new KochuDoc(null, new byte[] {}, 0) : cached;
+			stamp = rowCache.stamp(search.getKey());
+		}
+
+		KochuDoc doc = find(search, visible);
+		if (doc == null)
+			return new KochuDoc(null, new byte[] {}, 0);
+
+		// tombstones are cached too, so that a deleted key is no slower to read
+		if (rowCache.isEnabled())
+			rowCache.fill(doc, stamp);
+		return doc.isTombstone() ? new KochuDoc(null, new byte[] {}, 0) : doc;
+	}
+
+	/**
+	 * value of a key as of a snapshot
+	 * 
+	 * @param key      key
+	 * @param snapshot Snapshot taken by getSnapshot()
+	 * @return KochuDoc, with a null key if not found
+	 */
+	public KochuDoc get(byte[] key, Snapshots.Snapshot snapshot) {
+		KochuDoc doc = find(new KochuDoc(key, null, 0L), snapshot.sequence());
+		return doc == null || doc.isTombstone() ? new KochuDoc(null, new byte[] {}, 0) : doc;
+	}
+
+	/**
+	 * values of several keys, read at the same sequence number. The keys are
+	 * sorted and looked up together: each memTable is searched in key order, and
+	 * each SSTable has its index and blocks read once for all of its keys.
+	 *
+	 * @param keys keys, duplicates allowed
+	 * @return KochuDoc per key in the order of keys, with a null key if not found
+	 */
+	@Override
+	public List<KochuDoc> multiGet(List<byte[]> keys) {
+		long visible = snapshots.visible();
+
+		// distinct keys, in key order
+		TreeMap<byte[], KochuDoc> found = new TreeMap<byte[], KochuDoc>(Arrays::compareUnsigned);
+		for (byte[] key : keys)
+			found.put(key, null);
+
+		List<KochuDoc> pending = new ArrayList<KochuDoc>();
+		Map<byte[], Long> stamps = new TreeMap<byte[], Long>(Arrays::compareUnsigned);
+		for (byte[] key : found.keySet()) {
+			KochuDoc search = new KochuDoc(key, null, 0L);
+			if (rowCache.isEnabled()) {
+				KochuDoc cached = rowCache.get(search.getKey());
+				if (cached != null && cached.getSequence() <= visible) {
+					found.put(key, cached);
+					continue;
+				}
+				stamps.put(key, rowCache.stamp(search.getKey()));
+			}
+			pending.add(search);
+		}
+
+		List<MemTable> memTables = new ArrayList<MemTable>();
+		memTables.add(memTable);
+		memTableQueue.descendingIterator().forEachRemaining(memTables::add);
+		for (MemTable table : memTables) {
+			if (pending.isEmpty())
+				break;
+			KochuDoc[] docs = new KochuDoc[pending.size()];
+			for (int i = 0; i < docs.length; i++)
+				docs[i] = table.search(pending.get(i), visible);
+			pending = resolve(pending, docs, found, stamps);
+		}
+
+		PinnedLevels pinned = pinLevels();
+		try {
+			for (Level level : pinned.levels()) {
+				if (pending.isEmpty())
+					break;
+				pending = resolve(pending, level.search(pending, visible), found, stamps);
+			}
+		} finally {
+			pinned.release();
+		}
+
+		List<KochuDoc> result = new ArrayList<KochuDoc>(keys.size());
+		for (byte[] key : keys) {
+			KochuDoc doc = found.get(key);
+			result.add(doc == null || doc.isTombstone() ? new KochuDoc(null, new byte[] {}, 0) : doc);
+		}
+		return result;
+	}
+
+	/**
+	 * record the keys of a multiGet found in a memTable or level, caching them
+	 * like get() does
+	 *
+	 * @return keys still to search for, in key order
+	 */
+	private List<KochuDoc> resolve(List<KochuDoc> pending, KochuDoc[] docs, Map<byte[], KochuDoc> found,
+			Map<byte[], Long> stamps) {
+		List<KochuDoc> remaining = new ArrayList<KochuDoc>();
+		for (int i = 0; i < docs.length; i++) {
+			if (docs[i] == null) {
+				remaining.add(pending.get(i));
+				continue;
+			}
+
+			byte[] key = pending.get(i).getKey().bytes();
+			found.put(key, docs[i]);
+			if (rowCache.isEnabled())
+				rowCache.fill(docs[i], stamps.get(key));
 		}
+		return remaining;
+	}
+
+	/**
+	 * most recent record of a key in the memTables and levels, written at or
+	 * before a sequence number. The search stops at the first record found, a
+	 * tombstone included.
+	 * 
+	 * @param search   doc holding the key
+	 * @param snapshot sequence number
+	 * @return KochuDoc, or null if not found
+	 */
+	private KochuDoc find(KochuDoc search, long snapshot) {
+		KochuDoc doc = memTable.search(search, snapshot);
+		if (doc != null)
+			return doc;
 
-		for (Level level : levels) {
-			KochuDoc doc = level.search(search);
+		Iterator<MemTable> iter = memTableQueue.descendingIterator();
+		while (iter.hasNext()) {
+			doc = iter.next().search(search, snapshot);
 			if (doc != null)
 				return doc;
 		}
-		return new KochuDoc(null, new byte[] {}, 0);
+
+		PinnedLevels pinned = pinLevels();
+		try {
+			for (Level level : pinned.levels()) {
+				doc = level.search(search, snapshot);
+				if (doc != null)
+					return doc;
+			}
+		} finally {
+			pinned.release();
+		}
+		return null;
+	}
+
+	/**
+	 * most recent records of the keys in [startKey, endKey), in key order
+	 * 
+	 * @param startKey first key, inclusive
+	 * @param endKey   last key, exclusive. Empty or null for no upper bound
+	 * @param limit    maximum number of records
+	 * @return Iterator of KochuDoc
+	 */
+	@Override
+	public Iterator<KochuDoc> scan(byte[] startKey, byte[] endKey, int limit) {
+		return scan(startKey, endKey, limit, snapshots.visible());
+	}
+
+	/**
+	 * records of the keys in [startKey, endKey) as of a snapshot, in key order
+	 * 
+	 * @param startKey first key, inclusive
+	 * @param endKey   last key, exclusive. Empty or null for no upper bound
+	 * @param limit    maximum number of records
+	 * @param snapshot Snapshot taken by getSnapshot()
+	 * @return Iterator of KochuDoc
+	 */
+	public Iterator<KochuDoc> scan(byte[] startKey, byte[] endKey, int limit, Snapshots.Snapshot snapshot) {
+		return scan(startKey, endKey, limit, snapshot.sequence());
+	}
+
+	private Iterator<KochuDoc> scan(byte[] startKey, byte[] endKey, int limit, long snapshot) {
+		if (startKey == null)
+			startKey = new byte[0];
+		if (endKey != null && endKey.length == 0)
+			endKey = null;
+
+		// newest first: active memTable, queued memTables, then levels top down
+		List<Iterator<KochuDoc>> sources = new ArrayList<Iterator<KochuDoc>>();
+		KochuDoc from = new KochuDoc(startKey, null, 0L);
+
+		sources.add(memTable.versions(from));
+		Iterator<MemTable> queued = memTableQueue.descendingIterator();
+		while (queued.hasNext())
+			sources.add(queued.next().versions(from));
+
+		// the SSTables stay until the scan is done with them
+		PinnedLevels pinned = pinLevels();
+		for (Level level : pinned.levels())
+			for (SSTable sSTable : level.getSegments())
+				sources.add(sSTable.iterator(startKey));
+
+		return pinned.holding(new MergingIterator(sources, startKey, endKey, limit, snapshot));
+	}
+
+	/**
+	 * most recent records of the keys starting with the given prefix, in key order
+	 * 
+	 * @param prefix key prefix
+	 * @param limit  maximum number of records
+	 * @return Iterator of KochuDoc
+	 */
+	@Override
+	public Iterator<KochuDoc> prefix(byte[] prefix, int limit) {
+		return scan(prefix, prefixEnd(prefix), limit);
+	}
+
+	/**
+	 * smallest key greater than all keys starting with the prefix
+	 * 
+	 * @param prefix key prefix
+	 * @return key, or null if there is none
+	 */
+	static byte[] prefixEnd(byte[] prefix) {
+		for (int i = prefix.length - 1; i >= 0; i--) {
+			if (prefix[i] != (byte) 0xFF) {
+				byte[] end = Arrays.copyOf(prefix, i + 1);
+				end[i]++;
+				return end;
+			}
+		}
+		return null;
 	}
 
 	/**
@@ -197,52 +677,220 @@ public class LSMTree implements KVStorage {
 	 */
 	@Override
 	public KochuDoc set(KochuDoc doc) {
-		if (curSkipListSize >= maxSkipListSize) {
-			memTable.writeLock.lock();
+		if (!writeController.admit())
+			return new KochuDoc(null, WRITE_STALLED.getBytes(), 0L);
 
-			try {
-				memTableQueue.add(memTable);
-				memTable = new SkipList();
-				if (memTableQueue.size() > 5) {
-					// create new WAL
-				}
-			} finally {
-				memTableQueue.peekLast().writeLock.unlock();
-			}
+		if (memTable.size() >= maxSkipListSize)
+			rotateMemTable();
 
-			memTableExecutor.submit(new MemTableFlusher(memTableQueue));
-			curSkipListSize = 0;
-		}
+		KochuDoc invalid = validate(doc);
+		if (invalid != null)
+			return invalid;
 
+		if (!putToMemTable(List.of(doc), doc::serialize))
+			return new KochuDoc(null, "Error: Write-ahead log append failed".getBytes(), 0L);
+
+		return doc;
+	}
+
+	/**
+	 * error for a record that cannot be stored
+	 * 
+	 * @param doc record
+	 * @return KochuDoc holding the error, or null if the record is valid
+	 */
+	private KochuDoc validate(KochuDoc doc) {
 		if (doc.getKey().length() > 255)
 			return new KochuDoc(null, "Error: Key too long. Max allowed size is 256".getBytes(), 0L);
-		;
 
-		if (doc.getValue().length() > VALUE_MAX_SIZE)
+		if (!doc.isTombstone() && doc.getValue().bytes() == null)
+			return new KochuDoc(null, "Error: Value is missing".getBytes(), 0L);
+
+		if (!doc.isTombstone() && doc.getValue().length() > VALUE_MAX_SIZE)
 			return new KochuDoc(null, "Error: Value too long. Max allowed size is 4MB".getBytes(), 0L);
+		return null;
+	}
 
-		memTable.put(doc);
+	/**
+	 * Apply the puts and deletes of a batch atomically: they are logged as one
+	 * WAL record, added to the memTable in one pass, and readers see all of them
+	 * or none
+	 */
+	@Override
+	public KochuDoc write(WriteBatch batch) {
+		if (!writeController.admit())
+			return new KochuDoc(null, WRITE_STALLED.getBytes(), 0L);
 
-		// append WAL iff it's from the WAL
-		if ((Boolean) context.getOrDefault("alive", false))
-			wal.append(doc.serialize());
+		if (batch.count() == 0)
+			return new KochuDoc(null, "Error: Batch is empty".getBytes(), 0L);
 
-		curSkipListSize += doc.length();
+		if (batch.size() > WRITE_BATCH_MAX_SIZE)
+			return new KochuDoc(null, "Error: Batch too large. Max allowed size is 64MB".getBytes(), 0L);
 
-		return doc;
+		for (KochuDoc doc : batch.docs()) {
+			KochuDoc invalid = validate(doc);
+			if (invalid != null)
+				return invalid;
+		}
+
+		if (memTable.size() >= maxSkipListSize)
+			rotateMemTable();
+
+		if (!putToMemTable(batch.docs(), batch::serialize))
+			return new KochuDoc(null, "Error: Write-ahead log append failed".getBytes(), 0L);
+
+		return new KochuDoc(null, ("OK, " + batch.count() + " writes").getBytes(), Instant.now().toEpochMilli());
 	}
 
 	/**
-	 * Delete key from data store
+	 * Delete key from data store by writing a tombstone, which hides older
+	 * records of the key until compaction drops them. The tombstone is written
+	 * like any other record, see set.
 	 */
 	@Override
 	public KochuDoc del(byte[] key) {
-		KochuDoc doc = new KochuDoc(key, null, Instant.now().toEpochMilli());
-		memTable.put(doc);
+		return set(KochuDoc.tombstone(key, Instant.now().toEpochMilli()));
+	}
 
-		// append WAL
-		if ((boolean) context.getOrDefault("alive", false))
-			wal.append(doc.serialize());
-		return doc;
+	/**
+	 * wait until a record is durable in the WAL as per wal.sync. Concurrent
+	 * callers share one write and one sync. The wait is not interruptible, an
+	 * interrupted writer could not tell whether its record is in the log.
+	 * 
+	 * @param logged future of the WAL append
+	 * @param doc    record
+	 * @return false if the record could not be logged
+	 */
+	private boolean awaitWal(CompletableFuture<Void> logged, KochuDoc doc) {
+		try {
+			logged.join();
+			return true;
+		} catch (CompletionException e) {
+			logger.error("Failed to log key {}: {}", new String(doc.getKey().bytes(), StandardCharsets.UTF_8),
+					e.getCause() == null ? e.getMessage() : e.getCause().getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * number records, log them as one WAL record to the segment of the active
+	 * memTable and, once they are durable, add them to the memTable. They become
+	 * visible together, and only after they are logged: records the WAL failed to
+	 * take are never applied. Any number of writers may do so at once.
+	 * 
+	 * The row cache is updated once the records are visible. The update also
+	 * turns away fills of the older versions by readers that looked before.
+	 * 
+	 * @param docs   records
+	 * @param record WAL record of the numbered records
+	 * @return false if the records could not be logged, and were not applied
+	 */
+	private boolean putToMemTable(List<KochuDoc> docs, Supplier<byte[]> record) {
+		// taken in stripe order, so that batches sharing keys cannot deadlock
+		int[] stripes = docs.stream().mapToInt(doc -> Math.floorMod(doc.getKey().hashCode(), writeStripes.length))
+				.sorted().distinct().toArray();
+
+		memTableLock.readLock().lock();
+		for (int stripe : stripes)
+			writeStripes[stripe].lock();
+		try {
+			long first = snapshots.next(docs.size());
+			boolean logged = false;
+			try {
+				long sequence = first;
+				for (KochuDoc doc : docs)
+					doc.setSequence(sequence++);
+
+				// append WAL iff it's not from the WAL. The locks held keep the memTable
+				// and its segment together, and writers of the same keys in log order
+				if ((Boolean) context.getOrDefault("alive", false)
+						&& !awaitWal(wal.appendAsync(record.get()), docs.get(0)))
+					return false;
+				logged = true;
+
+				for (KochuDoc doc : docs)
+					memTable.put(doc);
+				return true;
+			} finally {
+				// a failed write gives up its sequence numbers
+				snapshots.applied(first, docs.size());
+				if (logged && rowCache.isEnabled())
+					docs.forEach(rowCache::update);
+			}
+		} finally {
+			for (int stripe : stripes)
+				writeStripes[stripe].unlock();
+			memTableLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * queue the full memTable for flushing and start a new one
+	 */
+	private void rotateMemTable() {
+		memTableLock.writeLock().lock();
+		try {
+			// another writer got here first
+			if (memTable.size() < maxSkipListSize)
+				return;
+
+			memTableQueue.add(memTable);
+			walSegments.put(memTable, wal.rotate());
+			memTable = newMemTable();
+		} finally {
+			memTableLock.writeLock().unlock();
+		}
+
+		memTableExecutor.submit(new MemTableFlusher(memTableQueue, snapshots::live, this::memTableFlushed));
+	}
+
+	/**
+	 * delete the WAL segments of a memTable that is now safe in an SSTable
+	 * 
+	 * @param flushed memTable
+	 */
+	private void memTableFlushed(MemTable flushed) {
+		Long segment = walSegments.remove(flushed);
+		if (segment != null)
+			wal.truncate(segment);
+
+		writeController.signal();
+		logger.trace("{}", writeController);
+	}
+
+	public WriteController getWriteController() {
+		return writeController;
+	}
+
+	/**
+	 * stop the compactor and the flusher, letting a running compaction or flush
+	 * finish, then close the WAL, the MANIFEST and the open SSTables. Records
+	 * still in memTables are left to WAL recovery.
+	 */
+	public void close() {
+		shutdown(compactorExecutor);
+		shutdown(compactionPool);
+		shutdown(memTableExecutor);
+
+		wal.close();
+		try {
+			manifest.close();
+		} catch (IOException e) {
+			logger.warn("Failed to close the MANIFEST: {}", e.getMessage());
+		}
+		for (SSTable sSTable : openSSTables.values())
+			sSTable.close();
+		openSSTables.clear();
+		logger.info("Storage closed");
+	}
+
+	private static void shutdown(ExecutorService executor) {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(1, TimeUnit.MINUTES))
+				logger.warn("Timed out waiting for background tasks to finish");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 	}
 }
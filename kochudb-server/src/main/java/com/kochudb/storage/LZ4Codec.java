@@ -0,0 +1,178 @@
+package com.kochudb.storage;
+
+import static com.kochudb.utils.ByteUtil.readVarInt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Pure Java implementation of the LZ4 block format: byte oriented LZ77 with no
+ * entropy coding, so both directions run at memory speed. Meant for the upper
+ * levels, where blocks are written and read the most.
+ *
+ * A compressed block is [len(uncompressed) varint, LZ4 sequences]. Each
+ * sequence is [token, literal length extension, literals, match offset 2 bytes
+ * little endian, match length extension]; the last one holds literals only.
+ */
+public class LZ4Codec implements Codec {
+
+    static final byte ID = 2;
+
+    static final LZ4Codec INSTANCE = new LZ4Codec();
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+
+    // the format requires the last 5 bytes to be literals, and the last match to
+    // start at least 12 bytes before the end
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+
+    private static final int HASH_BITS = 12;
+
+    private LZ4Codec() {
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "lz4";
+    }
+
+    @Override
+    public byte[] compress(byte[] src) {
+        int n = src.length;
+        byte[] dst = new byte[5 + n + n / 255 + 16];
+        int op = writeVarInt(dst, 0, n);
+
+        // position + 1 of the last occurrence of each hashed 4 byte sequence
+        int[] table = new int[1 << HASH_BITS];
+        int anchor = 0, ip = 0;
+
+        while (ip < n - MATCH_FIND_LIMIT) {
+            int sequence = readInt(src, ip);
+            int h = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int ref = table[h] - 1;
+            table[h] = ip + 1;
+
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                ip++;
+                continue;
+            }
+
+            // extend the match backwards over pending literals, then forwards
+            while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+                ip--;
+                ref--;
+            }
+            int matchLength = MIN_MATCH;
+            while (ip + matchLength < n - LAST_LITERALS && src[ip + matchLength] == src[ref + matchLength])
+                matchLength++;
+
+            int token = op++;
+            int literals = ip - anchor;
+            op = writeLength(dst, op, literals);
+            System.arraycopy(src, anchor, dst, op, literals);
+            op += literals;
+
+            int offset = ip - ref;
+            dst[op++] = (byte) offset;
+            dst[op++] = (byte) (offset >>> 8);
+            op = writeLength(dst, op, matchLength - MIN_MATCH);
+
+            dst[token] = (byte) ((Math.min(literals, 15) << 4) | Math.min(matchLength - MIN_MATCH, 15));
+
+            ip += matchLength;
+            anchor = ip;
+        }
+
+        int literals = n - anchor;
+        dst[op++] = (byte) (Math.min(literals, 15) << 4);
+        op = writeLength(dst, op, literals);
+        System.arraycopy(src, anchor, dst, op, literals);
+        op += literals;
+
+        return Arrays.copyOf(dst, op);
+    }
+
+    @Override
+    public byte[] decompress(ByteBuffer compressed) throws IOException {
+        ByteBuffer src = compressed.duplicate();
+        try {
+            byte[] dst = new byte[readVarInt(src)];
+            int op = 0;
+
+            while (true) {
+                int token = src.get() & 0xFF;
+
+                int literals = readLength(src, token >>> 4);
+                src.get(dst, op, literals);
+                op += literals;
+
+                if (!src.hasRemaining())
+                    break;
+
+                int offset = (src.get() & 0xFF) | (src.get() & 0xFF) << 8;
+                int matchLength = readLength(src, token & 0x0F) + MIN_MATCH;
+                int ref = op - offset;
+                if (offset == 0 || ref < 0)
+                    throw new IOException("Corrupt LZ4 block");
+
+                // matches may overlap the bytes they produce, copy byte by byte
+                for (int i = 0; i < matchLength; i++)
+                    dst[op + i] = dst[ref + i];
+                op += matchLength;
+            }
+
+            if (op != dst.length)
+                throw new IOException("Corrupt LZ4 block");
+            return dst;
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt LZ4 block", e);
+        }
+    }
+
+    /**
+     * write the extension bytes of a length whose first 4 bits are in the token
+     */
+    private static int writeLength(byte[] dst, int op, int length) {
+        if (length >= 15) {
+            int rest = length - 15;
+            while (rest >= 255) {
+                dst[op++] = (byte) 255;
+                rest -= 255;
+            }
+            dst[op++] = (byte) rest;
+        }
+        return op;
+    }
+
+    private static int readLength(ByteBuffer src, int length) {
+        if (length == 15) {
+            int b;
+            do {
+                b = src.get() & 0xFF;
+                length += b;
+            } while (b == 255);
+        }
+        return length;
+    }
+
+    private static int readInt(byte[] src, int pos) {
+        return (src[pos] & 0xFF) | (src[pos + 1] & 0xFF) << 8 | (src[pos + 2] & 0xFF) << 16 | (src[pos + 3] & 0xFF) << 24;
+    }
+
+    private static int writeVarInt(byte[] dst, int op, int value) {
+        while ((value & ~0x7F) != 0) {
+            dst[op++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dst[op++] = (byte) value;
+        return op;
+    }
+}
@@ -2,52 +2,90 @@ package com.kochudb.storage;
 
 import static com.kochudb.k.K.LEVEL_MAX_SIZE_MULTIPLIER;
 import static com.kochudb.k.K.LEVEL_ZERO_FILE_MAX_SIZE_KB;
+import static com.kochudb.k.K.NUM_LEVELS;
 
-import java.io.File;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.kochudb.types.ByteArray;
 import com.kochudb.types.KochuDoc;
-import com.kochudb.utils.ByteUtil;
-import com.kochudb.utils.FileUtil;
 
+/**
+ * SSTables of one level of the tree. Level 0 holds flushed memTables, which may
+ * overlap, newest first. Deeper levels hold sorted runs of SSTables with
+ * disjoint key ranges, ordered by key, so that a lookup reads at most one
+ * SSTable per level.
+ *
+ * Levels written by earlier versions may overlap. Such a level is searched
+ * like level 0 until a compaction into it rewrites it as a whole.
+ */
 public class Level {
 
     private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
 
+    // largest key of the last compaction out of each level. The next one starts
+    // after it, so that compactions go round the key space.
+    private static final byte[][] compactPointers = new byte[NUM_LEVELS + 1][];
+
     private int level;
     private final LSMTree lsmTree;
     private List<SSTable> sSTables;
-    private PriorityQueue<Object[]> keyValueHeap;
 
-    public Level(int level, LSMTree tree) {
+    // whether the key ranges of the SSTables may overlap
+    private final boolean overlapping;
+
+    // smallest key of each SSTable of a sorted run, for binary search
+    private final byte[][] smallestKeys;
+
+    /**
+     * Constructor
+     *
+     * @param level    level number
+     * @param tree     tree
+     * @param sSTables SSTables of the level in the current Version, newest first
+     *                 so that the most recent version of a key is found first
+     */
+    public Level(int level, LSMTree tree, List<SSTable> sSTables) {
         this.level = level;
         this.lsmTree = tree;
-        sSTables = new LinkedList<SSTable>();
-        keyValueHeap = new PriorityQueue<Object[]>((first, second) -> {
-            KochuDoc keyFirst = (KochuDoc) first[0];
-            KochuDoc keySecond = (KochuDoc) second[0];
-
-            if (keyFirst.compareTo(keySecond) == 0) {
-                SSTable segFirst = (SSTable) first[1];
-                SSTable segSecond = (SSTable) second[1];
-                return segFirst.getIndexFile().compareTo(segSecond.getIndexFile());
-            }
-            return keyFirst.compareTo(keySecond);
-        });
+        this.sSTables = new CopyOnWriteArrayList<SSTable>();
+
+        List<SSTable> run = level == 0 ? null : sortedRun(sSTables);
+        overlapping = run == null;
+        this.sSTables.addAll(overlapping ? sSTables : run);
+
+        smallestKeys = new byte[overlapping ? 0 : run.size()][];
+        for (int i = 0; i < smallestKeys.length; i++)
+            smallestKeys[i] = run.get(i).smallestKey();
+    }
 
-        List<File> files = Arrays.asList(FileUtil.findFiles(LSMTree.dataDir.getAbsolutePath(), level));
-        for (File file : files)
-            sSTables.add(new SSTable(level, file.getAbsolutePath()));
+    /**
+     * SSTables ordered by key, if their key ranges are disjoint
+     *
+     * @param sSTables SSTables of a level
+     * @return SSTables by smallest key, or null if any two of them overlap
+     */
+    static List<SSTable> sortedRun(List<SSTable> sSTables) {
+        List<SSTable> run = new ArrayList<SSTable>();
+        for (SSTable sSTable : sSTables)
+            if (sSTable.smallestKey() != null)
+                run.add(sSTable);
+        run.sort((a, b) -> Arrays.compareUnsigned(a.smallestKey(), b.smallestKey()));
+
+        for (int i = 1; i < run.size(); i++)
+            if (Arrays.compareUnsigned(run.get(i - 1).largestKey(), run.get(i).smallestKey()) >= 0)
+                return null;
+        return run;
+    }
+
+    public boolean isOverlapping() {
+        return overlapping;
     }
 
     public int getLevel() {
@@ -65,101 +103,277 @@ public class Level {
      * @return ByteArray value
      */
     public KochuDoc search(KochuDoc doc) {
+        byte[] key = doc.getKey().bytes();
+        if (!overlapping) {
+            SSTable sSTable = find(key);
+            return sSTable == null || !sSTable.mightContain(key) ? null : sSTable.search(doc);
+        }
+
         for (SSTable sSTable : sSTables) {
-            KochuDoc indexDoc = sSTable.search(doc);
-            if (indexDoc != null) {
+            if (!sSTable.mightContain(key))
+                continue;
 
-                long offset = ByteUtil.bytesToLong(indexDoc.getValue().bytes());
-                KochuDoc data = sSTable.readKochuDoc(offset);
+            KochuDoc data = sSTable.search(doc);
+            if (data != null)
                 return data;
-            }
         }
         return null;
     }
 
     /**
-     * compact all segments in given level to a merged segment in next higher level
-     * 
-     * @param level
-     * @throws IOException
+     * search the SSTables of this level for the newest version of a key visible
+     * at a snapshot. SSTables written entirely after the snapshot are skipped.
+     *
+     * @param doc      doc holding the key
+     * @param snapshot sequence number
+     * @return KochuDoc, or null if not found
      */
-    public void compactLevel() throws IOException {
+    public KochuDoc search(KochuDoc doc, long snapshot) {
+        byte[] key = doc.getKey().bytes();
+        if (!overlapping) {
+            SSTable sSTable = find(key);
+            return sSTable == null || sSTable.smallestSequence() > snapshot || !sSTable.mightContain(key) ? null
+                    : sSTable.search(doc, snapshot);
+        }
+
         for (SSTable sSTable : sSTables) {
-            SkipList skiplist = sSTable.parseIndex();
-            Iterator<SkipListNode> iter = skiplist.iterator();
-            while (iter.hasNext()) {
-                SkipListNode node = iter.next();
-                Object[] objArray = new Object[] { node.data, sSTable };
-                keyValueHeap.offer(objArray);
-            }
+            if (sSTable.smallestSequence() > snapshot || !sSTable.mightContain(key))
+                continue;
+
+            KochuDoc data = sSTable.search(doc, snapshot);
+            if (data != null)
+                return data;
         }
+        return null;
+    }
 
-        SkipList skipList = new SkipList();
+    /**
+     * search the SSTables of this level for several keys visible at a snapshot.
+     * Each SSTable is searched once, for the keys of the batch in its range whose
+     * filter matches.
+     *
+     * @param docs     keys to search for, in key order
+     * @param snapshot sequence number
+     * @return records in the order of docs, null where not found
+     */
+    public KochuDoc[] search(List<KochuDoc> docs, long snapshot) {
+        KochuDoc[] found = new KochuDoc[docs.size()];
+        if (!overlapping) {
+            // keys in order go to SSTables in order, one run of keys per SSTable
+            for (int i = 0; i < found.length;) {
+                SSTable sSTable = find(docs.get(i).getKey().bytes());
+                int end = i + 1;
+                while (end < found.length && sSTable != null && sSTable == find(docs.get(end).getKey().bytes()))
+                    end++;
+                if (sSTable != null && sSTable.smallestSequence() <= snapshot)
+                    search(sSTable, docs, i, end, snapshot, found);
+                i = end;
+            }
+            return found;
+        }
 
-        long maxFileSizeInLevel = computeMaxFileSizeInLevel(level + 1);
-        while (!keyValueHeap.isEmpty()) {
-            Object[] objArray = keyValueHeap.poll();
-            KochuDoc doc = (KochuDoc) objArray[0];
+        for (SSTable sSTable : sSTables)
+            if (sSTable.smallestSequence() <= snapshot)
+                search(sSTable, docs, 0, found.length, snapshot, found);
+        return found;
+    }
 
-            while (!keyValueHeap.isEmpty() && doc.compareTo((KochuDoc) keyValueHeap.peek()[0]) == 0) {
-                objArray = keyValueHeap.poll();
-                doc = (KochuDoc) objArray[0];
+    // search one SSTable for the keys in [from, to) not found yet
+    private static void search(SSTable sSTable, List<KochuDoc> docs, int from, int to, long snapshot,
+            KochuDoc[] found) {
+        List<KochuDoc> candidates = new ArrayList<KochuDoc>();
+        List<Integer> positions = new ArrayList<Integer>();
+        for (int i = from; i < to; i++) {
+            if (found[i] == null && sSTable.mightContain(docs.get(i).getKey().bytes())) {
+                candidates.add(docs.get(i));
+                positions.add(i);
             }
+        }
+        if (candidates.isEmpty())
+            return;
 
-            Long offset = ByteUtil.bytesToLong(((ByteArray) doc.getValue()).bytes());
-            SSTable sSTable = (SSTable) objArray[1];
+        KochuDoc[] docsFound = sSTable.search(candidates, snapshot);
+        for (int i = 0; i < docsFound.length; i++)
+            found[positions.get(i)] = docsFound[i];
+    }
 
-            KochuDoc dataDoc = sSTable.readKochuDoc(offset);
-            skipList.put(dataDoc);
+    /**
+     * whether any SSTable of this level may hold a record of the key
+     *
+     * @param key key
+     * @return false if no SSTable of the level holds the key
+     */
+    boolean mayContain(byte[] key) {
+        if (!overlapping) {
+            SSTable sSTable = find(key);
+            return sSTable != null && sSTable.mightContain(key);
+        }
 
-            if (skipList.size() >= maxFileSizeInLevel) {
-                SSTable newSegment = new SSTable(level + 1);
-                newSegment.persist(skipList);
-                LSMTree.filesToRename.add(newSegment.getIndexFile());
+        for (SSTable sSTable : sSTables)
+            if (sSTable.overlaps(key, key) && sSTable.mightContain(key))
+                return true;
+        return false;
+    }
 
-                logger.debug("New data file created: {}", newSegment.getDataFile());
-                skipList = new SkipList();
-            }
+    /**
+     * the only SSTable of a sorted run whose key range may hold the key
+     *
+     * @param key key
+     * @return SSTable, or null if the key falls between SSTables
+     */
+    private SSTable find(byte[] key) {
+        int low = 0, high = smallestKeys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Arrays.compareUnsigned(smallestKeys[mid], key) <= 0)
+                low = mid + 1;
+            else
+                high = mid;
         }
+        if (low == 0)
+            return null;
+
+        SSTable sSTable = sSTables.get(low - 1);
+        return Arrays.compareUnsigned(sSTable.largestKey(), key) >= 0 ? sSTable : null;
+    }
+
+    /**
+     * SSTables to compact out of this level. In level 0, the oldest SSTable and
+     * all SSTables overlapping it, so that no older version of a key stays behind.
+     * In a sorted run, the SSTable after the previous compaction, or all of them
+     * if the level overlaps.
+     *
+     * @return SSTables, newest first
+     */
+    List<SSTable> pickInputs() {
+        List<SSTable> candidates = new ArrayList<SSTable>();
+        for (SSTable sSTable : sSTables)
+            if (sSTable.smallestKey() != null)
+                candidates.add(sSTable);
+        if (candidates.isEmpty())
+            return candidates;
 
-        if (skipList.length() > 0) {
-            SSTable ssTable = new SSTable(level + 1);
-            ssTable.persist(skipList);
-            LSMTree.filesToRename.add(ssTable.getIndexFile());
+        if (level > 0 && overlapping)
+            return candidates;
 
-            logger.debug("New data file created: {}", ssTable.getIndexFile());
-            logger.debug("New index file created: {}", ssTable.getDataFile());
+        if (level > 0) {
+            byte[] pointer = compactPointers[level];
+            for (SSTable sSTable : candidates)
+                if (pointer == null || Arrays.compareUnsigned(sSTable.smallestKey(), pointer) > 0)
+                    return List.of(sSTable);
+            return List.of(candidates.get(0));
         }
 
-        renameIndexFiles();
-        deleteCompactedFiles();
-        lsmTree.updateLevels();
+        SSTable oldest = candidates.get(candidates.size() - 1);
+        byte[] from = oldest.smallestKey(), to = oldest.largestKey();
+        boolean grown = true;
+        while (grown) {
+            grown = false;
+            for (SSTable sSTable : candidates) {
+                if (!sSTable.overlaps(from, to))
+                    continue;
+                if (Arrays.compareUnsigned(sSTable.smallestKey(), from) < 0) {
+                    from = sSTable.smallestKey();
+                    grown = true;
+                }
+                if (Arrays.compareUnsigned(sSTable.largestKey(), to) > 0) {
+                    to = sSTable.largestKey();
+                    grown = true;
+                }
+            }
+        }
+
+        List<SSTable> inputs = new ArrayList<SSTable>();
+        for (SSTable sSTable : candidates)
+            if (sSTable.overlaps(from, to))
+                inputs.add(sSTable);
+        return inputs;
     }
 
-    public void insert(SSTable sSTable) {
-        this.sSTables.add(0, sSTable);
+    /**
+     * SSTables of a level whose key range overlaps [from, to]. All of them if the
+     * level overlaps, so that it comes out as a sorted run.
+     *
+     * @param next next level
+     * @param from smallest key
+     * @param to   largest key
+     * @return SSTables
+     */
+    static List<SSTable> overlappingInputs(Level next, byte[] from, byte[] to) {
+        List<SSTable> inputs = new ArrayList<SSTable>();
+        for (SSTable sSTable : next.getSegments())
+            if (next.overlapping || sSTable.overlaps(from, to))
+                inputs.add(sSTable);
+        return inputs;
     }
 
-    private void renameIndexFiles() {
-        for (String tempName : LSMTree.filesToRename) {
-            FileUtil.renameIndexFile(tempName);
+    /**
+     * a compaction of a few SSTables of this level with the SSTables of the next
+     * level whose key ranges overlap them. Its outputs replace them in the next
+     * level, which stays a sorted run.
+     *
+     * @return Compaction, or null if there is nothing to compact
+     */
+    public Compaction compaction() {
+        // SSTables flushed while the compaction runs are not part of it
+        List<SSTable> picked = pickInputs();
+        if (picked.isEmpty())
+            return null;
+
+        byte[] from = null, to = null;
+        for (SSTable sSTable : picked) {
+            if (from == null || Arrays.compareUnsigned(sSTable.smallestKey(), from) < 0)
+                from = sSTable.smallestKey();
+            if (to == null || Arrays.compareUnsigned(sSTable.largestKey(), to) > 0)
+                to = sSTable.largestKey();
         }
-        LSMTree.filesToRename.clear();
+        List<SSTable> below = overlappingInputs(LSMTree.levels.get(level + 1), from, to);
+        logger.debug("Compacting {} SSTables of level {} with {} of level {}", picked.size(), level, below.size(),
+                level + 1);
+
+        // newer data first: this level newest first, then the next level
+        List<SSTable> inputs = new ArrayList<SSTable>(picked);
+        inputs.addAll(below);
+        return new Compaction(lsmTree, level, level + 1, inputs, computeMaxFileSizeInLevel(level + 1));
     }
 
     /**
-     * files that are compacted into bigger files are periodically deleted
+     * compact a part of this level into the next one and wait for it
+     * 
+     * @throws IOException
      */
-    private void deleteCompactedFiles() {
-        for (SSTable s : sSTables) {
-            File datafile = new File(s.getDataFile());
-            File indexfile = new File(s.getIndexFile());
-
-            logger.debug(indexfile.delete() ? "File deleted: {}" : "Failed to delete file: {}",
-                    indexfile.getAbsolutePath());
-            logger.debug(datafile.delete() ? "File deleted: {}" : "Failed to delete file: {}",
-                    datafile.getAbsolutePath());
-        }
+    public void compactLevel() throws IOException {
+        Compaction compaction = compaction();
+        if (compaction != null)
+            compaction.run();
+    }
+
+    /**
+     * remember where the last compaction out of a level ended
+     *
+     * @param level   level compacted out of
+     * @param largest largest key compacted
+     */
+    static void compacted(int level, byte[] largest) {
+        compactPointers[level] = largest;
+    }
+
+    /**
+     * forget where compactions ended, for a tree opened anew
+     */
+    static void resetCompactPointers() {
+        Arrays.fill(compactPointers, null);
+    }
+
+    /**
+     * add a flushed SSTable to this level through the MANIFEST
+     *
+     * @param sSTable SSTable
+     * @throws IOException if the edit cannot be logged
+     */
+    public void insert(SSTable sSTable) throws IOException {
+        lsmTree.registerSSTable(sSTable);
+        lsmTree.apply(new VersionEdit().add(level, sSTable));
     }
 
     private static long computeMaxFileSizeInLevel(int level) {
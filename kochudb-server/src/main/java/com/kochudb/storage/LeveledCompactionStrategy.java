@@ -0,0 +1,127 @@
+package com.kochudb.storage;
+
+import static com.kochudb.k.K.LEVEL_MAX_FILES_MULTIPLIER;
+import static com.kochudb.k.K.LEVEL_MAX_SIZE_MULTIPLIER;
+import static com.kochudb.k.K.LEVEL_ZERO_FILE_MAX_SIZE_KB;
+import static com.kochudb.k.K.LEVEL_ZERO_NUM_FILES;
+import static com.kochudb.k.K.NUM_LEVELS;
+
+import java.util.List;
+
+/**
+ * Leveled compaction: each level is allowed a number of files of a maximum
+ * size, both growing level by level. A level over its limit has a part of it
+ * merged with the overlapping part of the next level. Reads touch at most one
+ * SSTable per level below level 0, at the cost of rewriting data once per level
+ * and then some.
+ */
+public class LeveledCompactionStrategy implements CompactionStrategy {
+
+    // Maximum size of file in level 0 in bytes
+    private final long levelZeroFileSize;
+
+    private final LSMTree tree;
+
+    /**
+     * Constructor
+     *
+     * @param tree tree to compact
+     */
+    public LeveledCompactionStrategy(LSMTree tree) {
+        this.tree = tree;
+        this.levelZeroFileSize = 1024 * LEVEL_ZERO_FILE_MAX_SIZE_KB; // 4 kb
+    }
+
+    @Override
+    public Compaction pick(int level) {
+        // the last level has nowhere to compact into
+        if (level >= NUM_LEVELS || !shouldStartCompactionNow(level))
+            return null;
+        return LSMTree.levels.get(level).compaction();
+    }
+
+    @Override
+    public long debt() {
+        long debt = 0L;
+        for (int level = 0; level < NUM_LEVELS; level++)
+            debt += compactionDebt(level);
+        return debt;
+    }
+
+    @Override
+    public String name() {
+        return "leveled";
+    }
+
+    /**
+     * check if compaction criteria is met. Files and sizes are those of the
+     * current Version, leaving out outputs of running compactions and inputs
+     * only readers still hold.
+     *
+     * @param level current level
+     * @return boolean
+     */
+    boolean shouldStartCompactionNow(int level) {
+        List<FileMetadata> files = tree.getManifest().current().files(level);
+        if (files.isEmpty())
+            return false;
+
+        int allowedNumFilesInCurLevel = computeNumFilesInLevel(level);
+        if (files.size() > allowedNumFilesInCurLevel)
+            return true;
+
+        long maxFileSizeInLevel = computeMaxFileSizeInLevel(level);
+        long maxTotalSizeInLevel = allowedNumFilesInCurLevel * maxFileSizeInLevel;
+
+        return totalSize(files) > maxTotalSizeInLevel;
+    }
+
+    /**
+     * bytes by which a level exceeds its size limit, which compactions have yet
+     * to move down
+     *
+     * @param level current level
+     * @return bytes, 0 if the level is within its limit
+     */
+    long compactionDebt(int level) {
+        long maxTotalSizeInLevel = computeNumFilesInLevel(level) * computeMaxFileSizeInLevel(level);
+        long curTotalSizeInLevel = totalSize(tree.getManifest().current().files(level));
+        return Math.max(0L, curTotalSizeInLevel - maxTotalSizeInLevel);
+    }
+
+    private static long totalSize(List<FileMetadata> files) {
+        long size = 0L;
+        for (FileMetadata file : files)
+            size += file.size();
+        return size;
+    }
+
+    /**
+     * Compute the maximum size a file is allowed to have in the given level This is
+     * computed from the configuration properties. Number of files in the given
+     * level is equal to the number of files in prev level multiplied by the
+     * multiplier. At level 0, it's configured as 10.
+     *
+     * @param level current level
+     * @return max file size in current level
+     */
+    private long computeMaxFileSizeInLevel(int level) {
+        if (level > 0)
+            return computeMaxFileSizeInLevel(level - 1) * LEVEL_MAX_SIZE_MULTIPLIER;
+        return levelZeroFileSize;
+    }
+
+    /**
+     * computer number of files in the given level This is computed from the number
+     * of files in the prev level multiplied by a configured multiplier. Multiplier
+     * is configured for level 0.
+     *
+     * @param level - level of level compaction
+     * @return number of files in level
+     */
+    private int computeNumFilesInLevel(int level) {
+        if (level > 0)
+            return (int) (computeNumFilesInLevel(level - 1) * LEVEL_MAX_FILES_MULTIPLIER);
+        return LEVEL_ZERO_NUM_FILES;
+    }
+}
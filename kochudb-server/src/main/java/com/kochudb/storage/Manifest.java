@@ -0,0 +1,274 @@
+package com.kochudb.storage;
+
+import static com.kochudb.k.K.DATA_FILE_EXT;
+import static com.kochudb.k.K.FILTER_FILE_EXT;
+import static com.kochudb.k.K.INDEX_FILE_EXT;
+import static com.kochudb.k.K.MANIFEST_FORMAT_VERSION;
+import static com.kochudb.k.K.MANIFEST_MAGIC;
+import static com.kochudb.k.K.MANIFEST_MAX_SIZE_KB;
+import static com.kochudb.k.K.NUM_LEVELS;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.kochudb.utils.FileUtil;
+
+/**
+ * Append-only log of the VersionEdits applied to the tree, in the data
+ * directory. Replaying it gives the current Version, so the set and order of
+ * SSTables never depend on directory listings or file timestamps.
+ *
+ * Records are framed like WAL records, [length][crc32c][edit], behind a header
+ * of [magic][format version]. A torn record at the end, left by a crash while
+ * it was written, is ignored. On open, and whenever the log has grown past
+ * MANIFEST_MAX_SIZE_KB, it is rewritten as a single edit holding the current
+ * Version.
+ *
+ * A data directory without a MANIFEST, written by an earlier version, is read
+ * once by listing its files.
+ */
+public class Manifest {
+
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+    static final String FILE_NAME = "MANIFEST";
+    static final int HEADER_SIZE = 2 * Integer.BYTES;
+    static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+
+    // SSTable files of any level, including indexes of unfinished compactions
+    // left by earlier versions
+    private static final String SSTABLE_FILE_PATTERN = "^l[0-9]+_[0-9]+\\.[0-9]+\\.(idx|idxtmp|kdb|blm)$";
+
+    private final File dir, file;
+    private FileChannel channel;
+    private volatile Version current;
+
+    private Manifest(File dir, Version version) {
+        this.dir = dir;
+        this.file = new File(dir, FILE_NAME);
+        this.current = version;
+    }
+
+    /**
+     * read the MANIFEST of a data directory, or list the directory if there is
+     * none yet, and start a fresh log. SSTable files the Version does not refer
+     * to are deleted.
+     *
+     * @param dir data directory
+     * @return Manifest
+     * @throws IOException if the MANIFEST cannot be read or written
+     */
+    public static Manifest open(File dir) throws IOException {
+        File file = new File(dir, FILE_NAME);
+        Version version = file.exists() ? replay(file) : listDirectory(dir);
+
+        Manifest manifest = new Manifest(dir, version);
+        manifest.rewrite();
+        manifest.deleteUnreferenced();
+        return manifest;
+    }
+
+    public Version current() {
+        return current;
+    }
+
+    /**
+     * log an edit and make the Version that follows from it current. Added
+     * SSTables are numbered in the order they are added. Once the edit is logged
+     * the call succeeds: a failure to rewrite the log afterwards is only logged,
+     * and the log keeps growing until a later rewrite succeeds.
+     *
+     * @param edit edit
+     * @return the new Version
+     * @throws IOException if the edit cannot be logged, the Version stays as it
+     *                     was and the log does not hold the edit
+     */
+    public synchronized Version logAndApply(VersionEdit edit) throws IOException {
+        VersionEdit numbered = edit.numbered(current.lastNumber() + 1);
+        append(numbered.encode());
+        current = current.apply(numbered);
+
+        try {
+            if (channel.size() > MANIFEST_MAX_SIZE_KB * 1024L)
+                rewrite();
+        } catch (IOException e) {
+            logger.warn("Failed to rewrite the MANIFEST, appending to it as it is: {}", e.getMessage());
+            reopen();
+        }
+        return current;
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel != null)
+            channel.close();
+    }
+
+    /**
+     * append a record and sync it. A record that fails halfway is cut off again,
+     * so that a later record does not follow a torn one.
+     */
+    private void append(byte[] payload) throws IOException {
+        long end = channel.size();
+        try {
+            write(channel, payload);
+        } catch (IOException e) {
+            try {
+                channel.truncate(end);
+                channel.force(false);
+            } catch (IOException cut) {
+                e.addSuppressed(cut);
+            }
+            throw e;
+        }
+    }
+
+    private static void write(FileChannel out, byte[] payload) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        record.putInt(payload.length).putInt(checksum(payload)).put(payload).flip();
+        while (record.hasRemaining())
+            out.write(record);
+        out.force(false);
+    }
+
+    /**
+     * replace the log with one holding the current Version only. Appends go to
+     * the old log until the new one has been moved in its place.
+     */
+    private void rewrite() throws IOException {
+        File tmp = new File(dir, FILE_NAME + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MANIFEST_MAGIC).putInt(MANIFEST_FORMAT_VERSION)
+                    .flip();
+            while (header.hasRemaining())
+                out.write(header);
+            write(out, current.snapshot().encode());
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        FileChannel previous = channel;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (previous != null)
+            previous.close();
+        FileUtil.syncDirectory(dir);
+    }
+
+    /**
+     * open the MANIFEST in place again for appending, after a failed rewrite
+     * that may have left the channel on a file no longer in the directory
+     */
+    private void reopen() {
+        try {
+            FileChannel reopened = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            channel.close();
+            channel = reopened;
+        } catch (IOException e) {
+            logger.error("Failed to reopen the MANIFEST: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Version logged in a MANIFEST
+     *
+     * @param file MANIFEST
+     * @return Version
+     * @throws IOException if the MANIFEST cannot be read or is not one
+     */
+    static Version replay(File file) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        if (buf.remaining() < HEADER_SIZE || buf.getInt() != MANIFEST_MAGIC)
+            throw new IOException("Not a MANIFEST: " + file);
+        int format = buf.getInt();
+        if (format > MANIFEST_FORMAT_VERSION)
+            throw new IOException("Unsupported MANIFEST format " + format + ": " + file);
+
+        Version version = Version.empty();
+        int edits = 0;
+        while (buf.remaining() >= RECORD_HEADER_SIZE) {
+            int start = buf.position();
+            int length = buf.getInt(), expected = buf.getInt();
+            if (length < 0 || length > buf.remaining()
+                    || checksum(buf.slice(buf.position(), length)) != expected) {
+                buf.position(start);
+                break;
+            }
+
+            version = version.apply(VersionEdit.decode(buf.slice(buf.position(), length)));
+            buf.position(buf.position() + length);
+            edits++;
+        }
+
+        if (buf.hasRemaining())
+            logger.warn("MANIFEST ends in a torn record after {} bytes, the rest is ignored", buf.position());
+        logger.debug("Replayed {} MANIFEST edits", edits);
+        return version;
+    }
+
+    /**
+     * Version of a data directory without a MANIFEST, from the SSTables found in
+     * it. Their order within a level comes from their modification times, as
+     * before there was a MANIFEST.
+     *
+     * @param dir data directory
+     * @return Version
+     */
+    static Version listDirectory(File dir) {
+        VersionEdit edit = new VersionEdit();
+        long number = 0L;
+        for (int level = 0; level <= NUM_LEVELS; level++) {
+            for (File index : FileUtil.findFiles(dir.getAbsolutePath(), level)) {
+                SSTable sSTable = new SSTable(level, index.getAbsolutePath());
+                byte[] smallest = sSTable.smallestKey();
+                if (smallest != null)
+                    edit.add(new FileMetadata(level, ++number, index.getName(),
+                            new File(sSTable.getDataFile()).length(), smallest, sSTable.largestKey(), 0L, 0L));
+                sSTable.close();
+            }
+        }
+        logger.info("No MANIFEST found, {} SSTables listed in the data directory", edit.getAdded().size());
+        return Version.empty().apply(edit);
+    }
+
+    /**
+     * delete SSTable files the current Version does not refer to: outputs of
+     * flushes and compactions that were cut short, and empty SSTables
+     */
+    private void deleteUnreferenced() {
+        Set<String> referenced = new HashSet<String>();
+        for (int level = 0; level <= NUM_LEVELS; level++) {
+            for (FileMetadata meta : current.files(level)) {
+                String data = meta.name().replaceFirst(INDEX_FILE_EXT + "$", DATA_FILE_EXT);
+                referenced.add(meta.name());
+                referenced.add(data);
+                referenced.add(data.replaceFirst(DATA_FILE_EXT + "$", FILTER_FILE_EXT));
+            }
+        }
+
+        File[] files = dir.listFiles((d, name) -> name.matches(SSTABLE_FILE_PATTERN) && !referenced.contains(name));
+        for (File unreferenced : files == null ? new File[0] : files)
+            logger.info(unreferenced.delete() ? "Deleted unreferenced file {}" : "Failed to delete unreferenced file {}",
+                    unreferenced.getName());
+    }
+
+    private static int checksum(byte[] data) {
+        return checksum(ByteBuffer.wrap(data));
+    }
+
+    private static int checksum(ByteBuffer data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,104 @@
+package com.kochudb.storage;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.kochudb.utils.ByteUtil;
+
+/**
+ * Reads from a data file memory mapped once, on first use. Reads are served as
+ * slices of the mapping, without any system call.
+ *
+ * The mapping is reference counted: close() drops the reference held by the
+ * reader itself, and the file is unmapped as soon as reads in progress finish.
+ * Reads started after close() fail.
+ */
+public class MappedReader implements DataFileReader {
+
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+    private final String file;
+    private volatile MappedByteBuffer mapping;
+
+    // 1 for the reader itself plus 1 per read in progress, 0 once closed
+    private final AtomicInteger refs;
+
+    public MappedReader(String file) {
+        this.file = file;
+        this.refs = new AtomicInteger(1);
+    }
+
+    @Override
+    public <T> T read(long offset, int length, Decoder<T> decoder) throws IOException {
+        if (!acquire())
+            throw new IOException("File is closed: " + file);
+
+        try {
+            ByteBuffer slice = mapping().slice((int) offset, length);
+            return decoder.decode(slice);
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    private MappedByteBuffer mapping() throws IOException {
+        MappedByteBuffer map = mapping;
+        if (map == null) {
+            synchronized (this) {
+                map = mapping;
+                if (map == null) {
+                    try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+                        if (channel.size() > Integer.MAX_VALUE)
+                            throw new IOException("File too large to map: " + file);
+                        map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    }
+                    mapping = map;
+                }
+            }
+        }
+        return map;
+    }
+
+    private boolean acquire() {
+        while (true) {
+            int count = refs.get();
+            if (count == 0)
+                return false;
+            if (refs.compareAndSet(count, count + 1))
+                return true;
+        }
+    }
+
+    private void release() {
+        if (refs.decrementAndGet() == 0) {
+            MappedByteBuffer map = mapping;
+            mapping = null;
+            if (map != null)
+                unmap(map);
+        }
+    }
+
+    /**
+     * unmap without waiting for the buffer to be garbage collected, so that the
+     * address space and the deleted file are released right away
+     *
+     * @param buffer mapped buffer
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        if (!ByteUtil.freeDirectBuffer(buffer))
+            logger.debug("Mapping left to the garbage collector: {}", buffer);
+    }
+}
@@ -0,0 +1,104 @@
+package com.kochudb.storage;
+
+import java.util.Iterator;
+
+import com.kochudb.types.KochuDoc;
+
+/**
+ * Sorted, in-memory table of the most recent writes. Records are kept in key
+ * order until the table is flushed to an SSTable. A write to a key already in
+ * the table links the older record behind the new one, so that readers at a
+ * snapshot still find it.
+ */
+public interface MemTable {
+
+    /**
+     * add a record. The record of the same key, if present, becomes its previous
+     * version. Records of a key must be added in sequence order.
+     *
+     * @param doc record
+     */
+    public void put(KochuDoc doc);
+
+    /**
+     * newest record stored against the key of the given doc
+     *
+     * @param doc doc holding the key
+     * @return KochuDoc, or null if not found
+     */
+    public KochuDoc search(KochuDoc doc);
+
+    /**
+     * newest record of the key of the given doc written at or before a snapshot
+     *
+     * @param doc      doc holding the key
+     * @param snapshot sequence number
+     * @return KochuDoc, or null if not found or all versions are newer
+     */
+    public default KochuDoc search(KochuDoc doc, long snapshot) {
+        KochuDoc found = search(doc);
+        return found == null ? null : found.visibleAt(snapshot);
+    }
+
+    /**
+     * all records in key order, older versions linked behind each
+     *
+     * @return Iterator of KochuDoc
+     */
+    public Iterator<KochuDoc> records();
+
+    /**
+     * records whose keys are greater than or equal to the key of the given doc,
+     * in key order
+     *
+     * @param from doc holding the key to seek to
+     * @return Iterator of KochuDoc
+     */
+    public Iterator<KochuDoc> records(KochuDoc from);
+
+    /**
+     * every version of the records whose keys are greater than or equal to the
+     * key of the given doc, in key order and newest first within a key
+     *
+     * @param from doc holding the key to seek to
+     * @return Iterator of KochuDoc
+     */
+    public default Iterator<KochuDoc> versions(KochuDoc from) {
+        Iterator<KochuDoc> records = records(from);
+        return new Iterator<KochuDoc>() {
+            KochuDoc next;
+
+            @Override
+            public boolean hasNext() {
+                return next != null || records.hasNext();
+            }
+
+            @Override
+            public KochuDoc next() {
+                KochuDoc doc = next != null ? next : records.next();
+                next = doc.getPrevious();
+                return doc;
+            }
+        };
+    }
+
+    /**
+     * number of records
+     *
+     * @return int
+     */
+    public int length();
+
+    /**
+     * size of all records in bytes
+     *
+     * @return long
+     */
+    public long size();
+
+    /**
+     * release the memory held by the memTable, called once it is flushed
+     */
+    public default void close() {
+    }
+}
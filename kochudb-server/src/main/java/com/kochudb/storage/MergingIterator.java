@@ -0,0 +1,181 @@
+package com.kochudb.storage;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import com.kochudb.types.KochuDoc;
+
+/**
+ * K-way merge of sorted record iterators into a single iterator in key order,
+ * returning only the most recent version of each key visible at a snapshot.
+ *
+ * Sources are given newest first: memTables, then SSTables level by level.
+ * Within a source, versions of a key are newest first. When several sources
+ * hold the same key, the record of the newest source wins and the others are
+ * skipped. Deleted keys are skipped altogether.
+ *
+ * A merge for compaction returns every version of every key, tombstones
+ * included, and leaves it to the compaction to decide which to keep.
+ */
+public class MergingIterator implements Iterator<KochuDoc> {
+
+    private final PriorityQueue<Source> heap;
+    private final byte[] endKey;
+    private final long snapshot;
+    private final boolean allVersions;
+    private int remaining;
+
+    private KochuDoc next;
+
+    /**
+     * Constructor
+     *
+     * @param sources  iterators in key order, newest first
+     * @param startKey first key to return, inclusive
+     * @param endKey   last key to return, exclusive. null for no upper bound
+     * @param limit    maximum number of records to return
+     */
+    public MergingIterator(List<Iterator<KochuDoc>> sources, byte[] startKey, byte[] endKey, int limit) {
+        this(sources, startKey, endKey, limit, Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructor for a read at a snapshot
+     *
+     * @param sources  iterators in key order, newest first
+     * @param startKey first key to return, inclusive
+     * @param endKey   last key to return, exclusive. null for no upper bound
+     * @param limit    maximum number of records to return
+     * @param snapshot sequence number, newer versions are skipped
+     */
+    public MergingIterator(List<Iterator<KochuDoc>> sources, byte[] startKey, byte[] endKey, int limit,
+            long snapshot) {
+        this(sources, startKey, endKey, limit, snapshot, false);
+    }
+
+    private MergingIterator(List<Iterator<KochuDoc>> sources, byte[] startKey, byte[] endKey, int limit,
+            long snapshot, boolean allVersions) {
+        this.endKey = endKey;
+        this.snapshot = snapshot;
+        this.allVersions = allVersions;
+        this.remaining = limit;
+        this.heap = new PriorityQueue<Source>(Math.max(1, sources.size()), (first, second) -> {
+            int cmp = Arrays.compareUnsigned(first.doc.getKey().bytes(), second.doc.getKey().bytes());
+            return cmp != 0 ? cmp : Integer.compare(first.rank, second.rank);
+        });
+
+        for (int rank = 0; rank < sources.size(); rank++) {
+            Source source = new Source(sources.get(rank), rank);
+            // sources may start before the range, e.g. at the beginning of a block
+            while (source.advance())
+                if (Arrays.compareUnsigned(source.doc.getKey().bytes(), startKey) >= 0) {
+                    heap.add(source);
+                    break;
+                }
+        }
+    }
+
+    /**
+     * merge of whole SSTables for compaction, which keeps every version
+     *
+     * @param sources iterators in key order, newest first
+     * @return MergingIterator
+     */
+    public static MergingIterator forCompaction(List<Iterator<KochuDoc>> sources) {
+        return forCompaction(sources, new byte[0], null);
+    }
+
+    /**
+     * merge of a key range of SSTables for one sub-compaction, which keeps every
+     * version
+     *
+     * @param sources  iterators in key order, newest first
+     * @param startKey first key to return, inclusive
+     * @param endKey   last key to return, exclusive. null for no upper bound
+     * @return MergingIterator
+     */
+    public static MergingIterator forCompaction(List<Iterator<KochuDoc>> sources, byte[] startKey, byte[] endKey) {
+        return new MergingIterator(sources, startKey, endKey, Integer.MAX_VALUE, Long.MAX_VALUE, true);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && remaining > 0 && !heap.isEmpty()) {
+            Source newest = heap.poll();
+            KochuDoc doc = newest.doc;
+            byte[] key = doc.getKey().bytes();
+
+            if (endKey != null && Arrays.compareUnsigned(key, endKey) >= 0) {
+                heap.clear();
+                break;
+            }
+
+            if (allVersions) {
+                if (newest.advance())
+                    heap.add(newest);
+                next = doc;
+                remaining--;
+                continue;
+            }
+
+            // written after the snapshot, an older version may be visible
+            if (doc.getSequence() > snapshot) {
+                if (newest.advance())
+                    heap.add(newest);
+                continue;
+            }
+
+            // older versions of the same key, in this source and the others
+            while (!heap.isEmpty() && Arrays.equals(heap.peek().doc.getKey().bytes(), key)) {
+                Source older = heap.poll();
+                if (older.skip(key))
+                    heap.add(older);
+            }
+            if (newest.skip(key))
+                heap.add(newest);
+
+            if (!doc.isTombstone()) {
+                next = doc;
+                remaining--;
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public KochuDoc next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        KochuDoc doc = next;
+        next = null;
+        return doc;
+    }
+
+    private static final class Source {
+        final Iterator<KochuDoc> iter;
+        final int rank;
+        KochuDoc doc;
+
+        Source(Iterator<KochuDoc> iter, int rank) {
+            this.iter = iter;
+            this.rank = rank;
+        }
+
+        boolean advance() {
+            doc = iter.hasNext() ? iter.next() : null;
+            return doc != null;
+        }
+
+        // advance past every version of a key
+        boolean skip(byte[] key) {
+            while (advance())
+                if (!Arrays.equals(doc.getKey().bytes(), key))
+                    return true;
+            return false;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.kochudb.storage;
+
+import java.lang.ref.Cleaner;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.kochudb.types.KochuDoc;
+
+/**
+ * Levels of one Version, reference counted. The tree holds a reference while
+ * they are current, and each read holds one while it searches them. Every
+ * SSTable counts the PinnedLevels it belongs to; once none is left, which a
+ * compaction brings about only after its last reader is done, the SSTable is
+ * handed over to be closed and deleted.
+ */
+class PinnedLevels {
+
+    // releases the SSTables of scans whose iterators are dropped unfinished
+    private static final Cleaner cleaner = Cleaner.create();
+
+    private final List<Level> levels;
+    private final Consumer<SSTable> unused;
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    /**
+     * Constructor, holding a reference on behalf of the tree
+     *
+     * @param levels levels of the current Version
+     * @param unused called with each SSTable no PinnedLevels holds anymore
+     */
+    PinnedLevels(List<Level> levels, Consumer<SSTable> unused) {
+        this.levels = levels;
+        this.unused = unused;
+        for (Level level : levels)
+            for (SSTable sSTable : level.getSegments())
+                sSTable.ref();
+    }
+
+    List<Level> levels() {
+        return levels;
+    }
+
+    /**
+     * take a reference, unless the levels were already released for good
+     *
+     * @return false if the levels are no longer usable
+     */
+    boolean acquire() {
+        for (int count = refs.get(); count > 0; count = refs.get())
+            if (refs.compareAndSet(count, count + 1))
+                return true;
+        return false;
+    }
+
+    void release() {
+        if (refs.decrementAndGet() > 0)
+            return;
+        for (Level level : levels)
+            for (SSTable sSTable : level.getSegments())
+                if (sSTable.unref())
+                    unused.accept(sSTable);
+    }
+
+    /**
+     * iterator over these levels that releases the reference it holds once it is
+     * exhausted, or garbage collected before that
+     *
+     * @param iter iterator reading the SSTables of these levels
+     * @return Iterator of KochuDoc
+     */
+    Iterator<KochuDoc> holding(Iterator<KochuDoc> iter) {
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true))
+                release();
+        };
+
+        Iterator<KochuDoc> holding = new Iterator<KochuDoc>() {
+            @Override
+            public boolean hasNext() {
+                if (iter.hasNext())
+                    return true;
+                release.run();
+                return false;
+            }
+
+            @Override
+            public KochuDoc next() {
+                return iter.next();
+            }
+        };
+        cleaner.register(holding, release);
+        return holding;
+    }
+}
@@ -0,0 +1,31 @@
+package com.kochudb.storage;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import com.kochudb.utils.FileUtil;
+
+/**
+ * Reads by opening the data file for every read, seeking and reading into a
+ * heap buffer. Holds no resources between reads.
+ */
+public class RandomAccessReader implements DataFileReader {
+
+    private final String file;
+
+    public RandomAccessReader(String file) {
+        this.file = file;
+    }
+
+    @Override
+    public <T> T read(long offset, int length, Decoder<T> decoder) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return decoder.decode(ByteBuffer.wrap(FileUtil.readBytes(raf, offset, length)));
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
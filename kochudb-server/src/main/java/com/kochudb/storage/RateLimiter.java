@@ -0,0 +1,161 @@
+package com.kochudb.storage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token bucket limiting the rate at which flushes and compactions write to
+ * disk, so that they leave disk bandwidth to foreground reads.
+ *
+ * The bucket refills continuously at the current limit and holds at most one
+ * refill period worth of bytes. A write larger than what is available takes it
+ * all and leaves the bucket in debt, which later writes wait out. Flushes go
+ * before compactions: while a flush waits, no compaction is granted bytes.
+ *
+ * With auto tuning, the limit rises while compaction debt grows, up to
+ * AUTO_TUNE_MAX_MULTIPLIER times the configured limit, and falls back towards
+ * it once compactions have caught up.
+ */
+public class RateLimiter {
+
+    public enum Priority {
+        // memTable flushes, which writes wait on once memTables pile up
+        HIGH,
+        // compactions
+        LOW
+    }
+
+    static final long REFILL_PERIOD_MILLIS = 100L;
+    static final int AUTO_TUNE_MAX_MULTIPLIER = 8;
+
+    private final long baseLimit;
+    private final boolean autoTune;
+
+    // bytes per second, 0 for no limit
+    private volatile long limit;
+
+    private long available, lastRefill;
+    private int highWaiting;
+
+    private long lastDebt;
+
+    private final LongAdder requestedBytes, throttledNanos;
+
+    /**
+     * Constructor
+     *
+     * @param bytesPerSecond write budget, 0 for no limit
+     * @param autoTune       raise the budget while compaction debt grows
+     */
+    public RateLimiter(long bytesPerSecond, boolean autoTune) {
+        this.baseLimit = Math.max(0L, bytesPerSecond);
+        this.autoTune = autoTune;
+        this.limit = baseLimit;
+        this.available = maxBurst();
+        this.lastRefill = System.nanoTime();
+        this.requestedBytes = new LongAdder();
+        this.throttledNanos = new LongAdder();
+    }
+
+    /**
+     * wait until the bytes may be written
+     *
+     * @param bytes    bytes about to be written
+     * @param priority priority of the writer
+     */
+    public void request(long bytes, Priority priority) {
+        requestedBytes.add(bytes);
+        if (limit <= 0 || bytes <= 0)
+            return;
+
+        long start = System.nanoTime();
+        boolean waited = false;
+        synchronized (this) {
+            if (priority == Priority.HIGH)
+                highWaiting++;
+            try {
+                while (true) {
+                    refill();
+                    if (available > 0 && (priority == Priority.HIGH || highWaiting == 0)) {
+                        available -= bytes;
+                        break;
+                    }
+
+                    // time until the debt is paid, or a moment for a flush to go first
+                    long millis = Math.max(1L, (1 - available) * 1000L / limit);
+                    waited = true;
+                    wait(Math.min(millis, REFILL_PERIOD_MILLIS));
+                }
+            } catch (InterruptedException e) {
+                // the write goes ahead, the interrupt is left to the writer
+                Thread.currentThread().interrupt();
+            } finally {
+                if (priority == Priority.HIGH)
+                    highWaiting--;
+                notifyAll();
+            }
+        }
+
+        if (waited)
+            throttledNanos.add(System.nanoTime() - start);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        long elapsed = now - lastRefill;
+        long refilled = elapsed * limit / TimeUnit.SECONDS.toNanos(1);
+        if (refilled > 0) {
+            available = Math.min(maxBurst(), available + refilled);
+            lastRefill = now;
+        }
+    }
+
+    private long maxBurst() {
+        return Math.max(1L, limit * REFILL_PERIOD_MILLIS / 1000L);
+    }
+
+    /**
+     * adjust the limit to the compaction debt, if auto tuning is on
+     *
+     * @param debt bytes by which the levels exceed their size limits
+     */
+    public synchronized void tune(long debt) {
+        if (!autoTune || baseLimit <= 0)
+            return;
+
+        if (debt > lastDebt)
+            limit = Math.min(baseLimit * AUTO_TUNE_MAX_MULTIPLIER, limit + limit / 2);
+        else if (debt == 0L)
+            limit = Math.max(baseLimit, limit - limit / 4);
+        lastDebt = debt;
+        notifyAll();
+    }
+
+    /**
+     * current limit
+     *
+     * @return bytes per second, 0 for no limit
+     */
+    public long getLimit() {
+        return limit;
+    }
+
+    public long requestedBytes() {
+        return requestedBytes.sum();
+    }
+
+    /**
+     * total time writers have waited for bytes
+     *
+     * @return milliseconds
+     */
+    public long throttledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.sum());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RateLimiter[limit=%d B/s, requested=%d, throttled=%d ms, autoTune=%b]", limit,
+                requestedBytes(), throttledMillis(), autoTune);
+    }
+}
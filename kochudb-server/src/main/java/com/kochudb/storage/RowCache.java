@@ -0,0 +1,199 @@
+package com.kochudb.storage;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.kochudb.types.ByteArray;
+import com.kochudb.types.KochuDoc;
+
+/**
+ * Cache of fully decoded records in front of the memTables and levels, bounded
+ * by number of records. Each stripe is an LRU list guarded by its own lock.
+ *
+ * Writes update or invalidate cached records. A reader that missed the cache
+ * fills it only if no write hit the stripe since the reader looked, so a value
+ * read from an older memTable or level can never replace a newer write.
+ */
+public class RowCache {
+
+    /**
+     * which records are admitted into the cache on a read miss
+     */
+    public enum Admission {
+        // every record read
+        ALL,
+        // records read at least twice recently, keeps one-off reads out
+        FREQUENT
+    }
+
+    private final Stripe[] stripes;
+    private final int capacity;
+    private final Admission admission;
+
+    private final LongAdder hits, misses;
+
+    /**
+     * Constructor
+     *
+     * @param capacity   maximum number of cached records, 0 disables the cache
+     * @param numStripes number of independently locked stripes, rounded up to a
+     *                   power of two
+     * @param admission  admission policy
+     */
+    public RowCache(int capacity, int numStripes, Admission admission) {
+        int n = Integer.highestOneBit(Math.max(1, numStripes - 1)) << 1;
+        this.capacity = capacity;
+        this.admission = admission;
+        this.stripes = new Stripe[n];
+        for (int i = 0; i < n; i++)
+            stripes[i] = new Stripe(Math.max(1, capacity / n));
+
+        hits = new LongAdder();
+        misses = new LongAdder();
+    }
+
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * cached record of a key
+     *
+     * @param key key
+     * @return KochuDoc, or null on a miss
+     */
+    public KochuDoc get(ByteArray key) {
+        Stripe stripe = stripeFor(key);
+        stripe.lock.lock();
+        try {
+            stripe.sketch.increment(key.hashCode());
+            KochuDoc doc = stripe.map.get(key);
+            if (doc == null)
+                misses.increment();
+            else
+                hits.increment();
+            return doc;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * number of writes seen by the stripe of a key. Taken by a reader before it
+     * searches the memTables and levels, and handed back to fill().
+     *
+     * @param key key
+     * @return write stamp
+     */
+    public long stamp(ByteArray key) {
+        return stripeFor(key).writes;
+    }
+
+    /**
+     * cache a record read from the memTables or levels, unless it was written to
+     * since the stamp was taken or it is not admitted
+     *
+     * @param doc   record read
+     * @param stamp stamp taken before the read
+     */
+    public void fill(KochuDoc doc, long stamp) {
+        Stripe stripe = stripeFor(doc.getKey());
+        stripe.lock.lock();
+        try {
+            if (stripe.writes != stamp)
+                return;
+
+            if (admission == Admission.FREQUENT && stripe.sketch.frequency(doc.getKey().hashCode()) < 2)
+                return;
+
+            stripe.map.put(doc.getKey(), detached(doc));
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * a new record was written to the memTable. A cached older version is
+     * replaced, so a hot key stays cached across updates.
+     *
+     * @param doc record written
+     */
+    public void update(KochuDoc doc) {
+        Stripe stripe = stripeFor(doc.getKey());
+        stripe.lock.lock();
+        try {
+            stripe.writes++;
+            stripe.map.replace(doc.getKey(), detached(doc));
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    // a record of a memTable would keep its older versions from being collected
+    private static KochuDoc detached(KochuDoc doc) {
+        if (doc.getPrevious() == null)
+            return doc;
+        KochuDoc copy = new KochuDoc(doc.getKey(), doc.getValue(), doc.getLastModified());
+        copy.setSequence(doc.getSequence());
+        return copy;
+    }
+
+    /**
+     * a key was deleted
+     *
+     * @param key key
+     */
+    public void invalidate(ByteArray key) {
+        Stripe stripe = stripeFor(key);
+        stripe.lock.lock();
+        try {
+            stripe.writes++;
+            stripe.map.remove(key);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        long h = hitCount(), m = missCount();
+        return String.format("RowCache[capacity=%d, admission=%s, hits=%d, misses=%d, hitRate=%.2f%%]", capacity,
+                admission, h, m, h + m == 0 ? 0.0 : 100.0 * h / (h + m));
+    }
+
+    private Stripe stripeFor(ByteArray key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+
+    static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final BlockCache.FrequencySketch sketch;
+        final LinkedHashMap<ByteArray, KochuDoc> map;
+
+        // guarded by lock, read without it only to take a stamp
+        volatile long writes;
+
+        Stripe(int capacity) {
+            sketch = new BlockCache.FrequencySketch(capacity);
+            map = new LinkedHashMap<ByteArray, KochuDoc>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ByteArray, KochuDoc> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+    }
+}
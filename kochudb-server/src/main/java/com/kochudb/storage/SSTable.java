@@ -1,44 +1,174 @@
 package com.kochudb.storage;
 
 import static com.kochudb.k.K.DATA_FILE_EXT;
+import static com.kochudb.k.K.DEFAULT_BLOCK_CACHE_SIZE_MB;
+import static com.kochudb.k.K.DEFAULT_BLOCK_SIZE;
+import static com.kochudb.k.K.DEFAULT_BLOOM_BITS_PER_KEY;
+import static com.kochudb.k.K.DEFAULT_COMPRESSION;
+import static com.kochudb.k.K.DEFAULT_POOL_SIZE;
+import static com.kochudb.k.K.DEFAULT_RATE_LIMIT_AUTO_TUNE;
+import static com.kochudb.k.K.DEFAULT_RATE_LIMIT_MB;
+import static com.kochudb.k.K.DEFAULT_READ_MODE;
+import static com.kochudb.k.K.DEFAULT_SSTABLE_FORMAT;
+import static com.kochudb.k.K.FILTER_FILE_EXT;
 import static com.kochudb.k.K.INDEX_FILE_EXT;
-import static com.kochudb.k.Record.KEY;
-import static com.kochudb.utils.ByteUtil.bytesToInt;
-import static com.kochudb.utils.ByteUtil.intToBytes;
 import static com.kochudb.utils.ByteUtil.longToBytes;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.kochudb.types.ByteArray;
 import com.kochudb.types.KochuDoc;
 import com.kochudb.utils.FileUtil;
 
 public class SSTable {
 	private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
 
-	private String indexFile, dataFile;
+	// block trailer: [compression type in 1 byte, crc32 in 4 bytes]
+	static final int BLOCK_TRAILER_SIZE = 1 + Integer.BYTES;
+
+	// bits of bloom filter per key for newly written SSTables, 0 disables filters
+	static int bloomBitsPerKey = Integer.parseInt(DEFAULT_BLOOM_BITS_PER_KEY);
+
+	// target size of uncompressed data blocks
+	static int blockSize = Integer.parseInt(DEFAULT_BLOCK_SIZE);
+
+	// serve reads from a memory mapping of the data file instead of file reads
+	static boolean mmapReads = "mmap".equals(DEFAULT_READ_MODE);
+
+	// uncompressed data blocks shared by all SSTables
+	static BlockCache blockCache = new BlockCache(Long.parseLong(DEFAULT_BLOCK_CACHE_SIZE_MB) << 20,
+			Integer.parseInt(DEFAULT_POOL_SIZE));
+
+	// write budget of flushes and compactions
+	static RateLimiter rateLimiter = new RateLimiter(Long.parseLong(DEFAULT_RATE_LIMIT_MB) << 20,
+			Boolean.parseBoolean(DEFAULT_RATE_LIMIT_AUTO_TUNE));
+
+	// block compression by level, set by sstable.compression
+	static Codec[] codecs = parseCodecs(DEFAULT_COMPRESSION);
+
+	private static final AtomicLong nextId = new AtomicLong();
+
+	// bytes of data files written by memTable flushes
+	private static final LongAdder flushedBytes = new LongAdder();
+
+	// identifies this SSTable in the block cache
+	private final long id = nextId.incrementAndGet();
+
+	private final int level;
+
+	private String indexFile, dataFile, filterFile;
+
+	// resident index, loaded once on first lookup and dropped when the file is
+	// deleted
+	private volatile SSTableIndex index;
+
+	// resident bloom filter, same lifetime as the index
+	private volatile BloomFilter filter;
+
+	// reader of the data file, created on first read
+	private volatile DataFileReader reader;
+
+	// smallest and largest key, known once written, read from the MANIFEST or
+	// first asked for
+	private volatile byte[] smallestKey, largestKey;
+
+	// smallest and largest sequence number, 0 if not known
+	private volatile long smallestSequence, largestSequence;
+
+	// PinnedLevels holding this SSTable. It is closed and deleted once a
+	// compaction has replaced it and no reader holds it anymore.
+	private final AtomicInteger refs = new AtomicInteger();
 
 	public SSTable(int level) {
+		this.level = level;
 		String[] newFileNames = FileUtil.createNewIdxAndDataFilenames(level);
-		if (level > 0)
-			newFileNames[0] = newFileNames[0].replaceFirst(".idx$", ".idxtmp");
-
 		this.indexFile = newFileNames[0];
 		this.dataFile = newFileNames[1];
+		this.filterFile = dataFile.replaceFirst(DATA_FILE_EXT + "$", FILTER_FILE_EXT);
 	}
 
 	public SSTable(int level, String index) {
+		this.level = level;
 		this.indexFile = index;
 		this.dataFile = index.replaceFirst(INDEX_FILE_EXT, DATA_FILE_EXT);
+		this.filterFile = dataFile.replaceFirst(DATA_FILE_EXT + "$", FILTER_FILE_EXT);
+	}
+
+	/**
+	 * apply SSTable settings from the configuration to SSTables written from now
+	 * on
+	 * 
+	 * @param props configuration
+	 */
+	public static void configure(Properties props) {
+		// the legacy index holds one record per key, not the older versions that
+		// snapshots read. Legacy SSTables already on disk remain readable.
+		String format = props.getProperty("sstable.format", DEFAULT_SSTABLE_FORMAT);
+		if (!"block".equals(format))
+			throw new IllegalArgumentException("Unsupported sstable.format: " + format + ", new SSTables are block based");
+
+		bloomBitsPerKey = Integer.parseInt(props.getProperty("bloom.bits.per.key", DEFAULT_BLOOM_BITS_PER_KEY));
+		blockSize = Integer.parseInt(props.getProperty("sstable.block.size", DEFAULT_BLOCK_SIZE));
+		mmapReads = "mmap".equals(props.getProperty("sstable.read.mode", DEFAULT_READ_MODE));
+		codecs = parseCodecs(props.getProperty("sstable.compression", DEFAULT_COMPRESSION));
+
+		// one stripe per querier thread keeps lock contention low
+		blockCache = new BlockCache(
+				Long.parseLong(props.getProperty("block.cache.size.mb", DEFAULT_BLOCK_CACHE_SIZE_MB)) << 20,
+				Integer.parseInt(props.getProperty("query.pool.size", DEFAULT_POOL_SIZE)));
+
+		rateLimiter = new RateLimiter(Long.parseLong(props.getProperty("rate.limit.mb", DEFAULT_RATE_LIMIT_MB)) << 20,
+				Boolean.parseBoolean(props.getProperty("rate.limit.auto.tune", DEFAULT_RATE_LIMIT_AUTO_TUNE)));
+	}
+
+	/**
+	 * parse a comma separated list of codec names, one per level starting at level
+	 * 0. The last codec also applies to all levels below.
+	 * 
+	 * @param names codec names
+	 * @return Codec per level
+	 */
+	static Codec[] parseCodecs(String names) {
+		String[] split = names.split(",");
+		Codec[] parsed = new Codec[split.length];
+		for (int i = 0; i < split.length; i++)
+			parsed[i] = Codec.forName(split[i]);
+		return parsed;
+	}
+
+	/**
+	 * codec of the blocks written to a level
+	 * 
+	 * @param level level
+	 * @return Codec
+	 */
+	static Codec codecFor(int level) {
+		Codec[] perLevel = codecs;
+		return perLevel[Math.min(level, perLevel.length - 1)];
+	}
+
+	public int getLevel() {
+		return level;
 	}
 
 	public String getIndexFile() {
@@ -49,124 +179,381 @@ public class SSTable {
 		return this.dataFile;
 	}
 
+	public String getFilterFile() {
+		return this.filterFile;
+	}
+
+	public static BlockCache getBlockCache() {
+		return blockCache;
+	}
+
+	public static RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
 	/**
-	 * parse index file of this segment into a Map
+	 * bytes of data files written by memTable flushes since startup
 	 * 
-	 * @return map of key and its corresponding offset
+	 * @return bytes
 	 */
-	public SkipList parseIndex() {
+	public static long flushedBytes() {
+		return flushedBytes.sum();
+	}
+
+	/**
+	 * resident index of this SSTable. The index file is read from disk only the
+	 * first time this is called.
+	 * 
+	 * @return SSTableIndex
+	 */
+	public SSTableIndex index() {
+		SSTableIndex idx = index;
+		if (idx == null) {
+			synchronized (this) {
+				idx = index;
+				if (idx == null) {
+					idx = loadIndex();
+					index = idx;
+				}
+			}
+		}
+		return idx;
+	}
+
+	/**
+	 * read the whole index file in one go and parse it into an SSTableIndex
+	 * 
+	 * @return SSTableIndex
+	 */
+	private SSTableIndex loadIndex() {
 		logger.debug("Reading index file: {}", this.indexFile);
 
-		// Map<ByteArray, Long> keyToOffset = new TreeMap<>();
-		SkipList skipList = new SkipList();
+		try {
+			return SSTableIndex.parse(Files.readAllBytes(Paths.get(this.indexFile)));
+		} catch (NoSuchFileException e) {
+			return SSTableIndex.EMPTY;
+		} catch (IOException e) {
+			logger.error("Failed to read index file: {}", this.indexFile);
+			e.printStackTrace();
+			return SSTableIndex.EMPTY;
+		}
+	}
 
-		try (RandomAccessFile raf = new RandomAccessFile(this.indexFile, "r")) {
-			raf.seek(0);
-			while (raf.getFilePointer() < raf.length()) {
-				// key
-				byte[] key = new byte[raf.read()];
-				raf.read(key, 0, key.length);
-
-				// offset where the value resides
-				byte[] nextEightBytes = new byte[Long.BYTES];
-				raf.read(nextEightBytes, 0, Long.BYTES);
-				// long offset = ByteUtil.bytesToLong(nextEightBytes);
-
-				// keyToOffset.put(new ByteArray(key), offset);
-				KochuDoc doc = new KochuDoc(key, nextEightBytes, 0L);
-				skipList.put(doc);
+	/**
+	 * check the bloom filter of this SSTable. SSTables written without a filter
+	 * may contain any key.
+	 * 
+	 * @param key key
+	 * @return false if the key is definitely not in this SSTable
+	 */
+	public boolean mightContain(byte[] key) {
+		BloomFilter f = filter;
+		if (f == null) {
+			synchronized (this) {
+				f = filter;
+				if (f == null) {
+					f = loadFilter();
+					filter = f;
+				}
 			}
-		} catch (FileNotFoundException e) {
-			return new SkipList();
+		}
+		return f.mightContain(key);
+	}
+
+	private BloomFilter loadFilter() {
+		try {
+			return BloomFilter.deserialize(Files.readAllBytes(Paths.get(this.filterFile)));
+		} catch (NoSuchFileException e) {
+			return BloomFilter.all();
 		} catch (IOException e) {
-			e.printStackTrace();
+			logger.error("Failed to read filter file: {}", this.filterFile);
+			return BloomFilter.all();
 		}
-		return skipList;
 	}
 
 	/**
-	 * search this SSTable segment for a given key
+	 * save the bloom filter next to the index and data files
 	 * 
-	 * @param doc
-	 * @return KochuDoc
+	 * @param bloomFilter filter
+	 * @throws IOException
 	 */
-	public KochuDoc search(KochuDoc doc) {
-		SkipList skiplist = this.parseIndex();
-		SkipListNode result = skiplist.find(doc);
+	public void saveFilter(BloomFilter bloomFilter) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(this.filterFile, "rw")) {
+			raf.setLength(0);
+			raf.write(bloomFilter.serialize());
+			raf.getFD().sync();
+		}
+		filter = bloomFilter;
+	}
 
-		if (result.data != null && result.data.compareTo(doc) == 0)
-			return result.data;
+	void ref() {
+		refs.incrementAndGet();
+	}
 
-		return null;
+	/**
+	 * drop a reference taken by ref()
+	 * 
+	 * @return true if it was the last one
+	 */
+	boolean unref() {
+		return refs.decrementAndGet() == 0;
+	}
+
+	/**
+	 * drop the resident index and filter, and unmap the data file. Called once the
+	 * files of this SSTable are deleted.
+	 */
+	public synchronized void close() {
+		index = SSTableIndex.EMPTY;
+		filter = BloomFilter.all();
+		blockCache.invalidate(id);
+		if (reader != null)
+			reader.close();
 	}
 
 	/**
-	 * write the given map into index file
+	 * smallest key of this SSTable. The first block is read, only once, if the
+	 * SSTable was not written by this process.
 	 * 
-	 * @param keyToOffset map
+	 * @return key, or null if the SSTable is empty
 	 */
-	public void saveIndex(Map<ByteArray, Long> keyToOffset) {
-		logger.debug("Creating index file: {}", this.indexFile);
+	public byte[] smallestKey() {
+		byte[] key = smallestKey;
+		if (key == null) {
+			SSTableIndex idx = index();
+			if (idx.size() == 0)
+				return null;
+
+			if (!idx.isBlockBased()) {
+				key = idx.keyAt(0);
+			} else {
+				// if the first block cannot be read, assume the SSTable may hold any key
+				// smaller than its largest one
+				Iterator<KochuDoc> iter = iterator();
+				if (!iter.hasNext())
+					return new byte[0];
+				key = iter.next().getKey().bytes();
+			}
+			smallestKey = key;
+		}
+		return key;
+	}
 
-		try (RandomAccessFile indexFile = new RandomAccessFile(this.indexFile, "rw")) {
-			indexFile.setLength(0);
+	/**
+	 * largest key of this SSTable
+	 * 
+	 * @return key, or null if the SSTable is empty
+	 */
+	public byte[] largestKey() {
+		byte[] key = largestKey;
+		if (key == null) {
+			SSTableIndex idx = index();
+			if (idx.size() == 0)
+				return null;
+			key = largestKey = idx.keyAt(idx.size() - 1);
+		}
+		return key;
+	}
 
-			for (Map.Entry<ByteArray, Long> entry : keyToOffset.entrySet()) {
+	/**
+	 * key range recorded in the MANIFEST, so that the index need not be read to
+	 * place this SSTable in its level
+	 * 
+	 * @param smallest smallest key, or null if not known
+	 * @param largest  largest key, or null if not known
+	 */
+	void knownRange(byte[] smallest, byte[] largest) {
+		smallestKey = smallest;
+		largestKey = largest;
+	}
 
-				byte[] keyBytes = entry.getKey().bytes();
-				Long value = entry.getValue();
+	/**
+	 * sequence numbers of the oldest and newest record, known once written or
+	 * read from the MANIFEST
+	 * 
+	 * @param smallest smallest sequence number
+	 * @param largest  largest sequence number
+	 */
+	void sequenceRange(long smallest, long largest) {
+		smallestSequence = smallest;
+		largestSequence = largest;
+	}
 
-				byte[] offsetBytes = longToBytes(value);
-				byte[] recWithSize = new byte[keyBytes.length + KEY.length + Long.BYTES];
+	public long smallestSequence() {
+		return smallestSequence;
+	}
 
-				recWithSize[0] = (byte) keyBytes.length;
+	public long largestSequence() {
+		return largestSequence;
+	}
 
-				System.arraycopy(keyBytes, 0, recWithSize, KEY.length, keyBytes.length);
-				System.arraycopy(offsetBytes, 0, recWithSize, KEY.length + keyBytes.length, Long.BYTES);
+	/**
+	 * whether any key of this SSTable may fall in [from, to]
+	 * 
+	 * @param from smallest key of the range, inclusive
+	 * @param to   largest key of the range, inclusive
+	 * @return boolean
+	 */
+	public boolean overlaps(byte[] from, byte[] to) {
+		byte[] smallest = smallestKey(), largest = largestKey();
+		return smallest != null && Arrays.compareUnsigned(smallest, to) <= 0
+				&& Arrays.compareUnsigned(largest, from) >= 0;
+	}
 
-				indexFile.seek(indexFile.length());
-				indexFile.write(recWithSize);
-			}
+	/**
+	 * index of this segment as a SkipList of key and its corresponding offset. For
+	 * block based SSTables the keys are the last key of each block.
+	 * 
+	 * @return SkipList of key and offset
+	 */
+	public SkipList parseIndex() {
+		SSTableIndex idx = index();
+		SkipList skipList = new SkipList();
 
-			indexFile.getFD().sync();
-			logger.debug("New index file created: {}", this.indexFile);
-		} catch (FileNotFoundException fnfe) {
-			logger.error("File not found: {}", this.indexFile);
-			fnfe.printStackTrace();
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
+		for (int i = 0; i < idx.size(); i++)
+			skipList.put(new KochuDoc(idx.keyAt(i), longToBytes(idx.offsetAt(i)), 0L));
+
+		return skipList;
 	}
 
 	/**
-	 * open data file for writing
+	 * search this SSTable segment for a given key
 	 * 
-	 * @return opened file
-	 * @throws FileNotFoundException
+	 * @param doc
+	 * @return KochuDoc stored against the key, or null if not found
 	 */
-	public RandomAccessFile openDataFileForWrite() throws FileNotFoundException {
-		return new RandomAccessFile(this.dataFile, "rw");
+	public KochuDoc search(KochuDoc doc) {
+		SSTableIndex idx = index();
+
+		if (idx.isBlockBased()) {
+			int pos = idx.ceiling(doc.getKey().bytes());
+			if (pos < 0)
+				return null;
+
+			Block block = readBlock(idx.offsetAt(pos), idx.sizeAt(pos), true);
+			return block == null ? null : block.get(doc.getKey().bytes());
+		}
+
+		int pos = idx.indexOf(doc.getKey().bytes());
+
+		if (pos < 0)
+			return null;
+
+		return readKochuDoc(idx.offsetAt(pos));
 	}
 
 	/**
-	 * append byte[] to data file
+	 * search this SSTable for the newest version of a key visible at a snapshot.
+	 * Older versions of a key are stored right after the newer ones.
 	 * 
-	 * @param raf  data file
-	 * @param data bytes to write
-	 * @return offset where data was written at
-	 * @throws IOException
+	 * @param doc      key to search for
+	 * @param snapshot sequence number of the snapshot
+	 * @return KochuDoc, or null if no version is visible
 	 */
-	public long appendData(RandomAccessFile raf, byte[] data) throws IOException {
-		long offset = raf.length();
+	public KochuDoc search(KochuDoc doc, long snapshot) {
+		KochuDoc found = search(doc);
+		if (found == null || found.getSequence() <= snapshot)
+			return found;
+
+		byte[] key = doc.getKey().bytes();
+		Iterator<KochuDoc> iter = iterator(key);
+		while (iter.hasNext()) {
+			KochuDoc next = iter.next();
+			int cmp = Arrays.compareUnsigned(next.getKey().bytes(), key);
+			if (cmp > 0)
+				break;
+			if (cmp == 0 && next.getSequence() <= snapshot)
+				return next;
+		}
+		return null;
+	}
 
-		byte[] bytesToWrite = new byte[data.length + Integer.BYTES];
-		byte[] leng = intToBytes(Integer.BYTES, data.length);
+	/**
+	 * search this SSTable for several keys at once. The index is loaded once and
+	 * each block is read once, in offset order, however many of the keys it may
+	 * hold.
+	 *
+	 * @param docs     keys to search for, in key order
+	 * @param snapshot sequence number of the snapshot
+	 * @return records in the order of docs, null where no version is visible
+	 */
+	public KochuDoc[] search(List<KochuDoc> docs, long snapshot) {
+		SSTableIndex idx = index();
+		KochuDoc[] found = new KochuDoc[docs.size()];
+
+		// keys in order fall into blocks, or records, in offset order
+		Block block = null;
+		int blockPos = -1;
+		for (int i = 0; i < found.length; i++) {
+			byte[] key = docs.get(i).getKey().bytes();
+			if (idx.isBlockBased()) {
+				int pos = idx.ceiling(key);
+				if (pos < 0)
+					break;
+				if (pos != blockPos) {
+					block = readBlock(idx.offsetAt(pos), idx.sizeAt(pos), true);
+					blockPos = pos;
+				}
+				found[i] = block == null ? null : block.get(key);
+			} else {
+				int pos = idx.indexOf(key);
+				found[i] = pos < 0 ? null : readKochuDoc(idx.offsetAt(pos));
+			}
 
-		System.arraycopy(leng, 0, bytesToWrite, 0, Integer.BYTES);
-		System.arraycopy(data, 0, bytesToWrite, Integer.BYTES, data.length);
+			// an older version may lie past the block, take the slow path
+			if (found[i] != null && found[i].getSequence() > snapshot)
+				found[i] = search(docs.get(i), snapshot);
+		}
+		return found;
+	}
 
-		raf.write(bytesToWrite);
-		return offset;
+	/**
+	 * all records of this SSTable in key order
+	 *
+	 * @return Iterator of KochuDoc
+	 */
+	public Iterator<KochuDoc> iterator() {
+		return iterator(new byte[0]);
+	}
+
+	/**
+	 * records of this SSTable in key order, starting at the block or record that
+	 * may hold the given key. A block based SSTable may return a few keys smaller
+	 * than startKey, from the beginning of the first block.
+	 * 
+	 * @param startKey key to seek to
+	 * @return Iterator of KochuDoc
+	 */
+	public Iterator<KochuDoc> iterator(byte[] startKey) {
+		SSTableIndex idx = index();
+		int start = idx.ceiling(startKey);
+
+		return new Iterator<KochuDoc>() {
+			int pos = start < 0 ? idx.size() : start;
+			Iterator<KochuDoc> block = Collections.emptyIterator();
+
+			@Override
+			public boolean hasNext() {
+				if (!idx.isBlockBased())
+					return pos < idx.size();
+
+				while (!block.hasNext() && pos < idx.size()) {
+					Block next = readBlock(idx.offsetAt(pos), idx.sizeAt(pos), false);
+					pos++;
+					if (next != null)
+						block = next.iterator();
+				}
+				return block.hasNext();
+			}
+
+			@Override
+			public KochuDoc next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+
+				return idx.isBlockBased() ? block.next() : readKochuDoc(idx.offsetAt(pos++));
+			}
+		};
 	}
 
 	/**
@@ -177,12 +564,15 @@ public class SSTable {
 	 * @throws IOException
 	 */
 	public KochuDoc readKochuDoc(Long offset) {
-		try (RandomAccessFile raf = new RandomAccessFile(dataFile, "r")) {
-
-			byte[] lengthBytes = FileUtil.readBytes(raf, offset, Integer.BYTES);
-			int lengthOfData = bytesToInt(lengthBytes);
-
-			byte[] kochuDocBytes = FileUtil.readBytes(raf, offset + Integer.BYTES, lengthOfData);
+		try {
+			DataFileReader dataReader = reader();
+			int lengthOfData = dataReader.read(offset, Integer.BYTES, ByteBuffer::getInt);
+
+			byte[] kochuDocBytes = dataReader.read(offset + Integer.BYTES, lengthOfData, buf -> {
+				byte[] bytes = new byte[lengthOfData];
+				buf.get(bytes);
+				return bytes;
+			});
 			return KochuDoc.deserialize(kochuDocBytes);
 		} catch (FileNotFoundException e) {
 			return new KochuDoc(null, "File could not be found on the disk".getBytes(), 0);
@@ -192,32 +582,176 @@ public class SSTable {
 	}
 
 	/**
-	 * save a skiplist to disk
+	 * read a data block from the block cache, or from disk verifying its checksum
+	 * and decompressing it
+	 * 
+	 * @param offset    offset of the block in the data file
+	 * @param size      size of the block including its trailer
+	 * @param fillCache whether a block read from disk goes into the cache. Bulk
+	 *                  reads such as compaction bypass the cache.
+	 * @return Block, or null if the block could not be read
+	 */
+	public Block readBlock(long offset, int size, boolean fillCache) {
+		try {
+			if (!fillCache)
+				return new Block(reader().read(offset, size, SSTable::decodeBlock), index().formatVersion());
+
+			byte[] contents = blockCache.get(id, offset);
+			if (contents == null) {
+				contents = reader().read(offset, size, SSTable::decodeBlock);
+				blockCache.put(id, offset, contents);
+			}
+			return new Block(contents, index().formatVersion());
+		} catch (IOException e) {
+			logger.error("Failed to read block at {} in {}: {}", offset, dataFile, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * reader of the data file, in the mode selected by sstable.read.mode
+	 * 
+	 * @return DataFileReader
+	 */
+	private DataFileReader reader() {
+		DataFileReader r = reader;
+		if (r == null) {
+			synchronized (this) {
+				r = reader;
+				if (r == null) {
+					r = mmapReads ? new MappedReader(dataFile) : new RandomAccessReader(dataFile);
+					reader = r;
+				}
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * compress a finished block if that saves at least 1/8th of its size, and
+	 * append the trailer
+	 * 
+	 * @param raw   block contents
+	 * @param codec codec of the level the block is written to
+	 * @return bytes to write to the data file
+	 */
+	static byte[] encodeBlock(byte[] raw, Codec codec) {
+		byte[] stored = raw;
+		byte type = Codec.NONE.id();
+
+		if (codec != Codec.NONE) {
+			byte[] compressed = codec.compress(raw);
+			if (compressed.length < raw.length - raw.length / 8) {
+				stored = compressed;
+				type = codec.id();
+			}
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(stored);
+		crc.update(type);
+
+		ByteBuffer out = ByteBuffer.allocate(stored.length + BLOCK_TRAILER_SIZE);
+		out.put(stored).put(type).putInt((int) crc.getValue());
+		return out.array();
+	}
+
+	/**
+	 * verify the checksum of a stored block and decompress it with the codec
+	 * named in its trailer
+	 * 
+	 * @param stored block as read from the data file, with its trailer
+	 * @return block contents
+	 * @throws IOException if the block is corrupt
+	 */
+	static byte[] decodeBlock(ByteBuffer stored) throws IOException {
+		int start = stored.position();
+		int len = stored.remaining() - BLOCK_TRAILER_SIZE;
+		byte type = stored.get(start + len);
+
+		CRC32 crc = new CRC32();
+		crc.update(stored.duplicate().limit(start + len + 1));
+		if ((int) crc.getValue() != stored.getInt(start + len + 1))
+			throw new IOException("Block checksum mismatch");
+
+		return Codec.forId(type).decompress(stored.duplicate().limit(start + len));
+	}
+
+	/**
+	 * save a memTable to disk, in the format selected by sstable.format, keeping
+	 * the newest version of each key only
 	 * 
-	 * @param skipList skiplist to save
+	 * @param memTable memTable to save
 	 * @throws FileNotFoundException
 	 * @throws IOException
 	 */
-	public void persist(SkipList skipList) throws FileNotFoundException, IOException {
-		Map<ByteArray, Long> keyToOffsetMap = new TreeMap<>();
-		try (RandomAccessFile dataFileObj = new RandomAccessFile(dataFile, "rw")) {
-			Iterator<SkipListNode> iterator = skipList.iterator();
+	public void persist(MemTable memTable) throws FileNotFoundException, IOException {
+		persist(memTable, new long[0]);
+	}
 
-			while (iterator.hasNext()) {
-				SkipListNode listNode = iterator.next();
+	/**
+	 * save a memTable to disk, in the format selected by sstable.format. Older
+	 * versions of a key are kept while a live snapshot reads them.
+	 * 
+	 * @param memTable  memTable to save
+	 * @param snapshots sequence numbers of the live snapshots, ascending
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public void persist(MemTable memTable, long[] snapshots) throws FileNotFoundException, IOException {
+		SSTableBuilder builder = builder();
+		Iterator<KochuDoc> iterator = memTable.records();
+		while (iterator.hasNext()) {
+			KochuDoc newer = iterator.next();
+			builder.add(newer);
+			for (KochuDoc doc = newer.getPrevious(); doc != null; newer = doc, doc = doc.getPrevious())
+				if (Snapshots.isVisible(snapshots, doc.getSequence(), newer.getSequence()))
+					builder.add(doc);
+		}
+		builder.finish();
 
-				long offset = appendData(dataFileObj, listNode.data.serialize());
+		logger.debug("Data file created: {}", dataFile);
+		logger.debug("Index file created: {}", indexFile);
 
-				keyToOffsetMap.put(listNode.getKey(), offset);
-			}
+		// the new files must survive a crash before the WAL behind them is deleted
+		FileUtil.syncDirectory(Paths.get(indexFile).toAbsolutePath().getParent().toFile());
+		flushedBytes.add(new File(dataFile).length());
+	}
 
-			saveIndex(keyToOffsetMap);
-			logger.debug("Data file created: {}", dataFile);
-			logger.debug("Index file created: {}", indexFile);
+	/**
+	 * builder writing records to the files of this SSTable one by one, in the
+	 * format selected by sstable.format, at flush priority
+	 * 
+	 * @return SSTableBuilder
+	 */
+	public SSTableBuilder builder() {
+		return builder(RateLimiter.Priority.HIGH);
+	}
 
-		} catch (Exception e) {
-			logger.error("Flush failed. {}", e.getMessage());
-			e.printStackTrace();
-		}
+	/**
+	 * builder writing records to the files of this SSTable one by one
+	 * 
+	 * @param priority priority of its writes with the rate limiter
+	 * @return SSTableBuilder
+	 */
+	public SSTableBuilder builder(RateLimiter.Priority priority) {
+		return new SSTableBuilder(this, codecFor(level), blockSize, bloomBitsPerKey, rateLimiter,
+				priority);
+	}
+
+	/**
+	 * take over the index, filter and smallest key of the SSTable just written, so
+	 * they are not read back from disk
+	 * 
+	 * @param idx      index, or null to keep the current one
+	 * @param f        bloom filter, or null to keep the current one
+	 * @param smallest smallest key
+	 */
+	void opened(SSTableIndex idx, BloomFilter f, byte[] smallest) {
+		if (idx != null)
+			index = idx;
+		if (f != null)
+			filter = f;
+		smallestKey = smallest;
 	}
 }
@@ -0,0 +1,178 @@
+package com.kochudb.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.kochudb.types.KochuDoc;
+
+/**
+ * Writes a block based SSTable sequentially, one record at a time in key order,
+ * so that SSTables of any size can be written with memory for one data block
+ * plus the sparse index and the filter hashes. Blocks are streamed to disk as
+ * they fill up.
+ */
+public class SSTableBuilder {
+
+    private final SSTable sSTable;
+    private final Codec codec;
+    private final int blockSize, bloomBitsPerKey;
+    private final RateLimiter rateLimiter;
+    private final RateLimiter.Priority priority;
+
+    private final BlockBuilder block;
+    private final List<byte[]> lastKeys;
+    private final List<long[]> handles;
+    private long[] keyHashes;
+
+    private BufferedOutputStream out;
+    private FileOutputStream file;
+    private byte[] smallestKey, lastKey;
+    private long dataLength, numRecords;
+    private long smallestSequence, largestSequence;
+
+    SSTableBuilder(SSTable sSTable, Codec codec, int blockSize, int bloomBitsPerKey,
+            RateLimiter rateLimiter, RateLimiter.Priority priority) {
+        this.sSTable = sSTable;
+        this.codec = codec;
+        this.blockSize = blockSize;
+        this.bloomBitsPerKey = bloomBitsPerKey;
+        this.rateLimiter = rateLimiter;
+        this.priority = priority;
+
+        block = new BlockBuilder();
+        lastKeys = new ArrayList<byte[]>();
+        handles = new ArrayList<long[]>();
+        keyHashes = new long[bloomBitsPerKey > 0 ? 64 : 0];
+    }
+
+    public SSTable getSSTable() {
+        return sSTable;
+    }
+
+    /**
+     * append a record
+     *
+     * @param doc record whose key is greater than the last added key, or an older
+     *            version of the last added record
+     * @throws IOException if a block cannot be written
+     */
+    public void add(KochuDoc doc) throws IOException {
+        byte[] key = doc.getKey().bytes();
+        int cmp = lastKey == null ? 1 : Arrays.compareUnsigned(key, lastKey);
+        if (cmp < 0)
+            throw new IllegalArgumentException("Keys must be added in ascending order");
+
+        if (numRecords++ == 0) {
+            smallestKey = key;
+            smallestSequence = largestSequence = doc.getSequence();
+        }
+        lastKey = key;
+        smallestSequence = Math.min(smallestSequence, doc.getSequence());
+        largestSequence = Math.max(largestSequence, doc.getSequence());
+
+        if (keyHashes.length > 0) {
+            if (numRecords > keyHashes.length)
+                keyHashes = Arrays.copyOf(keyHashes, keyHashes.length * 2);
+            keyHashes[(int) numRecords - 1] = BloomFilter.hash(key);
+        }
+
+        byte[] value = doc.isTombstone() ? null : doc.getValue().bytes();
+        block.add(key, value == null ? new byte[0] : value, doc.getLastModified(), doc.getSequence(), doc.type());
+        if (block.estimatedSize() >= blockSize)
+            flushBlock();
+    }
+
+    /**
+     * size of the SSTable if it were finished now
+     *
+     * @return bytes
+     */
+    public long estimatedSize() {
+        return dataLength + block.estimatedSize();
+    }
+
+    public long numRecords() {
+        return numRecords;
+    }
+
+    /**
+     * write the last block, the filter and the index, all synced to disk. The
+     * index goes last, its presence makes the SSTable visible.
+     *
+     * @return the SSTable written
+     * @throws IOException if the SSTable cannot be written
+     */
+    public SSTable finish() throws IOException {
+        if (!block.isEmpty())
+            flushBlock();
+        if (out == null)
+            open();
+        out.flush();
+        file.getFD().sync();
+        out.close();
+
+        BloomFilter bloomFilter = null;
+        if (keyHashes.length > 0) {
+            bloomFilter = BloomFilter.create((int) numRecords, bloomBitsPerKey);
+            for (int i = 0; i < numRecords; i++)
+                bloomFilter.addHash(keyHashes[i]);
+            sSTable.saveFilter(bloomFilter);
+        }
+
+        byte[][] keys = lastKeys.toArray(new byte[0][]);
+        long[] offsets = new long[keys.length];
+        int[] sizes = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            offsets[i] = handles.get(i)[0];
+            sizes[i] = (int) handles.get(i)[1];
+        }
+        SSTableIndex index = new SSTableIndex(keys, offsets, sizes);
+
+        try (RandomAccessFile indexFile = new RandomAccessFile(sSTable.getIndexFile(), "rw")) {
+            indexFile.setLength(0);
+            indexFile.write(index.serialize(dataLength, numRecords));
+            indexFile.getFD().sync();
+        }
+
+        sSTable.opened(index, bloomFilter, smallestKey);
+        sSTable.sequenceRange(smallestSequence, largestSequence);
+        return sSTable;
+    }
+
+    /**
+     * stop writing and delete whatever was written
+     */
+    public void abandon() {
+        try {
+            if (out != null)
+                out.close();
+        } catch (IOException ignored) {
+        }
+        for (String path : new String[] { sSTable.getDataFile(), sSTable.getFilterFile(), sSTable.getIndexFile() })
+            new File(path).delete();
+    }
+
+    private void open() throws IOException {
+        file = new FileOutputStream(sSTable.getDataFile());
+        out = new BufferedOutputStream(file, 1 << 16);
+    }
+
+    private void flushBlock() throws IOException {
+        if (out == null)
+            open();
+
+        lastKeys.add(block.lastKey());
+        byte[] stored = SSTable.encodeBlock(block.finish(), codec);
+        rateLimiter.request(stored.length, priority);
+        out.write(stored);
+
+        handles.add(new long[] { dataLength, stored.length });
+        dataLength += stored.length;
+    }
+}
@@ -0,0 +1,239 @@
+package com.kochudb.storage;
+
+import static com.kochudb.k.K.SSTABLE_FORMAT_VERSION;
+import static com.kochudb.k.K.SSTABLE_MAGIC;
+import static com.kochudb.utils.ByteUtil.readVarInt;
+import static com.kochudb.utils.ByteUtil.readVarLong;
+import static com.kochudb.utils.ByteUtil.writeVarInt;
+import static com.kochudb.utils.ByteUtil.writeVarLong;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable, memory resident index of an SSTable. Keys are held in sorted order
+ * in a plain array alongside the offsets of their records in the data file, so
+ * a lookup is a binary search with no allocation beyond the probe itself.
+ *
+ * Legacy SSTables have one entry per record. Block based SSTables have one
+ * entry per data block, holding the last key of the block, its offset and its
+ * size on disk.
+ */
+public class SSTableIndex {
+
+    public static final SSTableIndex EMPTY = new SSTableIndex(new byte[0][], new long[0]);
+
+    /**
+     * [len(index) in 4 bytes, len(data file) in 8 bytes, number of records in 8
+     * bytes, format version in 4 bytes, magic in 8 bytes]
+     */
+    public static final int FOOTER_SIZE = Integer.BYTES + Long.BYTES + Long.BYTES + Integer.BYTES + Long.BYTES;
+
+    private final byte[][] keys;
+    private final long[] offsets;
+    private final int[] sizes;
+
+    // format the data blocks were written in
+    private final int formatVersion;
+
+    /**
+     * Constructor. Both arrays must be of the same length and keys must be sorted
+     * in ascending order.
+     *
+     * @param keys    sorted keys
+     * @param offsets offset of each key in the data file
+     */
+    public SSTableIndex(byte[][] keys, long[] offsets) {
+        this(keys, offsets, null);
+    }
+
+    /**
+     * Constructor for a sparse, block based index
+     *
+     * @param keys    last key of each block, sorted
+     * @param offsets offset of each block in the data file
+     * @param sizes   size of each block in the data file
+     */
+    public SSTableIndex(byte[][] keys, long[] offsets, int[] sizes) {
+        this(keys, offsets, sizes, SSTABLE_FORMAT_VERSION);
+    }
+
+    private SSTableIndex(byte[][] keys, long[] offsets, int[] sizes, int formatVersion) {
+        this.keys = keys;
+        this.offsets = offsets;
+        this.sizes = sizes;
+        this.formatVersion = formatVersion;
+    }
+
+    /**
+     * parse the contents of an index file. Block based index files end with a
+     * footer, anything else is read as a legacy index.
+     *
+     * @param bytes contents of an index file
+     * @return SSTableIndex
+     */
+    public static SSTableIndex parse(byte[] bytes) {
+        if (bytes.length >= FOOTER_SIZE) {
+            ByteBuffer footer = ByteBuffer.wrap(bytes, bytes.length - FOOTER_SIZE, FOOTER_SIZE);
+            int indexLength = footer.getInt();
+            footer.getLong();
+            footer.getLong();
+            int version = footer.getInt();
+            long magic = footer.getLong();
+
+            if (magic == SSTABLE_MAGIC) {
+                if (version > SSTABLE_FORMAT_VERSION)
+                    throw new IllegalStateException("Unsupported SSTable format version " + version);
+                return parseBlockIndex(ByteBuffer.wrap(bytes, 0, indexLength), version);
+            }
+        }
+        return parseLegacy(bytes);
+    }
+
+    /**
+     * parse a legacy index, [len(key) in 1 byte, key, offset in 8 bytes] repeated
+     *
+     * @param bytes contents of an index file
+     * @return SSTableIndex
+     */
+    private static SSTableIndex parseLegacy(byte[] bytes) {
+        int count = 0;
+        for (int pos = 0; pos < bytes.length; pos += 1 + (bytes[pos] & 0xFF) + Long.BYTES)
+            count++;
+
+        byte[][] keys = new byte[count][];
+        long[] offsets = new long[count];
+
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            int keyLen = bytes[pos++] & 0xFF;
+            keys[i] = Arrays.copyOfRange(bytes, pos, pos + keyLen);
+            pos += keyLen;
+
+            long offset = 0L;
+            for (int b = 0; b < Long.BYTES; b++)
+                offset = (offset << 8) | (bytes[pos++] & 0xFF);
+            offsets[i] = offset;
+        }
+        return new SSTableIndex(keys, offsets);
+    }
+
+    /**
+     * parse a sparse index, [len(key) varint, key, offset varint, size varint]
+     * repeated
+     *
+     * @param buf     index entries
+     * @param version format version from the footer
+     * @return SSTableIndex
+     */
+    private static SSTableIndex parseBlockIndex(ByteBuffer buf, int version) {
+        List<byte[]> keyList = new ArrayList<byte[]>();
+        List<long[]> handles = new ArrayList<long[]>();
+
+        while (buf.hasRemaining()) {
+            byte[] key = new byte[readVarInt(buf)];
+            buf.get(key);
+            keyList.add(key);
+            handles.add(new long[] { readVarLong(buf), readVarInt(buf) });
+        }
+
+        byte[][] keys = keyList.toArray(new byte[0][]);
+        long[] offsets = new long[keys.length];
+        int[] sizes = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            offsets[i] = handles.get(i)[0];
+            sizes[i] = (int) handles.get(i)[1];
+        }
+        return new SSTableIndex(keys, offsets, sizes, version);
+    }
+
+    /**
+     * serialize a block based index, followed by its footer
+     *
+     * @param dataLength length of the data file
+     * @param numRecords number of records in the SSTable
+     * @return contents of the index file
+     */
+    public byte[] serialize(long dataLength, long numRecords) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < keys.length; i++) {
+            writeVarInt(out, keys[i].length);
+            out.write(keys[i], 0, keys[i].length);
+            writeVarLong(out, offsets[i]);
+            writeVarInt(out, sizes[i]);
+        }
+
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+        footer.putInt(out.size());
+        footer.putLong(dataLength);
+        footer.putLong(numRecords);
+        footer.putInt(SSTABLE_FORMAT_VERSION);
+        footer.putLong(SSTABLE_MAGIC);
+        out.write(footer.array(), 0, FOOTER_SIZE);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * binary search for the exact key
+     *
+     * @param key key
+     * @return position of the key, or -1 if absent
+     */
+    public int indexOf(byte[] key) {
+        int pos = ceiling(key);
+        return pos >= 0 && Arrays.compareUnsigned(keys[pos], key) == 0 ? pos : -1;
+    }
+
+    /**
+     * binary search for the first entry whose key is greater than or equal to the
+     * given key. In a block based index, that is the only block that may hold the
+     * key.
+     *
+     * @param key key
+     * @return position of the entry, or -1 if all keys are smaller
+     */
+    public int ceiling(byte[] key) {
+        int low = 0, high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Arrays.compareUnsigned(keys[mid], key) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low < keys.length ? low : -1;
+    }
+
+    public boolean isBlockBased() {
+        return sizes != null;
+    }
+
+    /**
+     * format version of the data blocks, which tells how to decode them
+     *
+     * @return version
+     */
+    public int formatVersion() {
+        return formatVersion;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public byte[] keyAt(int pos) {
+        return keys[pos];
+    }
+
+    public long offsetAt(int pos) {
+        return offsets[pos];
+    }
+
+    public int sizeAt(int pos) {
+        return sizes[pos];
+    }
+}
@@ -0,0 +1,102 @@
+package com.kochudb.storage;
+
+import static com.kochudb.k.K.NUM_LEVELS;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Size-tiered compaction: each level is a tier of sorted runs that may overlap.
+ * Once a tier has piled up the configured number of runs, all of them are
+ * merged into a single run of the next tier, without touching the runs already
+ * there. The last tier merges its runs in place.
+ *
+ * Data is rewritten about once per tier, far less than with leveled compaction,
+ * while a lookup may have to read every run of a tier.
+ */
+public class SizeTieredCompactionStrategy implements CompactionStrategy {
+
+    private final LSMTree tree;
+    private final int maxRuns;
+
+    /**
+     * Constructor
+     *
+     * @param tree    tree to compact
+     * @param maxRuns runs a tier may hold before they are merged
+     */
+    public SizeTieredCompactionStrategy(LSMTree tree, int maxRuns) {
+        this.tree = tree;
+        this.maxRuns = Math.max(2, maxRuns);
+    }
+
+    @Override
+    public Compaction pick(int level) {
+        List<SSTable> tier = candidates(level);
+        if (runs(tier) < maxRuns)
+            return null;
+
+        int outputLevel = Math.min(level + 1, NUM_LEVELS);
+        return new Compaction(tree, level, outputLevel, tier, Long.MAX_VALUE);
+    }
+
+    @Override
+    public long debt() {
+        long debt = 0L;
+        for (int level = 0; level <= NUM_LEVELS; level++) {
+            List<SSTable> tier = candidates(level);
+            if (runs(tier) >= maxRuns)
+                for (SSTable sSTable : tier)
+                    debt += new File(sSTable.getDataFile()).length();
+        }
+        return debt;
+    }
+
+    @Override
+    public String name() {
+        return "tiered";
+    }
+
+    // SSTables of a tier holding any keys, newest first
+    private static List<SSTable> candidates(int level) {
+        List<SSTable> tier = new ArrayList<SSTable>();
+        for (SSTable sSTable : LSMTree.levels.get(level).getSegments())
+            if (sSTable.smallestKey() != null)
+                tier.add(sSTable);
+        return tier;
+    }
+
+    /**
+     * number of sorted runs in a set of SSTables: the largest number of them
+     * holding any one key. Disjoint SSTables written by one compaction count as
+     * one run.
+     *
+     * @param sSTables SSTables holding keys
+     * @return runs
+     */
+    static int runs(List<SSTable> sSTables) {
+        byte[][] starts = new byte[sSTables.size()][], ends = new byte[sSTables.size()][];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = sSTables.get(i).smallestKey();
+            ends[i] = sSTables.get(i).largestKey();
+        }
+        Arrays.sort(starts, Arrays::compareUnsigned);
+        Arrays.sort(ends, Arrays::compareUnsigned);
+
+        // sweep over the key space, key ranges are inclusive at both ends
+        int depth = 0, max = 0;
+        int i = 0, j = 0;
+        while (i < starts.length) {
+            if (Arrays.compareUnsigned(starts[i], ends[j]) <= 0) {
+                max = Math.max(max, ++depth);
+                i++;
+            } else {
+                depth--;
+                j++;
+            }
+        }
+        return max;
+    }
+}
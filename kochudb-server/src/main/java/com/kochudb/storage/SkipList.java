@@ -16,12 +16,12 @@ import com.kochudb.types.KochuDoc;
  * SkipList is a probabilistic list that offers average O(log n) runtime for
  * insert, search, delete and update operations.
  * 
- * This implementation is thread safe. Delete operation is a soft-delete.
+ * Writers are serialized by a write lock. Delete operation is a soft-delete.
  */
-public class SkipList {
+public class SkipList implements MemTable {
 
     private AtomicInteger maxLevels;
-    private int curLevel, length;
+    private volatile int length;
     private AtomicLong size;
 
     private SkipListNode sentinel, head, tail;
@@ -43,7 +43,6 @@ public class SkipList {
         sentinel = head;
 
         maxLevels = new AtomicInteger(0);
-        curLevel = 0;
 
         prob = new Random();
         length = 0;
@@ -92,7 +91,7 @@ public class SkipList {
             if (found.data == null)
                 return null;
 
-            if (found.compareTo(doc) == 0 && !found.isDeleted())
+            if (found.compareTo(doc) == 0)
                 return found;
         } finally {
             readLock.unlock();
@@ -100,6 +99,12 @@ public class SkipList {
         return null;
     }
 
+    @Override
+    public KochuDoc search(KochuDoc doc) {
+        SkipListNode node = get(doc);
+        return node == null ? null : node.data;
+    }
+
     /**
      * Does the skiplist contain a node with given doc?
      * 
@@ -108,7 +113,7 @@ public class SkipList {
      */
     public boolean containsKey(KochuDoc doc) {
         SkipListNode node = find(doc);
-        return node.data != null && node.compareTo(doc) == 0 && !node.isDeleted();
+        return node.data != null && node.compareTo(doc) == 0;
     }
 
     /**
@@ -118,64 +123,72 @@ public class SkipList {
      * @param doc doc
      * @param val value
      */
+    @Override
     public void put(KochuDoc doc) {
-        SkipListNode found = null, cur = null;
-
         writeLock.lock();
         try {
-            found = find(doc);
+            SkipListNode found = find(doc);
 
             if (found.data != null && found.compareTo(doc) == 0) {
+                doc.setPrevious(found.data);
                 found.data = doc;
-                writeLock.unlock();
+                size.getAndAdd(doc.length());
                 return;
             }
 
-            cur = new SkipListNode(doc);
+            SkipListNode cur = new SkipListNode(doc);
             insertRight(found, cur);
-        } finally {
-            if (writeLock.isHeldByCurrentThread())
-                writeLock.unlock();
-        }
 
-        curLevel = 0;
-        while (prob.nextDouble() < 0.5) {
-            if (curLevel >= maxLevels.get()) {
-                addNewLayer();
-                maxLevels.getAndIncrement();
-            }
+            // the tower is linked under the lock too, writers may come from any thread
+            int curLevel = 0;
+            while (prob.nextDouble() < 0.5) {
+                if (curLevel >= maxLevels.get()) {
+                    addNewLayer();
+                    maxLevels.getAndIncrement();
+                }
 
-            while (found.up == null && found.left != null) {
-                found = found.left;
-            }
+                while (found.up == null && found.left != null) {
+                    found = found.left;
+                }
 
-            if (found.up != null) {
-                found = found.up;
-                cur = addNewNodeToTower(found, cur);
-                curLevel++;
+                if (found.up != null) {
+                    found = found.up;
+                    cur = addNewNodeToTower(found, cur);
+                    curLevel++;
+                }
             }
-        }
 
-        length++;
-        size.getAndAdd(doc.length());
+            length++;
+            size.getAndAdd(doc.length());
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     /**
-     * delete the SkipListNode2<K> identified by the doc
+     * replace the record of the doc's key with a tombstone. The node stays, so
+     * that the tombstone is found and flushed like any other record and hides
+     * older records of the key.
      *
-     * @param doc doc
-     * @return true if a SkipListNode2<K> was removed, false if SkipListNode2<K> was
-     *         not found
+     * @param doc doc holding the key and the time of the delete
+     * @return true if the key had a live record, false otherwise
      */
     public boolean del(KochuDoc doc) {
-        SkipListNode found = find(doc);
-        if (found.data != null && found.compareTo(doc) == 0) {
-            found.delete();
-            length--;
-            size.getAndAdd(-(doc.length()));
+        writeLock.lock();
+        try {
+            SkipListNode found = find(doc);
+            if (found.data == null || found.compareTo(doc) != 0 || found.data.isTombstone())
+                return false;
+
+            KochuDoc tombstone = KochuDoc.tombstone(found.getKey().bytes(), doc.getLastModified());
+            tombstone.setSequence(doc.getSequence());
+            tombstone.setPrevious(found.data);
+            found.data = tombstone;
+            size.getAndAdd(tombstone.length());
             return true;
+        } finally {
+            writeLock.unlock();
         }
-        return false;
     }
 
     /**
@@ -183,6 +196,7 @@ public class SkipList {
      * 
      * @return
      */
+    @Override
     public int length() {
         return length;
     }
@@ -192,6 +206,7 @@ public class SkipList {
      * 
      * @return long
      */
+    @Override
     public long size() {
         return size.get();
     }
@@ -276,17 +291,71 @@ public class SkipList {
 
             @Override
             public boolean hasNext() {
-                while (currentNode.right != null && currentNode.right.data != null) {
-                    if (!currentNode.right.isDeleted())
-                        return true;
-
-                    currentNode = currentNode.right;
-                }
-                return false;
+                return currentNode.right != null && currentNode.right.data != null;
             }
         }.init();
     }
 
+    /**
+     * iterator over the nodes whose docs are greater than or equal to the given
+     * doc
+     *
+     * @param from doc to seek to
+     * @return Iterator<SkipListNode>
+     */
+    public Iterator<SkipListNode> iterator(KochuDoc from) {
+        SkipListNode start;
+        readLock.lock();
+        try {
+            start = find(from);
+            // the iterator returns the node right of its current node
+            if (start.data != null && start.compareTo(from) == 0)
+                start = start.left;
+        } finally {
+            readLock.unlock();
+        }
+
+        SkipListNode first = start;
+        return new Iterator<SkipListNode>() {
+            SkipListNode currentNode = first;
+
+            @Override
+            public SkipListNode next() {
+                currentNode = currentNode.right;
+                return currentNode;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return currentNode.right != null && currentNode.right.data != null;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<KochuDoc> records() {
+        return docs(iterator());
+    }
+
+    @Override
+    public Iterator<KochuDoc> records(KochuDoc from) {
+        return docs(iterator(from));
+    }
+
+    private static Iterator<KochuDoc> docs(Iterator<SkipListNode> nodes) {
+        return new Iterator<KochuDoc>() {
+            @Override
+            public boolean hasNext() {
+                return nodes.hasNext();
+            }
+
+            @Override
+            public KochuDoc next() {
+                return nodes.next().data;
+            }
+        };
+    }
+
     /**
      * print friendly representation of current state of the skipList
      */
@@ -303,7 +372,7 @@ public class SkipList {
                 if (temp != null) {
                     val = col == 0 ? "head"
                             : (temp.right == null) ? "tail"
-                                    : temp.isDeleted() ? "[" + temp.data.toString() + "]" : temp.data.toString();
+                                    : temp.data.isTombstone() ? "[" + temp.data.toString() + "]" : temp.data.toString();
                     temp = temp.up;
                 }
                 rows.get(curLvl++).add(val);
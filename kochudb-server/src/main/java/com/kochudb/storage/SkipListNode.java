@@ -10,8 +10,6 @@ public class SkipListNode implements Comparable<KochuDoc> {
 
     KochuDoc data;
 
-    public boolean deleted;
-
     // references to all four neighbors
     public SkipListNode left, right, up, down;
 
@@ -28,19 +26,6 @@ public class SkipListNode implements Comparable<KochuDoc> {
         right = null;
         up = null;
         down = null;
-        deleted = false;
-    }
-
-    public void delete() {
-        deleted = true;
-    }
-
-    public void undelete() {
-        deleted = false;
-    }
-
-    public boolean isDeleted() {
-        return deleted;
     }
 
     public ByteArray getKey() {
@@ -0,0 +1,163 @@
+package com.kochudb.storage;
+
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sequence numbers of the tree. Every write takes the next number; a snapshot
+ * pins the last number whose write, and every write before it, is in the
+ * memTable. Reads at a snapshot see the newest version of each key with a
+ * sequence number not above it.
+ *
+ * Writers take and apply their numbers without a lock: a write applied out of
+ * order is recorded as done, and whichever writer fills the gap before it moves
+ * the visible number past both, in commit order.
+ *
+ * Live snapshots are reference counted by sequence number. Flushes and
+ * compactions keep an older version of a key only while a live snapshot reads
+ * it.
+ */
+public class Snapshots {
+
+    /**
+     * handle returned by LSMTree.getSnapshot()
+     *
+     * @param sequence sequence number the snapshot reads at
+     */
+    public record Snapshot(long sequence) {
+    }
+
+    private final AtomicLong lastSequence = new AtomicLong();
+
+    // highest sequence number all writes up to which are applied, read by every
+    // read at the latest state
+    private final AtomicLong visible = new AtomicLong();
+
+    // last sequence number of each applied write or batch above the visible one,
+    // by its first sequence number
+    private final ConcurrentSkipListMap<Long, Long> done = new ConcurrentSkipListMap<Long, Long>();
+
+    // live snapshots and how many times each was taken
+    private final TreeMap<Long, Integer> live = new TreeMap<Long, Integer>();
+
+    /**
+     * next sequence number, for a write about to be applied
+     *
+     * @return sequence number
+     */
+    public long next() {
+        return next(1);
+    }
+
+    /**
+     * consecutive sequence numbers for the writes of a batch, which become
+     * visible together
+     *
+     * @param count number of writes
+     * @return first sequence number
+     */
+    public long next(int count) {
+        return lastSequence.getAndAdd(count) + 1;
+    }
+
+    /**
+     * mark a write as applied to the memTable, or abandoned
+     *
+     * @param sequence sequence number returned by next()
+     */
+    public void applied(long sequence) {
+        applied(sequence, 1);
+    }
+
+    /**
+     * mark the writes of a batch as applied to the memTable, or abandoned. The
+     * visible number moves past them once every write before them is applied.
+     *
+     * @param first first sequence number, returned by next(count)
+     * @param count number of writes
+     */
+    public void applied(long first, int count) {
+        done.put(first, first + count - 1);
+        while (true) {
+            long current = visible.get();
+            Long last = done.get(current + 1);
+            if (last == null)
+                return;
+            // a writer losing the race sees the number already moved and looks again
+            if (visible.compareAndSet(current, last))
+                done.remove(current + 1);
+        }
+    }
+
+    /**
+     * highest sequence number all writes up to which are applied. Reads at it see
+     * a batch either whole or not at all.
+     *
+     * @return sequence number
+     */
+    public long visible() {
+        return visible.get();
+    }
+
+    public long lastSequence() {
+        return lastSequence.get();
+    }
+
+    /**
+     * continue numbering after the writes found on recovery, which happens before
+     * any write
+     *
+     * @param sequence highest sequence number recovered
+     */
+    public void recovered(long sequence) {
+        long last = lastSequence.accumulateAndGet(sequence, Math::max);
+        visible.accumulateAndGet(last, Math::max);
+    }
+
+    /**
+     * take a snapshot at the visible sequence number
+     *
+     * @return Snapshot
+     */
+    public synchronized Snapshot acquire() {
+        long sequence = visible();
+        live.merge(sequence, 1, Integer::sum);
+        return new Snapshot(sequence);
+    }
+
+    /**
+     * release a snapshot taken by acquire()
+     *
+     * @param snapshot Snapshot
+     */
+    public synchronized void release(Snapshot snapshot) {
+        live.computeIfPresent(snapshot.sequence(), (seq, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * sequence numbers of the live snapshots
+     *
+     * @return sequence numbers, ascending
+     */
+    public synchronized long[] live() {
+        return live.keySet().stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * whether a version of a key is read by one of the snapshots, that is some
+     * snapshot falls at or after it and before the next newer version
+     *
+     * @param snapshots     sequence numbers, ascending
+     * @param sequence      sequence number of the version
+     * @param newerSequence sequence number of the next newer version of the key
+     * @return boolean
+     */
+    static boolean isVisible(long[] snapshots, long sequence, long newerSequence) {
+        int pos = Arrays.binarySearch(snapshots, sequence);
+        if (pos < 0)
+            pos = -pos - 1;
+        return pos < snapshots.length && snapshots[pos] < newerSequence;
+    }
+}
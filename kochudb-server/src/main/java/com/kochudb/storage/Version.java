@@ -0,0 +1,114 @@
+package com.kochudb.storage;
+
+import static com.kochudb.k.K.NUM_LEVELS;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable set of SSTables making up the tree at one point in time, level by
+ * level. Every flush and compaction produces a new Version by applying a
+ * VersionEdit to the current one.
+ *
+ * Within a level, SSTables are ordered newest first by their number.
+ */
+public final class Version {
+
+    private static final Comparator<FileMetadata> NEWEST_FIRST = Comparator.comparingLong(FileMetadata::number)
+            .reversed();
+
+    private final List<List<FileMetadata>> levels;
+    private final long lastNumber;
+
+    private Version(List<List<FileMetadata>> levels, long lastNumber) {
+        this.levels = levels;
+        this.lastNumber = lastNumber;
+    }
+
+    public static Version empty() {
+        List<List<FileMetadata>> levels = new ArrayList<List<FileMetadata>>();
+        for (int i = 0; i <= NUM_LEVELS; i++)
+            levels.add(List.of());
+        return new Version(Collections.unmodifiableList(levels), 0L);
+    }
+
+    /**
+     * SSTables of a level
+     *
+     * @param level level
+     * @return SSTables, newest first
+     */
+    public List<FileMetadata> files(int level) {
+        return levels.get(level);
+    }
+
+    /**
+     * highest number given to an SSTable so far
+     *
+     * @return number
+     */
+    public long lastNumber() {
+        return lastNumber;
+    }
+
+    /**
+     * highest sequence number of a record in the SSTables of this Version
+     *
+     * @return sequence number, 0 if none is known
+     */
+    public long lastSequence() {
+        long last = 0L;
+        for (List<FileMetadata> files : levels)
+            for (FileMetadata file : files)
+                last = Math.max(last, file.largestSequence());
+        return last;
+    }
+
+    /**
+     * the Version that follows from an edit. Levels the edit does not touch are
+     * shared.
+     *
+     * @param edit numbered edit
+     * @return Version
+     */
+    public Version apply(VersionEdit edit) {
+        List<List<FileMetadata>> next = new ArrayList<List<FileMetadata>>(levels);
+        long last = lastNumber;
+
+        for (VersionEdit.Deletion deletion : edit.getDeleted()) {
+            List<FileMetadata> files = new ArrayList<FileMetadata>(next.get(deletion.level()));
+            files.removeIf(file -> file.name().equals(deletion.name()));
+            next.set(deletion.level(), files);
+        }
+        for (FileMetadata file : edit.getAdded()) {
+            List<FileMetadata> files = new ArrayList<FileMetadata>(next.get(file.level()));
+            files.add(file);
+            next.set(file.level(), files);
+            last = Math.max(last, file.number());
+        }
+
+        for (int i = 0; i < next.size(); i++) {
+            if (next.get(i) != levels.get(i)) {
+                List<FileMetadata> files = new ArrayList<FileMetadata>(next.get(i));
+                files.sort(NEWEST_FIRST);
+                next.set(i, Collections.unmodifiableList(files));
+            }
+        }
+        return new Version(Collections.unmodifiableList(next), last);
+    }
+
+    /**
+     * one edit adding every SSTable of this Version, to start a new MANIFEST with
+     *
+     * @return VersionEdit
+     */
+    VersionEdit snapshot() {
+        VersionEdit edit = new VersionEdit();
+        for (List<FileMetadata> files : levels)
+            for (FileMetadata file : files)
+                edit.add(file);
+        return edit;
+    }
+}
@@ -0,0 +1,181 @@
+package com.kochudb.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Change from one Version of the tree to the next: SSTables added to and
+ * removed from levels. A flush adds one SSTable to level 0, a compaction
+ * removes its inputs and adds its outputs in one edit.
+ *
+ * Edits are what the MANIFEST logs. Each entry starts with a tag, so that
+ * entries of new kinds can be added later.
+ */
+public class VersionEdit {
+
+    // SSTable added, as written before SSTables had sequence numbers
+    static final byte TAG_ADD = 1;
+    static final byte TAG_DELETE = 2;
+    static final byte TAG_ADD_FILE = 3;
+
+    /**
+     * SSTable removed from a level
+     *
+     * @param level level
+     * @param name  name of the index file
+     */
+    public record Deletion(int level, String name) {
+    }
+
+    private final List<FileMetadata> added;
+    private final List<Deletion> deleted;
+
+    public VersionEdit() {
+        added = new ArrayList<FileMetadata>();
+        deleted = new ArrayList<Deletion>();
+    }
+
+    /**
+     * add a written SSTable to a level. It gets its number once the edit is
+     * applied.
+     *
+     * @param level   level
+     * @param sSTable SSTable
+     * @return this
+     */
+    public VersionEdit add(int level, SSTable sSTable) {
+        added.add(new FileMetadata(level, 0L, new File(sSTable.getIndexFile()).getName(),
+                new File(sSTable.getDataFile()).length(), sSTable.smallestKey(), sSTable.largestKey(),
+                sSTable.smallestSequence(), sSTable.largestSequence()));
+        return this;
+    }
+
+    VersionEdit add(FileMetadata file) {
+        added.add(file);
+        return this;
+    }
+
+    /**
+     * remove an SSTable from a level
+     *
+     * @param level   level
+     * @param sSTable SSTable
+     * @return this
+     */
+    public VersionEdit delete(int level, SSTable sSTable) {
+        deleted.add(new Deletion(level, new File(sSTable.getIndexFile()).getName()));
+        return this;
+    }
+
+    public List<FileMetadata> getAdded() {
+        return added;
+    }
+
+    public List<Deletion> getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * the same edit with numbers given to the added SSTables, in order
+     *
+     * @param first number of the first added SSTable
+     * @return VersionEdit
+     */
+    VersionEdit numbered(long first) {
+        VersionEdit edit = new VersionEdit();
+        edit.deleted.addAll(deleted);
+        for (FileMetadata file : added)
+            edit.added.add(file.withNumber(first++));
+        return edit;
+    }
+
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (Deletion deletion : deleted) {
+                out.writeByte(TAG_DELETE);
+                out.writeInt(deletion.level());
+                writeBytes(out, deletion.name().getBytes(StandardCharsets.UTF_8));
+            }
+            for (FileMetadata file : added) {
+                out.writeByte(TAG_ADD_FILE);
+                out.writeInt(file.level());
+                out.writeLong(file.number());
+                out.writeLong(file.size());
+                writeBytes(out, file.name().getBytes(StandardCharsets.UTF_8));
+                writeBytes(out, file.smallest() == null ? new byte[0] : file.smallest());
+                writeBytes(out, file.largest() == null ? new byte[0] : file.largest());
+                out.writeLong(file.smallestSequence());
+                out.writeLong(file.largestSequence());
+            }
+        } catch (IOException e) {
+            // not thrown by an in-memory stream
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * decode an edit written by encode()
+     *
+     * @param buf encoded edit
+     * @return VersionEdit
+     * @throws IOException if the edit is malformed
+     */
+    static VersionEdit decode(ByteBuffer buf) throws IOException {
+        VersionEdit edit = new VersionEdit();
+        try {
+            while (buf.hasRemaining()) {
+                byte tag = buf.get();
+                switch (tag) {
+                case TAG_DELETE -> edit.deleted.add(new Deletion(buf.getInt(), readString(buf)));
+                case TAG_ADD, TAG_ADD_FILE -> {
+                    int level = buf.getInt();
+                    long number = buf.getLong(), size = buf.getLong();
+                    String name = readString(buf);
+                    byte[] smallest = readKey(buf), largest = readKey(buf);
+                    long smallestSequence = 0L, largestSequence = 0L;
+                    if (tag == TAG_ADD_FILE) {
+                        smallestSequence = buf.getLong();
+                        largestSequence = buf.getLong();
+                    }
+                    edit.added.add(new FileMetadata(level, number, name, size, smallest, largest, smallestSequence,
+                            largestSequence));
+                }
+                default -> throw new IOException("Unknown MANIFEST entry: " + tag);
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Malformed MANIFEST record", e);
+        }
+        return edit;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] b) throws IOException {
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static byte[] readBytes(ByteBuffer buf) {
+        byte[] b = new byte[buf.getInt()];
+        buf.get(b);
+        return b;
+    }
+
+    // keys are never empty, an empty one was not known
+    private static byte[] readKey(ByteBuffer buf) {
+        byte[] key = readBytes(buf);
+        return key.length == 0 ? null : key;
+    }
+
+    private static String readString(ByteBuffer buf) {
+        return new String(readBytes(buf), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,211 @@
+package com.kochudb.storage;
+
+import static com.kochudb.k.K.WAL_MAGIC;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.kochudb.types.KochuDoc;
+import com.kochudb.types.WriteBatch;
+import com.kochudb.utils.ByteUtil;
+
+/**
+ * Replays WAL segments left by a previous run. Each segment is memory mapped
+ * and read front to back, and every record is checked against its CRC32C. A
+ * segment ends at its first incomplete or corrupt record, which is where a
+ * crash in the middle of a write leaves it.
+ *
+ * Segments are read and decoded in parallel, a few ahead of the one being
+ * applied, and their records are handed over strictly in log order.
+ */
+public class WalRecovery {
+
+    private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+    /**
+     * outcome of a recovery
+     *
+     * @param segments     segments read
+     * @param records      records applied
+     * @param bytes        bytes of valid records read
+     * @param tornSegments segments that ended in an incomplete or corrupt record
+     * @param millis       time taken
+     */
+    public record Stats(int segments, long records, long bytes, int tornSegments, long millis) {
+
+        public double megabytesPerSecond() {
+            return millis == 0 ? 0.0 : bytes / 1048.576 / millis;
+        }
+    }
+
+    /**
+     * valid records of a segment
+     *
+     * @param records records in log order
+     * @param bytes   bytes up to the end of the last valid record
+     * @param torn    whether anything follows the last valid record
+     */
+    record Segment(List<byte[]> records, long bytes, boolean torn) {
+    }
+
+    private final List<File> segments;
+    private final int parallelism;
+
+    /**
+     * Constructor
+     *
+     * @param segments    segments, oldest first
+     * @param parallelism number of segments decoded at once
+     */
+    public WalRecovery(List<File> segments, int parallelism) {
+        this.segments = segments;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * decode all segments and apply their records in log order
+     *
+     * @param sink receives the records, on the calling thread
+     * @return Stats
+     * @throws IOException if a segment cannot be read
+     */
+    public Stats replay(Consumer<KochuDoc> sink) throws IOException {
+        long start = System.currentTimeMillis();
+        long records = 0L, bytes = 0L;
+        int torn = 0;
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, segments.size())),
+                runnable -> new Thread(runnable, "wal-recovery"));
+        try {
+            // bounded read ahead, so that decoded segments do not pile up in memory
+            Deque<Future<Decoded>> inFlight = new ArrayDeque<Future<Decoded>>();
+            int next = 0;
+            while (next < segments.size() || !inFlight.isEmpty()) {
+                while (next < segments.size() && inFlight.size() < 2 * parallelism) {
+                    File file = segments.get(next++);
+                    inFlight.add(pool.submit(() -> decode(file)));
+                }
+
+                Decoded decoded = await(inFlight.poll());
+                for (KochuDoc doc : decoded.docs)
+                    sink.accept(doc);
+
+                records += decoded.docs.size();
+                bytes += decoded.segment.bytes();
+                if (decoded.segment.torn()) {
+                    torn++;
+                    logger.warn("Write-ahead log segment {} ends in a torn record after {} bytes, the rest is ignored",
+                            decoded.file, decoded.segment.bytes());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return new Stats(segments.size(), records, bytes, torn, System.currentTimeMillis() - start);
+    }
+
+    private static Decoded await(Future<Decoded> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during recovery", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+    }
+
+    private static Decoded decode(File file) throws IOException {
+        Segment segment = read(file);
+        List<KochuDoc> docs = new ArrayList<KochuDoc>(segment.records().size());
+        for (byte[] record : segment.records()) {
+            // the writes of a batch are applied one by one, in a single pass
+            if (WriteBatch.isBatch(record))
+                docs.addAll(WriteBatch.deserialize(record).docs());
+            else
+                docs.add(KochuDoc.deserialize(record));
+        }
+        return new Decoded(file, segment, docs);
+    }
+
+    /**
+     * read the valid records of a segment
+     *
+     * @param file segment
+     * @return Segment
+     * @throws IOException if the segment cannot be read
+     */
+    static Segment read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0L)
+                return new Segment(List.of(), 0L, false);
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("Write-ahead log segment too large: " + file);
+
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            try {
+                return read(map);
+            } finally {
+                ByteUtil.freeDirectBuffer(map);
+            }
+        }
+    }
+
+    static Segment read(ByteBuffer buf) {
+        boolean checked = buf.remaining() >= WriteAheadLog.HEADER_SIZE && buf.getInt(buf.position()) == WAL_MAGIC;
+        if (checked)
+            buf.position(buf.position() + WriteAheadLog.HEADER_SIZE);
+
+        int headerSize = checked ? WriteAheadLog.RECORD_HEADER_SIZE : Integer.BYTES;
+        List<byte[]> records = new ArrayList<byte[]>();
+        CRC32C crc = new CRC32C();
+
+        while (buf.remaining() >= headerSize) {
+            int start = buf.position();
+            int length = buf.getInt();
+            int expected = checked ? buf.getInt() : 0;
+
+            if (length < 0 || length > buf.remaining()) {
+                buf.position(start);
+                break;
+            }
+
+            if (checked) {
+                crc.reset();
+                crc.update(buf.slice(buf.position(), length));
+                if ((int) crc.getValue() != expected) {
+                    buf.position(start);
+                    break;
+                }
+            }
+
+            byte[] record = new byte[length];
+            buf.get(record);
+            records.add(record);
+        }
+        return new Segment(records, buf.position(), buf.hasRemaining());
+    }
+
+    private record Decoded(File file, Segment segment, List<KochuDoc> docs) {
+    }
+}
@@ -1,81 +1,498 @@
 package com.kochudb.storage;
 
-import static com.kochudb.utils.ByteUtil.intToBytes;
+import static com.kochudb.k.K.WAL_FORMAT_VERSION;
+import static com.kochudb.k.K.WAL_MAGIC;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
-import java.time.Instant;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.kochudb.utils.FileUtil;
+
+/**
+ * Append only log of the writes not yet flushed to an SSTable. Each segment
+ * starts with [magic in 4 bytes, format version in 4 bytes], followed by one
+ * [len(record) in 4 bytes, CRC32C of record in 4 bytes, record] entry per
+ * write. Segments of earlier versions have no header and no checksums.
+ *
+ * Appends from all threads go through a queue to a single writer thread, which
+ * writes whatever has accumulated with one system call and then syncs the file
+ * according to the sync policy. A caller returns once its record is written,
+ * and also synced under the always and group policies. A write or sync that
+ * fails is cut off the segment again, so that later records never follow a
+ * partial one.
+ *
+ * The log is split into segments, binlog_[id] with ids increasing. A new
+ * segment is started along with every new memTable, and a segment is deleted
+ * once the memTables logged to it are safely on disk.
+ */
 public class WriteAheadLog {
 	private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
 
-	private File walDir;
-	private File wal;
-	private FileOutputStream walStream;
+	public static final String SEGMENT_PATTERN = "^binlog[0-9_]+$";
+
+	// [magic, format version]
+	public static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES;
+
+	// [len(record), CRC32C of record]
+	public static final int RECORD_HEADER_SIZE = Integer.BYTES + Integer.BYTES;
+
+	/**
+	 * when the log is synced to disk
+	 */
+	public enum Sync {
+		// one write and one sync per record
+		ALWAYS,
+		// one write and one sync per batch of concurrent records
+		GROUP,
+		// one write per batch, a sync at most every wal.sync.interval.ms
+		INTERVAL,
+		// left to the operating system
+		NEVER
+	}
+
+	// marks the end of the queue
+	private static final Pending CLOSE = new Pending(null, null);
+
+	private final File walDir;
+
+	// segments found when the log was opened, oldest first
+	private final List<File> recovered;
+
+	// segment being appended to, its id and its channel, set by rotate()
+	private volatile File wal;
+	private volatile long segmentId;
+
+	// channel of the segment the writer thread is at, which lags behind wal until
+	// the writer reaches the rotation in the queue
+	private FileChannel channel;
+
+	// end of the last record fully written to the channel, and whether a failed
+	// write is still to be cut off behind it
+	private long goodOffset;
+	private boolean torn;
+
+	private final Sync sync;
+	private final long intervalMillis;
+
+	private final LinkedBlockingQueue<Pending> queue;
+	private final Thread writer;
+	private volatile boolean closed;
+
+	// written since the last sync, touched by the writer thread only
+	private boolean dirty;
+	private long lastSync;
+
+	public WriteAheadLog(String dir) throws IOException {
+		this(dir, Sync.GROUP, 0L);
+	}
+
+	/**
+	 * Constructor. Segments already in the directory are left for recovery, and
+	 * appends go to a new segment.
+	 *
+	 * @param dir            directory of the log files
+	 * @param sync           sync policy
+	 * @param intervalMillis time between syncs for the interval policy
+	 * @throws IOException if the log cannot be opened
+	 */
+	public WriteAheadLog(String dir, Sync sync, long intervalMillis) throws IOException {
+		this.sync = sync;
+		this.intervalMillis = Math.max(1L, intervalMillis);
 
-	public WriteAheadLog(String dir) {
 		walDir = new File(dir);
 		if (!walDir.exists() || !walDir.isDirectory())
 			walDir.mkdirs();
 
-		File recent = getMostRecentFile();
+		recovered = List.of(segments());
+		segmentId = recovered.isEmpty() ? 1L : segmentId(recovered.get(recovered.size() - 1)) + 1;
+		wal = segmentFile(segmentId);
+		channel = open(wal);
+		goodOffset = channel.size();
+
+		queue = new LinkedBlockingQueue<Pending>();
+		lastSync = System.currentTimeMillis();
 
-		wal = recent == null ? createNewWal() : recent;
+		writer = new Thread(this::writeLoop, "wal-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
 
+	/**
+	 * parse the wal.sync setting
+	 *
+	 * @param name always, group, interval or never
+	 * @return Sync
+	 */
+	public static Sync parseSync(String name) {
 		try {
-			walStream = new FileOutputStream(wal, true);
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+			return Sync.valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown wal.sync: " + name);
 		}
 	}
 
-	private File createNewWal() {
-		Instant instant = Instant.now();
-		int nanos = instant.getNano();
-		String filename = "" + instant.getEpochSecond() + "_" + nanos;
-		File newFile = new File(walDir.getAbsolutePath() + "/binlog_" + filename);
-		return newFile;
+	/**
+	 * segment files in the directory, oldest first. Segments named after their
+	 * creation time by earlier versions come before all others.
+	 *
+	 * @return File[] segments
+	 */
+	public File[] segments() {
+		return FileUtil.findFiles(walDir.getAbsolutePath(), SEGMENT_PATTERN,
+				Comparator.comparingLong(WriteAheadLog::segmentId).thenComparingLong(File::lastModified));
+	}
+
+	/**
+	 * id of a segment, 0 for segments of earlier versions
+	 *
+	 * @param segment segment file
+	 * @return id
+	 */
+	static long segmentId(File segment) {
+		String id = segment.getName().substring("binlog_".length());
+		return id.indexOf('_') >= 0 ? 0L : Long.parseLong(id);
 	}
 
-	public File getMostRecentFile() {
-		File[] files = walDir.listFiles(File::isFile);
-		long lastModifiedTime = 0L;
-		File recentFile = null;
+	private File segmentFile(long id) {
+		return new File(walDir, String.format("binlog_%020d", id));
+	}
 
-		if (files != null) {
-			for (File file : files) {
-				if (file.lastModified() > lastModifiedTime) {
-					recentFile = file;
-					lastModifiedTime = file.lastModified();
+	private static FileChannel open(File segment) throws IOException {
+		FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		if (channel.size() == 0L) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(WAL_MAGIC).putInt(WAL_FORMAT_VERSION).flip();
+			while (header.hasRemaining())
+				channel.write(header);
+		}
+		return channel;
+	}
+
+	/**
+	 * segments that were in the directory when the log was opened, to be replayed
+	 *
+	 * @return segments, oldest first
+	 */
+	public List<File> recoveredSegments() {
+		return recovered;
+	}
+
+	/**
+	 * start a new segment. Records appended before this call stay in the earlier
+	 * segments, records appended after it go to the new one.
+	 *
+	 * @return id of the newest segment holding only records appended before this
+	 *         call
+	 */
+	public synchronized long rotate() {
+		long sealed = segmentId;
+		if (closed)
+			return sealed - 1;
+
+		File next = segmentFile(sealed + 1);
+		try {
+			queue.add(new Pending(null, open(next)));
+		} catch (IOException e) {
+			// keep appending to the current segment, which now also holds later records
+			logger.error("Failed to start write-ahead log segment {}: {}", next, e.getMessage());
+			return sealed - 1;
+		}
+
+		wal = next;
+		segmentId = sealed + 1;
+		return sealed;
+	}
+
+	/**
+	 * delete the segments up to the given one, once the records in them are safe
+	 * in SSTables. The segment being appended to is never deleted.
+	 *
+	 * @param upTo id of the last segment to delete
+	 */
+	public void truncate(long upTo) {
+		long current = segmentId;
+		for (File segment : segments()) {
+			long id = segmentId(segment);
+			if (id > upTo || id >= current)
+				break;
+			if (segment.delete())
+				logger.debug("Deleted write-ahead log segment {}", segment);
+			else
+				logger.warn("Failed to delete write-ahead log segment {}", segment);
+		}
+	}
+
+	public long currentSegment() {
+		return segmentId;
+	}
+
+	/**
+	 * append a record and wait until it is durable as per the sync policy
+	 *
+	 * @param data record
+	 * @throws IOException if the record could not be written or synced
+	 */
+	public void append(byte[] data) throws IOException {
+		try {
+			appendAsync(data).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the write-ahead log", e);
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * append a record without waiting
+	 *
+	 * @param data record
+	 * @return future completed once the record is durable as per the sync policy
+	 */
+	public CompletableFuture<Void> appendAsync(byte[] data) {
+		Pending pending = new Pending(data, null);
+		pending.crc = checksum(data);
+		if (closed)
+			pending.fail(new IOException("Write-ahead log is closed: " + wal));
+		else
+			queue.add(pending);
+		return pending.done;
+	}
+
+	/**
+	 * write out and sync the records already appended, then close the file
+	 */
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		queue.add(CLOSE);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public File getFile() {
+		return wal;
+	}
+
+	public Sync getSync() {
+		return sync;
+	}
+
+	private void writeLoop() {
+		List<Pending> batch = new ArrayList<Pending>();
+		boolean stop = false;
+		try {
+			while (!stop) {
+				Pending first = sync == Sync.INTERVAL && dirty
+						? queue.poll(lastSync + intervalMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS)
+						: queue.take();
+
+				if (first == null) {
+					syncQuietly();
+					continue;
+				}
+
+				batch.add(first);
+				if (sync != Sync.ALWAYS)
+					queue.drainTo(batch);
+
+				// records up to each rotation go to the segment before it
+				int from = 0;
+				for (int i = 0; i < batch.size() && !stop; i++) {
+					Pending pending = batch.get(i);
+					if (pending.data != null)
+						continue;
+
+					write(batch.subList(from, i));
+					from = i + 1;
+					if (pending == CLOSE)
+						stop = true;
+					else
+						switchTo(pending.next);
 				}
+				if (!stop)
+					write(batch.subList(from, batch.size()));
+				else
+					for (Pending late : batch.subList(from, batch.size()))
+						late.fail(new IOException("Write-ahead log is closed: " + wal));
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			syncQuietly();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.error("Failed to close write-ahead log {}: {}", wal, e.getMessage());
+			}
+
+			// fail anything that raced with close
+			for (Pending pending : queue)
+				if (pending != CLOSE)
+					pending.fail(new IOException("Write-ahead log is closed: " + wal));
+		}
+	}
+
+	/**
+	 * sync and close the current segment, then continue with the next one
+	 *
+	 * @param next channel of the next segment
+	 */
+	private void switchTo(FileChannel next) {
+		try {
+			if (torn)
+				cutBack();
+		} catch (IOException e) {
+			// recovery stops at the partial record, which is the last one anyway
+			logger.error("Failed to truncate write-ahead log segment: {}", e.getMessage());
+		}
+		syncQuietly();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.error("Failed to close write-ahead log segment: {}", e.getMessage());
+		}
+		channel = next;
+		torn = false;
+		try {
+			goodOffset = channel.size();
+		} catch (IOException e) {
+			goodOffset = HEADER_SIZE;
+		}
+	}
+
+	/**
+	 * write a batch of records with one system call, sync as per the policy and
+	 * release the callers
+	 *
+	 * @param batch records in order of arrival
+	 */
+	private void write(List<Pending> batch) {
+		if (batch.isEmpty())
+			return;
+
+		int total = 0;
+		for (Pending pending : batch)
+			total += RECORD_HEADER_SIZE + pending.data.length;
+
+		ByteBuffer buf = ByteBuffer.allocate(total);
+		for (Pending pending : batch)
+			buf.putInt(pending.data.length).putInt(pending.crc).put(pending.data);
+		buf.flip();
+
+		try {
+			// what a failed write left behind goes first
+			if (torn)
+				cutBack();
+
+			while (buf.hasRemaining())
+				channel.write(buf);
+			dirty = true;
+
+			if (sync == Sync.ALWAYS || sync == Sync.GROUP
+					|| (sync == Sync.INTERVAL && System.currentTimeMillis() - lastSync >= intervalMillis))
+				sync();
+			goodOffset += total;
+		} catch (IOException e) {
+			logger.error("Write-ahead log append failed: {}", e.getMessage());
+			for (Pending pending : batch)
+				pending.fail(e);
+			torn = true;
+			try {
+				cutBack();
+			} catch (IOException retry) {
+				logger.error("Failed to truncate write-ahead log {}, retrying with the next append: {}", wal,
+						retry.getMessage());
 			}
+			return;
 		}
-		return recentFile;
+
+		for (Pending pending : batch)
+			pending.done.complete(null);
 	}
 
-	public void append(byte[] data) {
-		byte[] bytesToWrite = new byte[data.length + Integer.BYTES];
-		byte[] leng = intToBytes(Integer.BYTES, data.length);
+	/**
+	 * truncate the segment back to the end of the last good record, dropping a
+	 * partial or unsynced write whose callers were told it failed
+	 *
+	 * @throws IOException if the segment could not be truncated
+	 */
+	private void cutBack() throws IOException {
+		channel.truncate(goodOffset);
+		channel.force(false);
+		dirty = false;
+		torn = false;
+	}
 
-		System.arraycopy(leng, 0, bytesToWrite, 0, Integer.BYTES);
-		System.arraycopy(data, 0, bytesToWrite, Integer.BYTES, data.length);
+	private void sync() throws IOException {
+		if (sync != Sync.NEVER && dirty)
+			channel.force(false);
+		dirty = false;
+		lastSync = System.currentTimeMillis();
+	}
 
+	private void syncQuietly() {
 		try {
-			walStream.write(bytesToWrite, 0, bytesToWrite.length);
+			sync();
 		} catch (IOException e) {
-			logger.info(e.getMessage());
-			e.printStackTrace();
+			logger.error("Write-ahead log sync failed: {}", e.getMessage());
 		}
 	}
 
-	public void updateFile() {
-		wal = createNewWal();
+	/**
+	 * CRC32C of a record, as stored in front of it
+	 *
+	 * @param data record
+	 * @return checksum
+	 */
+	static int checksum(byte[] data) {
+		CRC32C crc = new CRC32C();
+		crc.update(data, 0, data.length);
+		return (int) crc.getValue();
 	}
 
+	/**
+	 * a record to append, or a rotation to the next segment when data is null
+	 */
+	private static final class Pending {
+		final byte[] data;
+		final FileChannel next;
+		int crc;
+		final CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+		Pending(byte[] data, FileChannel next) {
+			this.data = data;
+			this.next = next;
+		}
+
+		void fail(IOException e) {
+			if (next != null) {
+				try {
+					next.close();
+				} catch (IOException ignored) {
+				}
+			}
+			done.completeExceptionally(e);
+		}
+	}
 }
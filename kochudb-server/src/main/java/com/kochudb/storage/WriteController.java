@@ -0,0 +1,168 @@
+package com.kochudb.storage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntSupplier;
+
+/**
+ * Holds writes back while memTable flushes or level 0 compactions fall behind,
+ * so that neither the memTables waiting to be flushed nor the SSTables of level
+ * 0 pile up without bound.
+ *
+ * Past a soft limit, every write is delayed, the longer the closer the backlog
+ * is to the hard limit. Past the hard limit, writes wait until the backlog
+ * shrinks. A write that waits longer than the stall timeout is turned away, to
+ * be retried by the client.
+ */
+public class WriteController {
+
+    public enum State {
+        NORMAL, SLOWDOWN, STOP
+    }
+
+    // delay of a write as the backlog reaches the hard limit
+    static final long MAX_DELAY_MICROS = 10_000L;
+
+    private final int slowdownMemTables, stopMemTables, slowdownL0Files, stopL0Files;
+    private final long stallTimeoutNanos;
+    private final IntSupplier memTables, l0Files;
+
+    private final LongAdder delayedNanos, stalledNanos, rejected;
+
+    /**
+     * Constructor
+     *
+     * @param slowdownMemTables  memTables waiting to be flushed at which writes
+     *                           are delayed
+     * @param stopMemTables      memTables waiting to be flushed at which writes
+     *                           stop
+     * @param slowdownL0Files    SSTables in level 0 at which writes are delayed
+     * @param stopL0Files        SSTables in level 0 at which writes stop
+     * @param stallTimeoutMillis longest wait of a stopped write before it is
+     *                           turned away
+     * @param memTables          number of memTables waiting to be flushed
+     * @param l0Files            number of SSTables in level 0
+     */
+    public WriteController(int slowdownMemTables, int stopMemTables, int slowdownL0Files, int stopL0Files,
+            long stallTimeoutMillis, IntSupplier memTables, IntSupplier l0Files) {
+        this.slowdownMemTables = slowdownMemTables;
+        this.stopMemTables = Math.max(slowdownMemTables, stopMemTables);
+        this.slowdownL0Files = slowdownL0Files;
+        this.stopL0Files = Math.max(slowdownL0Files, stopL0Files);
+        this.stallTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(stallTimeoutMillis);
+        this.memTables = memTables;
+        this.l0Files = l0Files;
+
+        delayedNanos = new LongAdder();
+        stalledNanos = new LongAdder();
+        rejected = new LongAdder();
+    }
+
+    public State state() {
+        int m = memTables.getAsInt(), f = l0Files.getAsInt();
+        if (m >= stopMemTables || f >= stopL0Files)
+            return State.STOP;
+        if (m >= slowdownMemTables || f >= slowdownL0Files)
+            return State.SLOWDOWN;
+        return State.NORMAL;
+    }
+
+    /**
+     * let a write through, after a delay or a stall if the backlog calls for one
+     *
+     * @return false if writes stayed stopped for the whole stall timeout
+     */
+    public boolean admit() {
+        State state = state();
+        if (state == State.NORMAL)
+            return true;
+
+        long start = System.nanoTime();
+        if (state == State.SLOWDOWN) {
+            LockSupport.parkNanos(delayNanos());
+            delayedNanos.add(System.nanoTime() - start);
+            return true;
+        }
+
+        synchronized (this) {
+            while (state() == State.STOP) {
+                long remaining = start + stallTimeoutNanos - System.nanoTime();
+                if (remaining <= 0L) {
+                    stalledNanos.add(System.nanoTime() - start);
+                    rejected.increment();
+                    return false;
+                }
+
+                try {
+                    // flushes and compactions signal, the timeout covers anything else
+                    wait(Math.max(1L, Math.min(TimeUnit.NANOSECONDS.toMillis(remaining), 10L)));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    stalledNanos.add(System.nanoTime() - start);
+                    rejected.increment();
+                    return false;
+                }
+            }
+        }
+        stalledNanos.add(System.nanoTime() - start);
+        return true;
+    }
+
+    /**
+     * delay of a write, growing from 1 ms at the soft limit towards
+     * MAX_DELAY_MICROS at the hard limit of whichever backlog is further along
+     */
+    private long delayNanos() {
+        double progress = Math.max(progress(memTables.getAsInt(), slowdownMemTables, stopMemTables),
+                progress(l0Files.getAsInt(), slowdownL0Files, stopL0Files));
+        long micros = 1000L + (long) (progress * (MAX_DELAY_MICROS - 1000L));
+        return TimeUnit.MICROSECONDS.toNanos(micros);
+    }
+
+    private static double progress(int count, int soft, int hard) {
+        if (count < soft)
+            return 0.0;
+        return hard == soft ? 1.0 : Math.min(1.0, (count - soft) / (double) (hard - soft));
+    }
+
+    /**
+     * wake up stalled writes, the backlog has shrunk
+     */
+    public synchronized void signal() {
+        notifyAll();
+    }
+
+    /**
+     * total time writes were delayed past the soft limits
+     *
+     * @return milliseconds
+     */
+    public long delayedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(delayedNanos.sum());
+    }
+
+    /**
+     * total time writes were stalled past the hard limits
+     *
+     * @return milliseconds
+     */
+    public long stalledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(stalledNanos.sum());
+    }
+
+    /**
+     * writes turned away after a stall
+     *
+     * @return count
+     */
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WriteController[state=%s, delayed=%d ms, stalled=%d ms, rejected=%d]", state(),
+                delayedMillis(), stalledMillis(), rejectedCount());
+    }
+}
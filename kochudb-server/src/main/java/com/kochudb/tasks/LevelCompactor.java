@@ -1,46 +1,58 @@
 package com.kochudb.tasks;
 
 import static com.kochudb.k.K.ERR_NO_DATA_DIR;
-import static com.kochudb.k.K.LEVEL_MAX_FILES_MULTIPLIER;
-import static com.kochudb.k.K.LEVEL_MAX_SIZE_MULTIPLIER;
-import static com.kochudb.k.K.LEVEL_ZERO_FILE_MAX_SIZE_KB;
-import static com.kochudb.k.K.LEVEL_ZERO_NUM_FILES;
 import static com.kochudb.k.K.NUM_LEVELS;
 
 import java.io.File;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.kochudb.storage.LSMTree;
-import com.kochudb.utils.FileUtil;
+import com.kochudb.storage.Compaction;
+import com.kochudb.storage.CompactionStrategy;
+import com.kochudb.storage.LeveledCompactionStrategy;
+import com.kochudb.storage.SSTable;
 
 public class LevelCompactor implements Runnable {
 
     private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
 
-    // Maximum size of file in level 0 in bytes
-    long levelZeroFileSize;
-
     // Directory where data and index files are stored
     String dataDirectory;
 
+    // decides when and what to compact
+    private final CompactionStrategy strategy;
+
     // Currently compaction is in progress?
     private static volatile AtomicBoolean isRunning;
 
+    // compactions started and not finished yet. Those of a new run must not
+    // touch their SSTables.
+    private static final List<Compaction> running = new ArrayList<Compaction>();
+
     /**
-     * Constructor
+     * Constructor, with leveled compaction
      * 
      * @param dir data directory
      */
     public LevelCompactor(File dir) {
+        this(dir, null);
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param dir      data directory
+     * @param strategy compaction strategy, null for leveled compaction
+     */
+    public LevelCompactor(File dir, CompactionStrategy strategy) {
 
         isRunning = new AtomicBoolean(false);
-        levelZeroFileSize = 1024 * LEVEL_ZERO_FILE_MAX_SIZE_KB; // 4 kb
 
         try {
             dataDirectory = dir.getCanonicalPath();
@@ -48,7 +60,8 @@ public class LevelCompactor implements Runnable {
             logger.error("Failed to access Data directory: {}", dataDirectory);
             System.exit(ERR_NO_DATA_DIR);
         }
-        logger.info("Compaction thread initialized");
+        this.strategy = strategy != null ? strategy : new LeveledCompactionStrategy(null);
+        logger.info("Compaction thread initialized, {} compaction", this.strategy.name());
     }
 
     @Override
@@ -59,85 +72,56 @@ public class LevelCompactor implements Runnable {
         }
 
         logger.trace("Compaction thread started");
-        try {
-            compactLevel(0);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        for (int level = 0; level <= NUM_LEVELS; level++)
+            compactLevel(level);
+        SSTable.getRateLimiter().tune(strategy.debt());
 
         if (isRunning.getAndSet(false))
             logger.trace("Compaction thread finished the job");
-    }
-
-    /**
-     * check if compaction criteria is met
-     * 
-     * @param files files in the level
-     * @param level current level
-     * @return boolean
-     */
-    boolean shouldStartCompactionNow(int level) {
-        File[] files = FileUtil.findFiles(dataDirectory, level);
-        if (files.length == 0)
-            return false;
-
-        int allowedNumFilesInCurLevel = computeNumFilesInLevel(level);
-        if (files.length > allowedNumFilesInCurLevel)
-            return true;
 
-        long maxFileSizeInLevel = computeMaxFileSizeInLevel(level);
-        long maxTotalSizeInLevel = allowedNumFilesInCurLevel * maxFileSizeInLevel;
-        long curTotalSizeInLevel = Arrays.stream(files).map(File::length).mapToLong(Long::longValue).sum();
-
-        return curTotalSizeInLevel > maxTotalSizeInLevel;
+        logger.trace("{}", SSTable.getBlockCache());
+        logger.trace("{}", SSTable.getRateLimiter());
     }
 
     /**
-     * Decide whether current level to be compacted. If yes, start compaction.
+     * Ask the strategy whether current level is to be compacted. If yes, start
+     * compacting it on the compaction thread pool, unless a running compaction
+     * works on an overlapping key range of the same levels. Compactions of
+     * different levels thereby run side by side.
      *
      * @param level current level
-     * @throws IOException
      */
-    void compactLevel(int level) throws IOException {
-        if (shouldStartCompactionNow(level)) {
-            logger.debug("Compaction started. current level: {}", level);
-
-            LSMTree.levels.get(level).compactLevel();
-
-            logger.trace("Deleting compacted files at level: {}", level);
-            if (level < NUM_LEVELS)
-                compactLevel(level + 1);
-        } else {
+    void compactLevel(int level) {
+        Compaction compaction = strategy.pick(level);
+        if (compaction == null) {
             logger.trace("Did not meet all criteria to begin compaction in {}", level);
+            return;
         }
-    }
 
-    /**
-     * Compute the maximum size a file is allowed to have in the given level This is
-     * computed from the configuration properties. Number of files in the given
-     * level is equal to the number of files in prev level multiplied by the
-     * multiplier. At level 0, it's configured as 10.
-     * 
-     * @param level current level
-     * @return max file size in current level
-     */
-    private long computeMaxFileSizeInLevel(int level) {
-        if (level > 0)
-            return computeMaxFileSizeInLevel(level - 1) * LEVEL_MAX_SIZE_MULTIPLIER;
-        return levelZeroFileSize;
+        synchronized (running) {
+            for (Compaction other : running) {
+                if (compaction.conflictsWith(other)) {
+                    logger.debug("Compaction of level {} waits for a running one", level);
+                    return;
+                }
+            }
+            running.add(compaction);
+        }
+
+        logger.debug("Compaction started. current level: {}", level);
+        compaction.start().whenComplete((ignored, error) -> {
+            synchronized (running) {
+                running.remove(compaction);
+            }
+            if (error != null)
+                logger.error("Compaction of level {} failed", level, error);
+            else
+                logger.debug("Compaction of level {} finished. Write amplification of {} compaction: {}", level,
+                        strategy.name(), String.format("%.2f", strategy.writeAmplification()));
+        });
     }
 
-    /**
-     * computer number of files in the given level This is computed from the number
-     * of files in the prev level multiplied by a configured multiplier. Multiplier
-     * is configured for level 0.
-     * 
-     * @param level - level of level compaction
-     * @return number of files in level
-     */
-    private int computeNumFilesInLevel(int level) {
-        if (level > 0)
-            return (int) (computeNumFilesInLevel(level - 1) * LEVEL_MAX_FILES_MULTIPLIER);
-        return LEVEL_ZERO_NUM_FILES;
+    public CompactionStrategy getStrategy() {
+        return strategy;
     }
 }
@@ -1,59 +1,70 @@
 package com.kochudb.tasks;
 
-import java.io.File;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
-import java.time.Instant;
-import java.util.Comparator;
 import java.util.Deque;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 //import com.kochudb.storage.SSTable;
+import com.kochudb.storage.LSMTree;
 import com.kochudb.storage.SSTable;
-import com.kochudb.storage.SkipList;
+import com.kochudb.storage.MemTable;
 import com.kochudb.types.ByteArray;
-import com.kochudb.utils.FileUtil;
 
 public class MemTableFlusher implements Runnable {
 
 	private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
 
-	Deque<SkipList> memTableQueue;
+	Deque<MemTable> memTableQueue;
 
 	// key and the offset of the value where the record is stored in file
 	Map<ByteArray, Long> keyToOffsetMap;
 
-	public MemTableFlusher(Deque<SkipList> memTableQueue) {
+	// called once a memTable is durable in an SSTable, to release its WAL
+	Consumer<MemTable> onFlushed;
+
+	// sequence numbers of the live snapshots, whose versions are kept
+	Supplier<long[]> snapshots;
+
+	public MemTableFlusher(Deque<MemTable> memTableQueue) {
+		this(memTableQueue, memTable -> {
+		});
+	}
+
+	public MemTableFlusher(Deque<MemTable> memTableQueue, Consumer<MemTable> onFlushed) {
+		this(memTableQueue, () -> new long[0], onFlushed);
+	}
+
+	public MemTableFlusher(Deque<MemTable> memTableQueue, Supplier<long[]> snapshots, Consumer<MemTable> onFlushed) {
 		this.memTableQueue = memTableQueue;
+		this.snapshots = snapshots;
+		this.onFlushed = onFlushed;
 	}
 
 	@Override
 	public void run() {
-		long currentTime = Instant.now().toEpochMilli();
-
 		flush();
-
-		// delete all WALs created before
-		File[] walsTooDelete = FileUtil.findFiles("WAL", "^binlog[0-9_]+$",
-				Comparator.comparingLong(File::lastModified));
-
-		for (File file : walsTooDelete)
-			if (file.lastModified() < currentTime)
-				file.delete();
 	}
 
 	// flush current state of the queue
 	private void flush() {
 		while (!memTableQueue.isEmpty()) {
-			SkipList skipList = memTableQueue.peekFirst();
+			MemTable memTable = memTableQueue.peekFirst();
 
 			SSTable sSTable = new SSTable(0);
 			try {
-				sSTable.persist(skipList);
-				memTableQueue.remove(skipList);
+				sSTable.persist(memTable, snapshots.get());
+
+				// make the new SSTable searchable before the memTable goes away
+				LSMTree.levels.get(0).insert(sSTable);
+				memTableQueue.remove(memTable);
+				memTable.close();
+				onFlushed.accept(memTable);
 			} catch (IOException e) {
 				logger.error("memtable flush operation failed");
 				e.printStackTrace();
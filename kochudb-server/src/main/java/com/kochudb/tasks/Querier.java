@@ -1,5 +1,7 @@
 package com.kochudb.tasks;
 
+import static com.kochudb.k.K.SCAN_CHUNK_SIZE;
+
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -7,15 +9,25 @@ import java.lang.invoke.MethodHandles;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.concurrent.Callable;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.kochudb.server.KVStorage;
+import com.kochudb.shared.BatchRequest;
+import com.kochudb.shared.MultiGetRequest;
 import com.kochudb.shared.Request;
 import com.kochudb.shared.Response;
+import com.kochudb.shared.ScanRequest;
+import com.kochudb.shared.ScanResponse;
 import com.kochudb.types.KochuDoc;
+import com.kochudb.types.WriteBatch;
 import com.kochudb.utils.ByteUtil;
 
 public class Querier implements Callable<Boolean> {
@@ -23,42 +35,180 @@ public class Querier implements Callable<Boolean> {
     private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
 
     private Socket socket;
-    private Request dto;
+    private Object request;
     KVStorage storageEngine;
 
-    public Querier(Socket socket, KVStorage storageEngine) throws IOException, ClassNotFoundException {
+    /**
+     * querier of a connection of the blocking server, which reads the request
+     * from the socket itself so that a slow client holds up no other
+     *
+     * @param socket        connection carrying one request
+     * @param storageEngine storage
+     */
+    public Querier(Socket socket, KVStorage storageEngine) {
         this.socket = socket;
-        ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
-        this.dto = (Request) ois.readObject();
         this.storageEngine = storageEngine;
+    }
 
-        Thread.currentThread().setName("querier");
+    /**
+     * querier of a request already read, whose responses the caller takes from
+     * answers()
+     *
+     * @param request       Request, ScanRequest, MultiGetRequest or BatchRequest
+     * @param storageEngine storage
+     */
+    public Querier(Object request, KVStorage storageEngine) {
+        this.request = request;
+        this.storageEngine = storageEngine;
     }
 
     @Override
     public Boolean call() {
-        String command = new String(dto.command(), StandardCharsets.UTF_8);
-        KochuDoc doc = switch (command) {
-        case "get" -> storageEngine.get(dto.key());
-        case "set" -> storageEngine.set(new KochuDoc(dto.key(), dto.value(), Instant.now().toEpochMilli()));
-        case "del" -> storageEngine.del(dto.key());
-        default -> new KochuDoc(null, "Invalid Operation".getBytes(), 0L);
-        };
+        try (Socket s = socket) {
+            ObjectInputStream ois = new ObjectInputStream(s.getInputStream());
+            request = ois.readObject();
+
+            ObjectOutputStream oos = new ObjectOutputStream(s.getOutputStream());
+            for (Iterator<Object> answers = answers(); answers.hasNext();) {
+                oos.writeObject(answers.next());
+                // replies share no objects, don't let the stream keep them alive
+                oos.reset();
+                oos.flush();
+            }
+            return true;
+        } catch (IOException | ClassNotFoundException e) {
+            logger.error(e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * run the request. Its responses are produced as they are taken, so that a
+     * scan reads its next chunk only once the caller is ready to send it.
+     *
+     * @return Iterator of Response or ScanResponse
+     */
+    public Iterator<Object> answers() {
+        if (request instanceof ScanRequest scan)
+            return scan(scan);
+        if (request instanceof MultiGetRequest multiGet)
+            return List.<Object>of(multiGet(multiGet)).iterator();
+
+        KochuDoc doc;
+        if (request instanceof BatchRequest batch)
+            doc = batch(batch);
+        else if (request instanceof Request dto)
+            doc = switch (new String(dto.command(), StandardCharsets.UTF_8)) {
+            case "get" -> storageEngine.get(dto.key());
+            case "set" -> storageEngine.set(new KochuDoc(dto.key(), valueOf(dto), Instant.now().toEpochMilli()));
+            case "del" -> storageEngine.del(dto.key());
+            default -> new KochuDoc(null, "Invalid Operation".getBytes(), 0L);
+            };
+        else
+            doc = new KochuDoc(null, "Invalid Operation".getBytes(), 0L);
 
-        // add WAL here, serialize DTO
-        ObjectOutputStream oos;
         Response resp = new Response(doc.getKey().bytes(), doc.getValue().bytes(),
                 ByteUtil.longToBytes(doc.getLastModified()));
+        return List.<Object>of(resp).iterator();
+    }
 
-        try {
-            oos = new ObjectOutputStream(socket.getOutputStream());
-            oos.writeObject(resp);
-            oos.flush();
-        } catch (IOException e) {
-            logger.error(e.getMessage());
-            return false;
+    /**
+     * value to set, a request without one sets an empty value
+     */
+    private static byte[] valueOf(Request request) {
+        return request.value() == null ? new byte[0] : request.value();
+    }
+
+    /**
+     * apply the sets and deletes of a batch request as one WriteBatch
+     *
+     * @return KochuDoc holding the outcome
+     */
+    private KochuDoc batch(BatchRequest batchDto) {
+        if (!"batch".equals(new String(batchDto.command(), StandardCharsets.UTF_8)))
+            return new KochuDoc(null, "Invalid Operation".getBytes(), 0L);
+
+        long now = Instant.now().toEpochMilli();
+        WriteBatch batch = new WriteBatch();
+        for (Request op : batchDto.operations()) {
+            switch (new String(op.command(), StandardCharsets.UTF_8)) {
+            case "set" -> batch.put(new KochuDoc(op.key(), valueOf(op), now));
+            case "del" -> batch.delete(op.key());
+            default -> {
+                return new KochuDoc(null, "Invalid Operation".getBytes(), 0L);
+            }
+            }
+        }
+        return storageEngine.write(batch);
+    }
+
+    /**
+     * look up the keys of a multi-get request together, one Response per key in
+     * request order
+     *
+     * @return ScanResponse
+     */
+    private ScanResponse multiGet(MultiGetRequest multiGetDto) {
+        Response[] entries;
+        if (!"mget".equals(new String(multiGetDto.command(), StandardCharsets.UTF_8))) {
+            entries = new Response[] {
+                    new Response(new byte[0], "Invalid Operation".getBytes(), ByteUtil.longToBytes(0L)) };
+        } else {
+            byte[][] keys = multiGetDto.keys();
+            List<KochuDoc> docs = storageEngine.multiGet(Arrays.asList(keys));
+            entries = new Response[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                KochuDoc doc = docs.get(i);
+                entries[i] = new Response(keys[i], doc.getValue().bytes(),
+                        ByteUtil.longToBytes(doc.getLastModified()));
+            }
         }
-        return true;
+
+        return new ScanResponse(entries, false);
+    }
+
+    /**
+     * the records of a range in chunks, so that neither side holds the whole
+     * result in memory
+     *
+     * @return Iterator of ScanResponse
+     */
+    private Iterator<Object> scan(ScanRequest scanDto) {
+        String command = new String(scanDto.command(), StandardCharsets.UTF_8);
+        Iterator<KochuDoc> docs = switch (command) {
+        case "scan" -> storageEngine.scan(scanDto.startKey(), scanDto.endKey(), scanDto.limit());
+        case "prefix" -> storageEngine.prefix(scanDto.startKey(), scanDto.limit());
+        default -> null;
+        };
+
+        if (docs == null) {
+            Response invalid = new Response(new byte[0], "Invalid Operation".getBytes(), ByteUtil.longToBytes(0L));
+            return List.<Object>of(new ScanResponse(new Response[] { invalid }, false)).iterator();
+        }
+
+        return new Iterator<Object>() {
+            boolean hasMore = true;
+
+            @Override
+            public boolean hasNext() {
+                return hasMore;
+            }
+
+            @Override
+            public Object next() {
+                if (!hasMore)
+                    throw new NoSuchElementException();
+
+                List<Response> chunk = new ArrayList<Response>(SCAN_CHUNK_SIZE);
+                while (chunk.size() < SCAN_CHUNK_SIZE && docs.hasNext()) {
+                    KochuDoc doc = docs.next();
+                    chunk.add(new Response(doc.getKey().bytes(), doc.getValue().bytes(),
+                            ByteUtil.longToBytes(doc.getLastModified())));
+                }
+                hasMore = docs.hasNext();
+                return new ScanResponse(chunk.toArray(new Response[0]), hasMore);
+            }
+        };
     }
 
 }
@@ -2,6 +2,7 @@ package com.kochudb.types;
 
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * A comparable, serializable, immutable byte[] that implements KochuDBSerde
@@ -48,6 +49,16 @@ public class ByteArray implements Comparable<ByteArray>, Serializable {
         return this.byteArray.length - o.length();
     }
 
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ByteArray other && Arrays.equals(byteArray, other.byteArray);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(byteArray);
+    }
+
     @Override
     public String toString() {
         return byteArray == null ? "null" : new String(byteArray, StandardCharsets.UTF_8);
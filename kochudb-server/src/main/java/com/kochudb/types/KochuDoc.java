@@ -8,18 +8,33 @@ import static com.kochudb.utils.ByteUtil.intToBytes;
 import static com.kochudb.utils.ByteUtil.longToBytes;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.zip.DeflaterOutputStream;
+import java.util.Arrays;
 import java.util.zip.InflaterInputStream;
 
 import com.kochudb.utils.ByteUtil;
 
 public class KochuDoc implements Comparable<KochuDoc> {
 
+    // first byte of a zlib stream with the default window size
+    private static final byte ZLIB_HEADER = 0x78;
+
+    // type of a record in its serialized form and in data blocks
+    public static final byte TYPE_VALUE = 0, TYPE_DELETION = 1;
+
     ByteArray key, value;
     long lastModified;
 
+    // marks a deleted key, any value is ignored
+    boolean deleted;
+
+    // order of the write among all writes to the store, 0 if written before
+    // records had one
+    long sequence;
+
+    // older version of the same key in the same memTable, kept for snapshots
+    KochuDoc previous;
+
     public KochuDoc(ByteArray key, ByteArray value, long modifiedAt) {
         this.key = key;
         this.value = value;
@@ -32,6 +47,39 @@ public class KochuDoc implements Comparable<KochuDoc> {
         this.lastModified = modifiedAt;
     }
 
+    /**
+     * record marking a deleted key. It hides older records of the key until a
+     * compaction finds nothing older left below and drops them all.
+     * 
+     * @param key        deleted key
+     * @param modifiedAt time of the delete
+     * @return KochuDoc
+     */
+    public static KochuDoc tombstone(byte[] key, long modifiedAt) {
+        KochuDoc doc = new KochuDoc(key, null, modifiedAt);
+        doc.deleted = true;
+        return doc;
+    }
+
+    /**
+     * whether this record marks a deleted key. Deletes carry their own type, so
+     * an empty value is an ordinary value.
+     * 
+     * @return boolean
+     */
+    public boolean isTombstone() {
+        return deleted;
+    }
+
+    /**
+     * type of this record, TYPE_VALUE or TYPE_DELETION
+     * 
+     * @return byte
+     */
+    public byte type() {
+        return deleted ? TYPE_DELETION : TYPE_VALUE;
+    }
+
     /**
      * create an instance of this class from bytes
      * 
@@ -42,7 +90,10 @@ public class KochuDoc implements Comparable<KochuDoc> {
         byte[] timeBytes = new byte[Long.BYTES];
         int curPos = 0;
 
-        bytes = unzip(bytes);
+        // records used to be deflated one by one. A zlib header is never the
+        // first byte of a timestamp in millis, so both forms can be read
+        if (bytes.length > 0 && bytes[0] == ZLIB_HEADER)
+            bytes = unzip(bytes);
 
         System.arraycopy(bytes, 0, timeBytes, 0, Long.BYTES);
         long timestamp = bytesToLong(timeBytes);
@@ -64,23 +115,37 @@ public class KochuDoc implements Comparable<KochuDoc> {
 
         byte[] value = new byte[valueSize];
         System.arraycopy(bytes, curPos, value, 0, value.length);
+        curPos += value.length;
+
+        KochuDoc doc = new KochuDoc(key, value, timestamp);
+        // the 8 bytes after the value were written as zeros before records had a
+        // sequence number
+        if (bytes.length - curPos >= Long.BYTES)
+            doc.sequence = bytesToLong(Arrays.copyOfRange(bytes, curPos, curPos + Long.BYTES));
+        curPos += Long.BYTES;
 
-        return new KochuDoc(key, value, timestamp);
+        // records written before they had a type byte marked deletes with an
+        // empty value
+        doc.deleted = bytes.length > curPos ? bytes[curPos] == TYPE_DELETION : valueSize == 0;
+        return doc;
     }
 
     /**
-     * convert key and value into a byte[] in the below format: [len(keybytes) in 1
-     * byte, keybytes, len(valbytes) in 4 bytes, valbytes]
+     * convert key and value into a byte[] in the below format: [timestamp in 8
+     * bytes, len(keybytes) in 1 byte, keybytes, len(valbytes) in 4 bytes,
+     * valbytes, sequence in 8 bytes, type in 1 byte]
      * 
      * @return byte[]
      */
     public byte[] serialize() {
         byte[] keyData = this.key.bytes();
-        byte[] valData = this.value.bytes();
+        byte[] valData = isTombstone() || this.value.bytes() == null ? new byte[0] : this.value.bytes();
         byte[] timeData = longToBytes(this.lastModified);
 
         byte[] bytes = new byte[KEY.length + VALUE.length + Long.BYTES + keyData.length + valData.length
-                + timeData.length];
+                + timeData.length + 1];
+        System.arraycopy(longToBytes(sequence), 0, bytes, bytes.length - Long.BYTES - 1, Long.BYTES);
+        bytes[bytes.length - 1] = type();
 
         int curPos = 0;
 
@@ -106,18 +171,6 @@ public class KochuDoc implements Comparable<KochuDoc> {
         System.arraycopy(valData, 0, bytes, curPos, valData.length);
         curPos += valData.length;
 
-        return zip(bytes);
-    }
-
-    private static byte[] zip(byte[] bytes) {
-        ByteArrayOutputStream bytesStream = new ByteArrayOutputStream();
-        try (DeflaterOutputStream zip = new DeflaterOutputStream(bytesStream)) {
-            zip.write(bytes);
-            return bytesStream.toByteArray();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
         return bytes;
     }
 
@@ -156,8 +209,43 @@ public class KochuDoc implements Comparable<KochuDoc> {
         this.lastModified = lastModified;
     }
 
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * older version of the key in the same memTable
+     * 
+     * @return KochuDoc, or null if there is none
+     */
+    public KochuDoc getPrevious() {
+        return previous;
+    }
+
+    public void setPrevious(KochuDoc previous) {
+        this.previous = previous;
+    }
+
+    /**
+     * the newest version of the key, from this one back, that was written at or
+     * before a sequence number
+     * 
+     * @param snapshot sequence number
+     * @return KochuDoc, or null if all versions are newer
+     */
+    public KochuDoc visibleAt(long snapshot) {
+        KochuDoc doc = this;
+        while (doc != null && doc.sequence > snapshot)
+            doc = doc.previous;
+        return doc;
+    }
+
     public int length() {
-        return this.key.length() + this.value.length() + Long.BYTES;
+        return this.key.length() + (isTombstone() ? 0 : this.value.length()) + Long.BYTES;
     }
 
     @Override
@@ -0,0 +1,101 @@
+package com.kochudb.types;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Puts and deletes applied together: logged as a single WAL record and added to
+ * the memTable in one pass, so that readers see all of them or none.
+ *
+ * In the WAL a batch is [marker 1 byte, count 4 bytes] followed by [len 4
+ * bytes, serialized KochuDoc] per write. The marker is never the first byte of
+ * a serialized KochuDoc, whose timestamp in millis starts with a zero byte, or
+ * of a deflated one.
+ */
+public class WriteBatch {
+
+    public static final byte MARKER = (byte) 0xB7;
+
+    private final List<KochuDoc> docs = new ArrayList<KochuDoc>();
+
+    // bytes of keys and values
+    private long size;
+
+    /**
+     * add or overwrite a key, or delete it if the record is a tombstone
+     *
+     * @param doc record
+     * @return this
+     */
+    public WriteBatch put(KochuDoc doc) {
+        docs.add(doc);
+        size += doc.length();
+        return this;
+    }
+
+    /**
+     * delete a key
+     *
+     * @param key key
+     * @return this
+     */
+    public WriteBatch delete(byte[] key) {
+        return put(KochuDoc.tombstone(key, Instant.now().toEpochMilli()));
+    }
+
+    /**
+     * records of the batch, in the order they are applied
+     *
+     * @return List of KochuDoc
+     */
+    public List<KochuDoc> docs() {
+        return Collections.unmodifiableList(docs);
+    }
+
+    public int count() {
+        return docs.size();
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public byte[] serialize() {
+        byte[][] serialized = new byte[docs.size()][];
+        int length = 1 + Integer.BYTES;
+        for (int i = 0; i < serialized.length; i++) {
+            serialized[i] = docs.get(i).serialize();
+            length += Integer.BYTES + serialized[i].length;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        buf.put(MARKER).putInt(serialized.length);
+        for (byte[] bytes : serialized)
+            buf.putInt(bytes.length).put(bytes);
+        return buf.array();
+    }
+
+    /**
+     * whether a WAL record holds a batch rather than a single KochuDoc
+     *
+     * @param record WAL record
+     * @return boolean
+     */
+    public static boolean isBatch(byte[] record) {
+        return record.length > 0 && record[0] == MARKER;
+    }
+
+    public static WriteBatch deserialize(byte[] record) {
+        ByteBuffer buf = ByteBuffer.wrap(record, 1, record.length - 1);
+        WriteBatch batch = new WriteBatch();
+        for (int count = buf.getInt(); count > 0; count--) {
+            byte[] bytes = new byte[buf.getInt()];
+            buf.get(bytes);
+            batch.put(KochuDoc.deserialize(bytes));
+        }
+        return batch;
+    }
+}
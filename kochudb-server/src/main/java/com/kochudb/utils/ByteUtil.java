@@ -1,5 +1,10 @@
 package com.kochudb.utils;
 
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
 public final class ByteUtil {
 
     /**
@@ -29,7 +34,7 @@ public final class ByteUtil {
         byte[] bytes = new byte[resultLen];
         for (int i = 0; i < resultLen; i++) {
             int cur = resultLen - i - 1;
-            bytes[i] = (byte) ((in & 0xFF) >> (cur * 8));
+            bytes[i] = (byte) ((in >> (cur * 8)) & 0xFF);
         }
         return bytes;
     }
@@ -63,4 +68,76 @@ public final class ByteUtil {
         return bytes;
     }
 
+    /**
+     * write an unsigned int as a varint, 7 bits per byte, low bits first
+     * 
+     * @param out   stream to write to
+     * @param value non-negative int
+     */
+    public static void writeVarInt(ByteArrayOutputStream out, int value) {
+        writeVarLong(out, value);
+    }
+
+    /**
+     * write an unsigned long as a varint, 7 bits per byte, low bits first
+     * 
+     * @param out   stream to write to
+     * @param value non-negative long
+     */
+    public static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * read a varint written by writeVarInt from the current position of the buffer
+     * 
+     * @param buf buffer
+     * @return int
+     */
+    public static int readVarInt(ByteBuffer buf) {
+        return (int) readVarLong(buf);
+    }
+
+    /**
+     * read a varint written by writeVarLong from the current position of the
+     * buffer
+     * 
+     * @param buf buffer
+     * @return long
+     */
+    public static long readVarLong(ByteBuffer buf) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return result;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+
+    /**
+     * release the memory of a direct or memory mapped buffer without waiting for
+     * it to be garbage collected. The buffer must not be accessed afterwards.
+     *
+     * @param buffer direct buffer
+     * @return true if released, false if left to the garbage collector
+     */
+    public static boolean freeDirectBuffer(ByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return false;
+        }
+    }
 }
@@ -8,6 +8,8 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.invoke.MethodHandles;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -24,6 +26,9 @@ public class FileUtil {
 
 	private static final Logger logger = LogManager.getLogger(MethodHandles.lookup().lookupClass());
 
+	// time of the last generated filename
+	private static Instant lastFilename = Instant.EPOCH;
+
 	/**
 	 * Find all files from the given level, sorted oldest to newest.
 	 * 
@@ -70,6 +75,19 @@ public class FileUtil {
 		return files;
 	}
 
+	/**
+	 * sync a directory so that files created in or deleted from it survive a
+	 * crash
+	 * 
+	 * @param dir directory
+	 * @throws IOException if the directory cannot be synced
+	 */
+	public static void syncDirectory(File dir) throws IOException {
+		try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+	}
+
 	public static RandomAccessFile createDatFromIdx(String idxFile) {
 		RandomAccessFile raf = null;
 		try {
@@ -137,8 +155,12 @@ public class FileUtil {
 	 * @return filename (canonical path) without extension
 	 * @throws IOException
 	 */
-	public static String generateFilename() {
+	public static synchronized String generateFilename() {
 		Instant instant = Instant.now();
+		// compactions and flushes create files concurrently, names must not repeat
+		if (!instant.isAfter(lastFilename))
+			instant = lastFilename.plusNanos(1);
+		lastFilename = instant;
 		int nanos = instant.getNano();
 		return (LSMTree.dataDir.getAbsolutePath()) + "/" + instant.getEpochSecond() + "." + nanos;
 	}
@@ -5,14 +5,15 @@ import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.withSettings;
 
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Properties;
 
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
@@ -25,6 +26,9 @@ class KochuDBServerTest {
     @Captor
     private ArgumentCaptor<String> captor;
 
+    @TempDir
+    static Path dir;
+
     static Properties p = new Properties();
 
     @BeforeAll
@@ -34,7 +38,8 @@ class KochuDBServerTest {
 
         p.setProperty("server.port", "2223");
         p.setProperty("query.pool.size", "25");
-        p.setProperty("data.dir", "data-test-123");
+        p.setProperty("data.dir", dir.toString());
+        p.setProperty("wal.dir", dir.resolve("WAL").toString());
 
         kochuDBServerUnderTest = mock(KochuDBServer.class, withSettings().useConstructor(p));
 
@@ -50,9 +55,6 @@ class KochuDBServerTest {
     @AfterAll
     static void testTerminate() throws IOException {
         // Run the test
-        File dir = new File(p.getProperty("data.dir"));
-        if (dir.exists() && dir.isDirectory())
-            dir.delete();
         kochuDBServerUnderTest.terminate();
         // Verify the results
     }
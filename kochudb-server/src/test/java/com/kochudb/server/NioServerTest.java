@@ -0,0 +1,235 @@
+package com.kochudb.server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.kochudb.shared.Frames;
+import com.kochudb.shared.MultiGetRequest;
+import com.kochudb.shared.Request;
+import com.kochudb.shared.Response;
+import com.kochudb.shared.ScanRequest;
+import com.kochudb.shared.ScanResponse;
+import com.kochudb.storage.LSMTree;
+import com.kochudb.types.KochuDoc;
+
+class NioServerTest {
+
+    @TempDir
+    Path dir;
+
+    private ExecutorService workers;
+    private LSMTree tree;
+    private NioServer server;
+    private Thread acceptor;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("data.dir", dir.toString());
+        props.setProperty("wal.dir", dir.resolve("WAL").toString());
+        workers = Executors.newFixedThreadPool(4);
+        tree = new LSMTree(props);
+        start(new NioServer(0, 2, tree, workers));
+    }
+
+    private void start(NioServer nioServer) {
+        server = nioServer;
+        acceptor = new Thread(server::listen);
+        acceptor.start();
+    }
+
+    private void stop() throws Exception {
+        server.close();
+        acceptor.join();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        stop();
+        workers.shutdown();
+        workers.awaitTermination(10, TimeUnit.SECONDS);
+        server.closeConnections();
+        tree.close();
+    }
+
+    private class Client implements AutoCloseable {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Client() throws Exception {
+            socket = new Socket("localhost", server.port());
+            in = new DataInputStream(socket.getInputStream());
+            out = new DataOutputStream(socket.getOutputStream());
+        }
+
+        Object call(Object request) throws Exception {
+            Frames.write(out, request);
+            return Frames.read(in);
+        }
+
+        String value(Object request) throws Exception {
+            return new String(((Response) call(request)).value(), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws Exception {
+            socket.close();
+        }
+    }
+
+    @Test
+    void testRequestsOnOneConnection() throws Exception {
+        try (Client client = new Client()) {
+            // requests sent back to back are answered in order
+            for (int i = 0; i < 10; i++)
+                Frames.write(client.out, new Request("set", "k" + i, ("v" + i).getBytes()));
+            for (int i = 0; i < 10; i++)
+                assertEquals("v" + i, new String(((Response) Frames.read(client.in)).value(), StandardCharsets.UTF_8));
+
+            assertEquals("v3", client.value(new Request("get", "k3", null)));
+
+            ScanResponse mget = (ScanResponse) client.call(new MultiGetRequest("k5", "x", "k1"));
+            assertEquals("v5", new String(mget.entries()[0].value(), StandardCharsets.UTF_8));
+            assertEquals(0, mget.entries()[1].value().length);
+            assertEquals("v1", new String(mget.entries()[2].value(), StandardCharsets.UTF_8));
+
+            // a scan comes back in chunks on the same connection
+            Frames.write(client.out, new ScanRequest("scan", "k", null, 100));
+            List<String> keys = new ArrayList<String>();
+            ScanResponse chunk;
+            do {
+                chunk = (ScanResponse) Frames.read(client.in);
+                for (Response res : chunk.entries())
+                    keys.add(new String(res.key(), StandardCharsets.UTF_8));
+            } while (chunk.hasMore());
+            assertEquals(10, keys.size());
+        }
+    }
+
+    @Test
+    void testLargeFrame() throws Exception {
+        byte[] value = new byte[(1 << 20) + 7];
+        Arrays.fill(value, (byte) 'x');
+        try (Client client = new Client()) {
+            assertArrayEquals(value, ((Response) client.call(new Request("set", "big", value))).value());
+            assertArrayEquals(value, ((Response) client.call(new Request("get", "big", null))).value());
+        }
+    }
+
+    @Test
+    void testManyConnections() throws Exception {
+        List<Client> idle = new ArrayList<Client>();
+        try {
+            for (int i = 0; i < 500; i++)
+                idle.add(new Client());
+
+            // a client stuck halfway through a frame holds up no other
+            idle.get(0).out.write(new byte[] { 0, 0 });
+            idle.get(0).out.flush();
+
+            try (Client client = new Client()) {
+                assertEquals("1", client.value(new Request("set", "a", "1".getBytes())));
+            }
+            for (int i = 1; i < idle.size(); i += 50)
+                assertEquals("1", idle.get(i).value(new Request("get", "a", null)));
+            assertTrue(server.connections() >= 500);
+        } finally {
+            for (Client client : idle)
+                client.close();
+        }
+    }
+
+    @Test
+    void testInvalidFrameClosesConnection() throws Exception {
+        try (Client client = new Client()) {
+            client.out.writeInt(-1);
+            client.out.flush();
+            assertEquals(-1, client.in.read());
+        }
+        try (Client client = new Client()) {
+            assertFalse(client.value(new Request("get", "a", null)).startsWith("Invalid"));
+        }
+    }
+
+    @Test
+    void testSlowReadersHoldNoWorker() throws Exception {
+        byte[] value = new byte[2 << 20];
+        tree.set(new KochuDoc("big".getBytes(), value, 0L));
+
+        // more clients than workers ask for far more than they read for now
+        List<Client> slow = new ArrayList<Client>();
+        try {
+            for (int i = 0; i < 6; i++) {
+                Client client = new Client();
+                for (int j = 0; j < 10; j++)
+                    Frames.write(client.out, new Request("get", "big", null));
+                slow.add(client);
+            }
+            try (Client client = new Client()) {
+                client.socket.setSoTimeout(10000);
+                assertEquals("1", client.value(new Request("set", "a", "1".getBytes())));
+            }
+
+            // and get every response once they catch up
+            for (Client client : slow)
+                for (int j = 0; j < 10; j++)
+                    assertEquals(value.length, ((Response) Frames.read(client.in)).value().length);
+        } finally {
+            for (Client client : slow)
+                client.close();
+        }
+    }
+
+    @Test
+    void testReadMemoryLimit() throws Exception {
+        stop();
+        server.closeConnections();
+        start(new NioServer(0, 1, tree, workers, 3 << 20));
+
+        try (Client partial = new Client(); Client waiting = new Client()) {
+            // a frame is buffered as far as it arrived, not as large as its header says
+            partial.out.writeInt(10 << 20);
+            partial.out.write(new byte[3 << 19]);
+            partial.out.flush();
+            Thread.sleep(200);
+
+            // with the rest of the memory taken, the next large frame waits
+            byte[] value = new byte[(1 << 20) + (1 << 18)];
+            CompletableFuture<Object> reply = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return waiting.call(new Request("set", "big", value));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            assertThrows(TimeoutException.class, () -> reply.get(500, TimeUnit.MILLISECONDS));
+
+            partial.close();
+            assertEquals(value.length, ((Response) reply.get(10, TimeUnit.SECONDS)).value().length);
+        }
+    }
+}
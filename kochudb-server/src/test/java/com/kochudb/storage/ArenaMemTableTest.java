@@ -0,0 +1,128 @@
+package com.kochudb.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.kochudb.types.KochuDoc;
+
+class ArenaMemTableTest {
+
+    private static KochuDoc doc(String key, String value, long lastModified) {
+        return new KochuDoc(key.getBytes(), value == null ? null : value.getBytes(), lastModified);
+    }
+
+    @Test
+    void testPutSearchAndUpdate() {
+        ArenaMemTable memTable = new ArenaMemTable(4096);
+        memTable.put(doc("b", "1", 1L));
+        memTable.put(doc("a", "1", 2L));
+        memTable.put(doc("b", "22", 3L));
+
+        assertEquals(2, memTable.length());
+        KochuDoc found = memTable.search(doc("b", null, 0L));
+        assertArrayEquals("22".getBytes(), found.getValue().bytes());
+        assertEquals(3L, found.getLastModified());
+        assertNull(memTable.search(doc("c", null, 0L)));
+
+        memTable.put(doc("a", null, 4L));
+        assertNull(memTable.search(doc("a", null, 0L)).getValue().bytes());
+
+        memTable.put(doc("e", "", 5L));
+        assertEquals(0, memTable.search(doc("e", null, 0L)).getValue().length());
+    }
+
+    @Test
+    void testRecordsInKeyOrder() {
+        ArenaMemTable memTable = new ArenaMemTable(4096);
+        for (String key : new String[] { "d", "b", "e", "a", "c" })
+            memTable.put(doc(key, key, 0L));
+
+        Iterator<KochuDoc> iter = memTable.records();
+        for (String key : new String[] { "a", "b", "c", "d", "e" })
+            assertArrayEquals(key.getBytes(), iter.next().getKey().bytes());
+        assertFalse(iter.hasNext());
+
+        iter = memTable.records(doc("bb", null, 0L));
+        assertArrayEquals("c".getBytes(), iter.next().getKey().bytes());
+    }
+
+    @Test
+    void testSizeIsArenaUsage() {
+        ArenaMemTable memTable = new ArenaMemTable(256);
+        long empty = memTable.size();
+
+        // values larger than a chunk get a chunk of their own
+        memTable.put(doc("big", "x".repeat(1000), 0L));
+        assertTrue(memTable.size() - empty >= 1000);
+        assertArrayEquals("x".repeat(1000).getBytes(), memTable.search(doc("big", null, 0L)).getValue().bytes());
+
+        long before = memTable.size();
+        memTable.put(doc("big", "y", 0L));
+        assertNotEquals(before, memTable.size());
+    }
+
+    @Test
+    void testCloseWaitsForIterators() {
+        ArenaMemTable memTable = new ArenaMemTable(4096);
+        for (int i = 0; i < 10; i++)
+            memTable.put(doc("key" + i, "value" + i, 0L));
+
+        Iterator<KochuDoc> iter = memTable.records();
+        memTable.close();
+
+        // flushed memTables are not searched, the iterator still reads its arena
+        assertNull(memTable.search(doc("key1", null, 0L)));
+        assertFalse(memTable.records().hasNext());
+
+        int count = 0;
+        while (iter.hasNext()) {
+            assertArrayEquals(("value" + count).getBytes(), iter.next().getValue().bytes());
+            count++;
+        }
+        assertEquals(10, count);
+    }
+
+    @Test
+    void testConcurrentWriters() throws InterruptedException {
+        ArenaMemTable memTable = new ArenaMemTable(64 * 1024);
+        int threads = 8, keysPerThread = 10_000;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            pool.submit(() -> {
+                for (int i = 0; i < keysPerThread; i++) {
+                    memTable.put(doc(String.format("key%08d", i * threads + thread), "v", 0L));
+                    memTable.put(doc(String.format("hot%03d", i % 100), "v", 0L));
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+
+        assertEquals(threads * keysPerThread + 100, memTable.length());
+
+        Iterator<KochuDoc> iter = memTable.records();
+        byte[] prev = null;
+        int count = 0;
+        while (iter.hasNext()) {
+            byte[] key = iter.next().getKey().bytes();
+            assertTrue(prev == null || Arrays.compareUnsigned(prev, key) < 0);
+            prev = key;
+            count++;
+        }
+        assertEquals(memTable.length(), count);
+    }
+}
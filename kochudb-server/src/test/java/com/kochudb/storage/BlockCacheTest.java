@@ -0,0 +1,81 @@
+package com.kochudb.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class BlockCacheTest {
+
+    private static final int BLOCK = 4096;
+
+    @Test
+    void testHitAndMiss() {
+        BlockCache cache = new BlockCache(1 << 20, 4);
+        byte[] block = new byte[BLOCK];
+
+        assertNull(cache.get(1, 0));
+        cache.put(1, 0, block);
+        assertArrayEquals(block, cache.get(1, 0));
+        assertNull(cache.get(2, 0));
+
+        assertEquals(1, cache.hitCount());
+        assertEquals(2, cache.missCount());
+    }
+
+    @Test
+    void testCapacityIsBounded() {
+        long capacity = 64 * (BLOCK + BlockCache.ENTRY_OVERHEAD);
+        BlockCache cache = new BlockCache(capacity, 1);
+
+        for (int i = 0; i < 1000; i++)
+            cache.put(1, i * BLOCK, new byte[BLOCK]);
+
+        assertTrue(cache.size() <= capacity);
+        assertTrue(cache.evictionCount() > 0);
+    }
+
+    @Test
+    void testInvalidate() {
+        BlockCache cache = new BlockCache(1 << 20, 4);
+        for (int i = 0; i < 10; i++) {
+            cache.put(1, i * BLOCK, new byte[BLOCK]);
+            cache.put(2, i * BLOCK, new byte[BLOCK]);
+        }
+
+        cache.invalidate(1);
+        for (int i = 0; i < 10; i++) {
+            assertNull(cache.get(1, i * BLOCK));
+            assertNotNull(cache.get(2, i * BLOCK));
+        }
+    }
+
+    @Test
+    void testScanDoesNotEvictHotBlocks() {
+        BlockCache cache = new BlockCache(32 * (BLOCK + BlockCache.ENTRY_OVERHEAD), 1);
+
+        // hot working set, read several times
+        for (int round = 0; round < 5; round++)
+            for (int i = 0; i < 16; i++)
+                if (cache.get(1, i) == null)
+                    cache.put(1, i, new byte[BLOCK]);
+
+        // one pass over many cold blocks
+        for (int i = 0; i < 1000; i++)
+            if (cache.get(2, i) == null)
+                cache.put(2, i, new byte[BLOCK]);
+
+        for (int i = 0; i < 16; i++)
+            assertNotNull(cache.get(1, i));
+    }
+
+    @Test
+    void testDisabled() {
+        BlockCache cache = new BlockCache(0, 4);
+        cache.put(1, 0, new byte[BLOCK]);
+        assertNull(cache.get(1, 0));
+    }
+}
@@ -0,0 +1,81 @@
+package com.kochudb.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import org.junit.jupiter.api.Test;
+
+import com.kochudb.types.KochuDoc;
+
+class BlockTest {
+
+    private static byte[] buildBlock(int numKeys) {
+        BlockBuilder builder = new BlockBuilder();
+        for (int i = 0; i < numKeys; i++)
+            builder.add(String.format("prefix-%04d", i).getBytes(), ("v" + i).getBytes(), i);
+        return builder.finish();
+    }
+
+    @Test
+    void testGetAcrossRestartPoints() {
+        Block block = new Block(buildBlock(100));
+
+        for (int i = 0; i < 100; i++) {
+            KochuDoc doc = block.get(String.format("prefix-%04d", i).getBytes());
+            assertArrayEquals(("v" + i).getBytes(), doc.getValue().bytes());
+            assertEquals(i, doc.getLastModified());
+        }
+
+        assertNull(block.get("prefix-0100".getBytes()));
+        assertNull(block.get("a".getBytes()));
+        assertNull(block.get("prefix-0050x".getBytes()));
+    }
+
+    @Test
+    void testDeletesAndEmptyValues() {
+        BlockBuilder builder = new BlockBuilder();
+        builder.add("a".getBytes(), new byte[0], 1L, 2L);
+        builder.add("b".getBytes(), new byte[0], 1L, 3L, KochuDoc.TYPE_DELETION);
+        Block block = new Block(builder.finish());
+
+        assertFalse(block.get("a".getBytes()).isTombstone());
+        assertEquals(0, block.get("a".getBytes()).getValue().length());
+        assertTrue(block.get("b".getBytes()).isTombstone());
+        assertEquals(3L, block.get("b".getBytes()).getSequence());
+    }
+
+    @Test
+    void testIterator() {
+        Iterator<KochuDoc> iter = new Block(buildBlock(40)).iterator();
+        int count = 0;
+        while (iter.hasNext())
+            assertArrayEquals(String.format("prefix-%04d", count++).getBytes(), iter.next().getKey().bytes());
+        assertEquals(40, count);
+    }
+
+    @Test
+    void testPrefixCompression() {
+        // shared prefixes are stored once per restart interval
+        assertTrue(buildBlock(100).length < 100 * ("prefix-0000".length() + 8));
+    }
+
+    @Test
+    void testEncodeDecode() throws Exception {
+        byte[] raw = buildBlock(100);
+        byte[] stored = SSTable.encodeBlock(raw, Codec.forName("deflate"));
+
+        assertTrue(stored.length < raw.length);
+        assertArrayEquals(raw, SSTable.decodeBlock(ByteBuffer.wrap(stored)));
+
+        stored[0] ^= 1;
+        assertThrows(IOException.class, () -> SSTable.decodeBlock(ByteBuffer.wrap(stored)));
+    }
+}
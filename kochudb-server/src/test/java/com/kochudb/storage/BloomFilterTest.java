@@ -0,0 +1,40 @@
+package com.kochudb.storage;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class BloomFilterTest {
+
+    @Test
+    void testNoFalseNegatives() {
+        BloomFilter filter = BloomFilter.create(1000, 10);
+        for (int i = 0; i < 1000; i++)
+            filter.add(("key" + i).getBytes());
+
+        BloomFilter restored = BloomFilter.deserialize(filter.serialize());
+        for (int i = 0; i < 1000; i++)
+            assertTrue(restored.mightContain(("key" + i).getBytes()));
+    }
+
+    @Test
+    void testFalsePositiveRate() {
+        BloomFilter filter = BloomFilter.create(1000, 10);
+        for (int i = 0; i < 1000; i++)
+            filter.add(("key" + i).getBytes());
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++)
+            if (filter.mightContain(("absent" + i).getBytes()))
+                falsePositives++;
+
+        // ~1% expected at 10 bits per key
+        assertTrue(falsePositives < 300, "false positives: " + falsePositives);
+    }
+
+    @Test
+    void testEmptyFilterAcceptsEverything() {
+        assertTrue(BloomFilter.all().mightContain("anything".getBytes()));
+        assertTrue(BloomFilter.deserialize(new byte[0]).mightContain("anything".getBytes()));
+    }
+}
@@ -0,0 +1,92 @@
+package com.kochudb.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class CodecTest {
+
+    private static byte[] roundTrip(Codec codec, byte[] raw) throws IOException {
+        return codec.decompress(ByteBuffer.wrap(codec.compress(raw)));
+    }
+
+    private static byte[][] samples() {
+        Random random = new Random(42);
+        byte[] noise = new byte[5000];
+        random.nextBytes(noise);
+
+        byte[] text = new byte[10000];
+        for (int i = 0; i < text.length; i++) {
+            String record = "key-" + (i / 37) + "-value;";
+            text[i] = (byte) record.charAt(i % record.length());
+        }
+
+        byte[] run = new byte[70000];
+        Arrays.fill(run, (byte) 'a');
+
+        return new byte[][] { new byte[0], "a".getBytes(), "abcdabcdabcdabcd".getBytes(), noise, text, run,
+                "com.kochudb.storage.CodecTest".repeat(50).getBytes() };
+    }
+
+    @Test
+    void testRoundTrips() throws IOException {
+        for (String name : new String[] { "none", "lz4", "deflate" })
+            for (byte[] raw : samples())
+                assertArrayEquals(raw, roundTrip(Codec.forName(name), raw), name);
+    }
+
+    @Test
+    void testLZ4Compresses() {
+        byte[] run = new byte[70000];
+        assertTrue(Codec.forName("lz4").compress(run).length < 1000);
+
+        byte[] text = "the quick brown fox jumps over the lazy dog. ".repeat(100).getBytes();
+        assertTrue(Codec.forName("lz4").compress(text).length < text.length / 4);
+    }
+
+    @Test
+    void testCorruptLZ4Block() {
+        // a match pointing before the start of the block
+        byte[] corrupt = { 8, 0x14, 'a', 5, 0 };
+        assertThrows(IOException.class, () -> Codec.forName("lz4").decompress(ByteBuffer.wrap(corrupt)));
+    }
+
+    @Test
+    void testIds() throws IOException {
+        for (String name : new String[] { "none", "lz4", "deflate" }) {
+            Codec codec = Codec.forName(name);
+            assertSame(codec, Codec.forId(codec.id()));
+            assertEquals(name, codec.name());
+        }
+        assertThrows(IOException.class, () -> Codec.forId((byte) 99));
+        assertThrows(IllegalArgumentException.class, () -> Codec.forName("zstd"));
+    }
+
+    @Test
+    void testCodecPerLevel() throws IOException {
+        Codec[] saved = SSTable.codecs;
+        try {
+            SSTable.codecs = SSTable.parseCodecs("none, lz4,deflate");
+            assertSame(Codec.NONE, SSTable.codecFor(0));
+            assertEquals("lz4", SSTable.codecFor(1).name());
+            assertEquals("deflate", SSTable.codecFor(4).name());
+        } finally {
+            SSTable.codecs = saved;
+        }
+
+        // incompressible blocks are stored as they are
+        byte[] noise = samples()[3];
+        byte[] stored = SSTable.encodeBlock(noise, Codec.forName("lz4"));
+        assertEquals(Codec.NONE.id(), stored[noise.length]);
+        assertArrayEquals(noise, SSTable.decodeBlock(ByteBuffer.wrap(stored)));
+    }
+}
@@ -0,0 +1,190 @@
+package com.kochudb.storage;
+
+import static com.kochudb.storage.TreeFixture.flush;
+import static com.kochudb.storage.TreeFixture.key;
+import static com.kochudb.storage.TreeFixture.search;
+import static com.kochudb.storage.TreeFixture.write;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.kochudb.types.KochuDoc;
+
+class CompactionTest {
+
+    @TempDir
+    Path dir;
+
+    private TreeFixture trees;
+
+    @BeforeEach
+    void setUp() {
+        trees = new TreeFixture(dir);
+    }
+
+    @AfterEach
+    void tearDown() {
+        trees.close();
+    }
+
+    private static void delete(int... keys) throws Exception {
+        SkipList skipList = new SkipList();
+        for (int i : keys)
+            skipList.put(KochuDoc.tombstone(key(i).getBytes(), System.currentTimeMillis()));
+
+        SSTable sSTable = new SSTable(0);
+        sSTable.persist(skipList);
+        LSMTree.levels.get(0).insert(sSTable);
+    }
+
+    private LSMTree open(int threads) {
+        Properties props = trees.props();
+        props.setProperty("compaction.threads", Integer.toString(threads));
+        return trees.open(props);
+    }
+
+    @Test
+    void testSubcompactions() throws Exception {
+        LSMTree tree = open(4);
+
+        List<SSTable> flushed = new ArrayList<SSTable>();
+        for (int from = 0; from < 2000; from += 500)
+            flushed.add(flush(from, from + 500, "a"));
+        flushed.add(flush(250, 1750, "b"));
+
+        Compaction compaction = LSMTree.levels.get(0).compaction();
+        assertEquals(5, compaction.getInputs().size());
+        assertEquals(1, compaction.getOutputLevel());
+
+        // cut at the smallest keys of the inputs
+        List<String> points = new ArrayList<String>();
+        for (byte[] point : compaction.splitPoints(tree.getCompactionThreads()))
+            points.add(new String(point));
+        assertEquals(List.of(key(500), key(1000), key(1500)), points);
+        assertTrue(compaction.splitPoints(1).isEmpty());
+        assertEquals(1, compaction.splitPoints(2).size());
+
+        compaction.run();
+
+        Level one = LSMTree.levels.get(1);
+        assertTrue(LSMTree.levels.get(0).getSegments().isEmpty());
+        assertFalse(one.isOverlapping());
+        assertTrue(one.getSegments().size() >= 4);
+        for (int i = 1; i < one.getSegments().size(); i++)
+            assertTrue(Arrays.compareUnsigned(one.getSegments().get(i - 1).largestKey(),
+                    one.getSegments().get(i).smallestKey()) < 0);
+
+        for (int i = 0; i < 2000; i++)
+            assertEquals((i >= 250 && i < 1750 ? "b" : "a") + i, search(1, i));
+        assertNull(search(1, 2000));
+
+        for (SSTable sSTable : flushed)
+            assertFalse(new File(sSTable.getIndexFile()).exists());
+    }
+
+    @Test
+    void testLeveledCountsCurrentFilesOnly() throws Exception {
+        LSMTree tree = open(1);
+        LeveledCompactionStrategy leveled = new LeveledCompactionStrategy(tree);
+
+        // SSTables on disk the Version does not hold, like outputs of a running
+        // compaction, add nothing to the score
+        for (int i = 0; i < 8; i++)
+            write(0, 0, 200, "x");
+        flush(0, 10, "a");
+        assertFalse(leveled.shouldStartCompactionNow(0));
+        assertEquals(0L, leveled.compactionDebt(0));
+
+        for (int i = 0; i < 5; i++)
+            flush(0, 10, "a");
+        assertTrue(leveled.shouldStartCompactionNow(0));
+    }
+
+    @Test
+    void testReadersKeepReplacedSSTables() throws Exception {
+        LSMTree tree = open(1);
+        flush(0, 500, "a");
+        flush(250, 750, "b");
+        List<SSTable> inputs = new ArrayList<SSTable>(LSMTree.levels.get(0).getSegments());
+
+        Iterator<KochuDoc> scan = tree.scan(null, null, 1000);
+        assertEquals(key(0), scan.next().getKey().toString());
+
+        // the compacted SSTables stay on disk while the scan reads them
+        LSMTree.levels.get(0).compactLevel();
+        assertTrue(LSMTree.levels.get(0).getSegments().isEmpty());
+        for (SSTable sSTable : inputs)
+            assertTrue(new File(sSTable.getDataFile()).exists());
+
+        int count = 1;
+        while (scan.hasNext()) {
+            KochuDoc doc = scan.next();
+            assertEquals((count >= 250 ? "b" : "a") + count, doc.getValue().toString());
+            count++;
+        }
+        assertEquals(750, count);
+
+        // and go once it is done
+        for (SSTable sSTable : inputs)
+            assertFalse(new File(sSTable.getDataFile()).exists());
+        assertEquals("b300", new String(tree.get(key(300).getBytes()).getValue().bytes()));
+    }
+
+    @Test
+    void testConflicts() throws Exception {
+        LSMTree tree = open(2);
+        long size = 1 << 20;
+
+        List<SSTable> low = List.of(flush(0, 100, "a"));
+        List<SSTable> high = List.of(flush(200, 300, "a"));
+
+        Compaction zero = new Compaction(tree, 0, 1, low, size);
+        assertTrue(zero.conflictsWith(new Compaction(tree, 1, 2, low, size)));
+        assertFalse(zero.conflictsWith(new Compaction(tree, 1, 2, high, size)));
+        assertFalse(zero.conflictsWith(new Compaction(tree, 2, 3, low, size)));
+        assertTrue(zero.conflictsWith(new Compaction(tree, 0, 1, List.of(low.get(0), high.get(0)), size)));
+    }
+
+    @Test
+    void testTombstonesDroppedAtBottom() throws Exception {
+        LSMTree tree = open(1);
+        flush(0, 100, "a");
+        LSMTree.levels.get(0).compactLevel();
+        LSMTree.levels.get(1).compactLevel();
+        assertEquals("a15", search(2, 15));
+
+        delete(10, 15, 500);
+        assertTrue(tree.get(key(15).getBytes()).getValue().bytes().length == 0);
+
+        // level 2 still holds key 15, only the tombstone of key 500 can go
+        long dropped = Compaction.droppedTombstones();
+        LSMTree.levels.get(0).compactLevel();
+        assertEquals(1L, Compaction.droppedTombstones() - dropped);
+        assertTrue(LSMTree.levels.get(1).search(new KochuDoc(key(15).getBytes(), null, 0L)).isTombstone());
+        assertNull(LSMTree.levels.get(1).search(new KochuDoc(key(500).getBytes(), null, 0L)));
+        assertTrue(tree.get(key(15).getBytes()).getValue().bytes().length == 0);
+        assertEquals("a16", new String(tree.get(key(16).getBytes()).getValue().bytes()));
+
+        // at the bottom the tombstones go, along with the values they hide
+        LSMTree.levels.get(1).compactLevel();
+        assertEquals(3L, Compaction.droppedTombstones() - dropped);
+        assertNull(search(2, 10));
+        assertNull(search(2, 15));
+        assertEquals("a16", search(2, 16));
+        assertTrue(tree.get(key(10).getBytes()).getValue().bytes().length == 0);
+    }
+}
@@ -0,0 +1,114 @@
+package com.kochudb.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+
+import com.kochudb.types.KochuDoc;
+
+class ConcurrentSkipListTest {
+
+    private static final int THREADS = 8, KEYS_PER_THREAD = 20_000;
+
+    private static KochuDoc doc(String key, String value) {
+        return new KochuDoc(key.getBytes(), value == null ? null : value.getBytes(), 0L);
+    }
+
+    @Test
+    void testPutSearchAndUpdate() {
+        ConcurrentSkipList list = new ConcurrentSkipList();
+        list.put(doc("b", "1"));
+        list.put(doc("a", "1"));
+        list.put(doc("b", "22"));
+
+        assertEquals(2, list.length());
+        assertArrayEquals("22".getBytes(), list.search(doc("b", null)).getValue().bytes());
+        assertNull(list.search(doc("c", null)));
+        // the replaced record stays behind the new one, for snapshots
+        assertArrayEquals("1".getBytes(), list.search(doc("b", null)).getPrevious().getValue().bytes());
+        assertEquals(doc("a", "1").length() + doc("b", "1").length() + doc("b", "22").length(), list.size());
+
+        // deleted keys are kept as tombstones
+        list.put(KochuDoc.tombstone("a".getBytes(), 0L));
+        assertTrue(list.search(doc("a", null)).isTombstone());
+    }
+
+    @Test
+    void testRecordsInKeyOrder() {
+        ConcurrentSkipList list = new ConcurrentSkipList();
+        for (String key : new String[] { "d", "b", "e", "a", "c" })
+            list.put(doc(key, key));
+
+        Iterator<KochuDoc> iter = list.records();
+        for (String key : new String[] { "a", "b", "c", "d", "e" })
+            assertArrayEquals(key.getBytes(), iter.next().getKey().bytes());
+
+        iter = list.records(doc("bb", null));
+        assertArrayEquals("c".getBytes(), iter.next().getKey().bytes());
+    }
+
+    @Test
+    void testConcurrentWriters() throws InterruptedException {
+        ConcurrentSkipList list = new ConcurrentSkipList();
+
+        // every thread writes its own keys plus a shared set of hot keys
+        runWriters(i -> {
+            list.put(doc(String.format("key%08d", i), "v"));
+            list.put(doc(String.format("hot%03d", i % 100), "v"));
+        });
+
+        assertEquals(THREADS * KEYS_PER_THREAD + 100, list.length());
+
+        Iterator<KochuDoc> iter = list.records();
+        byte[] prev = null;
+        int count = 0;
+        while (iter.hasNext()) {
+            byte[] key = iter.next().getKey().bytes();
+            assertTrue(prev == null || Arrays.compareUnsigned(prev, key) < 0);
+            prev = key;
+            count++;
+        }
+        assertEquals(list.length(), count);
+
+        for (int i = 0; i < THREADS * KEYS_PER_THREAD; i += 997)
+            assertArrayEquals("v".getBytes(), list.search(doc(String.format("key%08d", i), null)).getValue().bytes());
+    }
+
+    /**
+     * run THREADS writers, each calling the writer with its own range of numbers
+     *
+     * @return elapsed nanoseconds
+     */
+    private static long runWriters(Consumer<Integer> writer) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+
+        for (int t = 0; t < THREADS; t++) {
+            int first = t * KEYS_PER_THREAD;
+            pool.submit(() -> {
+                start.await();
+                // interleave the threads' keys so that they insert into the same region
+                for (int i = 0; i < KEYS_PER_THREAD; i++)
+                    writer.accept(i * THREADS + first / KEYS_PER_THREAD);
+                return null;
+            });
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+        return System.nanoTime() - begin;
+    }
+}
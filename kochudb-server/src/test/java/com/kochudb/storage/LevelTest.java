@@ -0,0 +1,118 @@
+package com.kochudb.storage;
+
+import static com.kochudb.storage.TreeFixture.flush;
+import static com.kochudb.storage.TreeFixture.key;
+import static com.kochudb.storage.TreeFixture.search;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.kochudb.types.KochuDoc;
+
+class LevelTest {
+
+    @TempDir
+    Path dir;
+
+    private TreeFixture trees;
+
+    @BeforeEach
+    void setUp() {
+        trees = new TreeFixture(dir);
+    }
+
+    @AfterEach
+    void tearDown() {
+        trees.close();
+    }
+
+    @Test
+    void testCompactionKeepsSortedRuns() throws Exception {
+        trees.open();
+
+        // the newer SSTable overlaps the older one, both go down together
+        flush(0, 3000, "a");
+        flush(1500, 4500, "b");
+        assertEquals(2, LSMTree.levels.get(0).pickInputs().size());
+
+        LSMTree.levels.get(0).compactLevel();
+
+        Level one = LSMTree.levels.get(1);
+        assertFalse(one.isOverlapping());
+        assertTrue(one.getSegments().size() > 1);
+        for (int i = 1; i < one.getSegments().size(); i++)
+            assertTrue(Arrays.compareUnsigned(one.getSegments().get(i - 1).largestKey(),
+                    one.getSegments().get(i).smallestKey()) < 0);
+
+        assertEquals("a100", search(1, 100));
+        assertEquals("b2000", search(1, 2000));
+        assertEquals("b4499", search(1, 4499));
+        assertNull(search(1, 4500));
+
+        // a disjoint range merges with nothing below it
+        List<String> before = new ArrayList<String>();
+        for (SSTable sSTable : one.getSegments())
+            before.add(sSTable.getIndexFile());
+
+        flush(10000, 10100, "c");
+        LSMTree.levels.get(0).compactLevel();
+
+        one = LSMTree.levels.get(1);
+        assertFalse(one.isOverlapping());
+        assertEquals(before.size() + 1, one.getSegments().size());
+        for (String indexFile : before)
+            assertTrue(new File(indexFile).exists());
+
+        assertEquals("c10050", search(1, 10050));
+        assertEquals("a0", search(1, 0));
+        assertNull(search(1, 5000));
+
+        // the next compaction out of level 1 picks a single SSTable
+        List<SSTable> picked = one.pickInputs();
+        assertEquals(1, picked.size());
+        assertEquals(one.getSegments().get(0), picked.get(0));
+    }
+
+    @Test
+    void testSortedRun() throws Exception {
+        LSMTree.dataDir = dir.toFile();
+
+        List<SSTable> sSTables = new ArrayList<SSTable>();
+        for (int[] range : new int[][] { { 20, 30 }, { 0, 10 }, { 10, 20 } }) {
+            SkipList skipList = new SkipList();
+            for (int i = range[0]; i < range[1]; i++)
+                skipList.put(new KochuDoc(key(i).getBytes(), "v".getBytes(), 0L));
+            SSTable sSTable = new SSTable(0);
+            sSTable.persist(skipList);
+            sSTables.add(sSTable);
+        }
+
+        List<SSTable> run = Level.sortedRun(sSTables);
+        assertEquals(List.of(sSTables.get(1), sSTables.get(2), sSTables.get(0)), run);
+
+        assertTrue(sSTables.get(1).overlaps(key(5).getBytes(), key(15).getBytes()));
+        assertFalse(sSTables.get(1).overlaps(key(10).getBytes(), key(15).getBytes()));
+
+        SkipList overlap = new SkipList();
+        overlap.put(new KochuDoc(key(15).getBytes(), "v".getBytes(), 0L));
+        SSTable overlapping = new SSTable(0);
+        overlapping.persist(overlap);
+        sSTables.add(overlapping);
+
+        assertNull(Level.sortedRun(sSTables));
+        assertArrayEquals(key(15).getBytes(), new SSTable(0, overlapping.getIndexFile()).smallestKey());
+    }
+}
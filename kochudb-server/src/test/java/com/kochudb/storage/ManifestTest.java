@@ -0,0 +1,183 @@
+package com.kochudb.storage;
+
+import static com.kochudb.storage.TreeFixture.key;
+import static com.kochudb.storage.TreeFixture.search;
+import static com.kochudb.storage.TreeFixture.write;
+import static com.kochudb.k.K.MANIFEST_MAX_SIZE_KB;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.kochudb.types.KochuDoc;
+
+class ManifestTest {
+
+    @TempDir
+    Path dir;
+
+    private TreeFixture trees;
+
+    @BeforeEach
+    void setUp() {
+        trees = new TreeFixture(dir);
+    }
+
+    @AfterEach
+    void tearDown() {
+        trees.close();
+    }
+
+    @Test
+    void testEditRoundTrip() throws IOException {
+        LSMTree.dataDir = dir.toFile();
+        SSTable sSTable = write(1, 0, 10, "a");
+
+        VersionEdit edit = new VersionEdit().add(1, sSTable).delete(0, sSTable).numbered(7);
+        VersionEdit decoded = VersionEdit.decode(ByteBuffer.wrap(edit.encode()));
+
+        FileMetadata file = decoded.getAdded().get(0);
+        assertEquals(7L, file.number());
+        assertEquals(new File(sSTable.getIndexFile()).getName(), file.name());
+        assertEquals(new File(sSTable.getDataFile()).length(), file.size());
+        assertArrayEquals(key(0).getBytes(), file.smallest());
+        assertArrayEquals(key(9).getBytes(), file.largest());
+        assertEquals(List.of(new VersionEdit.Deletion(0, file.name())), decoded.getDeleted());
+
+        assertThrows(IOException.class, () -> VersionEdit.decode(ByteBuffer.wrap(new byte[] { 9 })));
+    }
+
+    @Test
+    void testVersionApply() {
+        Version version = Version.empty()
+                .apply(new VersionEdit().add(new FileMetadata(0, 0L, "a", 1L, null, null, 0L, 0L)).numbered(1));
+        version = version.apply(new VersionEdit().add(new FileMetadata(0, 0L, "b", 1L, null, null, 0L, 0L))
+                .add(new FileMetadata(1, 0L, "c", 1L, null, null, 0L, 0L)).numbered(2));
+        assertEquals(3L, version.lastNumber());
+        assertEquals("b", version.files(0).get(0).name());
+        assertEquals("a", version.files(0).get(1).name());
+
+        VersionEdit drop = new VersionEdit();
+        drop.getDeleted().add(new VersionEdit.Deletion(0, "a"));
+        Version next = version.apply(drop);
+        assertEquals(1, next.files(0).size());
+        assertEquals(2, version.files(0).size());
+        assertTrue(next.files(1) == version.files(1));
+    }
+
+    @Test
+    void testReopenReplaysVersion() throws Exception {
+        trees.open();
+        SSTable older = write(0, 0, 100, "a");
+        LSMTree.levels.get(0).insert(older);
+        SSTable newer = write(0, 50, 150, "b");
+        LSMTree.levels.get(0).insert(newer);
+        LSMTree.levels.get(0).compactLevel();
+        assertEquals("b60", search(1, 60));
+        assertFalse(new File(older.getIndexFile()).exists());
+
+        // order comes from the MANIFEST, not from modification times
+        SSTable first = write(0, 0, 10, "c");
+        LSMTree.levels.get(0).insert(first);
+        SSTable second = write(0, 0, 10, "d");
+        LSMTree.levels.get(0).insert(second);
+        new File(second.getIndexFile()).setLastModified(1000L);
+        new File(second.getDataFile()).setLastModified(1000L);
+
+        trees.open();
+        assertEquals(2, LSMTree.levels.get(0).getSegments().size());
+        assertEquals("d5", search(0, 5));
+        assertEquals("b60", search(1, 60));
+        assertEquals("a10", search(1, 10));
+    }
+
+    @Test
+    void testTornRecordIsIgnored() throws Exception {
+        trees.open();
+        LSMTree.levels.get(0).insert(write(0, 0, 10, "a"));
+
+        File manifest = new File(dir.toFile(), Manifest.FILE_NAME);
+        long length = manifest.length();
+        LSMTree.levels.get(0).insert(write(0, 0, 10, "b"));
+        try (RandomAccessFile raf = new RandomAccessFile(manifest, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        assertTrue(manifest.length() > length);
+
+        Version version = Manifest.replay(manifest);
+        assertEquals(1, version.files(0).size());
+
+        // the SSTable of the torn edit is not part of the tree
+        trees.open();
+        assertEquals("a5", search(0, 5));
+        assertEquals(1, dir.toFile().list((d, name) -> name.endsWith(".kdb")).length);
+    }
+
+    @Test
+    void testUnreferencedFilesAreDeleted() throws Exception {
+        trees.open();
+        LSMTree.levels.get(0).insert(write(0, 0, 10, "a"));
+        // output of a compaction cut short
+        SSTable unfinished = write(1, 0, 10, "b");
+
+        trees.open();
+        assertFalse(new File(unfinished.getIndexFile()).exists());
+        assertFalse(new File(unfinished.getDataFile()).exists());
+        assertEquals("a5", search(0, 5));
+        assertNull(search(1, 5));
+    }
+
+    @Test
+    void testDirectoryWithoutManifest() throws Exception {
+        LSMTree.dataDir = dir.toFile();
+        SSTable older = write(0, 0, 10, "a");
+        SSTable newer = write(0, 0, 10, "b");
+        new File(older.getIndexFile()).setLastModified(1000L);
+        write(2, 100, 110, "c");
+
+        trees.open();
+        assertTrue(new File(dir.toFile(), Manifest.FILE_NAME).exists());
+        assertEquals(2, LSMTree.levels.get(0).getSegments().size());
+        assertEquals(newer.getIndexFile(), LSMTree.levels.get(0).getSegments().get(0).getIndexFile());
+        assertEquals("b5", search(0, 5));
+        assertEquals("c105", search(2, 105));
+
+        byte[] header = new byte[4];
+        ByteBuffer.wrap(Files.readAllBytes(new File(dir.toFile(), Manifest.FILE_NAME).toPath())).get(header);
+        assertArrayEquals("KMAN".getBytes(), header);
+    }
+
+    @Test
+    void testFailedRewriteKeepsLogging() throws Exception {
+        Manifest manifest = Manifest.open(dir.toFile());
+        File file = new File(dir.toFile(), Manifest.FILE_NAME);
+
+        // the rewrite cannot create its temporary file
+        Files.createDirectory(dir.resolve(Manifest.FILE_NAME + ".tmp"));
+        byte[] key = new byte[256 << 10];
+        for (int i = 0; i < 6; i++)
+            manifest.logAndApply(new VersionEdit().add(new FileMetadata(1, 0L, "f" + i, 1L, key, key, 0L, 0L)));
+        assertTrue(file.length() > MANIFEST_MAX_SIZE_KB * 1024L);
+
+        // edits logged past the failed rewrite are kept too
+        manifest.logAndApply(new VersionEdit().add(new FileMetadata(1, 0L, "f6", 1L, key, key, 0L, 0L)));
+        assertEquals(7, manifest.current().files(1).size());
+        manifest.close();
+        assertEquals(7, Manifest.replay(file).files(1).size());
+    }
+}
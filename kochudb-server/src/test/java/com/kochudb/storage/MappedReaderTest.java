@@ -0,0 +1,81 @@
+package com.kochudb.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.kochudb.types.KochuDoc;
+
+class MappedReaderTest {
+
+    static File file;
+
+    @BeforeAll
+    static void setup() throws IOException {
+        file = File.createTempFile("mapped", ".kdb");
+        Files.write(file.toPath(), "0123456789abcdef".getBytes());
+    }
+
+    @AfterAll
+    static void teardown() {
+        file.delete();
+    }
+
+    @Test
+    void testReadSlices() throws IOException {
+        MappedReader reader = new MappedReader(file.getAbsolutePath());
+        RandomAccessReader fileReader = new RandomAccessReader(file.getAbsolutePath());
+
+        DataFileReader.Decoder<byte[]> copy = buf -> {
+            byte[] bytes = new byte[buf.remaining()];
+            buf.get(bytes);
+            return bytes;
+        };
+
+        assertArrayEquals("abc".getBytes(), reader.read(10, 3, copy));
+        assertArrayEquals(fileReader.read(4, 6, copy), reader.read(4, 6, copy));
+        reader.close();
+    }
+
+    @Test
+    void testReadAfterClose() {
+        MappedReader reader = new MappedReader(file.getAbsolutePath());
+        reader.close();
+
+        assertThrows(IOException.class, () -> reader.read(0, 1, buf -> buf.get()));
+    }
+
+    @Test
+    void testMappedSSTable() throws IOException {
+        LSMTree.dataDir = new File(System.getProperty("java.io.tmpdir"));
+        SkipList skipList = new SkipList();
+        for (int i = 0; i < 500; i++)
+            skipList.put(new KochuDoc(("key" + i).getBytes(), ("value" + i).getBytes(), i));
+
+        SSTable written = new SSTable(0);
+        written.persist(skipList);
+
+        boolean mmapReads = SSTable.mmapReads;
+        SSTable.mmapReads = true;
+        try {
+            SSTable mapped = new SSTable(0, written.getIndexFile());
+            KochuDoc doc = mapped.search(new KochuDoc("key42".getBytes(), null, 0L));
+            assertArrayEquals("value42".getBytes(), doc.getValue().bytes());
+            assertEquals(42, doc.getLastModified());
+            mapped.close();
+        } finally {
+            SSTable.mmapReads = mmapReads;
+            new File(written.getIndexFile()).delete();
+            new File(written.getDataFile()).delete();
+            new File(written.getFilterFile()).delete();
+        }
+    }
+}
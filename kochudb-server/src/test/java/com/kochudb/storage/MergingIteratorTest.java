@@ -0,0 +1,121 @@
+package com.kochudb.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.kochudb.types.KochuDoc;
+
+class MergingIteratorTest {
+
+    // a null value is a delete
+    private static KochuDoc doc(String key, String value) {
+        return value == null ? KochuDoc.tombstone(key.getBytes(), 0L) : new KochuDoc(key.getBytes(), value.getBytes(), 0L);
+    }
+
+    private static Iterator<KochuDoc> source(String... keyValues) {
+        List<KochuDoc> docs = new ArrayList<KochuDoc>();
+        for (int i = 0; i < keyValues.length; i += 2)
+            docs.add(doc(keyValues[i], keyValues[i + 1]));
+        return docs.iterator();
+    }
+
+    // key, value and sequence number of each record
+    private static Iterator<KochuDoc> versions(String... records) {
+        List<KochuDoc> docs = new ArrayList<KochuDoc>();
+        for (int i = 0; i < records.length; i += 3) {
+            KochuDoc doc = doc(records[i], records[i + 1]);
+            doc.setSequence(Long.parseLong(records[i + 2]));
+            docs.add(doc);
+        }
+        return docs.iterator();
+    }
+
+    private static List<String> drain(Iterator<KochuDoc> iter) {
+        List<String> result = new ArrayList<String>();
+        while (iter.hasNext()) {
+            KochuDoc doc = iter.next();
+            result.add(doc.getKey() + (doc.isTombstone() ? " deleted" : "=" + doc.getValue()));
+        }
+        return result;
+    }
+
+    @Test
+    void testNewestVersionWins() {
+        List<Iterator<KochuDoc>> sources = List.of(source("b", "b2", "d", "d2"), source("a", "a1", "b", "b1"),
+                source("b", "b0", "c", "c0", "d", "d0"));
+
+        assertEquals(List.of("a=a1", "b=b2", "c=c0", "d=d2"),
+                drain(new MergingIterator(sources, new byte[0], null, 100)));
+    }
+
+    @Test
+    void testDeletedKeysSkipped() {
+        List<Iterator<KochuDoc>> sources = List.of(source("a", null, "c", ""), source("a", "a0", "b", "b0", "c", "c0"));
+
+        // an empty value is a value
+        assertEquals(List.of("b=b0", "c="), drain(new MergingIterator(sources, new byte[0], null, 100)));
+    }
+
+    @Test
+    void testCompactionRetainsEveryVersion() {
+        List<Iterator<KochuDoc>> sources = List.of(source("a", null, "c", null), source("a", "a0", "b", "b0", "c", "c0"));
+
+        assertEquals(List.of("a deleted", "a=a0", "b=b0", "c deleted", "c=c0"), drain(MergingIterator.forCompaction(sources)));
+    }
+
+    @Test
+    void testReadAtSnapshot() {
+        List<List<String>> expected = List.of(List.of(), List.of("a=a1"), List.of("a=a1", "b=b2"),
+                List.of("a=a3", "b=b2"), List.of("a=a3"), List.of("a=a3", "c=c5"));
+        for (int snapshot = 0; snapshot < expected.size(); snapshot++) {
+            // versions of a key are newest first within a source
+            List<Iterator<KochuDoc>> sources = List.of(versions("a", "a3", "3", "a", "a1", "1", "b", null, "4"),
+                    versions("b", "b2", "2", "c", "c5", "5"));
+            assertEquals(expected.get(snapshot),
+                    drain(new MergingIterator(sources, new byte[0], null, 100, snapshot)));
+        }
+    }
+
+    @Test
+    void testRangeAndLimit() {
+        List<Iterator<KochuDoc>> sources = List.of(source("a", "1", "b", "2", "c", "3"), source("d", "4", "e", "5"));
+        assertEquals(List.of("b=2", "c=3", "d=4"),
+                drain(new MergingIterator(sources, "b".getBytes(), "e".getBytes(), 100)));
+
+        sources = List.of(source("a", "1", "b", "2", "c", "3"), source("d", "4", "e", "5"));
+        assertEquals(List.of("a=1", "b=2"), drain(new MergingIterator(sources, new byte[0], null, 2)));
+    }
+
+    @Test
+    void testEmpty() {
+        assertFalse(new MergingIterator(List.of(), new byte[0], null, 10).hasNext());
+    }
+
+    @Test
+    void testSkipListSeek() {
+        SkipList skipList = new SkipList();
+        for (String key : new String[] { "d", "b", "a", "c" })
+            skipList.put(new KochuDoc(key.getBytes(), key.getBytes(), 0L));
+
+        Iterator<SkipListNode> iter = skipList.iterator(new KochuDoc("b".getBytes(), null, 0L));
+        assertArrayEquals("b".getBytes(), iter.next().data.getKey().bytes());
+
+        iter = skipList.iterator(new KochuDoc("bb".getBytes(), null, 0L));
+        assertArrayEquals("c".getBytes(), iter.next().data.getKey().bytes());
+    }
+
+    @Test
+    void testPrefixEnd() {
+        assertArrayEquals("ab".getBytes(), LSMTree.prefixEnd("aa".getBytes()));
+        assertArrayEquals(new byte[] { 'a', 'b' }, LSMTree.prefixEnd(new byte[] { 'a', 'a', (byte) 0xFF }));
+        assertNull(LSMTree.prefixEnd(new byte[] { (byte) 0xFF }));
+    }
+}
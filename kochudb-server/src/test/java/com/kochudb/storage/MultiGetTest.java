@@ -0,0 +1,107 @@
+package com.kochudb.storage;
+
+import static com.kochudb.storage.TreeFixture.flush;
+import static com.kochudb.storage.TreeFixture.key;
+import static com.kochudb.storage.TreeFixture.set;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.kochudb.types.KochuDoc;
+
+class MultiGetTest {
+
+    @TempDir
+    Path dir;
+
+    private TreeFixture trees;
+
+    @BeforeEach
+    void setUp() {
+        trees = new TreeFixture(dir);
+    }
+
+    @AfterEach
+    void tearDown() {
+        trees.close();
+    }
+
+    private LSMTree open() {
+        Properties props = trees.props();
+        props.setProperty("sstable.block.size", "256");
+        return trees.open(props);
+    }
+
+    private static List<String> multiGet(LSMTree tree, String... keys) {
+        List<byte[]> bytes = new ArrayList<byte[]>();
+        for (String key : keys)
+            bytes.add(key.getBytes());
+
+        List<String> values = new ArrayList<String>();
+        for (KochuDoc doc : tree.multiGet(bytes))
+            values.add(doc.getKey().bytes() == null ? null : new String(doc.getValue().bytes()));
+        return values;
+    }
+
+    @Test
+    void testResultsInRequestOrder() throws Exception {
+        LSMTree tree = open();
+        // one key in level 1, one in level 0 and one in the memTable
+        set(tree, "c", "c1");
+        set(tree, "b", "b1");
+        flush(tree);
+        LSMTree.levels.get(0).compactLevel();
+        set(tree, "b", "b2");
+        set(tree, "a", "a1");
+        flush(tree);
+        set(tree, "a", "a2");
+        tree.del("c".getBytes());
+        set(tree, "d", "d1");
+
+        assertEquals(Arrays.asList("d1", null, "a2", "b2", "a2", null),
+                multiGet(tree, "d", "c", "a", "b", "a", "x"));
+
+        // the same answers as get(), also once all of it is on disk
+        flush(tree);
+        for (String key : new String[] { "a", "b", "c", "d", "x" }) {
+            KochuDoc doc = tree.get(key.getBytes());
+            assertEquals(doc.getKey().bytes() == null ? null : new String(doc.getValue().bytes()), multiGet(tree, key).get(0));
+        }
+    }
+
+    @Test
+    void testEachBlockReadOnce() {
+        LSMTree tree = open();
+        // all keys in a single SSTable
+        tree.maxSkipListSize = 1 << 20;
+        for (int i = 0; i < 500; i++)
+            set(tree, key(i), "value" + i);
+        flush(tree);
+
+        SSTable sSTable = LSMTree.levels.get(0).getSegments().get(0);
+        List<KochuDoc> docs = new ArrayList<KochuDoc>();
+        for (int i = 0; i < 500; i += 3)
+            docs.add(new KochuDoc(key(i).getBytes(), null, 0L));
+        docs.add(new KochuDoc("zzz".getBytes(), null, 0L));
+
+        BlockCache cache = SSTable.getBlockCache();
+        long before = cache.hitCount() + cache.missCount();
+        KochuDoc[] found = sSTable.search(docs, Long.MAX_VALUE);
+        assertEquals(sSTable.index().size(), cache.hitCount() + cache.missCount() - before);
+
+        for (int i = 0; i < docs.size() - 1; i++)
+            assertArrayEquals(sSTable.search(docs.get(i)).getValue().bytes(), found[i].getValue().bytes());
+        assertNull(found[docs.size() - 1]);
+    }
+}
@@ -0,0 +1,80 @@
+package com.kochudb.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class RateLimiterTest {
+
+    @Test
+    void testUnlimited() {
+        RateLimiter limiter = new RateLimiter(0L, false);
+        limiter.request(1L << 30, RateLimiter.Priority.LOW);
+
+        assertEquals(0L, limiter.throttledMillis());
+        assertEquals(1L << 30, limiter.requestedBytes());
+    }
+
+    @Test
+    void testThrottles() {
+        // 1 MB/s, a burst of 100 KB
+        RateLimiter limiter = new RateLimiter(1L << 20, false);
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++)
+            limiter.request(100 << 10, RateLimiter.Priority.LOW);
+        long millis = (System.nanoTime() - start) / 1_000_000L;
+
+        // the first two go through on the burst, the others wait about 100 ms each
+        assertTrue(millis >= 150, "took " + millis + " ms");
+        assertTrue(limiter.throttledMillis() >= 150);
+    }
+
+    @Test
+    void testFlushesFirst() throws Exception {
+        RateLimiter limiter = new RateLimiter(1L << 20, false);
+        limiter.request(1L << 20, RateLimiter.Priority.LOW);
+
+        List<RateLimiter.Priority> granted = Collections.synchronizedList(new ArrayList<RateLimiter.Priority>());
+        Thread compaction = new Thread(() -> {
+            limiter.request(10 << 10, RateLimiter.Priority.LOW);
+            granted.add(RateLimiter.Priority.LOW);
+        });
+        compaction.start();
+        Thread.sleep(50);
+
+        Thread flush = new Thread(() -> {
+            limiter.request(10 << 10, RateLimiter.Priority.HIGH);
+            granted.add(RateLimiter.Priority.HIGH);
+        });
+        flush.start();
+        flush.join();
+        compaction.join();
+
+        assertEquals(List.of(RateLimiter.Priority.HIGH, RateLimiter.Priority.LOW), granted);
+    }
+
+    @Test
+    void testAutoTune() {
+        RateLimiter limiter = new RateLimiter(1L << 20, true);
+        for (long debt = 1; debt <= 20; debt++)
+            limiter.tune(debt << 20);
+        assertEquals(RateLimiter.AUTO_TUNE_MAX_MULTIPLIER << 20, limiter.getLimit());
+
+        // steady debt keeps the limit
+        limiter.tune(20L << 20);
+        assertEquals(RateLimiter.AUTO_TUNE_MAX_MULTIPLIER << 20, limiter.getLimit());
+
+        for (int i = 0; i < 20; i++)
+            limiter.tune(0L);
+        assertEquals(1L << 20, limiter.getLimit());
+
+        RateLimiter fixed = new RateLimiter(1L << 20, false);
+        fixed.tune(1L << 30);
+        assertEquals(1L << 20, fixed.getLimit());
+    }
+}
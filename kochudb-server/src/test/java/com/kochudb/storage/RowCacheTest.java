@@ -0,0 +1,90 @@
+package com.kochudb.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+import com.kochudb.types.ByteArray;
+import com.kochudb.types.KochuDoc;
+
+class RowCacheTest {
+
+    private static KochuDoc doc(String key, String value) {
+        return new KochuDoc(key.getBytes(), value.getBytes(), 0L);
+    }
+
+    @Test
+    void testFillAndGet() {
+        RowCache cache = new RowCache(100, 4, RowCache.Admission.ALL);
+        ByteArray key = new ByteArray("alpha".getBytes());
+
+        assertNull(cache.get(key));
+        cache.fill(doc("alpha", "one"), cache.stamp(key));
+
+        assertArrayEquals("one".getBytes(), cache.get(key).getValue().bytes());
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    void testWritesKeepCacheCoherent() {
+        RowCache cache = new RowCache(100, 4, RowCache.Admission.ALL);
+        ByteArray key = new ByteArray("alpha".getBytes());
+        cache.fill(doc("alpha", "one"), cache.stamp(key));
+
+        cache.update(doc("alpha", "two"));
+        assertArrayEquals("two".getBytes(), cache.get(key).getValue().bytes());
+
+        cache.invalidate(key);
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    void testStaleFillRejected() {
+        RowCache cache = new RowCache(100, 4, RowCache.Admission.ALL);
+        ByteArray key = new ByteArray("alpha".getBytes());
+
+        // a reader takes its stamp, then a write lands before it fills the cache
+        long stamp = cache.stamp(key);
+        cache.update(doc("alpha", "new"));
+        cache.fill(doc("alpha", "old"), stamp);
+
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    void testFrequentAdmission() {
+        RowCache cache = new RowCache(100, 1, RowCache.Admission.FREQUENT);
+        ByteArray key = new ByteArray("alpha".getBytes());
+
+        // first read is not admitted, second one is
+        cache.get(key);
+        cache.fill(doc("alpha", "one"), cache.stamp(key));
+        assertNull(cache.get(key));
+        cache.fill(doc("alpha", "one"), cache.stamp(key));
+        assertNotNull(cache.get(key));
+    }
+
+    @Test
+    void testBoundedLru() {
+        RowCache cache = new RowCache(2, 1, RowCache.Admission.ALL);
+        for (String key : new String[] { "a", "b" })
+            cache.fill(doc(key, key), cache.stamp(new ByteArray(key.getBytes())));
+
+        cache.get(new ByteArray("a".getBytes()));
+        cache.fill(doc("c", "c"), cache.stamp(new ByteArray("c".getBytes())));
+
+        assertNotNull(cache.get(new ByteArray("a".getBytes())));
+        assertNull(cache.get(new ByteArray("b".getBytes())));
+        assertNotNull(cache.get(new ByteArray("c".getBytes())));
+    }
+
+    @Test
+    void testDisabled() {
+        assertFalse(new RowCache(0, 4, RowCache.Admission.ALL).isEnabled());
+    }
+}
@@ -0,0 +1,145 @@
+package com.kochudb.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Properties;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.kochudb.types.KochuDoc;
+
+class SSTableBuilderTest {
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void setup() {
+        LSMTree.dataDir = dir.toFile();
+    }
+
+    private static KochuDoc doc(int i) {
+        return new KochuDoc(String.format("key%06d", i).getBytes(), ("value-" + i).getBytes(), i);
+    }
+
+    private static void assertReadable(SSTable sSTable, int numKeys) {
+        for (int i = 0; i < numKeys; i += 13) {
+            KochuDoc found = sSTable.search(doc(i));
+            assertArrayEquals(doc(i).getValue().bytes(), found.getValue().bytes());
+            assertEquals(i, found.getLastModified());
+        }
+        assertNull(sSTable.search(doc(numKeys)));
+
+        Iterator<KochuDoc> iter = sSTable.iterator();
+        int count = 0;
+        while (iter.hasNext())
+            assertArrayEquals(doc(count++).getKey().bytes(), iter.next().getKey().bytes());
+        assertEquals(numKeys, count);
+    }
+
+    @Test
+    void testStreamedBlocks() throws Exception {
+        SSTable sSTable = new SSTable(0);
+        SSTableBuilder builder = sSTable.builder();
+        for (int i = 0; i < 20000; i++)
+            builder.add(doc(i));
+
+        // blocks go to disk as they fill up
+        assertTrue(new File(sSTable.getDataFile()).length() > 0);
+        assertTrue(builder.estimatedSize() >= new File(sSTable.getDataFile()).length());
+        assertEquals(sSTable, builder.getSSTable());
+        builder.finish();
+
+        assertTrue(sSTable.index().isBlockBased());
+        assertArrayEquals(doc(0).getKey().bytes(), sSTable.smallestKey());
+        assertArrayEquals(doc(19999).getKey().bytes(), sSTable.largestKey());
+        assertTrue(sSTable.mightContain(doc(123).getKey().bytes()));
+        assertReadable(sSTable, 20000);
+
+        // and the same from disk
+        SSTable reopened = new SSTable(0, sSTable.getIndexFile());
+        assertArrayEquals(doc(0).getKey().bytes(), reopened.smallestKey());
+        assertReadable(reopened, 20000);
+    }
+
+    @Test
+    void testLegacyFormat() throws Exception {
+        // doc(0) to doc(499), written before SSTables were block based
+        SSTable sSTable = TreeFixture.legacy(dir, "keys500");
+
+        assertFalse(sSTable.index().isBlockBased());
+        assertReadable(new SSTable(0, sSTable.getIndexFile()), 500);
+    }
+
+    @Test
+    void testKeysInOrder() throws Exception {
+        SSTableBuilder builder = new SSTable(0).builder();
+        builder.add(doc(2));
+        assertThrows(IllegalArgumentException.class, () -> builder.add(doc(1)));
+    }
+
+    // key i has versions with sequence numbers 3i + 3, 3i + 2 and 3i + 1
+    private static SSTable writeVersions(int numKeys) throws Exception {
+        SSTable sSTable = new SSTable(0);
+        SSTableBuilder builder = sSTable.builder();
+        for (int i = 0; i < numKeys; i++) {
+            for (int seq = 3 * i + 3; seq > 3 * i; seq--) {
+                KochuDoc doc = new KochuDoc(doc(i).getKey().bytes(), ("v" + seq).getBytes(), i);
+                doc.setSequence(seq);
+                builder.add(doc);
+            }
+        }
+        builder.finish();
+        return sSTable;
+    }
+
+    private static String search(SSTable sSTable, int i, long snapshot) {
+        KochuDoc found = sSTable.search(doc(i), snapshot);
+        return found == null ? null : new String(found.getValue().bytes());
+    }
+
+    @Test
+    void testVersionsOfAKey() throws Exception {
+        SSTable sSTable = writeVersions(2000);
+        assertEquals(1L, sSTable.smallestSequence());
+        assertEquals(6000L, sSTable.largestSequence());
+
+        // versions of a key may cross block boundaries
+        for (SSTable table : new SSTable[] { sSTable, new SSTable(0, sSTable.getIndexFile()) }) {
+            for (int i = 0; i < 2000; i += 7) {
+                assertEquals("v" + (3 * i + 3), new String(table.search(doc(i)).getValue().bytes()));
+                assertEquals(3 * i + 3, table.search(doc(i)).getSequence());
+                assertEquals("v" + (3 * i + 2), search(table, i, 3 * i + 2));
+                assertEquals("v" + (3 * i + 1), search(table, i, 3 * i + 1));
+                assertNull(search(table, i, 3 * i));
+            }
+        }
+
+        // the legacy format keeps the newest version only, so it is not written anymore
+        Properties props = new Properties();
+        props.setProperty("sstable.format", "legacy");
+        assertThrows(IllegalArgumentException.class, () -> SSTable.configure(props));
+    }
+
+    @Test
+    void testAbandon() throws Exception {
+        SSTable sSTable = new SSTable(0);
+        SSTableBuilder builder = sSTable.builder();
+        for (int i = 0; i < 5000; i++)
+            builder.add(doc(i));
+        builder.abandon();
+
+        assertFalse(new File(sSTable.getDataFile()).exists());
+        assertFalse(new File(sSTable.getIndexFile()).exists());
+    }
+}
@@ -0,0 +1,102 @@
+package com.kochudb.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.kochudb.types.KochuDoc;
+
+class SSTableIndexTest {
+
+    @TempDir
+    static Path dir;
+
+    static SSTable legacy, blocks;
+
+    @BeforeAll
+    static void setup() throws IOException {
+        LSMTree.dataDir = dir.toFile();
+
+        // alpha, bravo, charlie and delta, with values like alpha-value
+        legacy = TreeFixture.legacy(dir, "alphabet");
+
+        SkipList large = new SkipList();
+        for (int i = 0; i < 2000; i++)
+            large.put(new KochuDoc(String.format("key%05d", i).getBytes(), ("value" + i).getBytes(), i));
+
+        blocks = new SSTable(0);
+        blocks.persist(large);
+    }
+
+    @Test
+    void testIndexIsSorted() {
+        SSTableIndex index = legacy.index();
+
+        assertFalse(index.isBlockBased());
+        assertEquals(4, index.size());
+        assertArrayEquals("alpha".getBytes(), index.keyAt(0));
+        assertArrayEquals("delta".getBytes(), index.keyAt(3));
+        assertEquals(-1, index.indexOf("echo".getBytes()));
+    }
+
+    @Test
+    void testIndexReloadedFromDisk() {
+        SSTableIndex index = new SSTable(0, legacy.getIndexFile()).index();
+
+        assertEquals(4, index.size());
+        assertEquals(legacy.index().offsetAt(2), index.offsetAt(index.indexOf("charlie".getBytes())));
+
+        SSTableIndex sparse = new SSTable(0, blocks.getIndexFile()).index();
+
+        assertTrue(sparse.isBlockBased());
+        assertEquals(blocks.index().size(), sparse.size());
+        assertTrue(sparse.size() > 1 && sparse.size() < 2000);
+    }
+
+    @Test
+    void testSearch() {
+        KochuDoc found = legacy.search(new KochuDoc("bravo".getBytes(), null, 0L));
+
+        assertArrayEquals("bravo-value".getBytes(), found.getValue().bytes());
+        assertNull(legacy.search(new KochuDoc("zulu".getBytes(), null, 0L)));
+    }
+
+    @Test
+    void testSearchBlocks() {
+        SSTable reopened = new SSTable(0, blocks.getIndexFile());
+        for (int i = 0; i < 2000; i += 7) {
+            KochuDoc found = reopened.search(new KochuDoc(String.format("key%05d", i).getBytes(), null, 0L));
+            assertArrayEquals(("value" + i).getBytes(), found.getValue().bytes());
+            assertEquals(i, found.getLastModified());
+        }
+        assertNull(reopened.search(new KochuDoc("key00000a".getBytes(), null, 0L)));
+        assertNull(reopened.search(new KochuDoc("zulu".getBytes(), null, 0L)));
+    }
+
+    @Test
+    void testIterator() {
+        Iterator<KochuDoc> iter = new SSTable(0, blocks.getIndexFile()).iterator();
+        int count = 0;
+        while (iter.hasNext())
+            assertArrayEquals(String.format("key%05d", count++).getBytes(), iter.next().getKey().bytes());
+        assertEquals(2000, count);
+
+        iter = legacy.iterator();
+        count = 0;
+        while (iter.hasNext()) {
+            iter.next();
+            count++;
+        }
+        assertEquals(4, count);
+    }
+}
@@ -0,0 +1,145 @@
+package com.kochudb.storage;
+
+import static com.kochudb.storage.TreeFixture.flush;
+import static com.kochudb.storage.TreeFixture.key;
+import static com.kochudb.storage.TreeFixture.search;
+import static com.kochudb.k.K.NUM_LEVELS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.kochudb.types.KochuDoc;
+
+class SizeTieredCompactionStrategyTest {
+
+    @TempDir
+    Path dir;
+
+    private TreeFixture trees;
+
+    @BeforeEach
+    void setUp() {
+        trees = new TreeFixture(dir);
+    }
+
+    @AfterEach
+    void tearDown() {
+        trees.close();
+    }
+
+    private LSMTree open(String strategy) {
+        Properties props = trees.props();
+        props.setProperty("compaction.strategy", strategy);
+        props.setProperty("compaction.tiered.runs", "3");
+        return trees.open(props);
+    }
+
+    @Test
+    void testRuns() throws Exception {
+        open("tiered");
+        List<SSTable> sSTables = new ArrayList<SSTable>();
+        sSTables.add(flush(0, 100, "a"));
+        sSTables.add(flush(100, 200, "a"));
+        assertEquals(1, SizeTieredCompactionStrategy.runs(sSTables));
+
+        sSTables.add(flush(50, 150, "b"));
+        assertEquals(2, SizeTieredCompactionStrategy.runs(sSTables));
+
+        // ranges are inclusive at both ends
+        sSTables.add(flush(99, 100, "c"));
+        assertEquals(3, SizeTieredCompactionStrategy.runs(sSTables));
+        assertEquals(0, SizeTieredCompactionStrategy.runs(List.of()));
+    }
+
+    @Test
+    void testTiers() throws Exception {
+        LSMTree tree = open("tiered");
+        CompactionStrategy strategy = new SizeTieredCompactionStrategy(tree, 3);
+
+        flush(0, 1000, "a");
+        flush(500, 1500, "b");
+        assertNull(strategy.pick(0));
+        assertEquals(0L, strategy.debt());
+
+        flush(600, 700, "c");
+        Compaction compaction = strategy.pick(0);
+        assertNotNull(compaction);
+        assertEquals(1, compaction.getOutputLevel());
+        assertTrue(strategy.debt() > 0L);
+        compaction.run();
+
+        // one run in the next tier, nothing merged with it
+        assertTrue(LSMTree.levels.get(0).getSegments().isEmpty());
+        assertEquals(1, SizeTieredCompactionStrategy.runs(LSMTree.levels.get(1).getSegments()));
+        assertEquals("a100", search(1, 100));
+        assertEquals("c650", search(1, 650));
+        assertEquals("b700", search(1, 700));
+        assertNull(strategy.pick(1));
+
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 3; i++)
+                flush(0, 1500, "d" + round);
+            strategy.pick(0).run();
+        }
+        assertEquals(3, SizeTieredCompactionStrategy.runs(LSMTree.levels.get(1).getSegments()));
+        assertEquals("d1700", search(1, 700));
+
+        strategy.pick(1).run();
+        assertEquals(1, SizeTieredCompactionStrategy.runs(LSMTree.levels.get(2).getSegments()));
+        assertEquals("d1700", search(2, 700));
+        assertTrue(strategy.writeAmplification() > 1.0);
+    }
+
+    @Test
+    void testLastTierMergesInPlace() throws Exception {
+        LSMTree tree = open("tiered");
+        CompactionStrategy strategy = new SizeTieredCompactionStrategy(tree, 3);
+
+        // overlapping runs straight in the last tier
+        for (int run = 0; run < 3; run++) {
+            SkipList skipList = new SkipList();
+            for (int i = run * 50; i < run * 50 + 100; i++)
+                skipList.put(new KochuDoc(key(i).getBytes(), "v".getBytes(), 0L));
+            SSTable sSTable = new SSTable(NUM_LEVELS);
+            sSTable.persist(skipList);
+            LSMTree.levels.get(NUM_LEVELS).insert(sSTable);
+        }
+        assertEquals(2, SizeTieredCompactionStrategy.runs(LSMTree.levels.get(NUM_LEVELS).getSegments()));
+        assertNull(strategy.pick(NUM_LEVELS));
+
+        SkipList skipList = new SkipList();
+        skipList.put(new KochuDoc(key(75).getBytes(), "w".getBytes(), 0L));
+        SSTable sSTable = new SSTable(NUM_LEVELS);
+        sSTable.persist(skipList);
+        LSMTree.levels.get(NUM_LEVELS).insert(sSTable);
+
+        Compaction compaction = strategy.pick(NUM_LEVELS);
+        assertEquals(NUM_LEVELS, compaction.getOutputLevel());
+        compaction.run();
+
+        assertEquals(1, SizeTieredCompactionStrategy.runs(LSMTree.levels.get(NUM_LEVELS).getSegments()));
+        assertEquals("v", search(NUM_LEVELS, 0));
+        assertEquals("v", search(NUM_LEVELS, 199));
+    }
+
+    @Test
+    void testForName() {
+        LSMTree tree = open("leveled");
+        assertEquals("leveled", CompactionStrategy.forName("leveled", tree, new Properties()).name());
+        assertEquals("tiered", CompactionStrategy.forName(" Tiered", tree, new Properties()).name());
+        assertThrows(IllegalArgumentException.class,
+                () -> CompactionStrategy.forName("sometimes", tree, new Properties()));
+    }
+}
@@ -0,0 +1,270 @@
+package com.kochudb.storage;
+
+import static com.kochudb.storage.TreeFixture.flush;
+import static com.kochudb.storage.TreeFixture.key;
+import static com.kochudb.storage.TreeFixture.set;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.kochudb.types.KochuDoc;
+import com.kochudb.types.WriteBatch;
+
+class SnapshotsTest {
+
+    @TempDir
+    Path dir;
+
+    private TreeFixture trees;
+
+    @BeforeEach
+    void setUp() {
+        trees = new TreeFixture(dir);
+    }
+
+    @AfterEach
+    void tearDown() {
+        trees.close();
+    }
+
+    private static String get(LSMTree tree, String key, Snapshots.Snapshot snapshot) {
+        KochuDoc doc = snapshot == null ? tree.get(key.getBytes()) : tree.get(key.getBytes(), snapshot);
+        return doc.getKey().bytes() == null ? null : new String(doc.getValue().bytes());
+    }
+
+    private static List<String> scan(LSMTree tree, Snapshots.Snapshot snapshot) {
+        Iterator<KochuDoc> iter = snapshot == null ? tree.scan(null, null, 100)
+                : tree.scan(null, null, 100, snapshot);
+        List<String> result = new ArrayList<String>();
+        while (iter.hasNext()) {
+            KochuDoc doc = iter.next();
+            result.add(doc.getKey() + "=" + doc.getValue());
+        }
+        return result;
+    }
+
+    // records of a key in the SSTables of a level
+    private static int versions(int level, String key) {
+        int count = 0;
+        for (SSTable sSTable : LSMTree.levels.get(level).getSegments()) {
+            Iterator<KochuDoc> iter = sSTable.iterator(key.getBytes());
+            while (iter.hasNext())
+                if (Arrays.equals(iter.next().getKey().bytes(), key.getBytes()))
+                    count++;
+        }
+        return count;
+    }
+
+    private static void assertReads(LSMTree tree, Snapshots.Snapshot snapshot) {
+        assertEquals("a1", get(tree, "a", snapshot));
+        assertEquals("b1", get(tree, "b", snapshot));
+        assertNull(get(tree, "d", snapshot));
+        assertEquals(List.of("a=a1", "b=b1", "c=c1"), scan(tree, snapshot));
+
+        assertEquals("a2", get(tree, "a", null));
+        assertNull(get(tree, "b", null));
+        assertEquals(List.of("a=a2", "c=c1", "d=d2"), scan(tree, null));
+    }
+
+    @Test
+    void testIsVisible() {
+        long[] snapshots = { 5L, 10L };
+        assertTrue(Snapshots.isVisible(snapshots, 3L, 7L));
+        assertFalse(Snapshots.isVisible(snapshots, 6L, 10L));
+        assertTrue(Snapshots.isVisible(snapshots, 10L, 11L));
+        assertFalse(Snapshots.isVisible(snapshots, 11L, 20L));
+        assertFalse(Snapshots.isVisible(new long[0], 1L, 2L));
+    }
+
+    @Test
+    void testAcquireAndRelease() {
+        Snapshots snapshots = new Snapshots();
+        snapshots.recovered(7L);
+        long first = snapshots.next(), second = snapshots.next();
+        snapshots.applied(second);
+
+        // the write numbered 8 is not in the memTable yet
+        assertEquals(7L, snapshots.acquire().sequence());
+        snapshots.applied(first);
+
+        Snapshots.Snapshot one = snapshots.acquire(), two = snapshots.acquire();
+        assertEquals(9L, one.sequence());
+        assertArrayEquals(new long[] { 7L, 9L }, snapshots.live());
+        snapshots.release(one);
+        assertArrayEquals(new long[] { 7L, 9L }, snapshots.live());
+        snapshots.release(two);
+        assertArrayEquals(new long[] { 7L }, snapshots.live());
+    }
+
+    @Test
+    void testVisibleInCommitOrder() throws Exception {
+        Snapshots snapshots = new Snapshots();
+        long batch = snapshots.next(3), single = snapshots.next(), last = snapshots.next(2);
+        snapshots.applied(last, 2);
+        snapshots.applied(batch, 3);
+        assertEquals(3L, snapshots.visible());
+        snapshots.applied(single);
+        assertEquals(6L, snapshots.visible());
+
+        // writers applying out of order from many threads
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < 9000; i++) {
+                    int count = 1 + i % 3;
+                    snapshots.applied(snapshots.next(count), count);
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        for (Thread writer : writers)
+            writer.join();
+        assertEquals(6L + 8 * 18000, snapshots.lastSequence());
+        assertEquals(snapshots.lastSequence(), snapshots.visible());
+    }
+
+    @Test
+    void testBatchIsVisibleWhole() throws Exception {
+        LSMTree tree = trees.open();
+        set(tree, "b", "b0");
+        Snapshots.Snapshot before = tree.getSnapshot();
+
+        WriteBatch batch = new WriteBatch().put(new KochuDoc("a".getBytes(), "a1".getBytes(), 0L))
+                .delete("b".getBytes()).put(new KochuDoc("c".getBytes(), "c1".getBytes(), 0L));
+        assertEquals("OK, 3 writes", new String(tree.write(batch).getValue().bytes()));
+        assertEquals(List.of("a=a1", "c=c1"), scan(tree, null));
+        assertEquals(List.of("b=b0"), scan(tree, before));
+        assertEquals(batch.docs().get(0).getSequence() + 2, batch.docs().get(2).getSequence());
+
+        // nothing of a batch is applied if a write is invalid
+        WriteBatch invalid = new WriteBatch().put(new KochuDoc("d".getBytes(), "d1".getBytes(), 0L))
+                .put(new KochuDoc(new byte[300], "x".getBytes(), 0L));
+        assertTrue(new String(tree.write(invalid).getValue().bytes()).startsWith("Error"));
+        assertNull(get(tree, "d", null));
+
+        // readers see both keys of every batch or neither
+        Thread writer = new Thread(() -> {
+            for (int i = 1; i <= 2000; i++) {
+                String value = Integer.toString(i);
+                tree.write(new WriteBatch().put(new KochuDoc("x".getBytes(), value.getBytes(), 0L))
+                        .put(new KochuDoc("y".getBytes(), value.getBytes(), 0L)));
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            Snapshots.Snapshot snapshot = tree.getSnapshot();
+            assertEquals(get(tree, "x", snapshot), get(tree, "y", snapshot));
+            tree.releaseSnapshot(snapshot);
+
+            List<String> all = scan(tree, null);
+            if (all.contains("x=2000"))
+                assertTrue(all.contains("y=2000"));
+        }
+        writer.join();
+        assertEquals("2000", get(tree, "y", null));
+
+        // the batches filled a few memTables, wait for their flushes
+        tree.memTableExecutor.submit(() -> {
+        }).get();
+    }
+
+    @Test
+    void testReadsAtSnapshot() throws Exception {
+        LSMTree tree = trees.open();
+        set(tree, "a", "a1");
+        set(tree, "b", "b1");
+        set(tree, "c", "c1");
+        Snapshots.Snapshot snapshot = tree.getSnapshot();
+        set(tree, "a", "a2");
+        tree.del("b".getBytes());
+        set(tree, "d", "d2");
+        assertReads(tree, snapshot);
+
+        // the versions the snapshot reads survive a flush and a compaction
+        flush(tree);
+        assertReads(tree, snapshot);
+        LSMTree.levels.get(0).compactLevel();
+        assertTrue(LSMTree.levels.get(0).getSegments().isEmpty());
+        assertReads(tree, snapshot);
+        assertEquals(2, versions(1, "a"));
+
+        // and go with the next compaction once it is released
+        tree.releaseSnapshot(snapshot);
+        set(tree, "a", "a3");
+        flush(tree);
+        LSMTree.levels.get(0).compactLevel();
+        assertEquals(1, versions(1, "a"));
+        assertEquals(0, versions(1, "b"));
+        assertEquals("a3", get(tree, "a", null));
+        assertEquals(List.of("a=a3", "c=c1", "d=d2"), scan(tree, null));
+    }
+
+    @Test
+    void testEmptyValueIsNotADelete() throws Exception {
+        LSMTree tree = trees.open();
+        set(tree, "a", "");
+        set(tree, "b", "b1");
+        tree.del("b".getBytes());
+        tree.write(new WriteBatch().put(new KochuDoc("c".getBytes(), new byte[0], 0L)));
+
+        for (int i = 0; i < 2; i++) {
+            assertEquals("", get(tree, "a", null));
+            assertNull(get(tree, "b", null));
+            assertEquals("", get(tree, "c", null));
+            assertEquals(List.of("a=", "c="), scan(tree, null));
+
+            // and the same from an SSTable
+            flush(tree);
+        }
+    }
+
+    @Test
+    void testDeleteWrittenLikeSet() throws Exception {
+        LSMTree tree = trees.open();
+        long last = tree.getSnapshots().lastSequence();
+        assertTrue(new String(tree.del(new byte[300]).getValue().bytes()).startsWith("Error"));
+        assertEquals(last, tree.getSnapshots().lastSequence());
+
+        // deletes alone fill and rotate memTables
+        tree.maxSkipListSize = 1024;
+        MemTable first = tree.memTable;
+        for (int i = 0; i < 200; i++)
+            tree.del(key(i).getBytes());
+        assertTrue(tree.memTable != first);
+
+        tree.memTableExecutor.submit(() -> {
+        }).get();
+    }
+
+    @Test
+    void testFailedWriteIsNotVisible() throws Exception {
+        Properties props = trees.props();
+        props.put("alive", true);
+        LSMTree tree = trees.open(props);
+        set(tree, "a", "a1");
+
+        // writes the WAL does not take are not applied
+        tree.wal.close();
+        assertTrue(new String(tree.set(new KochuDoc("a".getBytes(), "a2".getBytes(), 0L)).getValue().bytes())
+                .startsWith("Error"));
+        assertTrue(new String(tree.del("a".getBytes()).getValue().bytes()).startsWith("Error"));
+        assertEquals("a1", get(tree, "a", null));
+        assertEquals(List.of("a=a1"), scan(tree, null));
+        assertEquals(tree.getSnapshots().lastSequence(), tree.getSnapshots().visible());
+    }
+}
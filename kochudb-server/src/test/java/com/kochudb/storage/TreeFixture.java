@@ -0,0 +1,118 @@
+package com.kochudb.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import com.kochudb.tasks.MemTableFlusher;
+import com.kochudb.types.KochuDoc;
+
+/**
+ * Trees and SSTables of storage tests, in a temporary directory. A data
+ * directory is used by one tree at a time: opening a tree closes the one opened
+ * before, and close() the last one, so that no flusher, compactor or WAL writer
+ * outlives its test and touches the levels of the next.
+ */
+class TreeFixture implements AutoCloseable {
+
+    private final Path dir;
+    private final List<LSMTree> trees = new ArrayList<LSMTree>();
+
+    TreeFixture(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * configuration of a tree in the temporary directory
+     *
+     * @return Properties
+     */
+    Properties props() {
+        Properties props = new Properties();
+        props.setProperty("data.dir", dir.toString());
+        props.setProperty("wal.dir", dir.resolve("WAL").toString());
+        return props;
+    }
+
+    LSMTree open() {
+        return open(props());
+    }
+
+    LSMTree open(Properties props) {
+        close();
+        LSMTree tree = new LSMTree(props);
+        trees.add(tree);
+        return tree;
+    }
+
+    @Override
+    public void close() {
+        for (LSMTree tree : trees)
+            tree.close();
+        trees.clear();
+    }
+
+    static String key(int i) {
+        return String.format("key%05d", i);
+    }
+
+    /**
+     * SSTable holding value + i for the keys from, inclusive, to to, exclusive,
+     * which is not part of the tree
+     */
+    static SSTable write(int level, int from, int to, String value) throws IOException {
+        SkipList skipList = new SkipList();
+        for (int i = from; i < to; i++)
+            skipList.put(new KochuDoc(key(i).getBytes(), (value + i).getBytes(), System.currentTimeMillis()));
+
+        SSTable sSTable = new SSTable(level);
+        sSTable.persist(skipList);
+        return sSTable;
+    }
+
+    /**
+     * SSTable like write() makes, added to level 0 as a flush would
+     */
+    static SSTable flush(int from, int to, String value) throws IOException {
+        SSTable sSTable = write(0, from, to, value);
+        LSMTree.levels.get(0).insert(sSTable);
+        return sSTable;
+    }
+
+    /**
+     * SSTable in the format written before block based SSTables, one record and
+     * one index entry per key, copied from the checked in fixture
+     * legacy/name.idx and .kdb into dir
+     */
+    static SSTable legacy(Path dir, String name) throws IOException {
+        for (String ext : new String[] { ".idx", ".kdb" }) {
+            try (InputStream in = TreeFixture.class.getResourceAsStream("/legacy/" + name + ext)) {
+                Files.copy(in, dir.resolve(name + ext));
+            }
+        }
+        return new SSTable(0, dir.resolve(name + ".idx").toString());
+    }
+
+    static String search(int level, int i) {
+        KochuDoc doc = LSMTree.levels.get(level).search(new KochuDoc(key(i).getBytes(), null, 0L));
+        return doc == null ? null : new String(doc.getValue().bytes());
+    }
+
+    static void set(LSMTree tree, String key, String value) {
+        tree.set(new KochuDoc(key.getBytes(), value.getBytes(), System.currentTimeMillis()));
+    }
+
+    /**
+     * flush the active memTable of a tree to level 0 right away
+     */
+    static void flush(LSMTree tree) {
+        tree.memTableQueue.add(tree.memTable);
+        tree.memTable = tree.newMemTable();
+        new MemTableFlusher(tree.memTableQueue, tree.getSnapshots()::live, memTable -> {
+        }).run();
+    }
+}
@@ -0,0 +1,139 @@
+package com.kochudb.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.kochudb.types.KochuDoc;
+import com.kochudb.types.WriteBatch;
+
+class WalRecoveryTest {
+
+    @TempDir
+    Path dir;
+
+    private static KochuDoc doc(int i) {
+        return new KochuDoc(String.format("key%05d", i).getBytes(), ("value" + i).getBytes(), i);
+    }
+
+    @Test
+    void testReplayInLogOrder() throws Exception {
+        WriteAheadLog wal = new WriteAheadLog(dir.toString(), WriteAheadLog.Sync.NEVER, 0L);
+        for (int i = 0; i < 1000; i++) {
+            wal.appendAsync(doc(i).serialize());
+            if (i % 37 == 36)
+                wal.rotate();
+        }
+        wal.close();
+
+        List<File> segments = List.of(wal.segments());
+        List<KochuDoc> replayed = new ArrayList<KochuDoc>();
+        WalRecovery.Stats stats = new WalRecovery(segments, 4).replay(replayed::add);
+
+        assertEquals(segments.size(), stats.segments());
+        assertEquals(1000, stats.records());
+        assertEquals(0, stats.tornSegments());
+        for (int i = 0; i < 1000; i++) {
+            assertArrayEquals(doc(i).getKey().bytes(), replayed.get(i).getKey().bytes());
+            assertArrayEquals(doc(i).getValue().bytes(), replayed.get(i).getValue().bytes());
+        }
+    }
+
+    @Test
+    void testReplayBatch() throws Exception {
+        WriteAheadLog wal = new WriteAheadLog(dir.toString(), WriteAheadLog.Sync.GROUP, 0L);
+        wal.append(doc(0).serialize());
+        wal.append(new WriteBatch().put(doc(1)).put(doc(2)).delete(doc(0).getKey().bytes()).serialize());
+        wal.append(doc(3).serialize());
+        wal.append(new WriteBatch().put(doc(4)).put(doc(5)).serialize());
+        wal.close();
+
+        List<KochuDoc> replayed = new ArrayList<KochuDoc>();
+        new WalRecovery(List.of(wal.getFile()), 1).replay(replayed::add);
+        assertEquals(7, replayed.size());
+        assertArrayEquals(doc(2).getValue().bytes(), replayed.get(2).getValue().bytes());
+        assertTrue(replayed.get(3).isTombstone());
+        assertArrayEquals(doc(5).getKey().bytes(), replayed.get(6).getKey().bytes());
+
+        // a torn batch is lost as a whole
+        try (RandomAccessFile raf = new RandomAccessFile(wal.getFile(), "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        replayed.clear();
+        new WalRecovery(List.of(wal.getFile()), 1).replay(replayed::add);
+        assertEquals(5, replayed.size());
+    }
+
+    @Test
+    void testTornTail() throws Exception {
+        WriteAheadLog wal = new WriteAheadLog(dir.toString(), WriteAheadLog.Sync.GROUP, 0L);
+        for (int i = 0; i < 10; i++)
+            wal.append(doc(i).serialize());
+        wal.close();
+
+        File segment = wal.getFile();
+        long complete = segment.length();
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.setLength(complete - 3);
+        }
+
+        WalRecovery.Segment read = WalRecovery.read(segment);
+        assertEquals(9, read.records().size());
+        assertTrue(read.torn());
+
+        List<KochuDoc> replayed = new ArrayList<KochuDoc>();
+        WalRecovery.Stats stats = new WalRecovery(List.of(segment), 2).replay(replayed::add);
+        assertEquals(9, replayed.size());
+        assertEquals(1, stats.tornSegments());
+    }
+
+    @Test
+    void testChecksumMismatch() throws Exception {
+        WriteAheadLog wal = new WriteAheadLog(dir.toString(), WriteAheadLog.Sync.GROUP, 0L);
+        for (int i = 0; i < 10; i++)
+            wal.append(doc(i).serialize());
+        wal.close();
+
+        // flip a byte inside the payload of the 6th record
+        byte[] bytes = Files.readAllBytes(wal.getFile().toPath());
+        int recordSize = WriteAheadLog.RECORD_HEADER_SIZE + doc(0).serialize().length;
+        bytes[WriteAheadLog.HEADER_SIZE + 5 * recordSize + WriteAheadLog.RECORD_HEADER_SIZE + 3] ^= 1;
+
+        WalRecovery.Segment read = WalRecovery.read(ByteBuffer.wrap(bytes));
+        assertEquals(5, read.records().size());
+        assertEquals(WriteAheadLog.HEADER_SIZE + 5 * recordSize, read.bytes());
+        assertTrue(read.torn());
+    }
+
+    @Test
+    void testLegacySegment() throws Exception {
+        // [len, record] with no header and no checksums
+        ByteBuffer buf = ByteBuffer.allocate(1024);
+        for (int i = 0; i < 3; i++) {
+            byte[] record = doc(i).serialize();
+            buf.putInt(record.length).put(record);
+        }
+        buf.flip();
+
+        File segment = dir.resolve("binlog_1700000000_123").toFile();
+        Files.write(segment.toPath(), Arrays.copyOf(buf.array(), buf.limit()));
+
+        WalRecovery.Segment read = WalRecovery.read(segment);
+        assertEquals(3, read.records().size());
+        assertFalse(read.torn());
+        assertArrayEquals(doc(2).getKey().bytes(), KochuDoc.deserialize(read.records().get(2)).getKey().bytes());
+    }
+}
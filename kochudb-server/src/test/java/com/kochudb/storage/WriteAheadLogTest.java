@@ -0,0 +1,156 @@
+package com.kochudb.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WriteAheadLogTest {
+
+    @TempDir
+    Path dir;
+
+    private static List<String> readRecords(File file) throws IOException {
+        WalRecovery.Segment segment = WalRecovery.read(file);
+        assertFalse(segment.torn());
+
+        List<String> records = new ArrayList<String>();
+        for (byte[] record : segment.records())
+            records.add(new String(record));
+        return records;
+    }
+
+    @Test
+    void testConcurrentAppends() throws Exception {
+        for (WriteAheadLog.Sync sync : WriteAheadLog.Sync.values()) {
+            Path walDir = dir.resolve(sync.name());
+            WriteAheadLog wal = new WriteAheadLog(walDir.toString(), sync, 5L);
+
+            int numThreads = 8, perThread = 200;
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int t = 0; t < numThreads; t++) {
+                int id = t;
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        try {
+                            wal.append(("t" + id + "-" + i).getBytes());
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            for (Thread thread : threads)
+                thread.join();
+            wal.close();
+
+            List<String> records = readRecords(wal.getFile());
+            assertEquals(numThreads * perThread, records.size(), sync.name());
+            assertEquals(numThreads * perThread, new HashSet<String>(records).size(), sync.name());
+
+            // records of one thread keep their order
+            int last = -1;
+            for (String record : records) {
+                if (record.startsWith("t3-")) {
+                    int i = Integer.parseInt(record.substring(3));
+                    assertTrue(i > last);
+                    last = i;
+                }
+            }
+        }
+    }
+
+    @Test
+    void testReopenStartsNewSegment() throws Exception {
+        WriteAheadLog wal = new WriteAheadLog(dir.toString(), WriteAheadLog.Sync.GROUP, 0L);
+        wal.append("one".getBytes());
+        wal.close();
+
+        WriteAheadLog reopened = new WriteAheadLog(dir.toString(), WriteAheadLog.Sync.GROUP, 0L);
+        reopened.append("two".getBytes());
+        reopened.close();
+
+        assertEquals(List.of(wal.getFile()), reopened.recoveredSegments());
+        assertEquals(wal.currentSegment() + 1, reopened.currentSegment());
+        assertEquals(List.of("one"), readRecords(wal.getFile()));
+        assertEquals(List.of("two"), readRecords(reopened.getFile()));
+    }
+
+    @Test
+    void testRotateAndTruncate() throws Exception {
+        WriteAheadLog wal = new WriteAheadLog(dir.toString(), WriteAheadLog.Sync.GROUP, 0L);
+        File first = wal.getFile();
+        wal.append("a".getBytes());
+        wal.appendAsync("b".getBytes());
+
+        long sealed = wal.rotate();
+        File second = wal.getFile();
+        wal.append("c".getBytes());
+
+        assertEquals(WriteAheadLog.segmentId(first), sealed);
+        assertEquals(List.of("a", "b"), readRecords(first));
+        assertEquals(List.of("c"), readRecords(second));
+
+        // the segment being appended to is kept
+        wal.truncate(wal.currentSegment());
+        assertFalse(first.exists());
+        assertTrue(second.exists());
+
+        wal.rotate();
+        wal.append("d".getBytes());
+        wal.truncate(WriteAheadLog.segmentId(second));
+        assertEquals(List.of(wal.getFile()), List.of(wal.segments()));
+        assertEquals(List.of("d"), readRecords(wal.getFile()));
+        wal.close();
+    }
+
+    @Test
+    void testLegacySegmentsFirst() throws Exception {
+        File legacy = dir.resolve("binlog_1700000000_123").toFile();
+        Files.write(legacy.toPath(), new byte[0]);
+        File numbered = dir.resolve("binlog_00000000000000000007").toFile();
+        Files.write(numbered.toPath(), new byte[0]);
+
+        WriteAheadLog wal = new WriteAheadLog(dir.toString(), WriteAheadLog.Sync.NEVER, 0L);
+        assertEquals(List.of(legacy, numbered), wal.recoveredSegments());
+        assertEquals(8L, wal.currentSegment());
+
+        wal.truncate(wal.currentSegment() - 1);
+        assertEquals(List.of(wal.getFile()), List.of(wal.segments()));
+        wal.close();
+    }
+
+    @Test
+    void testAppendAfterClose() throws Exception {
+        WriteAheadLog wal = new WriteAheadLog(dir.toString(), WriteAheadLog.Sync.NEVER, 0L);
+        wal.appendAsync("queued".getBytes());
+        wal.close();
+
+        assertThrows(IOException.class, () -> wal.append("late".getBytes()));
+        assertEquals(List.of("queued"), readRecords(wal.getFile()));
+    }
+
+    @Test
+    void testParseSync() {
+        Set<WriteAheadLog.Sync> parsed = new HashSet<WriteAheadLog.Sync>();
+        for (String name : new String[] { "always", "group", "Interval", " never " })
+            parsed.add(WriteAheadLog.parseSync(name));
+
+        assertEquals(4, parsed.size());
+        assertThrows(IllegalArgumentException.class, () -> WriteAheadLog.parseSync("sometimes"));
+        assertFalse(parsed.contains(null));
+    }
+}
@@ -0,0 +1,95 @@
+package com.kochudb.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.kochudb.shared.Response;
+import com.kochudb.types.KochuDoc;
+
+class WriteControllerTest {
+
+    @TempDir
+    Path dir;
+
+    private TreeFixture trees;
+
+    @BeforeEach
+    void setUp() {
+        trees = new TreeFixture(dir);
+    }
+
+    @AfterEach
+    void tearDown() {
+        trees.close();
+    }
+
+    @Test
+    void testStates() {
+        AtomicInteger memTables = new AtomicInteger(), l0Files = new AtomicInteger();
+        WriteController controller = new WriteController(2, 4, 10, 20, 100L, memTables::get, l0Files::get);
+
+        assertEquals(WriteController.State.NORMAL, controller.state());
+        assertTrue(controller.admit());
+        assertEquals(0L, controller.delayedMillis());
+
+        memTables.set(3);
+        assertEquals(WriteController.State.SLOWDOWN, controller.state());
+        assertTrue(controller.admit());
+        assertTrue(controller.delayedMillis() >= 1L);
+
+        memTables.set(0);
+        l0Files.set(20);
+        assertEquals(WriteController.State.STOP, controller.state());
+    }
+
+    @Test
+    void testStallTimesOut() {
+        WriteController controller = new WriteController(1, 2, 10, 20, 50L, () -> 5, () -> 0);
+
+        long start = System.nanoTime();
+        assertFalse(controller.admit());
+        assertTrue(System.nanoTime() - start >= 50_000_000L);
+        assertEquals(1L, controller.rejectedCount());
+        assertTrue(controller.stalledMillis() >= 50L);
+    }
+
+    @Test
+    void testStallEndsWhenBacklogShrinks() throws Exception {
+        AtomicInteger memTables = new AtomicInteger(2);
+        WriteController controller = new WriteController(1, 2, 10, 20, 10_000L, memTables::get, () -> 0);
+
+        CompletableFuture<Boolean> admitted = CompletableFuture.supplyAsync(controller::admit);
+        Thread.sleep(50);
+        assertFalse(admitted.isDone());
+
+        memTables.set(0);
+        controller.signal();
+        assertTrue(admitted.get());
+        assertEquals(0L, controller.rejectedCount());
+    }
+
+    @Test
+    void testStalledWriteIsRetryable() {
+        Properties props = trees.props();
+        props.setProperty("write.slowdown.l0.files", "0");
+        props.setProperty("write.stop.l0.files", "0");
+        props.setProperty("write.stall.timeout.ms", "10");
+        LSMTree tree = trees.open(props);
+
+        KochuDoc doc = tree.set(new KochuDoc("key".getBytes(), "value".getBytes(), 0L));
+        Response response = new Response(new byte[0], doc.getValue().bytes(), new byte[Long.BYTES]);
+        assertTrue(response.isRetryable());
+        assertEquals(1L, tree.getWriteController().rejectedCount());
+    }
+}
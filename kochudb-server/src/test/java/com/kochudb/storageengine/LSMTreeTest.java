@@ -2,13 +2,14 @@ package com.kochudb.storageengine;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
-import java.io.File;
 import java.io.UnsupportedEncodingException;
+import java.nio.file.Path;
 import java.util.Properties;
 
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import com.kochudb.storage.LSMTree;
 import com.kochudb.types.ByteArray;
@@ -16,18 +17,22 @@ import com.kochudb.types.KochuDoc;
 
 class LSMTreeTest {
 
+    @TempDir
+    static Path dir;
+
     static LSMTree lsmt;
     static Properties props = new Properties();
 
     @BeforeAll
     static void testLSMTree() {
-        props.put("data.dir", "data-test");
+        props.put("data.dir", dir.toString());
+        props.put("wal.dir", dir.resolve("WAL").toString());
         LSMTreeTest.lsmt = new LSMTree(props);
     }
 
     @AfterAll
     static void tearDownLSMTree() {
-        new File((String) props.get("data.dir")).delete();
+        lsmt.close();
     }
 
     @Test
@@ -0,0 +1,57 @@
+package com.kochudb.types;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+class KochuDocTest {
+
+    @Test
+    void testSerializeDeserialize() {
+        KochuDoc doc = new KochuDoc("key".getBytes(), "value".getBytes(), 1234L);
+        KochuDoc result = KochuDoc.deserialize(doc.serialize());
+
+        assertArrayEquals("key".getBytes(), result.getKey().bytes());
+        assertArrayEquals("value".getBytes(), result.getValue().bytes());
+        assertEquals(1234L, result.getLastModified());
+    }
+
+    @Test
+    void testTombstoneAndEmptyValue() {
+        KochuDoc empty = KochuDoc.deserialize(new KochuDoc("key".getBytes(), new byte[0], 1L).serialize());
+        assertFalse(empty.isTombstone());
+        assertEquals(0, empty.getValue().length());
+
+        KochuDoc deleted = KochuDoc.tombstone("key".getBytes(), 1L);
+        deleted.setSequence(7L);
+        KochuDoc result = KochuDoc.deserialize(deleted.serialize());
+        assertTrue(result.isTombstone());
+        assertEquals(7L, result.getSequence());
+
+        // records written before the type byte marked deletes with an empty value
+        byte[] bytes = new KochuDoc("key".getBytes(), new byte[0], 1L).serialize();
+        assertTrue(KochuDoc.deserialize(Arrays.copyOf(bytes, bytes.length - 1)).isTombstone());
+    }
+
+    @Test
+    void testDeserializeDeflatedRecord() throws IOException {
+        // records written before compression moved to SSTable blocks
+        KochuDoc doc = new KochuDoc("key".getBytes(), "value".getBytes(), System.currentTimeMillis());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DeflaterOutputStream zip = new DeflaterOutputStream(out)) {
+            zip.write(doc.serialize());
+        }
+
+        KochuDoc result = KochuDoc.deserialize(out.toByteArray());
+        assertArrayEquals("value".getBytes(), result.getValue().bytes());
+        assertEquals(doc.getLastModified(), result.getLastModified());
+    }
+}
@@ -7,13 +7,16 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.RandomAccessFile;
-import java.util.Map;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Properties;
 
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import com.kochudb.storage.LSMTree;
 import com.kochudb.storage.SSTable;
@@ -23,59 +26,38 @@ class SegmentTest {
 
 	private static SSTable seg;
 
-	static File dataDir;
+	@TempDir
+	static Path dataDir;
 
 	static LSMTree lsmt;
 	static Properties props = new Properties();
 
 	@BeforeAll
 	static void setup() throws FileNotFoundException, IOException {
-		props.put("data.dir", System.getProperty("java.io.tmpdir"));
-
-		File dataDir = new File(props.getProperty("data.dir"));
-		dataDir.mkdirs();
-		dataDir.deleteOnExit();
+		props.put("data.dir", dataDir.toString());
+		props.put("wal.dir", dataDir.resolve("WAL").toString());
 
 		lsmt = new LSMTree(props);
 
-		seg = new SSTable(0, "testfile.idx");
-	}
-
-	@Test
-	void testWriteIndexFile() throws Exception {
-		// Setup
-		final Map<ByteArray, Long> keyToOffset = Map.ofEntries(Map.entry(new ByteArray("t"), 10L));
-
-		// Segment seg = new Segment(0);
-		// Run the test
-		seg.saveIndex(keyToOffset);
-
-		// Verify the results
+		// an index file of the format before block based SSTables, one entry per key
+		for (String ext : new String[] { ".idx", ".kdb" }) {
+			try (InputStream in = SegmentTest.class.getResourceAsStream("/legacy/alphabet" + ext)) {
+				Files.copy(in, dataDir.resolve("testfile" + ext));
+			}
+		}
+		seg = new SSTable(0, dataDir.resolve("testfile.idx").toString());
 	}
 
 	@Test
-	static void testReadIndexFile() {
+	void testReadIndexFile() {
 		// Setup
 		// Run the test
 		final SkipList result = seg.parseIndex();
 
-		assertTrue(result.containsKey(new KochuDoc("t".getBytes(), null, 0L)));
-		assertEquals(0L, result.get(new KochuDoc("t".getBytes(), null, 0L)));
-	}
-
-	@Test
-	static void testAppendData() throws Exception {
-		// Setup
-		final RandomAccessFile dataFile = new RandomAccessFile(seg.getDataFile(), "r");
-
-		// Run the test
-		// final long result = FileIO.appendData(dataFile, "t".getBytes(), Record.KEY);
-
-		assertThrows(IOException.class, () -> seg.appendData(dataFile, "t".getBytes()));
 		// Verify the results
-		// assertEquals(0L, result);
-
-		seg.openDataFileForWrite().close();
+		assertEquals(4, result.length());
+		assertTrue(result.containsKey(new KochuDoc("alpha".getBytes(), null, 0L)));
+		assertTrue(result.containsKey(new KochuDoc("delta".getBytes(), null, 0L)));
 	}
 
 	@Test
@@ -89,6 +71,8 @@ class SegmentTest {
 
 	@AfterAll
 	static void teardown() {
+		lsmt.close();
+
 		File f = new File(seg.getIndexFile());
 		f.delete();
 
@@ -4,8 +4,14 @@ import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -87,6 +93,48 @@ class SkipListTest {
 		assertFalse(neg);
 	}
 
+	@Test
+	void testDelKeepsTombstone() {
+		skipListUnderTest.put(new KochuDoc("k".getBytes(), "v".getBytes(), 0L));
+		assertTrue(skipListUnderTest.del(new KochuDoc("k".getBytes(), null, 1L)));
+		assertFalse(skipListUnderTest.del(new KochuDoc("k".getBytes(), null, 2L)));
+
+		// found and iterated like any other record, so that it is flushed
+		assertTrue(skipListUnderTest.search(new KochuDoc("k".getBytes(), null, 0L)).isTombstone());
+		Iterator<KochuDoc> records = skipListUnderTest.records();
+		assertTrue(records.next().isTombstone());
+		assertFalse(records.hasNext());
+		assertEquals(1, skipListUnderTest.length());
+	}
+
+	@Test
+	void testConcurrentPuts() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> writers = new ArrayList<Future<?>>();
+			for (int t = 0; t < 4; t++) {
+				int writer = t;
+				writers.add(pool.submit(() -> {
+					for (int i = writer; i < 4000; i += 4)
+						skipListUnderTest.put(new KochuDoc(String.format("k%05d", i).getBytes(), "v".getBytes(), 0L));
+				}));
+			}
+			for (Future<?> writer : writers)
+				writer.get();
+		} finally {
+			pool.shutdown();
+		}
+
+		// no node lost, and all of them in key order
+		assertEquals(4000, skipListUnderTest.length());
+		Iterator<KochuDoc> records = skipListUnderTest.records();
+		for (int i = 0; i < 4000; i++)
+			assertArrayEquals(String.format("k%05d", i).getBytes(), records.next().getKey().bytes());
+		assertFalse(records.hasNext());
+		for (int i = 0; i < 4000; i += 97)
+			assertNotNull(skipListUnderTest.search(new KochuDoc(String.format("k%05d", i).getBytes(), null, 0L)));
+	}
+
 	@Test
 	void testIterator() {
 		// Setup
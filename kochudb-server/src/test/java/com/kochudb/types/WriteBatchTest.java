@@ -0,0 +1,41 @@
+package com.kochudb.types;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class WriteBatchTest {
+
+    @Test
+    void testSerializeDeserialize() {
+        WriteBatch batch = new WriteBatch().put(new KochuDoc("a".getBytes(), "1".getBytes(), 10L))
+                .delete("b".getBytes()).put(new KochuDoc("a".getBytes(), "2".getBytes(), 11L));
+        for (int i = 0; i < batch.count(); i++)
+            batch.docs().get(i).setSequence(7L + i);
+        assertEquals(3, batch.count());
+
+        byte[] record = batch.serialize();
+        assertTrue(WriteBatch.isBatch(record));
+
+        List<KochuDoc> docs = WriteBatch.deserialize(record).docs();
+        assertEquals(3, docs.size());
+        assertArrayEquals("1".getBytes(), docs.get(0).getValue().bytes());
+        assertEquals(10L, docs.get(0).getLastModified());
+        assertTrue(docs.get(1).isTombstone());
+        assertArrayEquals("b".getBytes(), docs.get(1).getKey().bytes());
+        assertArrayEquals("2".getBytes(), docs.get(2).getValue().bytes());
+        assertEquals(9L, docs.get(2).getSequence());
+    }
+
+    @Test
+    void testSingleRecordIsNotABatch() {
+        assertFalse(WriteBatch.isBatch(new KochuDoc("a".getBytes(), "1".getBytes(), System.currentTimeMillis())
+                .serialize()));
+        assertFalse(WriteBatch.isBatch(new byte[0]));
+    }
+}